@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.util.Locale;
+
+/**
+ * One application/sdlc/component combination the agent may serve. Each part is matched without regard to
+ * case and may be "*" to match anything; a component of "*" also matches credentials without a component.
+ */
+public final class AccessScope {
+
+    static final String WILDCARD = "*";
+
+    private final String application;
+    private final String sdlc;
+    private final String component;
+
+    public AccessScope(String application, String sdlc, String component) {
+        if (isBlank(application) || isBlank(sdlc)) {
+            throw new IllegalArgumentException("application and sdlc are required");
+        }
+        this.application = application.trim();
+        this.sdlc = sdlc.trim();
+        this.component = isBlank(component) ? null : component.trim();
+    }
+
+    /**
+     * @param scope  Scope in the form "application:sdlc[:component]", e.g. "APP:dev:*"
+     */
+    public static AccessScope parse(String scope) {
+        String[] parts = scope.trim().split(":", -1);
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("Invalid access scope " + scope + ", expected application:sdlc[:component]");
+        }
+        return new AccessScope(parts[0], parts[1], parts.length == 3 ? parts[2] : null);
+    }
+
+    /**
+     * @param application              FID_CONTEXT_APPLICATION of the requested credential
+     * @param sdlc                     FID_CONTEXT_SDLC of the requested credential
+     * @param component     Nullable   Component of the requested credential
+     * @return Whether this scope covers the credential
+     */
+    public boolean permits(String application, String sdlc, String component) {
+        return matches(this.application, application)
+                && matches(this.sdlc, sdlc)
+                && (WILDCARD.equals(this.component) || (this.component == null ? isBlank(component) : matches(this.component, component)));
+    }
+
+    private static boolean matches(String pattern, String value) {
+        return WILDCARD.equals(pattern) || (value != null && pattern.toLowerCase(Locale.ROOT).equals(value.trim().toLowerCase(Locale.ROOT)));
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return application + ":" + sdlc + (component == null ? "" : ":" + component);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Settings for {@link FideliusAgent}. Can be built in code or read from a properties file with
+ * {@link #fromProperties(Properties)}.
+ */
+public class AgentConfig {
+
+    public static final int DEFAULT_PORT = 8250;
+
+    private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+    private int port = DEFAULT_PORT;
+    private int threads = 4;
+    private String region;
+    private String table;
+    private CredentialCacheConfig cacheConfig = new CredentialCacheConfig();
+    private List<AccessScope> allowedScopes = new ArrayList<>();
+
+    /**
+     * Reads the agent settings from properties:
+     * <ul>
+     *     <li>fidelius.agent.port - listening port, 0 picks a free one</li>
+     *     <li>fidelius.agent.threads - number of request handling threads</li>
+     *     <li>fidelius.agent.region - AWS region of the credential table</li>
+     *     <li>fidelius.agent.table - default credential table</li>
+     *     <li>fidelius.agent.cache.ttl, fidelius.agent.cache.refreshAhead - ISO-8601 durations such as PT5M</li>
+     *     <li>fidelius.agent.cache.maximumSize - maximum number of cached credentials</li>
+     *     <li>fidelius.agent.allow - comma separated application:sdlc[:component] scopes the agent may serve</li>
+     * </ul>
+     */
+    public static AgentConfig fromProperties(Properties properties) {
+        AgentConfig config = new AgentConfig();
+        String value;
+        if ((value = properties.getProperty("fidelius.agent.port")) != null) {
+            config.setPort(parseInt("fidelius.agent.port", value));
+        }
+        if ((value = properties.getProperty("fidelius.agent.threads")) != null) {
+            config.setThreads(parseInt("fidelius.agent.threads", value));
+        }
+        config.setRegion(properties.getProperty("fidelius.agent.region"));
+        config.setTable(properties.getProperty("fidelius.agent.table"));
+        CredentialCacheConfig cacheConfig = new CredentialCacheConfig();
+        if ((value = properties.getProperty("fidelius.agent.cache.ttl")) != null) {
+            cacheConfig.setTimeToLive(parseDuration("fidelius.agent.cache.ttl", value));
+        }
+        if ((value = properties.getProperty("fidelius.agent.cache.refreshAhead")) != null) {
+            cacheConfig.setRefreshAhead(parseDuration("fidelius.agent.cache.refreshAhead", value));
+        }
+        if ((value = properties.getProperty("fidelius.agent.cache.maximumSize")) != null) {
+            cacheConfig.setMaximumSize(parseInt("fidelius.agent.cache.maximumSize", value));
+        }
+        config.setCacheConfig(cacheConfig);
+        if ((value = properties.getProperty("fidelius.agent.allow")) != null) {
+            for (String scope : value.split(",")) {
+                if (!scope.trim().isEmpty()) {
+                    config.allow(AccessScope.parse(scope));
+                }
+            }
+        }
+        return config;
+    }
+
+    public InetAddress getBindAddress() {
+        return bindAddress;
+    }
+
+    /**
+     * @param bindAddress Address to listen on; must be a loopback address since responses carry plaintext secrets
+     */
+    public AgentConfig setBindAddress(InetAddress bindAddress) {
+        if (bindAddress == null || !bindAddress.isLoopbackAddress()) {
+            throw new IllegalArgumentException("bindAddress must be a loopback address");
+        }
+        this.bindAddress = bindAddress;
+        return this;
+    }
+
+    public AgentConfig setBindAddress(String bindAddress) {
+        try {
+            return setBindAddress(InetAddress.getByName(bindAddress));
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Unknown bindAddress " + bindAddress, e);
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @param port Port to listen on; 0 picks a free port
+     */
+    public AgentConfig setPort(int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("port must be between 0 and 65535");
+        }
+        this.port = port;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads Number of threads handling requests
+     */
+    public AgentConfig setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    /**
+     * @param region  Nullable  AWS region of the credential table; defaults to the SDK's region lookup
+     */
+    public AgentConfig setRegion(String region) {
+        this.region = region;
+        return this;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @param table  Nullable  Table used when a request does not name one; defaults to "credential-store"
+     */
+    public AgentConfig setTable(String table) {
+        this.table = table;
+        return this;
+    }
+
+    public CredentialCacheConfig getCacheConfig() {
+        return cacheConfig;
+    }
+
+    /**
+     * @param cacheConfig TTL, refresh-ahead window and size of the agent's credential cache
+     */
+    public AgentConfig setCacheConfig(CredentialCacheConfig cacheConfig) {
+        if (cacheConfig == null) {
+            throw new IllegalArgumentException("cacheConfig is required");
+        }
+        this.cacheConfig = cacheConfig;
+        return this;
+    }
+
+    public List<AccessScope> getAllowedScopes() {
+        return Collections.unmodifiableList(allowedScopes);
+    }
+
+    /**
+     * Adds a scope the agent may serve. An agent without scopes refuses every credential request.
+     */
+    public AgentConfig allow(AccessScope scope) {
+        if (scope == null) {
+            throw new IllegalArgumentException("scope is required");
+        }
+        allowedScopes.add(scope);
+        return this;
+    }
+
+    boolean permits(String application, String sdlc, String component) {
+        for (AccessScope scope : allowedScopes) {
+            if (scope.permits(application, sdlc, component)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int parseInt(String key, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a number: " + value, e);
+        }
+    }
+
+    private static Duration parseDuration(String key, String value) {
+        try {
+            return Duration.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(key + " must be an ISO-8601 duration such as PT5M: " + value, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AgentConfig{" +
+                "bindAddress=" + bindAddress +
+                ", port=" + port +
+                ", threads=" + threads +
+                ", region=" + region +
+                ", table=" + table +
+                ", cacheConfig=" + cacheConfig +
+                ", allowedScopes=" + allowedScopes +
+                '}';
+    }
+}
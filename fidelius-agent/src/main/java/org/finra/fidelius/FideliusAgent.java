@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running per-host process that owns a single {@link FideliusClient} and serves decrypted credentials to
+ * local processes over HTTP on a loopback address, so a host needs one set of AWS clients, one credential cache
+ * and one KMS decrypt per secret instead of one per JVM.
+ *
+ * <pre>
+ * GET /v1/credentials/{name}?application=APP&amp;sdlc=dev[&amp;component=comp]
+ * Fidelius-Agent-Request: true
+ * </pre>
+ *
+ * returns the plaintext as text/plain, 404 if the credential does not exist and 403 if no configured
+ * {@link AccessScope} covers the request. The table always comes from the agent's configuration, and the name and
+ * context parts may not contain the '.' that joins them into the stored name, so a request cannot reach a
+ * credential outside its scopes by shifting parts across the separator. The request header must be present so that a web page open on the
+ * host cannot make a browser read secrets from the agent. GET /health answers 200 once the agent is listening.
+ */
+public class FideliusAgent implements AutoCloseable {
+
+    static final String CREDENTIALS_PATH = "/v1/credentials/";
+    static final String HEALTH_PATH = "/health";
+    static final String REQUEST_HEADER = "Fidelius-Agent-Request";
+
+    private static final Logger logger = LoggerFactory.getLogger(FideliusAgent.class);
+
+    private final AgentConfig config;
+    private final FideliusClient fideliusClient;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param config          Listening address, cache and access settings
+     * @param fideliusClient  Client used to read credentials; its credential cache is enabled with the agent's cache settings
+     */
+    public FideliusAgent(AgentConfig config, FideliusClient fideliusClient) {
+        this.config = config;
+        this.fideliusClient = fideliusClient;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = new Properties();
+        if (args.length > 0) {
+            try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+                properties.load(in);
+            }
+        }
+        properties.putAll(System.getProperties());
+        AgentConfig config = AgentConfig.fromProperties(properties);
+        FideliusClient client = new FideliusClient(new FideliusClientConfig().setRegion(config.getRegion()));
+
+        FideliusAgent agent = new FideliusAgent(config, client);
+        Runtime.getRuntime().addShutdownHook(new Thread(agent::close, "fidelius-agent-shutdown"));
+        agent.start();
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Agent is already running");
+        }
+        if (config.getAllowedScopes().isEmpty()) {
+            logger.warn("No access scopes configured, every credential request will be refused");
+        }
+        fideliusClient.enableCredentialCache(config.getCacheConfig());
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(config.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "fidelius-agent-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(config.getBindAddress(), config.getPort()), 0);
+        server.createContext(CREDENTIALS_PATH, this::handleCredential);
+        server.createContext(HEALTH_PATH, exchange -> respond(exchange, 200, "OK"));
+        server.setExecutor(executor);
+        server.start();
+        logger.info("Fidelius agent listening on " + server.getAddress() + " with " + config);
+    }
+
+    /**
+     * @return Port the agent is listening on, useful when started with port 0
+     */
+    public synchronized int getPort() {
+        if (server == null) {
+            throw new IllegalStateException("Agent is not running");
+        }
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops listening and wipes the cached credentials.
+     */
+    @Override
+    public synchronized void close() {
+        if (server == null) {
+            return;
+        }
+        server.stop(1);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        fideliusClient.disableCredentialCache();
+        server = null;
+        executor = null;
+        logger.info("Fidelius agent stopped");
+    }
+
+    void handleCredential(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                respond(exchange, 405, "Only GET is supported");
+                return;
+            }
+            if (!"true".equalsIgnoreCase(exchange.getRequestHeaders().getFirst(REQUEST_HEADER))) {
+                respond(exchange, 403, REQUEST_HEADER + " header is required");
+                return;
+            }
+            String name = decode(exchange.getRequestURI().getRawPath().substring(CREDENTIALS_PATH.length()));
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String application = query.get("application");
+            String sdlc = query.get("sdlc");
+            String component = query.get("component");
+            if (query.containsKey("table")) {
+                respond(exchange, 400, "The table is set by the agent's configuration");
+                return;
+            }
+            if (name.isEmpty() || name.contains("/") || isBlank(application) || isBlank(sdlc)) {
+                respond(exchange, 400, "Credential name, application and sdlc are required");
+                return;
+            }
+            if (containsSeparator(name, application, sdlc, component)) {
+                respond(exchange, 400, "Credential name, application, sdlc and component must not contain '.'");
+                return;
+            }
+            String table = config.getTable();
+            if (!config.permits(application, sdlc, component)) {
+                logger.warn("Refused credential " + name + " for " + application + ":" + sdlc + ":" + component
+                        + " outside the agent's access scopes");
+                respond(exchange, 403, "Credential is outside the agent's access scopes");
+                return;
+            }
+
+            // only fall back to the application-wide credential when that one is in scope too
+            boolean retryForApplication = config.permits(application, sdlc, null);
+            String credential = fideliusClient.getCredential(name, application, sdlc, component, table, null, retryForApplication);
+            if (credential == null) {
+                respond(exchange, 404, "Credential not found");
+            } else {
+                respond(exchange, 200, credential);
+            }
+        } catch (Exception e) {
+            logger.error("Error serving credential request " + exchange.getRequestURI().getRawPath(), e);
+            respond(exchange, 502, "Error retrieving credential");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                query.put(decode(pair.substring(0, separator)), decode(pair.substring(separator + 1)));
+            }
+        }
+        return query;
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * The parts are joined with '.' into the stored name, so a dot in any of them could select a credential of
+     * another component or sdlc than the one the scopes were checked against.
+     */
+    private static boolean containsSeparator(String... parts) {
+        for (String part : parts) {
+            if (part != null && part.indexOf('.') >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
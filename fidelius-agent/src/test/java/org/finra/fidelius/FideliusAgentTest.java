@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class FideliusAgentTest {
+
+    private FideliusClient fideliusClient;
+    private FideliusAgent agent;
+    private int[] status = new int[1];
+
+    @Before
+    public void setUp() throws Exception {
+        fideliusClient = mock(FideliusClient.class);
+        AgentConfig config = new AgentConfig()
+                .setPort(0)
+                .allow(AccessScope.parse("APP:dev"))
+                .allow(AccessScope.parse("APP:dev:web"));
+        agent = new FideliusAgent(config, fideliusClient);
+        agent.start();
+    }
+
+    @After
+    public void tearDown() {
+        agent.close();
+    }
+
+    private String get(String path, boolean withHeader) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + agent.getPort() + path).openConnection();
+        if (withHeader) {
+            connection.setRequestProperty(FideliusAgent.REQUEST_HEADER, "true");
+        }
+        status[0] = connection.getResponseCode();
+        try (InputStream in = status[0] < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void servesCredentialsInsideAccessScopes() throws Exception {
+        doReturn("password").when(fideliusClient).getCredential("db_password", "app", "dev", "web", null, null, true);
+
+        Assert.assertEquals("password", get("/v1/credentials/db_password?application=app&sdlc=dev&component=web", true));
+        Assert.assertEquals(200, status[0]);
+        verify(fideliusClient).enableCredentialCache(any(CredentialCacheConfig.class));
+
+        Assert.assertEquals("Credential not found", get("/v1/credentials/other?application=APP&sdlc=dev", true));
+        Assert.assertEquals(404, status[0]);
+    }
+
+    @Test
+    public void refusesRequestsOutsideScopesOrWithoutHeader() throws Exception {
+        get("/v1/credentials/db_password?application=APP&sdlc=prod", true);
+        Assert.assertEquals(403, status[0]);
+        get("/v1/credentials/db_password?application=APP&sdlc=dev&component=batch", true);
+        Assert.assertEquals(403, status[0]);
+        get("/v1/credentials/db_password?application=APP&sdlc=dev", false);
+        Assert.assertEquals(403, status[0]);
+        get("/v1/credentials/db_password?application=APP", true);
+        Assert.assertEquals(400, status[0]);
+
+        verify(fideliusClient, never()).getCredential(anyString(), any(), any(), any(), any(), isNull(), anyBoolean());
+    }
+
+    @Test
+    public void refusesSeparatorsAndTableThatCouldEscapeTheScopes() throws Exception {
+        agent.close();
+        agent = new FideliusAgent(new AgentConfig().setPort(0).allow(AccessScope.parse("APP:*")), fideliusClient);
+        agent.start();
+
+        // would read APP.comp.dev.x, a component credential outside APP:*
+        get("/v1/credentials/x?application=APP&sdlc=comp.dev", true);
+        Assert.assertEquals(400, status[0]);
+        get("/v1/credentials/dev.x?application=APP&sdlc=comp", true);
+        Assert.assertEquals(400, status[0]);
+        get("/v1/credentials/x?application=APP&sdlc=dev&table=other-table", true);
+        Assert.assertEquals(400, status[0]);
+
+        verify(fideliusClient, never()).getCredential(anyString(), any(), any(), any(), any(), isNull(), anyBoolean());
+    }
+
+    @Test
+    public void fallsBackToApplicationCredentialOnlyWhenItIsInScope() throws Exception {
+        agent.close();
+        agent = new FideliusAgent(new AgentConfig().setPort(0).allow(AccessScope.parse("APP:dev:web")), fideliusClient);
+        agent.start();
+
+        get("/v1/credentials/db_password?application=APP&sdlc=dev&component=web", true);
+        verify(fideliusClient).getCredential(eq("db_password"), eq("APP"), eq("dev"), eq("web"), isNull(), isNull(), eq(false));
+    }
+
+    @Test
+    public void scopesAndSettingsAreReadFromProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("fidelius.agent.port", "9000");
+        properties.setProperty("fidelius.agent.cache.ttl", "PT10M");
+        properties.setProperty("fidelius.agent.allow", "APP:dev:*, OTHER:qa");
+        AgentConfig config = AgentConfig.fromProperties(properties);
+
+        Assert.assertEquals(9000, config.getPort());
+        Assert.assertEquals(600, config.getCacheConfig().getTimeToLive().getSeconds());
+        Assert.assertTrue(config.permits("app", "DEV", "anything"));
+        Assert.assertTrue(config.permits("APP", "dev", null));
+        Assert.assertTrue(config.permits("other", "qa", ""));
+        Assert.assertFalse(config.permits("OTHER", "qa", "web"));
+
+        try {
+            new AgentConfig().setBindAddress("10.0.0.1");
+            Assert.fail("Expected a non-loopback address to be refused");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("bindAddress must be a loopback address", e.getMessage());
+        }
+    }
+}
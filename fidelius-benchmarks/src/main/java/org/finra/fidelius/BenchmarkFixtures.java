@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * In-memory stand-ins for DynamoDB and KMS so benchmarks measure SDK work rather than the network.
+ */
+final class BenchmarkFixtures {
+
+    static final byte[] DATA_KEY = randomBytes(64, 7);
+    static final byte[] WRAPPED_KEY = randomBytes(184, 11);
+
+    private BenchmarkFixtures() {
+    }
+
+    static String randomSecret(int size) {
+        char[] chars = new char[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    static EncryptedCredential encryptedCredential(String name, int secretSize, Map<String, String> context) {
+        return JCredStash.encryptWithDataKey(new CredStashBouncyCastleCrypto(), name, randomSecret(secretSize),
+                String.format("%019d", 1), "benchmark", DATA_KEY.clone(), WRAPPED_KEY, context);
+    }
+
+    /**
+     * Answers every query with the same item and accepts every put.
+     */
+    static DynamoDbClient dynamoDb(Map<String, AttributeValue> item) {
+        QueryResponse queryResponse = QueryResponse.builder().items(Collections.singletonList(item)).count(1).build();
+        PutItemResponse putItemResponse = PutItemResponse.builder().build();
+        return new DynamoDbClient() {
+            @Override
+            public QueryResponse query(QueryRequest queryRequest) {
+                return queryResponse;
+            }
+
+            @Override
+            public PutItemResponse putItem(PutItemRequest putItemRequest) {
+                return putItemResponse;
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Unwraps and generates the same fixed data key.
+     */
+    static KmsClient kms() {
+        return new KmsClient() {
+            @Override
+            public DecryptResponse decrypt(DecryptRequest decryptRequest) {
+                return DecryptResponse.builder().plaintext(SdkBytes.fromByteArray(DATA_KEY)).build();
+            }
+
+            @Override
+            public GenerateDataKeyResponse generateDataKey(GenerateDataKeyRequest generateDataKeyRequest) {
+                return GenerateDataKeyResponse.builder()
+                        .plaintext(SdkBytes.fromByteArray(DATA_KEY))
+                        .ciphertextBlob(SdkBytes.fromByteArray(WRAPPED_KEY))
+                        .build();
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
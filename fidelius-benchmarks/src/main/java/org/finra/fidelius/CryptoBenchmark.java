@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AES-CTR and HMAC-SHA256 cost per secret for each {@link CredStashCrypto} implementation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CryptoBenchmark {
+
+    @Param({"bouncycastle", "javax", "jce"})
+    public String implementation;
+
+    @Param({"32", "1024", "65536"})
+    public int secretSize;
+
+    private CredStashCrypto crypto;
+    private byte[] key;
+    private byte[] hmacKey;
+    private byte[] plaintext;
+    private byte[] ciphertext;
+    private byte[] hmac;
+
+    @Setup
+    public void setUp() {
+        switch (implementation) {
+            case "bouncycastle":
+                crypto = new CredStashBouncyCastleCrypto();
+                break;
+            case "javax":
+                crypto = new CredStashJavaxCrypto();
+                break;
+            case "jce":
+                crypto = new CredStashJceCrypto();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown implementation " + implementation);
+        }
+        Random random = new Random(42);
+        key = new byte[32];
+        hmacKey = new byte[32];
+        plaintext = new byte[secretSize];
+        random.nextBytes(key);
+        random.nextBytes(hmacKey);
+        random.nextBytes(plaintext);
+        ciphertext = crypto.encrypt(key, plaintext);
+        hmac = crypto.digest(hmacKey, ciphertext);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return crypto.encrypt(key, plaintext);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return crypto.decrypt(key, ciphertext);
+    }
+
+    @Benchmark
+    public byte[] digest() {
+        return crypto.digest(hmacKey, ciphertext);
+    }
+
+    @Benchmark
+    public boolean verifyDigest() {
+        return crypto.verifyDigest(hmacKey, ciphertext, hmac);
+    }
+}
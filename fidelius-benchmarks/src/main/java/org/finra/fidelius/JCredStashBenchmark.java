@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full read and write path through {@link JCredStash} against in-memory DynamoDB and KMS clients,
+ * i.e. the per-secret CPU cost of mapping, key handling, AES and HMAC.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JCredStashBenchmark {
+    private static final String TABLE = "credential-store";
+    private static final String NAME = "APP.component.dev.secret";
+
+    @Param({"32", "1024", "65536"})
+    public int secretSize;
+
+    @Param({"false", "true"})
+    public boolean dataKeyCache;
+
+    private JCredStash jCredStash;
+    private Map<String, String> context;
+    private String contents;
+
+    @Setup
+    public void setUp() {
+        context = new HashMap<>();
+        context.put(Constants.FID_CONTEXT_APPLICATION, "APP");
+        context.put(Constants.FID_CONTEXT_SDLC, "dev");
+        context.put(Constants.FID_CONTEXT_COMPONENT, "component");
+        contents = BenchmarkFixtures.randomSecret(secretSize);
+
+        EncryptedCredential stored = BenchmarkFixtures.encryptedCredential(NAME, secretSize, context);
+        jCredStash = new JCredStash(BenchmarkFixtures.dynamoDb(CredModelMapper.toDynamo(stored)), BenchmarkFixtures.kms(), null);
+        if (dataKeyCache) {
+            jCredStash.setDataKeyCache(new DataKeyCache(Duration.ofMinutes(5), 100, Integer.MAX_VALUE));
+        }
+    }
+
+    @Benchmark
+    public String getSecret() {
+        return jCredStash.getSecret(TABLE, NAME, context, null);
+    }
+
+    @Benchmark
+    public void putSecret() throws Exception {
+        jCredStash.putSecret(TABLE, NAME, contents, String.format("%019d", 2), "benchmark", Constants.DEFAULT_KMS_KEY, context);
+    }
+}
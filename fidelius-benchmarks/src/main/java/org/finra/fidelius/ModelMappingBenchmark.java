@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of converting between DynamoDB items and {@link EncryptedCredential}, including base64/hex decoding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModelMappingBenchmark {
+
+    @Param({"32", "1024", "65536"})
+    public int secretSize;
+
+    private EncryptedCredential credential;
+    private Map<String, AttributeValue> item;
+
+    @Setup
+    public void setUp() {
+        credential = BenchmarkFixtures.encryptedCredential("APP.component.dev.secret", secretSize, Collections.emptyMap());
+        item = CredModelMapper.toDynamo(credential);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> toDynamo() {
+        return CredModelMapper.toDynamo(credential);
+    }
+
+    @Benchmark
+    public EncryptedCredential fromDynamo() {
+        return CredModelMapper.fromDynamo(item);
+    }
+
+    @Benchmark
+    public EncryptedCredential decodeEncodedFields() {
+        return new EncryptedCredential()
+                .setDatakey(credential.getDatakey())
+                .setCredential(credential.getCredential())
+                .setHmac(credential.getHmac());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.time.Duration;
+
+/**
+ * Settings for deleting every version of a credential with BatchWriteItem.
+ */
+public class BulkDeleteConfig {
+
+    /**
+     * Receives progress while the versions of one credential are deleted. Called from the threads sending
+     * the batches, so implementations must be thread-safe and quick.
+     */
+    public interface ProgressListener {
+        /**
+         * @param secretName        Prefixed name of the credential being deleted
+         * @param versionsDeleted   Versions confirmed deleted so far
+         * @param versionsFound     Versions found so far; grows while later pages are read
+         */
+        void onProgress(String secretName, int versionsDeleted, int versionsFound);
+    }
+
+    private int parallelism = 4;
+    private Duration baseBackoff = Duration.ofMillis(50);
+    private Duration maximumBackoff = Duration.ofSeconds(2);
+    private Duration deadline = Duration.ofSeconds(60);
+    private ProgressListener progressListener;
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism Maximum number of BatchWriteItem requests in flight for one delete
+     */
+    public BulkDeleteConfig setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public Duration getBaseBackoff() {
+        return baseBackoff;
+    }
+
+    /**
+     * @param baseBackoff Upper bound of the first retry delay; each retry doubles it before jitter is applied
+     */
+    public BulkDeleteConfig setBaseBackoff(Duration baseBackoff) {
+        if (baseBackoff == null || baseBackoff.isNegative() || baseBackoff.isZero()) {
+            throw new IllegalArgumentException("baseBackoff must be positive");
+        }
+        this.baseBackoff = baseBackoff;
+        return this;
+    }
+
+    public Duration getMaximumBackoff() {
+        return maximumBackoff;
+    }
+
+    /**
+     * @param maximumBackoff Cap on a single retry delay
+     */
+    public BulkDeleteConfig setMaximumBackoff(Duration maximumBackoff) {
+        if (maximumBackoff == null || maximumBackoff.isNegative() || maximumBackoff.isZero()) {
+            throw new IllegalArgumentException("maximumBackoff must be positive");
+        }
+        this.maximumBackoff = maximumBackoff;
+        return this;
+    }
+
+    public Duration getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param deadline Time after which versions still not deleted are reported as failed instead of retried
+     */
+    public BulkDeleteConfig setDeadline(Duration deadline) {
+        if (deadline == null || deadline.isNegative() || deadline.isZero()) {
+            throw new IllegalArgumentException("deadline must be positive");
+        }
+        this.deadline = deadline;
+        return this;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    /**
+     * @param progressListener Nullable  Listener notified after every batch
+     */
+    public BulkDeleteConfig setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkDeleteConfig{" +
+                "parallelism=" + parallelism +
+                ", baseBackoff=" + baseBackoff +
+                ", maximumBackoff=" + maximumBackoff +
+                ", deadline=" + deadline +
+                '}';
+    }
+}
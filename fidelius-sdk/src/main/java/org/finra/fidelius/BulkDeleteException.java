@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when some versions of a credential could not be deleted before the bulk delete deadline.
+ * The versions listed here still exist; deleting the credential again removes them.
+ */
+public class BulkDeleteException extends RuntimeException {
+
+    private final String secretName;
+    private final int versionsDeleted;
+    private final List<String> versionsNotDeleted;
+
+    public BulkDeleteException(String secretName, int versionsDeleted, List<String> versionsNotDeleted, Throwable cause) {
+        super("Error deleting secret " + secretName + " with " + versionsNotDeleted.size() + " versions not deleted", cause);
+        this.secretName = secretName;
+        this.versionsDeleted = versionsDeleted;
+        this.versionsNotDeleted = Collections.unmodifiableList(versionsNotDeleted);
+    }
+
+    public String getSecretName() {
+        return secretName;
+    }
+
+    public int getVersionsDeleted() {
+        return versionsDeleted;
+    }
+
+    public List<String> getVersionsNotDeleted() {
+        return versionsNotDeleted;
+    }
+}
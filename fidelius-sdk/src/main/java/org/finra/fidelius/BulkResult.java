@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a bulk SDK operation: a value for every name that succeeded and the exception for every name that failed.
+ *
+ * @param <T> Type of the per-name value
+ */
+public class BulkResult<T> {
+
+    private final Map<String, T> results = new LinkedHashMap<>();
+    private final Map<String, Exception> failures = new LinkedHashMap<>();
+
+    public Map<String, T> getResults() {
+        return Collections.unmodifiableMap(results);
+    }
+
+    public Map<String, Exception> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    BulkResult<T> addResult(String name, T value) {
+        results.put(name, value);
+        return this;
+    }
+
+    BulkResult<T> addFailure(String name, Exception failure) {
+        failures.put(name, failure);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResult{" +
+                "results=" + results.keySet() +
+                ", failures=" + failures.keySet() +
+                '}';
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.GetCallerIdentityRequest;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Resolves the caller's IAM identity with STS GetCallerIdentity once and reuses it.
+ *
+ * The ARN is looked up again when the access key returned by the credentials provider changes,
+ * when it is older than the maximum age, or after {@link #refresh()}. Concurrent callers share
+ * a single lookup, and failed lookups are not cached.
+ */
+public class CallerIdentityResolver {
+    static final Duration DEFAULT_MAXIMUM_AGE = Duration.ofHours(1);
+
+    private final StsClient stsClient;
+    private final AwsCredentialsProvider credentialsProvider;
+    private final long maximumAgeNanos;
+    private final LongSupplier clock;
+
+    private volatile String arn;
+    private volatile String accessKeyId;
+    private volatile long resolvedAt;
+    private volatile FideliusMetrics metrics = FideliusMetrics.NOOP;
+
+    /**
+     * @param stsClient             Client used for GetCallerIdentity
+     * @param credentialsProvider   Nullable  Provider whose access key is watched for rotation
+     */
+    public CallerIdentityResolver(StsClient stsClient, AwsCredentialsProvider credentialsProvider) {
+        this(stsClient, credentialsProvider, DEFAULT_MAXIMUM_AGE, System::nanoTime);
+    }
+
+    CallerIdentityResolver(StsClient stsClient, AwsCredentialsProvider credentialsProvider, Duration maximumAge, LongSupplier clock) {
+        this.stsClient = stsClient;
+        this.credentialsProvider = credentialsProvider;
+        this.maximumAgeNanos = maximumAge.toNanos();
+        this.clock = clock;
+    }
+
+    void setMetrics(FideliusMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return ARN of the caller, looked up only if no current value is held
+     */
+    public String getArn() {
+        String currentKey = currentAccessKeyId();
+        String cached = arn;
+        if (cached != null && isCurrent(currentKey)) {
+            return cached;
+        }
+        synchronized (this) {
+            // another thread may have finished the lookup while this one waited
+            if (arn != null && isCurrent(currentKey)) {
+                return arn;
+            }
+            try {
+                String resolved = JCredStash.timed(metrics, FideliusMetrics.Operation.STS_IDENTITY,
+                        () -> stsClient.getCallerIdentity(GetCallerIdentityRequest.builder().build())).arn();
+                accessKeyId = currentKey;
+                resolvedAt = clock.getAsLong();
+                arn = resolved;
+                return resolved;
+            } catch (Exception e) {
+                throw new RuntimeException("Error getting user", e);
+            }
+        }
+    }
+
+    /**
+     * @return User portion of the caller ARN; the role session for assumed roles
+     */
+    public String getUser() {
+        String[] userTokens = getArn().split(":assumed-role/");
+        return userTokens.length > 1 ? userTokens[1] : userTokens[0];
+    }
+
+    /**
+     * Forgets the cached identity so the next call looks it up again.
+     */
+    public void refresh() {
+        arn = null;
+    }
+
+    private boolean isCurrent(String currentKey) {
+        if (clock.getAsLong() - resolvedAt >= maximumAgeNanos) {
+            return false;
+        }
+        return currentKey == null ? accessKeyId == null : currentKey.equals(accessKeyId);
+    }
+
+    private String currentAccessKeyId() {
+        if (credentialsProvider == null) {
+            return null;
+        }
+        try {
+            return credentialsProvider.resolveCredentials().accessKeyId();
+        } catch (RuntimeException e) {
+            // let the STS call surface the credentials problem
+            return null;
+        }
+    }
+}
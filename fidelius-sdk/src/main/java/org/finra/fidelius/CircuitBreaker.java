@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Consecutive-failure circuit breaker for one backend.
+ *
+ * After the configured number of consecutive backend failures the circuit opens and calls are refused without
+ * reaching the backend. Once the open duration has passed a single trial call is let through; its success closes
+ * the circuit and its failure keeps it open for another period. Only failures of the backend itself count, see
+ * {@link #isBackendFailure(Throwable)}; a missing credential or a failed condition does not.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier clock;
+
+    private volatile State state = State.CLOSED;
+    private volatile int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(String name, int failureThreshold, Duration openDuration) {
+        this(name, failureThreshold, openDuration, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, int failureThreshold, Duration openDuration, LongSupplier clock) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * Runs the call unless the circuit is open, and records whether the backend failed.
+     *
+     * @throws BackendUnavailableException - if the circuit is open
+     */
+    public <T> T call(Supplier<T> call) {
+        State admittedIn = tryAcquire();
+        if (admittedIn == null) {
+            throw new BackendUnavailableException(name + " circuit breaker is open");
+        }
+        boolean failed = false;
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            failed = isBackendFailure(e);
+            throw e;
+        } finally {
+            if (failed) {
+                onFailure(admittedIn);
+            } else {
+                onSuccess(admittedIn);
+            }
+        }
+    }
+
+    /**
+     * @return The state the call was let through in, HALF_OPEN for the trial call, or null if it is refused
+     */
+    State tryAcquire() {
+        if (state == State.CLOSED) {
+            return State.CLOSED;
+        }
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return State.CLOSED;
+            }
+            if (state == State.OPEN && clock.getAsLong() - openedAt >= openNanos) {
+                state = State.HALF_OPEN;
+            }
+            if (state == State.HALF_OPEN && !trialInFlight) {
+                trialInFlight = true;
+                return State.HALF_OPEN;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Only the trial call closes the circuit. A call let through while it was still closed that finishes after it
+     * opened says nothing about the backend's recovery, so it only resets the count while the circuit stays closed.
+     */
+    void onSuccess(State admittedIn) {
+        if (admittedIn == State.CLOSED && (state != State.CLOSED || consecutiveFailures == 0)) {
+            return;
+        }
+        synchronized (this) {
+            if (admittedIn == State.HALF_OPEN) {
+                trialInFlight = false;
+                state = State.CLOSED;
+                consecutiveFailures = 0;
+            } else if (state == State.CLOSED) {
+                consecutiveFailures = 0;
+            }
+        }
+    }
+
+    /**
+     * A failed trial reopens the circuit; other failures open it once the threshold is reached, and a late failure
+     * neither extends an open period nor ends a trial in flight.
+     */
+    synchronized void onFailure(State admittedIn) {
+        consecutiveFailures++;
+        if (admittedIn == State.HALF_OPEN) {
+            trialInFlight = false;
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Whether the error means the backend is unreachable, throttling or failing, as opposed to rejecting the request
+     */
+    public static boolean isBackendFailure(Throwable error) {
+        if (error instanceof SdkClientException) {
+            return true;
+        }
+        if (error instanceof SdkServiceException) {
+            SdkServiceException serviceException = (SdkServiceException) error;
+            return serviceException.statusCode() >= 500 || serviceException.isThrottlingException();
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether a read failed because the backend is unavailable, including calls refused without reaching it
+     */
+    static boolean isUnavailable(Throwable error) {
+        return error instanceof BackendUnavailableException || isBackendFailure(error);
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{name=" + name + ", state=" + state + ", consecutiveFailures=" + consecutiveFailures + '}';
+    }
+}
@@ -26,7 +26,7 @@ import java.util.Map;
 public class CredModelMapper {
 
     private enum DynamoAttributes{
-        name, version, key, contents, hmac, updatedBy, updatedOn, sdlc, component, source, sourceType
+        name, version, key, contents, hmac, updatedBy, updatedOn, sdlc, component, source, sourceType, application
     }
 
     public static Map<String,AttributeValue> toDynamo(EncryptedCredential encryptedCredential){
@@ -49,9 +49,26 @@ public class CredModelMapper {
         if(encryptedCredential.getComponent()!= null)
             dynamoRow.put(DynamoAttributes.component.name(), AttributeValue.builder().s(encryptedCredential.getComponent()).build());
 
+        String application = applicationOf(encryptedCredential.getFullName());
+        if(application != null)
+            dynamoRow.put(DynamoAttributes.application.name(), AttributeValue.builder().s(application).build());
+
         return dynamoRow;
     }
 
+    /**
+     * The application prefix of a full credential name (APP.sdlc.name or APP.component.sdlc.name), written as its
+     * own attribute so a secondary index can list one application's credentials without scanning the table.
+     *
+     * @return Application, or null when the name has no prefix
+     */
+    public static String applicationOf(String fullName){
+        if(fullName == null)
+            return null;
+        int separator = fullName.indexOf('.');
+        return separator > 0 ? fullName.substring(0, separator) : null;
+    }
+
     public static EncryptedCredential fromDynamo(Map<String, AttributeValue> dynamoCred){
         return new EncryptedCredential()
                                 .setFullName(getAttributeValue(DynamoAttributes.name.name(), dynamoCred))
@@ -65,6 +82,17 @@ public class CredModelMapper {
                                 .setSdlc(getAttributeValue(DynamoAttributes.sdlc.name(),dynamoCred));
     }
 
+    /**
+     * Maps an item read with only its key and audit attributes, as used for version history.
+     */
+    public static EncryptedCredential versionFromDynamo(Map<String, AttributeValue> dynamoCred){
+        return new EncryptedCredential()
+                                .setFullName(getAttributeValue(DynamoAttributes.name.name(), dynamoCred))
+                                .setVersion(getAttributeValue(DynamoAttributes.version.name(),dynamoCred))
+                                .setUpdateBy(getAttributeValue(DynamoAttributes.updatedBy.name(),dynamoCred))
+                                .setUpdatedOn(getAttributeValue(DynamoAttributes.updatedOn.name(),dynamoCred));
+    }
+
     private static String getAttributeValue(String name, Map<String,AttributeValue> dynamoCred){
         AttributeValue attributeValue = dynamoCred.get(name);
         if(attributeValue!=null){
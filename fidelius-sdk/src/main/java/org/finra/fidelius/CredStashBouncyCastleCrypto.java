@@ -17,7 +17,6 @@
 
 package org.finra.fidelius;
 
-import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.StreamBlockCipher;
 import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.crypto.engines.AESFastEngine;
@@ -28,51 +27,29 @@ import org.bouncycastle.crypto.params.ParametersWithIV;
 
 /**
  * Created by jcoyle on 2/1/16.
+ *
+ * Cipher and HMAC state is kept per thread and re-keyed on every call, so one instance can be shared
+ * across threads without allocating new engines for each secret.
  */
 public class CredStashBouncyCastleCrypto implements CredStashCrypto {
-    @Override
-    public byte[] decrypt(byte[] key, byte[] contents) {
 
-        // Credstash uses standard AES
-        BlockCipher engine = new AESFastEngine();
-
-        // Credstash uses CTR mode
-        StreamBlockCipher cipher = new SICBlockCipher(engine);
+    private final ThreadLocal<Engines> engines = ThreadLocal.withInitial(Engines::new);
 
+    @Override
+    public byte[] decrypt(byte[] key, byte[] contents) {
         boolean forEncryption = false;
-        cipher.init(forEncryption, new ParametersWithIV(new KeyParameter(key), INITIALIZATION_VECTOR));
-
-        byte[] resultBytes = new byte[contents.length];
-        int contentsOffset = 0;
-        int resultOffset = 0;
-        cipher.processBytes(contents, contentsOffset, contents.length, resultBytes, resultOffset);
-        return resultBytes;
+        return process(forEncryption, key, contents);
     }
 
-
+    @Override
     public byte[] encrypt(byte[] key, byte[] contents) {
-
-        BlockCipher engine = new AESFastEngine();
-
-        StreamBlockCipher cipher = new SICBlockCipher(engine);
-
         boolean forEncryption = true;
-        cipher.init(forEncryption, new ParametersWithIV(new KeyParameter(key), INITIALIZATION_VECTOR));
-
-        byte[] resultBytes = new byte[contents.length];
-        int contentsOffset = 0;
-        int resultOffset = 0;
-        cipher.processBytes(contents, contentsOffset, contents.length, resultBytes, resultOffset);
-        return resultBytes;
+        return process(forEncryption, key, contents);
     }
 
     @Override
     public byte[] digest(byte[] key, byte[] contents) {
-        // Credstash uses SHA-256
-        SHA256Digest digest = new SHA256Digest();
-
-        // Credstash uses HMAC
-        HMac mac = new HMac(digest);
+        HMac mac = engines.get().mac;
 
         byte[] resultBytes = new byte[mac.getMacSize()];
 
@@ -83,4 +60,21 @@ public class CredStashBouncyCastleCrypto implements CredStashCrypto {
         return resultBytes;
     }
 
+    private byte[] process(boolean forEncryption, byte[] key, byte[] contents) {
+        StreamBlockCipher cipher = engines.get().cipher;
+        cipher.init(forEncryption, new ParametersWithIV(new KeyParameter(key), INITIALIZATION_VECTOR));
+
+        byte[] resultBytes = new byte[contents.length];
+        int contentsOffset = 0;
+        int resultOffset = 0;
+        cipher.processBytes(contents, contentsOffset, contents.length, resultBytes, resultOffset);
+        return resultBytes;
+    }
+
+    private static final class Engines {
+        // Credstash uses standard AES in CTR mode
+        private final StreamBlockCipher cipher = new SICBlockCipher(new AESFastEngine());
+        // Credstash uses HMAC with SHA-256
+        private final HMac mac = new HMac(new SHA256Digest());
+    }
 }
@@ -17,6 +17,11 @@
 
 package org.finra.fidelius;
 
+import java.security.MessageDigest;
+
+/**
+ * Implementations are shared by every thread that uses a client, so they must be safe for concurrent use.
+ */
 public interface CredStashCrypto {
 
     /**
@@ -31,4 +36,18 @@ public interface CredStashCrypto {
     byte[] decrypt(byte[] key, byte[] contents);
 
     byte[] digest(byte[] keyBytes, byte[] contents);
+
+    /**
+     * AES in CTR mode XORs the same key stream in both directions, so encrypting is the decrypt operation.
+     */
+    default byte[] encrypt(byte[] key, byte[] contents) {
+        return decrypt(key, contents);
+    }
+
+    /**
+     * Compares the HMAC of the contents with the expected value in time independent of where they differ.
+     */
+    default boolean verifyDigest(byte[] keyBytes, byte[] contents, byte[] expected) {
+        return expected != null && MessageDigest.isEqual(digest(keyBytes, contents), expected);
+    }
 }
@@ -24,7 +24,9 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
-
+/**
+ * Uses a single Cipher and Mac, so calls are serialized; prefer {@link CredStashJceCrypto} under concurrency.
+ */
 public class CredStashJavaxCrypto implements CredStashCrypto {
     protected final String CIPHER_TRANSFORMATION = "AES/CTR/NoPadding";
     protected final String MAC_SERVICE = "HmacSHA256";
@@ -46,7 +48,7 @@ public class CredStashJavaxCrypto implements CredStashCrypto {
         }
     }
 
-    public byte[] decrypt(byte[] key, byte[] contents) {
+    public synchronized byte[] decrypt(byte[] key, byte[] contents) {
         SecretKeySpec aes = new SecretKeySpec(key, "AES");
 
         try {
@@ -65,7 +67,7 @@ public class CredStashJavaxCrypto implements CredStashCrypto {
     }
 
     @Override
-    public byte[] digest(byte[] keyBytes, byte[] contents) {
+    public synchronized byte[] digest(byte[] keyBytes, byte[] contents) {
         SecretKeySpec hmac = new SecretKeySpec(keyBytes, "HmacSHA256");
         try {
             mac.init(hmac);
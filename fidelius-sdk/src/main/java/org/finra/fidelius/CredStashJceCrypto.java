@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * Thread-safe javax.crypto implementation that keeps one Cipher and Mac per thread.
+ *
+ * The default JCE provider uses the JVM's AES-NI intrinsics where the CPU has them, which makes this
+ * noticeably faster than the pure Java Bouncy Castle engine for bulk work. A different provider, such
+ * as an OpenSSL-backed one, can be passed in.
+ */
+public class CredStashJceCrypto implements CredStashCrypto {
+    protected static final String CIPHER_TRANSFORMATION = "AES/CTR/NoPadding";
+    protected static final String MAC_SERVICE = "HmacSHA256";
+
+    private final Provider provider;
+    private final IvParameterSpec ivParameterSpec = new IvParameterSpec(INITIALIZATION_VECTOR);
+    private final ThreadLocal<Cipher> cipher;
+    private final ThreadLocal<Mac> mac;
+
+    public CredStashJceCrypto() {
+        this((Provider) null);
+    }
+
+    /**
+     * @param providerName Name of a registered JCE provider
+     */
+    public CredStashJceCrypto(String providerName) {
+        this(lookupProvider(providerName));
+    }
+
+    /**
+     * @param provider Nullable  JCE provider to use; null selects the highest-priority provider for each algorithm
+     */
+    public CredStashJceCrypto(Provider provider) {
+        this.provider = provider;
+        try {
+            int maxAllowedKeyLength = Cipher.getMaxAllowedKeyLength("AES");
+            if(maxAllowedKeyLength < 256) {
+                throw new RuntimeException("Maximum key length " + maxAllowedKeyLength + " too low, likely Java Cryptography Extension (JCE) Unlimited Strength Jurisdiction Policy Files not installed");
+            }
+            // fail fast on a provider that lacks either algorithm instead of on the first secret
+            newCipher();
+            newMac();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Error initializing javax.crypto", e);
+        }
+        this.cipher = ThreadLocal.withInitial(() -> {
+            try {
+                return newCipher();
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("Error initializing javax.crypto", e);
+            }
+        });
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                return newMac();
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("Error initializing javax.crypto", e);
+            }
+        });
+    }
+
+    @Override
+    public byte[] decrypt(byte[] key, byte[] contents) {
+        return process(Cipher.DECRYPT_MODE, key, contents);
+    }
+
+    @Override
+    public byte[] encrypt(byte[] key, byte[] contents) {
+        return process(Cipher.ENCRYPT_MODE, key, contents);
+    }
+
+    @Override
+    public byte[] digest(byte[] keyBytes, byte[] contents) {
+        Mac threadMac = mac.get();
+        try {
+            threadMac.init(new SecretKeySpec(keyBytes, MAC_SERVICE));
+            return threadMac.doFinal(contents);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Error verifying javax.crypto", e);
+        }
+    }
+
+    private byte[] process(int mode, byte[] key, byte[] contents) {
+        Cipher threadCipher = cipher.get();
+        try {
+            threadCipher.init(mode, new SecretKeySpec(key, "AES"), ivParameterSpec);
+            return threadCipher.doFinal(contents);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Error executing javax.crypto", e);
+        }
+    }
+
+    private Cipher newCipher() throws GeneralSecurityException {
+        return provider == null ? Cipher.getInstance(CIPHER_TRANSFORMATION) : Cipher.getInstance(CIPHER_TRANSFORMATION, provider);
+    }
+
+    private Mac newMac() throws GeneralSecurityException {
+        return provider == null ? Mac.getInstance(MAC_SERVICE) : Mac.getInstance(MAC_SERVICE, provider);
+    }
+
+    private static Provider lookupProvider(String providerName) {
+        Provider provider = Security.getProvider(providerName);
+        if (provider == null) {
+            throw new RuntimeException("Error initializing javax.crypto", new NoSuchAlgorithmException("JCE provider " + providerName + " is not registered"));
+        }
+        return provider;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-memory cache of decrypted secrets keyed by table, prefixed name and version.
+ *
+ * Plaintext is held as bytes so it can be zeroed as soon as an entry is evicted, expired, invalidated or replaced.
+ * Reads that land inside the refresh-ahead window trigger a single background reload while the current value
+ * keeps being served, so hot secrets never expire under steady traffic. With a stale grace period, an expired
+ * value is kept for that much longer and served if reloading it fails because the backend is unavailable.
+ *
+ * Invalidating a credential bumps a generation counter. A load that started before the invalidation still returns
+ * its value to its caller but does not store it, so a read racing a write never puts the old secret back.
+ */
+public class CredentialCache implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(CredentialCache.class);
+
+    private static final String LATEST = "latest";
+    private static final int GENERATION_STRIPES = 64;
+
+    private final long timeToLiveNanos;
+    private final long refreshAheadNanos;
+    private final long staleGraceNanos;
+    private final int maximumSize;
+    private final LongSupplier clock;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Set<Key> refreshing = ConcurrentHashMap.newKeySet();
+    // Guarded by entries; credentials share a counter when their names hash to the same stripe
+    private final long[] generations = new long[GENERATION_STRIPES];
+    private final ExecutorService refreshExecutor;
+    private volatile FideliusMetrics metrics = FideliusMetrics.NOOP;
+
+    public CredentialCache(CredentialCacheConfig config) {
+        this(config, System::nanoTime);
+    }
+
+    CredentialCache(CredentialCacheConfig config, LongSupplier clock) {
+        this.timeToLiveNanos = config.getTimeToLive().toNanos();
+        this.refreshAheadNanos = Math.min(config.getRefreshAhead().toNanos(), timeToLiveNanos);
+        this.staleGraceNanos = config.getStaleGracePeriod().toNanos();
+        this.maximumSize = config.getMaximumSize();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > maximumSize) {
+                    eldest.getValue().wipe();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.refreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fidelius-credential-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the cached plaintext for the given secret, loading it on a miss or after expiry.
+     *
+     * @param table         Table where the credential is stored
+     * @param prefixedName  Fully prefixed credential name
+     * @param version       Nullable  Specific version; null caches the latest version
+     * @param loader        Reads and decrypts the secret from the backend
+     * @return The plaintext contents of the credential
+     */
+    public String get(String table, String prefixedName, Integer version, Supplier<String> loader) {
+        Key key = new Key(table, prefixedName, version);
+        long now = clock.getAsLong();
+        String cached = null;
+        String stale = null;
+        boolean refresh = false;
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                long age = now - entry.loadedAt;
+                if (age >= timeToLiveNanos + staleGraceNanos) {
+                    entries.remove(key).wipe();
+                } else if (age >= timeToLiveNanos) {
+                    stale = entry.value();
+                } else {
+                    cached = entry.value();
+                    refresh = refreshAheadNanos > 0 && age >= timeToLiveNanos - refreshAheadNanos;
+                }
+            }
+        }
+
+        if (cached != null) {
+            metrics.count(FideliusMetrics.Event.CREDENTIAL_CACHE_HIT);
+            if (refresh) {
+                scheduleRefresh(key, loader);
+            }
+            return cached;
+        }
+        metrics.count(FideliusMetrics.Event.CREDENTIAL_CACHE_MISS);
+
+        long generation = generation(key);
+        String loaded;
+        try {
+            loaded = loader.get();
+        } catch (RuntimeException e) {
+            if (stale == null || !CircuitBreaker.isUnavailable(e)) {
+                throw e;
+            }
+            logger.warn("Serving expired value of " + key + " because reloading it failed: " + e);
+            metrics.count(FideliusMetrics.Event.CREDENTIAL_CACHE_STALE_SERVED);
+            return stale;
+        }
+        put(key, loaded, generation);
+        return loaded;
+    }
+
+    void setMetrics(FideliusMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Removes every cached version of a credential.
+     */
+    public void invalidate(String table, String prefixedName) {
+        synchronized (entries) {
+            generations[stripe(table, prefixedName)]++;
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, Entry> entry = iterator.next();
+                if (entry.getKey().matches(table, prefixedName)) {
+                    entry.getValue().wipe();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            for (int i = 0; i < generations.length; i++) {
+                generations[i]++;
+            }
+            for (Entry entry : entries.values()) {
+                entry.wipe();
+            }
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        refreshExecutor.shutdownNow();
+        invalidateAll();
+    }
+
+    private long generation(Key key) {
+        synchronized (entries) {
+            return generations[stripe(key.table, key.prefixedName)];
+        }
+    }
+
+    private static int stripe(String table, String prefixedName) {
+        return Math.floorMod(Objects.hash(table, prefixedName), GENERATION_STRIPES);
+    }
+
+    /**
+     * Stores a loaded value unless the credential was invalidated after the load started.
+     */
+    private void put(Key key, String value, long generation) {
+        if (value == null) {
+            return;
+        }
+        Entry entry = new Entry(value.getBytes(StandardCharsets.UTF_8), clock.getAsLong());
+        synchronized (entries) {
+            if (generations[stripe(key.table, key.prefixedName)] != generation) {
+                entry.wipe();
+                return;
+            }
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                previous.wipe();
+            }
+        }
+    }
+
+    private void scheduleRefresh(Key key, Supplier<String> loader) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    long generation = generation(key);
+                    put(key, loader.get(), generation);
+                } catch (RuntimeException e) {
+                    logger.warn("Background refresh of " + key + " failed, serving cached value until expiry: " + e);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] plaintext;
+        private final long loadedAt;
+
+        private Entry(byte[] plaintext, long loadedAt) {
+            this.plaintext = plaintext;
+            this.loadedAt = loadedAt;
+        }
+
+        private String value() {
+            return new String(plaintext, StandardCharsets.UTF_8);
+        }
+
+        private void wipe() {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    private static final class Key {
+        private final String table;
+        private final String prefixedName;
+        private final String version;
+
+        private Key(String table, String prefixedName, Integer version) {
+            this.table = table;
+            this.prefixedName = prefixedName;
+            this.version = version == null ? LATEST : String.valueOf(version);
+        }
+
+        private boolean matches(String table, String prefixedName) {
+            return this.table.equals(table) && this.prefixedName.equals(prefixedName);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            return table.equals(that.table) && prefixedName.equals(that.prefixedName) && version.equals(that.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(table, prefixedName, version);
+        }
+
+        @Override
+        public String toString() {
+            return table + ":" + prefixedName + ":" + version;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.time.Duration;
+
+/**
+ * Settings for the optional in-memory {@link CredentialCache} used by {@link FideliusClient}.
+ */
+public class CredentialCacheConfig {
+
+    private Duration timeToLive = Duration.ofMinutes(5);
+    private Duration refreshAhead = Duration.ofSeconds(30);
+    private int maximumSize = 1000;
+    private Duration staleGracePeriod = Duration.ZERO;
+
+    public Duration getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * @param timeToLive How long a decrypted secret is served before it must be read from DynamoDB again
+     */
+    public CredentialCacheConfig setTimeToLive(Duration timeToLive) {
+        if (timeToLive == null || timeToLive.isNegative() || timeToLive.isZero()) {
+            throw new IllegalArgumentException("timeToLive must be positive");
+        }
+        this.timeToLive = timeToLive;
+        return this;
+    }
+
+    public Duration getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    /**
+     * @param refreshAhead Window before expiry in which a read schedules a background reload; zero disables it
+     */
+    public CredentialCacheConfig setRefreshAhead(Duration refreshAhead) {
+        if (refreshAhead == null || refreshAhead.isNegative()) {
+            throw new IllegalArgumentException("refreshAhead must not be negative");
+        }
+        this.refreshAhead = refreshAhead;
+        return this;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @param maximumSize Maximum number of secrets held; least recently used entries are evicted first
+     */
+    public CredentialCacheConfig setMaximumSize(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1");
+        }
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    public Duration getStaleGracePeriod() {
+        return staleGracePeriod;
+    }
+
+    /**
+     * @param staleGracePeriod How long past expiry a secret is still served when reloading it fails because
+     *                         DynamoDB or KMS is unavailable; zero disables it
+     */
+    public CredentialCacheConfig setStaleGracePeriod(Duration staleGracePeriod) {
+        if (staleGracePeriod == null || staleGracePeriod.isNegative()) {
+            throw new IllegalArgumentException("staleGracePeriod must not be negative");
+        }
+        this.staleGracePeriod = staleGracePeriod;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialCacheConfig{" +
+                "timeToLive=" + timeToLive +
+                ", refreshAhead=" + refreshAhead +
+                ", maximumSize=" + maximumSize +
+                ", staleGracePeriod=" + staleGracePeriod +
+                '}';
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+/**
+ * A credential watched through {@link FideliusClient#watch} got a new version or was deleted.
+ */
+public class CredentialChangeEvent {
+
+    private final String table;
+    private final String name;
+    private final String version;
+
+    CredentialChangeEvent(String table, String name, String version) {
+        this.table = table;
+        this.name = name;
+        this.version = version;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return Fully prefixed name of the credential
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Zero-padded new latest version, or null when the credential was deleted
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public boolean isDeleted() {
+        return version == null;
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialChangeEvent{" +
+                "table='" + table + '\'' +
+                ", name='" + name + '\'' +
+                ", version='" + version + '\'' +
+                '}';
+    }
+}
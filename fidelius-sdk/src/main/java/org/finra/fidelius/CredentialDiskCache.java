@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * Persistent cache of the still-encrypted DynamoDB items of credentials, kept in an append-only file.
+ *
+ * Only ciphertext is written: every read still unwraps the data key with KMS and checks the HMAC, so a tampered
+ * file is rejected rather than trusted. On startup the cached item is served once a single-item version query
+ * confirms it is still the latest, which skips the full item read. When DynamoDB cannot be reached, items
+ * confirmed within {@link CredentialDiskCacheConfig#getMaximumStaleness()} are served as they are.
+ *
+ * Each put, confirmation or removal appends one JSON line; the file is rewritten once it holds mostly
+ * superseded lines. A torn last line left by a crash is skipped when the file is loaded.
+ */
+public class CredentialDiskCache implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(CredentialDiskCache.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    // Confirmations are persisted at most this often per item so steady reads do not grow the file
+    private static final long CONFIRMATION_WRITE_INTERVAL_MILLIS = 5 * 60 * 1000L;
+    private static final int COMPACTION_SLACK = 100;
+
+    private final Path file;
+    private final long maximumStalenessMillis;
+    private final LongSupplier clock;
+    private final Map<Key, Entry> entries = new LinkedHashMap<>();
+    private BufferedWriter writer;
+    private int lines;
+
+    public CredentialDiskCache(CredentialDiskCacheConfig config) {
+        this(config, System::currentTimeMillis);
+    }
+
+    CredentialDiskCache(CredentialDiskCacheConfig config, LongSupplier clock) {
+        if (config.getFile() == null) {
+            throw new IllegalArgumentException("A cache file must be configured");
+        }
+        this.file = config.getFile();
+        this.maximumStalenessMillis = config.getMaximumStaleness().toMillis();
+        this.clock = clock;
+        try {
+            load();
+            writer = openWriter(file, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening credential disk cache " + file, e);
+        }
+    }
+
+    /**
+     * @return The cached item, or null when none is cached
+     */
+    public synchronized Map<String, AttributeValue> get(String table, String prefixedName) {
+        Entry entry = entries.get(new Key(table, prefixedName));
+        return entry == null ? null : toItem(entry.item);
+    }
+
+    /**
+     * @return The cached item if it was confirmed current within the maximum staleness, otherwise null
+     */
+    public synchronized Map<String, AttributeValue> getIfNotTooStale(String table, String prefixedName) {
+        Entry entry = entries.get(new Key(table, prefixedName));
+        if (entry == null || clock.getAsLong() - entry.confirmedAt > maximumStalenessMillis) {
+            return null;
+        }
+        return toItem(entry.item);
+    }
+
+    /**
+     * Stores the item read from DynamoDB, replacing any older version.
+     */
+    public synchronized void put(String table, String prefixedName, Map<String, AttributeValue> item) {
+        Map<String, String> attributes = new HashMap<>();
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            if (attribute.getValue().s() != null) {
+                attributes.put(attribute.getKey(), attribute.getValue().s());
+            }
+        }
+        Entry entry = new Entry(attributes, clock.getAsLong());
+        entries.put(new Key(table, prefixedName), entry);
+        append(new Record(table, prefixedName, entry.confirmedAt, attributes));
+    }
+
+    /**
+     * Records that the cached item was just confirmed to be the latest version.
+     */
+    public synchronized void confirm(String table, String prefixedName) {
+        Entry entry = entries.get(new Key(table, prefixedName));
+        if (entry == null) {
+            return;
+        }
+        long now = clock.getAsLong();
+        boolean persist = now - entry.confirmedAt >= CONFIRMATION_WRITE_INTERVAL_MILLIS;
+        entry.confirmedAt = now;
+        if (persist) {
+            append(new Record(table, prefixedName, now, entry.item));
+        }
+    }
+
+    public synchronized void invalidate(String table, String prefixedName) {
+        if (entries.remove(new Key(table, prefixedName)) != null) {
+            append(new Record(table, prefixedName, clock.getAsLong(), null));
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        compact();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.warn("Error closing credential disk cache " + file + ": " + e);
+        }
+        writer = null;
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            createOwnerOnly(file);
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                Record record;
+                try {
+                    record = OBJECT_MAPPER.readValue(line, Record.class);
+                } catch (IOException e) {
+                    logger.warn("Skipping unreadable line " + lines + " of credential disk cache " + file);
+                    continue;
+                }
+                Key key = new Key(record.table, record.name);
+                if (record.item == null) {
+                    entries.remove(key);
+                } else {
+                    entries.put(key, new Entry(record.item, record.confirmedAt));
+                }
+            }
+        }
+    }
+
+    private void append(Record record) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(OBJECT_MAPPER.writeValueAsString(record));
+            writer.newLine();
+            writer.flush();
+            lines++;
+        } catch (IOException e) {
+            // the cache only speeds things up; the caller already has the value from DynamoDB
+            logger.warn("Error writing credential disk cache " + file + ": " + e);
+            return;
+        }
+        if (lines > 2 * entries.size() + COMPACTION_SLACK) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the file with one line per cached item and atomically replaces the old one.
+     */
+    private void compact() {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try {
+            Files.deleteIfExists(compacted);
+            createOwnerOnly(compacted);
+            try (BufferedWriter out = openWriter(compacted, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+                    out.write(OBJECT_MAPPER.writeValueAsString(new Record(entry.getKey().table, entry.getKey().name,
+                            entry.getValue().confirmedAt, entry.getValue().item)));
+                    out.newLine();
+                }
+            }
+            if (writer != null) {
+                writer.close();
+            }
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writer = openWriter(file, StandardOpenOption.APPEND);
+            lines = entries.size();
+        } catch (IOException e) {
+            logger.warn("Error compacting credential disk cache " + file + ": " + e);
+            try {
+                writer = openWriter(file, StandardOpenOption.APPEND);
+            } catch (IOException reopen) {
+                writer = null;
+            }
+        }
+    }
+
+    private static BufferedWriter openWriter(Path path, StandardOpenOption mode) throws IOException {
+        return Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.WRITE, mode);
+    }
+
+    private static void createOwnerOnly(Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(path);
+        }
+    }
+
+    private static Map<String, AttributeValue> toItem(Map<String, String> attributes) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            item.put(attribute.getKey(), AttributeValue.builder().s(attribute.getValue()).build());
+        }
+        return item;
+    }
+
+    static final class Record {
+        public String table;
+        public String name;
+        public long confirmedAt;
+        public Map<String, String> item;
+
+        public Record() {
+        }
+
+        Record(String table, String name, long confirmedAt, Map<String, String> item) {
+            this.table = table;
+            this.name = name;
+            this.confirmedAt = confirmedAt;
+            this.item = item;
+        }
+    }
+
+    private static final class Entry {
+        private final Map<String, String> item;
+        private long confirmedAt;
+
+        private Entry(Map<String, String> item, long confirmedAt) {
+            this.item = item;
+            this.confirmedAt = confirmedAt;
+        }
+    }
+
+    private static final class Key {
+        private final String table;
+        private final String name;
+
+        private Key(String table, String name) {
+            this.table = table;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return table.equals(key.table) && name.equals(key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(table, name);
+        }
+    }
+}
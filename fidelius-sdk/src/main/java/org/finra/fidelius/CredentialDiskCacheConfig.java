@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Settings for the optional on-disk {@link CredentialDiskCache} used by {@link FideliusClient}.
+ */
+public class CredentialDiskCacheConfig {
+
+    private Path file;
+    private Duration maximumStaleness = Duration.ofHours(1);
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @param file File holding the cached ciphertext; created with owner-only permissions when missing
+     */
+    public CredentialDiskCacheConfig setFile(Path file) {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+        this.file = file;
+        return this;
+    }
+
+    public Duration getMaximumStaleness() {
+        return maximumStaleness;
+    }
+
+    /**
+     * @param maximumStaleness How long after it was last confirmed current a cached item may still be served when
+     *                         DynamoDB cannot be reached; zero never serves unconfirmed items
+     */
+    public CredentialDiskCacheConfig setMaximumStaleness(Duration maximumStaleness) {
+        if (maximumStaleness == null || maximumStaleness.isNegative()) {
+            throw new IllegalArgumentException("maximumStaleness must not be negative");
+        }
+        this.maximumStaleness = maximumStaleness;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialDiskCacheConfig{" +
+                "file=" + file +
+                ", maximumStaleness=" + maximumStaleness +
+                '}';
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.OperationType;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.TableDescription;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Pushes new-version and delete events for the credentials of one table to subscribed listeners.
+ *
+ * When the table has a DynamoDB stream, its shards are read from the moment the watcher starts, so a change is
+ * seen within about a second and costs no table reads. Without a stream, or if the stream cannot be read, the
+ * latest version of every watched credential is polled instead.
+ */
+public class CredentialWatcher implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(CredentialWatcher.class);
+
+    private static final String ABSENT = "";
+
+    /**
+     * Handle returned by {@link FideliusClient#watch}; closing it stops delivering events to its listener.
+     */
+    public interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final String table;
+    private final JCredStash jCredStash;
+    private final DynamoDbStreamsClient streamsClient;
+    private final Duration streamPollInterval;
+    private final Duration versionPollInterval;
+    private final Consumer<CredentialChangeEvent> beforeListeners;
+    private final Map<String, List<CredentialChangeListener>> listeners = new ConcurrentHashMap<>();
+    private final Map<String, String> knownVersions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    // Only read on the scheduler thread
+    private StreamShardReader shardReader;
+
+    private volatile String streamArn;
+    private ScheduledFuture<?> task;
+
+    /**
+     * @param streamsClient     Nullable  Client for DynamoDB Streams; null always polls
+     * @param beforeListeners   Called with every event before the listeners, e.g. to invalidate caches
+     */
+    CredentialWatcher(String table, JCredStash jCredStash, DynamoDbStreamsClient streamsClient, Duration streamPollInterval,
+                      Duration versionPollInterval, Consumer<CredentialChangeEvent> beforeListeners) {
+        this.table = table;
+        this.jCredStash = jCredStash;
+        this.streamsClient = streamsClient;
+        this.streamPollInterval = streamPollInterval;
+        this.versionPollInterval = versionPollInterval;
+        this.beforeListeners = beforeListeners;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fidelius-watch-" + table);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Finds the table's stream, positions every open shard at its latest record and schedules the polling.
+     */
+    synchronized void start() {
+        streamArn = findStream();
+        if (streamArn != null) {
+            try {
+                shardReader = new StreamShardReader(streamsClient, streamArn);
+                shardReader.start();
+            } catch (RuntimeException e) {
+                logger.warn("Cannot read the stream of " + table + ", polling for changes instead: " + e);
+                streamArn = null;
+                shardReader = null;
+            }
+        }
+        schedule();
+    }
+
+    Subscription subscribe(String prefixedName, CredentialChangeListener listener) {
+        // baseline for version polling, also needed if reading the stream fails later
+        knownVersions.computeIfAbsent(prefixedName, this::currentVersion);
+        listeners.computeIfAbsent(prefixedName, name -> new CopyOnWriteArrayList<>()).add(listener);
+        return () -> {
+            List<CredentialChangeListener> subscribed = listeners.get(prefixedName);
+            if (subscribed != null) {
+                subscribed.remove(listener);
+            }
+        };
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public boolean isStreaming() {
+        return streamArn != null;
+    }
+
+    @Override
+    public synchronized void close() {
+        scheduler.shutdownNow();
+        listeners.clear();
+    }
+
+    private synchronized void schedule() {
+        if (task != null) {
+            task.cancel(false);
+        }
+        long interval = (streamArn != null ? streamPollInterval : versionPollInterval).toMillis();
+        task = scheduler.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void poll() {
+        try {
+            if (streamArn != null) {
+                pollStream();
+            } else {
+                pollVersions();
+            }
+        } catch (ResourceNotFoundException e) {
+            logger.warn("The stream of " + table + " is gone, polling for changes instead: " + e);
+            streamArn = null;
+            shardReader = null;
+            pollVersions();
+            schedule();
+        } catch (RuntimeException e) {
+            logger.warn("Error checking " + table + " for credential changes, retrying: " + e);
+        }
+    }
+
+    void pollStream() {
+        Map<String, String> inserted = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+        boolean missedRecords = shardReader.poll(record -> {
+            Map<String, AttributeValue> keys = record.dynamodb().keys();
+            String name = keys.get("name").s();
+            if (!listeners.containsKey(name)) {
+                return;
+            }
+            if (record.eventName() == OperationType.REMOVE) {
+                removed.add(name);
+            } else {
+                inserted.merge(name, keys.get("version").s(), (a, b) -> a.compareTo(b) >= 0 ? a : b);
+            }
+        });
+
+        for (Map.Entry<String, String> change : inserted.entrySet()) {
+            publish(change.getKey(), change.getValue());
+        }
+        for (String name : removed) {
+            if (!inserted.containsKey(name)) {
+                // a delete removes versions one at a time; report whatever is left once it is done
+                publish(name, currentVersion(name));
+            }
+        }
+        if (missedRecords) {
+            pollVersions();
+        }
+    }
+
+    void pollVersions() {
+        for (Map.Entry<String, List<CredentialChangeListener>> watched : listeners.entrySet()) {
+            if (watched.getValue().isEmpty()) {
+                continue;
+            }
+            String name = watched.getKey();
+            String current = currentVersion(name);
+            String previous = knownVersions.get(name);
+            if (previous == null) {
+                knownVersions.put(name, current);
+            } else if (!previous.equals(current)) {
+                publish(name, current);
+            }
+        }
+    }
+
+    private void publish(String name, String version) {
+        if (version.equals(knownVersions.put(name, version))) {
+            return;
+        }
+        CredentialChangeEvent event = new CredentialChangeEvent(table, name, ABSENT.equals(version) ? null : version);
+        beforeListeners.accept(event);
+        List<CredentialChangeListener> subscribed = listeners.get(name);
+        if (subscribed == null) {
+            return;
+        }
+        for (CredentialChangeListener listener : subscribed) {
+            try {
+                listener.credentialChanged(event);
+            } catch (RuntimeException e) {
+                logger.warn("Listener for " + name + " failed: " + e);
+            }
+        }
+    }
+
+    private String currentVersion(String name) {
+        String version = jCredStash.getLatestVersion(table, name);
+        return version == null ? ABSENT : version;
+    }
+
+    private String findStream() {
+        if (streamsClient == null) {
+            return null;
+        }
+        try {
+            TableDescription description = jCredStash.dynamoDbClient
+                    .describeTable(DescribeTableRequest.builder().tableName(table).build())
+                    .table();
+            if (description.streamSpecification() == null
+                    || !Boolean.TRUE.equals(description.streamSpecification().streamEnabled())
+                    || description.latestStreamArn() == null) {
+                logger.info("Table " + table + " has no stream, polling for credential changes every " + versionPollInterval);
+                return null;
+            }
+            return description.latestStreamArn();
+        } catch (RuntimeException e) {
+            logger.warn("Cannot describe " + table + ", polling for credential changes instead: " + e);
+            return null;
+        }
+    }
+}
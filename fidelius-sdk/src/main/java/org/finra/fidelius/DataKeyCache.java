@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of KMS-unwrapped data keys, keyed by the KMS client that unwrapped them, the wrapped key blob and
+ * its encryption context. Keying on the client means a key unwrapped with one set of credentials is never served
+ * to a caller using another, who may not be allowed to call Decrypt on it.
+ *
+ * A hit skips the KMS Decrypt call only; callers still verify the HMAC and run AES over the ciphertext.
+ * Entries are dropped after a short TTL or after a fixed number of uses, whichever comes first, and the
+ * key material is zeroed when they are dropped.
+ */
+public class DataKeyCache {
+
+    private final long timeToLiveNanos;
+    private final int maximumUses;
+    private final int maximumSize;
+    private final LongSupplier clock;
+    private final LinkedHashMap<CacheKey, Entry> entries;
+
+    /**
+     * @param timeToLive    How long an unwrapped key may be reused
+     * @param maximumSize   Maximum number of unwrapped keys held
+     * @param maximumUses   Maximum number of decrypts served from one unwrapped key, including the one that unwrapped it
+     */
+    public DataKeyCache(Duration timeToLive, int maximumSize, int maximumUses) {
+        this(timeToLive, maximumSize, maximumUses, System::nanoTime);
+    }
+
+    DataKeyCache(Duration timeToLive, int maximumSize, int maximumUses, LongSupplier clock) {
+        if (timeToLive == null || timeToLive.isNegative() || timeToLive.isZero()) {
+            throw new IllegalArgumentException("timeToLive must be positive");
+        }
+        if (maximumSize < 1 || maximumUses < 1) {
+            throw new IllegalArgumentException("maximumSize and maximumUses must be at least 1");
+        }
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.maximumSize = maximumSize;
+        this.maximumUses = maximumUses;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+                if (size() > DataKeyCache.this.maximumSize) {
+                    eldest.getValue().wipe();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return An empty cache with the same time to live, size and use limits
+     */
+    public DataKeyCache newEmptyCopy() {
+        return new DataKeyCache(Duration.ofNanos(timeToLiveNanos), maximumSize, maximumUses, clock);
+    }
+
+    /**
+     * @param kmsClient  Client the key was unwrapped with; compared by identity
+     * @return A private copy of the unwrapped key that the caller should wipe after use, or null if it is not
+     *         cached or has been used up
+     */
+    public byte[] get(Object kmsClient, byte[] wrappedKey, Map<String, String> context) {
+        CacheKey key = new CacheKey(kmsClient, wrappedKey, context);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (clock.getAsLong() - entry.createdAt >= timeToLiveNanos || entry.uses >= maximumUses) {
+                entries.remove(key).wipe();
+                return null;
+            }
+            entry.uses++;
+            return entry.plaintext.clone();
+        }
+    }
+
+    /**
+     * Stores a copy of the unwrapped key; the caller keeps ownership of, and should wipe, the array it passes in.
+     *
+     * @param kmsClient  Client the key was unwrapped with; compared by identity
+     */
+    public void put(Object kmsClient, byte[] wrappedKey, Map<String, String> context, byte[] plaintext) {
+        Entry entry = new Entry(plaintext.clone(), clock.getAsLong());
+        synchronized (entries) {
+            Entry previous = entries.put(new CacheKey(kmsClient, wrappedKey, context), entry);
+            if (previous != null) {
+                previous.wipe();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            for (Entry entry : entries.values()) {
+                entry.wipe();
+            }
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class CacheKey {
+        private final Object kmsClient;
+        private final String encoded;
+
+        private CacheKey(Object kmsClient, byte[] wrappedKey, Map<String, String> context) {
+            this.kmsClient = kmsClient;
+            // Sort the context so logically equal maps produce the same key, and length-prefix every name and
+            // value so no two different contexts encode to the same string
+            Map<String, String> sortedContext = context == null ? Collections.emptyMap() : new TreeMap<>(context);
+            StringBuilder builder = new StringBuilder(Base64.getEncoder().encodeToString(wrappedKey)).append('|');
+            for (Map.Entry<String, String> entry : sortedContext.entrySet()) {
+                appendLengthPrefixed(builder, entry.getKey());
+                appendLengthPrefixed(builder, entry.getValue());
+            }
+            this.encoded = builder.toString();
+        }
+
+        private static void appendLengthPrefixed(StringBuilder builder, String value) {
+            if (value == null) {
+                builder.append("-1:");
+            } else {
+                builder.append(value.length()).append(':').append(value);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey that = (CacheKey) o;
+            return kmsClient == that.kmsClient && encoded.equals(that.encoded);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(kmsClient) + encoded.hashCode();
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] plaintext;
+        private final long createdAt;
+        private int uses;
+
+        private Entry(byte[] plaintext, long createdAt) {
+            this.plaintext = plaintext;
+            this.createdAt = createdAt;
+            this.uses = 1;
+        }
+
+        private void wipe() {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,613 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProviderChain;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.awscore.retry.AwsRetryPolicy;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.ProxyConfiguration;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClientBuilder;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.KmsAsyncClientBuilder;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.sts.StsAsyncClient;
+import software.amazon.awssdk.services.sts.StsAsyncClientBuilder;
+import software.amazon.awssdk.services.sts.model.GetCallerIdentityRequest;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking counterpart of {@link FideliusClient} built on the AWS SDK async clients.
+ *
+ * Every call returns immediately with a {@link CompletableFuture}; the DynamoDB query, KMS call and local
+ * AES/HMAC step are chained on the SDK's event loop threads, so many concurrent reads share a few threads.
+ * Items are read and written in the same format as {@link FideliusClient}, so both clients can share a table.
+ *
+ * Unlike {@link FideliusClient}, the FID_CONTEXT_APPLICATION and FID_CONTEXT_SDLC are never looked up from EC2
+ * tags, since that needs blocking instance metadata calls. Pass them on each call or set them as environment
+ * variables.
+ */
+public class FideliusAsyncClient implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FideliusAsyncClient.class);
+
+    protected EnvConfig envConfig;
+    protected DynamoDbAsyncClient dynamoDbClient;
+    protected KmsAsyncClient kmsClient;
+    protected StsAsyncClient stsClient;
+    protected CredStashCrypto cryptoImpl;
+    protected DataKeyCache dataKeyCache;
+    protected volatile BulkDeleteConfig bulkDeleteConfig = new BulkDeleteConfig();
+
+    private SdkAsyncHttpClient httpClient;
+    private volatile CompletableFuture<String> callerUser;
+    private ScheduledExecutorService retryScheduler;
+
+    public FideliusAsyncClient() {
+        this(null, AwsCredentialsProviderChain.builder().addCredentialsProvider(DefaultCredentialsProvider.create()).build(), null);
+    }
+
+    public FideliusAsyncClient(String region) {
+        this(null, AwsCredentialsProviderChain.builder().addCredentialsProvider(DefaultCredentialsProvider.create()).build(), region);
+    }
+
+    public FideliusAsyncClient(ClientOverrideConfiguration clientConf, AwsCredentialsProvider provider, String region) {
+        envConfig = new EnvConfig();
+        if (clientConf == null) {
+            clientConf = ClientOverrideConfiguration.builder().retryPolicy(AwsRetryPolicy.defaultRetryPolicy()).build();
+        }
+
+        NettyNioAsyncHttpClient.Builder httpClientBuilder = NettyNioAsyncHttpClient.builder();
+        if (envConfig.hasProxyEnv()) {
+            URI proxy = URI.create(envConfig.getProxy() + ":" + envConfig.getPort());
+            httpClientBuilder.proxyConfiguration(ProxyConfiguration.builder()
+                    .scheme(proxy.getScheme())
+                    .host(proxy.getHost())
+                    .port(proxy.getPort())
+                    .build());
+        }
+        // One event loop group is shared by all three clients
+        httpClient = httpClientBuilder.build();
+
+        DynamoDbAsyncClientBuilder dynamoDbBuilder = DynamoDbAsyncClient.builder()
+                .credentialsProvider(provider)
+                .overrideConfiguration(clientConf)
+                .httpClient(httpClient);
+        KmsAsyncClientBuilder kmsBuilder = KmsAsyncClient.builder()
+                .credentialsProvider(provider)
+                .overrideConfiguration(clientConf)
+                .httpClient(httpClient);
+        StsAsyncClientBuilder stsBuilder = StsAsyncClient.builder()
+                .credentialsProvider(provider)
+                .overrideConfiguration(clientConf)
+                .httpClient(httpClient);
+
+        if (region != null) {
+            Region awsRegion = Region.of(region);
+            dynamoDbBuilder = dynamoDbBuilder.region(awsRegion);
+            kmsBuilder = kmsBuilder.region(awsRegion);
+            stsBuilder = stsBuilder.region(awsRegion);
+        }
+
+        dynamoDbClient = dynamoDbBuilder.build();
+        kmsClient = kmsBuilder.build();
+        stsClient = stsBuilder.build();
+        cryptoImpl = new CredStashBouncyCastleCrypto();
+    }
+
+    protected FideliusAsyncClient(DynamoDbAsyncClient dynamoDbClient, KmsAsyncClient kmsClient, StsAsyncClient stsClient) {
+        this.envConfig = new EnvConfig();
+        this.dynamoDbClient = dynamoDbClient;
+        this.kmsClient = kmsClient;
+        this.stsClient = stsClient;
+        this.cryptoImpl = new CredStashBouncyCastleCrypto();
+    }
+
+    /**
+     * Caches KMS-unwrapped data keys so repeated reads of an unchanged credential version skip KMS Decrypt.
+     *
+     * @param dataKeyCache Nullable  Cache to use; null disables caching
+     */
+    public void setDataKeyCache(DataKeyCache dataKeyCache) {
+        this.dataKeyCache = dataKeyCache;
+    }
+
+    /**
+     * Sets how deleteCredential removes the versions of a credential: concurrent batches, retry backoff,
+     * overall deadline and an optional progress listener.
+     *
+     * @param config Bulk delete settings
+     */
+    public void setBulkDeleteConfig(BulkDeleteConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        this.bulkDeleteConfig = config;
+    }
+
+    /**
+     * @param name                      Base name of the credential to retrieve
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param table         Nullable    Table where credential is stored; defaults to "credential-store"
+     *
+     * @return Plaintext contents of the credential (most recent version), or null if it cannot be found
+     */
+    public CompletableFuture<String> getCredential(String name, String application, String sdlc, String component, String table) {
+        return getCredential(name, application, sdlc, component, null, table, null, true);
+    }
+
+    /**
+     * @param name                      Base name of the credential to retrieve
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param version       Nullable    Version of the credential to retrieve; defaults to latest
+     * @param table         Nullable    Table where credential is stored; defaults to "credential-store"
+     * @param user          Nullable    Name of user that requested to retrieve credential
+     * @param retryForApplication    Nullable  Boolean that enables search retry by removing component to find FID_CONTEXT_APPLICATION specific credential
+     *
+     * @return Plaintext contents of the credential, or null if it cannot be found
+     */
+    public CompletableFuture<String> getCredential(String name, String application, String sdlc, String component, Integer version,
+                                                   String table, String user, Boolean retryForApplication) {
+        String tableName = defaultTable(table);
+        HashMap<String, String> context;
+        try {
+            context = createContextMap(application, sdlc, component);
+        } catch (Exception e) {
+            return failed(e);
+        }
+        String prefixedName = FideliusClient.getPrefixedName(name, context);
+
+        CompletableFuture<String> credential = getSecret(tableName, prefixedName, context, version)
+                .handle((secret, e) -> {
+                    if (e == null) {
+                        return CompletableFuture.completedFuture(secret);
+                    }
+                    logger.info("Credential " + prefixedName + " not found. [" + unwrap(e) + "] ");
+                    if ((retryForApplication == null || retryForApplication) && context.containsKey(Constants.FID_CONTEXT_COMPONENT)) {
+                        HashMap<String, String> applicationContext = new HashMap<>(context);
+                        applicationContext.remove(Constants.FID_CONTEXT_COMPONENT);
+                        String applicationName = FideliusClient.getPrefixedName(name, applicationContext);
+                        logger.info("Retrieving " + applicationName + ": ");
+                        return getSecret(tableName, applicationName, applicationContext, version)
+                                .handle((applicationSecret, ex) -> {
+                                    if (ex != null) {
+                                        logger.error("Credential " + applicationName + " not found. ");
+                                        logger.error(unwrap(ex).toString());
+                                    }
+                                    return applicationSecret;
+                                });
+                    }
+                    logger.error(unwrap(e).toString());
+                    return CompletableFuture.<String>completedFuture(null);
+                })
+                .thenCompose(future -> future);
+
+        // the user is only logged, so a failed STS lookup falls back to "unknown" rather than failing the read
+        return credential.thenCompose(secret -> {
+            if (secret == null) {
+                return CompletableFuture.<String>completedFuture(null);
+            }
+            return resolveUser(user).handle((resolvedUser, e) -> {
+                logger.info("User " + (e == null ? resolvedUser : "unknown") + " retrieved contents of " + name);
+                return secret;
+            });
+        });
+    }
+
+    /**
+     * @param name                      Name of the secret
+     * @param contents                  Plaintext contents of the secret
+     * @param application   Nullable    FID_CONTEXT_APPLICATION Name
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod)
+     * @param component     Nullable    Component name
+     * @param table         Nullable    Table where credential is stored; defaults to 'credential-store'
+     * @param user          Nullable    User that created Credential; defaults to IAM user
+     * @param kmsKey        Nullable    Name of the KMS key used for wrapping; defaults to 'alias/credstash'
+     *
+     * @return Padded version of the credential created
+     */
+    public CompletableFuture<String> putCredential(String name, String contents, String application, String sdlc, String component,
+                                                   String table, String user, String kmsKey) {
+        String tableName = defaultTable(table);
+        String keyId = (kmsKey == null || kmsKey.length() == 0) ? Constants.DEFAULT_KMS_KEY : kmsKey;
+        HashMap<String, String> context;
+        try {
+            context = createContextMap(application, sdlc, component);
+        } catch (Exception e) {
+            return failed(e);
+        }
+        String prefixedName = FideliusClient.getPrefixedName(name, context);
+
+        return resolveUser(user).thenCompose(resolvedUser ->
+                writeNextVersion(tableName, prefixedName, contents, resolvedUser, keyId, context, 1));
+    }
+
+    /**
+     * Writes the version after the newest stored one. Every write is conditional on its version not existing,
+     * so when a concurrent writer claims the same version the newest version is read again and the write retried.
+     */
+    private CompletableFuture<String> writeNextVersion(String tableName, String prefixedName, String contents, String user,
+                                                       String keyId, Map<String, String> context, int attempt) {
+        return getHighestVersion(prefixedName, tableName)
+                .thenApply(highest -> String.format("%019d", highest + 1))
+                // generate a 64 byte key with KMS; half for data encryption, other half for HMAC
+                .thenCompose(version -> kmsClient.generateDataKey(GenerateDataKeyRequest.builder()
+                                .keyId(keyId)
+                                .encryptionContext(context)
+                                .numberOfBytes(64)
+                                .build())
+                        .thenCompose(dataKey -> {
+                            byte[] plaintextKey = dataKey.plaintext().asByteArray();
+                            EncryptedCredential encryptedCredential;
+                            try {
+                                encryptedCredential = JCredStash.encryptWithDataKey(cryptoImpl, prefixedName, contents, version, user,
+                                        plaintextKey, dataKey.ciphertextBlob().asByteArray(), context);
+                            } finally {
+                                Arrays.fill(plaintextKey, (byte) 0);
+                            }
+                            return dynamoDbClient.putItem(JCredStash.conditionalPutRequest(tableName, CredModelMapper.toDynamo(encryptedCredential)));
+                        })
+                        .handle((response, e) -> {
+                            if (e == null) {
+                                logger.info("Version " + version + " of " + prefixedName + " stored in " + tableName + " by User " + user);
+                                return CompletableFuture.completedFuture(version);
+                            }
+                            if (unwrap(e) instanceof ConditionalCheckFailedException && attempt < JCredStash.MAX_VERSION_CONFLICT_ATTEMPTS) {
+                                logger.warn("Version " + version + " of " + prefixedName + " was stored concurrently, retrying");
+                                return writeNextVersion(tableName, prefixedName, contents, user, keyId, context, attempt + 1);
+                            }
+                            return FideliusAsyncClient.<String>failed(unwrap(e));
+                        })
+                        .thenCompose(future -> future));
+    }
+
+    /**
+     * Deletes every version of a credential.
+     *
+     * @param name                      Base name of the credential to delete
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param table         Nullable    Table where credential is stored; defaults to "credential-store"
+     * @param user          Nullable    Name of the user that deleted component
+     */
+    public CompletableFuture<Void> deleteCredential(String name, String application, String sdlc, String component,
+                                                    String table, String user) {
+        String tableName = defaultTable(table);
+        HashMap<String, String> context;
+        try {
+            context = createContextMap(application, sdlc, component);
+        } catch (Exception e) {
+            return failed(e);
+        }
+        String prefixedName = FideliusClient.getPrefixedName(name, context);
+
+        return resolveUser(user).thenCompose(resolvedUser -> deleteSecret(tableName, prefixedName)
+                .thenRun(() -> logger.info("User " + resolvedUser + " deleted credential " + prefixedName)));
+    }
+
+    /**
+     * @param name                      Base name of the credential whose metadata is retrieved
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param table         Nullable    Table where credential is stored; defaults to "credential-store"
+     *
+     * @return Metadata of the credential (most recent version), or null if it cannot be found
+     */
+    public CompletableFuture<MetadataParameters> getMetadata(String name, String application, String sdlc, String component, String table) {
+        String tableName = defaultTable(table);
+        HashMap<String, String> context;
+        try {
+            context = createContextMap(application, sdlc, component);
+        } catch (Exception e) {
+            return failed(e);
+        }
+        String prefixedName = FideliusClient.getPrefixedNameForMetadata(name, context);
+
+        return readDynamoItem(tableName, prefixedName, null)
+                .thenApply(MetadataModelMapper::fromDynamo)
+                .handle((metadata, e) -> {
+                    if (e == null) {
+                        return CompletableFuture.completedFuture(metadata);
+                    }
+                    logger.info("Metadata " + prefixedName + " not found. [" + unwrap(e) + "] ");
+                    if (!context.containsKey(Constants.FID_CONTEXT_COMPONENT)) {
+                        return CompletableFuture.<MetadataParameters>completedFuture(null);
+                    }
+                    HashMap<String, String> applicationContext = new HashMap<>(context);
+                    applicationContext.remove(Constants.FID_CONTEXT_COMPONENT);
+                    String applicationName = FideliusClient.getPrefixedNameForMetadata(name, applicationContext);
+                    return readDynamoItem(tableName, applicationName, null)
+                            .thenApply(MetadataModelMapper::fromDynamo)
+                            .handle((applicationMetadata, ex) -> {
+                                if (ex != null) {
+                                    logger.error("Metadata " + applicationName + " not found. ");
+                                }
+                                return applicationMetadata;
+                            });
+                })
+                .thenCompose(future -> future);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (retryScheduler != null) {
+                retryScheduler.shutdownNow();
+            }
+        }
+        dynamoDbClient.close();
+        kmsClient.close();
+        stsClient.close();
+        if (httpClient != null) {
+            httpClient.close();
+        }
+    }
+
+    protected CompletableFuture<String> getSecret(String tableName, String prefixedName, Map<String, String> context, Integer version) {
+        return readDynamoItem(tableName, prefixedName, version)
+                .thenCompose(item -> {
+                    EncryptedCredential encryptedCredential = CredModelMapper.fromDynamo(item);
+                    return decryptKeyWithKMS(encryptedCredential.getDataKeyBytes(), context)
+                            .thenApply(plainText -> {
+                                try {
+                                    return JCredStash.decryptWithDataKey(cryptoImpl, encryptedCredential, ByteBuffer.wrap(plainText));
+                                } finally {
+                                    Arrays.fill(plainText, (byte) 0);
+                                }
+                            });
+                });
+    }
+
+    protected CompletableFuture<Map<String, AttributeValue>> readDynamoItem(String tableName, String secret, Integer version) {
+        return dynamoDbClient.query(JCredStash.readItemRequest(tableName, secret, version))
+                .thenApply(queryResponse -> {
+                    if (queryResponse.count() == 0) {
+                        throw new RuntimeException("Secret " + secret + " could not be found");
+                    }
+                    return queryResponse.items().get(0);
+                });
+    }
+
+    /**
+     * Only the newest sort key is read, so this costs one item regardless of how many versions exist.
+     */
+    protected CompletableFuture<Integer> getHighestVersion(String name, String tableName) {
+        HashMap<String, String> attributeName = new HashMap<>();
+        HashMap<String, AttributeValue> attributeValue = new HashMap<>();
+        attributeName.put("#n", "name");
+        attributeName.put("#v", "version");
+        attributeValue.put(":v_name", AttributeValue.builder().s(name).build());
+        QueryRequest request = QueryRequest.builder()
+                .tableName(tableName)
+                .scanIndexForward(false)
+                .consistentRead(true)
+                .limit(1)
+                .keyConditionExpression("#n = :v_name")
+                .expressionAttributeValues(attributeValue)
+                .expressionAttributeNames(attributeName)
+                .projectionExpression("#v")
+                .build();
+
+        return dynamoDbClient.query(request).thenApply(response -> response.items().isEmpty()
+                ? 0
+                : Integer.parseInt(response.items().get(0).get("version").s()));
+    }
+
+    /**
+     * Deletes every version of a secret with the same batching, backoff, deadline and progress reporting as
+     * {@link FideliusClient}, following {@link BulkDeleteConfig}. Once all batches finish the versions are read
+     * again, so any written while the delete was running are removed too.
+     *
+     * Completes exceptionally with {@link BulkDeleteException} if some versions were still not deleted when the
+     * deadline passed.
+     */
+    protected CompletableFuture<Void> deleteSecret(String tableName, String secretName) {
+        BulkDeleteConfig config = bulkDeleteConfig != null ? bulkDeleteConfig : new BulkDeleteConfig();
+        JCredStash.BulkDelete delete = new JCredStash.BulkDelete(tableName, secretName, config, FideliusMetrics.NOOP,
+                dynamoDbClient::batchWriteItem, this::delay);
+        return deletePass(delete, tableName, secretName, new HashSet<>(), 0)
+                .thenRun(() -> {
+                    if (delete.hasFailures()) {
+                        throw delete.toException();
+                    }
+                });
+    }
+
+    private CompletableFuture<Void> deletePass(JCredStash.BulkDelete delete, String tableName, String secretName,
+                                               Set<String> submittedVersions, int pass) {
+        return queryAllVersions(tableName, secretName, null, new ArrayList<>())
+                .thenCompose(keys -> {
+                    List<Map<String, AttributeValue>> newKeys = new ArrayList<>();
+                    for (Map<String, AttributeValue> key : keys) {
+                        if (submittedVersions.add(key.get("version").s())) {
+                            newKeys.add(key);
+                        }
+                    }
+                    if (pass == 0 && newKeys.isEmpty()) {
+                        throw new RuntimeException("Secret " + secretName + " could not be found");
+                    }
+                    if (newKeys.isEmpty()) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    return delete.sendAll(newKeys).thenCompose(ignored -> delete.expired()
+                            ? CompletableFuture.<Void>completedFuture(null)
+                            : deletePass(delete, tableName, secretName, submittedVersions, pass + 1));
+                });
+    }
+
+    private CompletableFuture<List<Map<String, AttributeValue>>> queryAllVersions(String tableName, String secretName,
+                                                                                Map<String, AttributeValue> startKey,
+                                                                                List<Map<String, AttributeValue>> keys) {
+        HashMap<String, String> attributeName = new HashMap<>();
+        HashMap<String, AttributeValue> attributeValue = new HashMap<>();
+        attributeName.put("#n", "name");
+        attributeName.put("#v", "version");
+        attributeValue.put(":v_name", AttributeValue.builder().s(secretName).build());
+        QueryRequest request = QueryRequest.builder()
+                .tableName(tableName)
+                .consistentRead(true)
+                .keyConditionExpression("#n = :v_name")
+                .expressionAttributeValues(attributeValue)
+                .expressionAttributeNames(attributeName)
+                .projectionExpression("#n, #v")
+                .exclusiveStartKey(startKey)
+                .build();
+
+        return dynamoDbClient.query(request).thenCompose(response -> {
+            for (Map<String, AttributeValue> item : response.items()) {
+                keys.add(JCredStash.filterItemMapForDeletion(item));
+            }
+            if (response.lastEvaluatedKey() == null || response.lastEvaluatedKey().isEmpty()) {
+                return CompletableFuture.completedFuture(keys);
+            }
+            return queryAllVersions(tableName, secretName, response.lastEvaluatedKey(), keys);
+        });
+    }
+
+    /**
+     * Completes with the unwrapped data key; the array belongs to the caller, who must wipe it after use.
+     */
+    private CompletableFuture<byte[]> decryptKeyWithKMS(byte[] encryptedKeyBytes, Map<String, String> context) {
+        DataKeyCache cache = dataKeyCache;
+        if (cache != null) {
+            byte[] cachedKey = cache.get(kmsClient, encryptedKeyBytes, context);
+            if (cachedKey != null) {
+                return CompletableFuture.completedFuture(cachedKey);
+            }
+        }
+
+        return kmsClient.decrypt(DecryptRequest.builder()
+                        .ciphertextBlob(SdkBytes.fromByteArray(encryptedKeyBytes))
+                        .encryptionContext(context)
+                        .build())
+                .thenApply(decryptResponse -> {
+                    byte[] plainText = decryptResponse.plaintext().asByteArrayUnsafe();
+                    if (cache != null) {
+                        cache.put(kmsClient, encryptedKeyBytes, context, plainText);
+                    }
+                    return plainText;
+                });
+    }
+
+    /**
+     * The caller identity is looked up once and shared by every operation; a failed lookup is retried on the next call.
+     */
+    protected CompletableFuture<String> resolveUser(String user) {
+        if (user != null && user.length() > 0) {
+            return CompletableFuture.completedFuture(user);
+        }
+        CompletableFuture<String> resolved = callerUser;
+        if (resolved == null || resolved.isCompletedExceptionally()) {
+            synchronized (this) {
+                resolved = callerUser;
+                if (resolved == null || resolved.isCompletedExceptionally()) {
+                    resolved = stsClient.getCallerIdentity(GetCallerIdentityRequest.builder().build())
+                            .handle((identity, e) -> {
+                                if (e != null) {
+                                    logger.error("Failed to determine user: " + unwrap(e));
+                                    throw new RuntimeException(unwrap(e));
+                                }
+                                String[] userTokens = identity.arn().split(":assumed-role/");
+                                return userTokens.length > 1 ? userTokens[1] : userTokens[0];
+                            });
+                    callerUser = resolved;
+                }
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Context comes from the arguments or, failing that, from environment variables; EC2 tags are not consulted.
+     */
+    protected HashMap<String, String> createContextMap(String application, String sdlc, String component) throws Exception {
+        HashMap<String, String> context = new HashMap<String, String>();
+        if (application == null || sdlc == null) {
+            if (!envConfig.hasAgsSdlcEnv()) {
+                logger.error(Constants.FID_CONTEXT_APPLICATION + " or " + Constants.FID_CONTEXT_SDLC + " not specified and cannot be retrieved from environment.");
+                throw new Exception(Constants.FID_CONTEXT_APPLICATION + " or " + Constants.FID_CONTEXT_SDLC + " not specified and cannot be retrieved from environment.");
+            }
+            context.put(Constants.FID_CONTEXT_APPLICATION, envConfig.getApplication().toUpperCase());
+            context.put(Constants.FID_CONTEXT_SDLC, envConfig.getSdlc().toLowerCase());
+            if (envConfig.hasComponentEnv()) {
+                context.put(Constants.FID_CONTEXT_COMPONENT, envConfig.getComponent().toLowerCase());
+            }
+        } else {
+            context.put(Constants.FID_CONTEXT_APPLICATION, application.toUpperCase());
+            context.put(Constants.FID_CONTEXT_SDLC, sdlc.toLowerCase());
+            if (component != null && component.length() > 0) {
+                context.put(Constants.FID_CONTEXT_COMPONENT, component.toLowerCase());
+            }
+        }
+        return context;
+    }
+
+    private CompletableFuture<Void> delay(long nanos) {
+        CompletableFuture<Void> delayed = new CompletableFuture<>();
+        getRetryScheduler().schedule(() -> delayed.complete(null), nanos, TimeUnit.NANOSECONDS);
+        return delayed;
+    }
+
+    private synchronized ScheduledExecutorService getRetryScheduler() {
+        if (retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fidelius-async-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return retryScheduler;
+    }
+
+    private static String defaultTable(String table) {
+        return (table == null || table.length() == 0) ? Constants.DEFAULT_TABLE : table;
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
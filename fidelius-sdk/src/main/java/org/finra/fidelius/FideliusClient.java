@@ -18,9 +18,22 @@
 package org.finra.fidelius;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -31,25 +44,22 @@ import software.amazon.awssdk.auth.credentials.AwsCredentialsProviderChain;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.awscore.retry.AwsRetryPolicy;
 import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.client.config.SdkClientConfiguration;
 import software.amazon.awssdk.core.internal.http.loader.DefaultSdkHttpClientBuilder;
 import software.amazon.awssdk.http.SdkHttpClient;
-import software.amazon.awssdk.http.apache.ApacheHttpClient;
 import software.amazon.awssdk.http.apache.ProxyConfiguration;
 import software.amazon.awssdk.http.apache.internal.impl.ApacheSdkHttpClient;
 import software.amazon.awssdk.regions.internal.util.EC2MetadataUtils;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
 import software.amazon.awssdk.services.ec2.Ec2Client;
-import software.amazon.awssdk.services.ec2.Ec2ClientBuilder;
 import software.amazon.awssdk.services.ec2.model.*;
 import software.amazon.awssdk.services.kms.KmsClient;
-import software.amazon.awssdk.services.kms.KmsClientBuilder;
 import software.amazon.awssdk.services.lambda.LambdaClient;
-import software.amazon.awssdk.services.lambda.LambdaClientBuilder;
 import software.amazon.awssdk.services.sts.StsClient;
-import software.amazon.awssdk.services.sts.StsClientBuilder;
-import software.amazon.awssdk.services.sts.model.GetCallerIdentityRequest;
 
 import javax.swing.plaf.synth.Region;
 
@@ -57,14 +67,31 @@ import javax.swing.plaf.synth.Region;
 public class FideliusClient {
     private static final Logger logger = LoggerFactory.getLogger(FideliusClient.class);
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int DEFAULT_BULK_PARALLELISM = 10;
+    private static final Duration STREAM_POLL_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration DEFAULT_WATCH_POLL_INTERVAL = Duration.ofSeconds(30);
 
     protected EnvConfig envConfig;
     protected ProxyConfiguration proxyConfig;
-    protected JCredStash jCredStash;
+    protected volatile JCredStash jCredStash;
     protected StsClient stsClient;
-
-    private final Ec2Client ec2Client;
-    private final LambdaClient lambdaClient;
+    protected AwsCredentialsProvider credentialsProvider;
+    protected CallerIdentityResolver callerIdentity;
+    protected volatile Map<String, String> defaultContext;
+    protected volatile CredentialCache credentialCache;
+    protected volatile CredentialDiskCache diskCache;
+    protected volatile FideliusMetrics metrics = FideliusMetrics.NOOP;
+    protected volatile InFlightRequests inFlightRequests;
+    protected ExecutorService bulkExecutor;
+    private int bulkParallelism = DEFAULT_BULK_PARALLELISM;
+    protected Map<String, CredentialWatcher> watchers;
+    private Duration watchPollInterval = DEFAULT_WATCH_POLL_INTERVAL;
+    private FideliusClientConfig clientSettings;
+    private ClientOverrideConfiguration clientConfiguration;
+    private SdkHttpClient httpClient;
+    private DynamoDbStreamsClient streamsClient;
+    private Ec2Client ec2Client;
+    private LambdaClient lambdaClient;
 
     public FideliusClient() {
         this(null, AwsCredentialsProviderChain.builder().addCredentialsProvider(DefaultCredentialsProvider.create()).build());
@@ -79,60 +106,416 @@ public class FideliusClient {
     }
 
     public FideliusClient(ClientOverrideConfiguration clientConf, AwsCredentialsProvider provider, String region) {
+        this(new FideliusClientConfig()
+                .setOverrideConfiguration(clientConf)
+                .setCredentialsProvider(provider)
+                .setRegion(region));
+    }
 
+    /**
+     * Builds every AWS client on one shared HTTP client configured from the given settings. The EC2, Lambda and
+     * DynamoDB Streams clients are only built when first needed.
+     *
+     * @param config Region, credentials, connection pool, timeouts, retry policy and proxy
+     */
+    public FideliusClient(FideliusClientConfig config) {
         envConfig = new EnvConfig();
-        ClientOverrideConfiguration kmsEc2ClientConfiguration = clientConf;
+        credentialsProvider = config.resolveCredentialsProvider();
+        proxyConfig = config.resolveProxyConfiguration(envConfig);
+        clientConfiguration = config.buildOverrideConfiguration();
+        httpClient = config.buildHttpClient(envConfig);
+        clientSettings = config;
+
+        stsClient = config.configure(StsClient.builder(), credentialsProvider, clientConfiguration, httpClient).build();
+        jCredStash = new JCredStash(
+                config.configure(DynamoDbClient.builder(), credentialsProvider, clientConfiguration, httpClient).build(),
+                config.configure(KmsClient.builder(), credentialsProvider, clientConfiguration, httpClient).build(),
+                stsClient);
+    }
+
+    /**
+     * Creates a client that shares the settings, HTTP client, STS client and caller identity of the given one
+     * but reads and writes through the given DynamoDB and KMS clients, e.g. one instance per account and region.
+     * Credential, disk and data key caches are not shared, so nothing decrypted with one KMS client is handed
+     * out through another.
+     *
+     * @param template Client whose settings are reused
+     * @param ddb      DynamoDB client for the target table
+     * @param kms      KMS client used to wrap and unwrap data keys
+     */
+    protected FideliusClient(FideliusClient template, DynamoDbClient ddb, KmsClient kms) {
+        envConfig = template.envConfig;
+        proxyConfig = template.proxyConfig;
+        credentialsProvider = template.credentialsProvider;
+        clientSettings = template.clientSettings;
+        clientConfiguration = template.clientConfiguration;
+        httpClient = template.httpClient;
+        stsClient = template.stsClient;
+        metrics = template.metrics();
+        callerIdentity = template.getCallerIdentity();
 
-        if(clientConf==null){
-            clientConf = defaultClientConfiguration(envConfig);
-            kmsEc2ClientConfiguration = defaultClientConfiguration(envConfig);
+        jCredStash = new JCredStash(ddb, kms, stsClient);
+        jCredStash.setCallerIdentity(callerIdentity);
+        jCredStash.setMetrics(metrics);
+        if (template.jCredStash != null) {
+            jCredStash.cryptoImpl = template.jCredStash.cryptoImpl;
+            jCredStash.setBulkDeleteConfig(template.jCredStash.bulkDeleteConfig);
+            jCredStash.setApplicationIndex(template.jCredStash.applicationIndex);
         }
+    }
 
-        DynamoDbClientBuilder dynamoDbBuilder = DynamoDbClient.builder()
-                .credentialsProvider(provider)
-                .overrideConfiguration(clientConf);
+    protected void setFideliusClient(DynamoDbClient ddb, KmsClient kms) {
+        DataKeyCache dataKeyCache = jCredStash != null ? jCredStash.dataKeyCache : null;
+        CredStashCrypto cryptoImpl = jCredStash != null ? jCredStash.cryptoImpl : null;
+        BulkDeleteConfig bulkDeleteConfig = jCredStash != null ? jCredStash.bulkDeleteConfig : null;
+        String applicationIndex = jCredStash != null ? jCredStash.applicationIndex : null;
+        JCredStash previous = jCredStash;
+        if (dataKeyCache != null && previous.kmsClient != kms) {
+            // keys unwrapped with the old client's credentials must not be served to callers of the new one
+            DataKeyCache emptyCache = dataKeyCache.newEmptyCopy();
+            dataKeyCache.invalidateAll();
+            dataKeyCache = emptyCache;
+        }
+        jCredStash = new JCredStash(ddb, kms, stsClient);
+        jCredStash.setDataKeyCache(dataKeyCache);
+        jCredStash.setApplicationIndex(applicationIndex);
+        if (bulkDeleteConfig != null)
+            jCredStash.setBulkDeleteConfig(bulkDeleteConfig);
+        if (cryptoImpl != null)
+            jCredStash.cryptoImpl = cryptoImpl;
+        jCredStash.setCallerIdentity(callerIdentity);
+        jCredStash.setMetrics(metrics);
+        if (previous != null) {
+            jCredStash.setCircuitBreakers(previous.dynamoDbBreaker, previous.kmsBreaker);
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Replaces the AES/HMAC implementation, e.g. with a {@link CredStashJceCrypto} bound to a specific JCE provider.
+     *
+     * @param cryptoImpl Thread-safe implementation used for every encrypt, decrypt and HMAC check
+     */
+    public void setCryptoImplementation(CredStashCrypto cryptoImpl) {
+        if (cryptoImpl == null) {
+            throw new IllegalArgumentException("cryptoImpl must not be null");
+        }
+        jCredStash.cryptoImpl = cryptoImpl;
+    }
+
+    /**
+     * Reports timings of DynamoDB, KMS, STS, EC2 and crypto phases, cache hits and misses and retries to the
+     * given metrics implementation, e.g. a bridge to Micrometer or OpenTelemetry.
+     *
+     * @param metrics  Nullable  Metrics to report to; null restores the no-op default
+     */
+    public synchronized void setMetrics(FideliusMetrics metrics) {
+        this.metrics = metrics == null ? FideliusMetrics.NOOP : metrics;
+        jCredStash.setMetrics(this.metrics);
+        if (callerIdentity != null)
+            callerIdentity.setMetrics(this.metrics);
+        CredentialCache cache = credentialCache;
+        if (cache != null)
+            cache.setMetrics(this.metrics);
+    }
 
-        KmsClientBuilder kmsBuilder = KmsClient.builder()
-                .credentialsProvider(provider)
-                .overrideConfiguration(kmsEc2ClientConfiguration);
+    /**
+     * @return Configured metrics; never null, even on partially constructed instances
+     */
+    protected FideliusMetrics metrics() {
+        FideliusMetrics current = metrics;
+        return current == null ? FideliusMetrics.NOOP : current;
+    }
 
-        StsClientBuilder stsBuilder =  StsClient.builder()
-                .overrideConfiguration(clientConf)
-                .credentialsProvider(provider);
+    /**
+     * Caches KMS-unwrapped data keys so repeated reads of an unchanged credential version skip KMS Decrypt.
+     * HMAC verification and AES decryption still run on every read.
+     *
+     * @param timeToLive    How long an unwrapped key may be reused; keep this short
+     * @param maximumSize   Maximum number of unwrapped keys held
+     * @param maximumUses   Maximum number of reads served from one unwrapped key
+     */
+    public void enableDataKeyCache(Duration timeToLive, int maximumSize, int maximumUses) {
+        jCredStash.setDataKeyCache(new DataKeyCache(timeToLive, maximumSize, maximumUses));
+    }
 
-        Ec2ClientBuilder clientBuilder = Ec2Client.builder()
-                .credentialsProvider(provider)
-                .overrideConfiguration(kmsEc2ClientConfiguration);
+    public void disableDataKeyCache() {
+        if (jCredStash.dataKeyCache != null) {
+            jCredStash.dataKeyCache.invalidateAll();
+        }
+        jCredStash.setDataKeyCache(null);
+    }
 
-        LambdaClientBuilder lambdaClientBuilder = LambdaClient.builder()
-                .credentialsProvider(provider)
-                .overrideConfiguration(clientConf);
+    /**
+     * Enables an in-memory cache of decrypted credentials so repeated reads skip DynamoDB and KMS.
+     * Any previously enabled cache is closed and its contents wiped.
+     *
+     * @param config Cache TTL, refresh-ahead window and maximum size
+     */
+    public void enableCredentialCache(CredentialCacheConfig config) {
+        disableCredentialCache();
+        CredentialCache cache = new CredentialCache(config);
+        cache.setMetrics(metrics());
+        credentialCache = cache;
+    }
 
-        if(region != null){
-            software.amazon.awssdk.regions.Region awsRegion = software.amazon.awssdk.regions.Region.of(region);
-            dynamoDbBuilder = dynamoDbBuilder.region(awsRegion);
-            kmsBuilder = kmsBuilder.region(awsRegion);
-            stsBuilder = stsBuilder.region(awsRegion);
-            clientBuilder = clientBuilder.region(awsRegion);
-            lambdaClientBuilder = lambdaClientBuilder.region(awsRegion);
+    public void disableCredentialCache() {
+        if (credentialCache != null) {
+            credentialCache.close();
+            credentialCache = null;
         }
-        if(envConfig.hasProxyEnv()) {
-            SdkHttpClient sdkHttpClient = ApacheHttpClient.builder()
-                    .proxyConfiguration(proxyConfig).build();
-            dynamoDbBuilder = dynamoDbBuilder.httpClient(sdkHttpClient);
-            kmsBuilder = kmsBuilder.httpClient(sdkHttpClient);
-            stsBuilder = stsBuilder.httpClient(sdkHttpClient);
-            clientBuilder = clientBuilder.httpClient(sdkHttpClient);
-            lambdaClientBuilder = lambdaClientBuilder.httpClient(sdkHttpClient);
+    }
+
+    /**
+     * Enables a persistent cache of the encrypted DynamoDB items of credentials read with getCredential, so a
+     * restart only needs a version check and a KMS decrypt, and can keep serving recently confirmed credentials
+     * while DynamoDB is unreachable. Any previously enabled disk cache is closed.
+     *
+     * @param config Cache file and how stale an item may be when served during an outage
+     */
+    public void enableCredentialDiskCache(CredentialDiskCacheConfig config) {
+        disableCredentialDiskCache();
+        diskCache = new CredentialDiskCache(config);
+    }
+
+    public void disableCredentialDiskCache() {
+        if (diskCache != null) {
+            diskCache.close();
+            diskCache = null;
         }
-        lambdaClient = lambdaClientBuilder.build();
-        ec2Client = clientBuilder.build();
-        stsClient = stsBuilder.build();
-        jCredStash = new JCredStash(dynamoDbBuilder.build(), kmsBuilder.build(), stsClient);
     }
 
-    protected void setFideliusClient(DynamoDbClient ddb, KmsClient kms) {
-        jCredStash = new JCredStash(ddb, kms, stsClient);
+    /**
+     * Removes every cached version of a credential from this client's in-memory and disk caches.
+     *
+     * @param name                      Base name of the credential
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param table         Nullable    Table where credential is stored; defaults to "credential-store"
+     * @throws Exception - if the context cannot be determined
+     */
+    public void invalidateCredential(String name, String application, String sdlc, String component, String table) throws Exception {
+        if (credentialCache == null && diskCache == null)
+            return;
+
+        if (table == null || table.length() == 0)
+            table = Constants.DEFAULT_TABLE;
+
+        String prefixedName = getPrefixedName(name, createContextMap(application, sdlc, component));
+        if (credentialCache != null)
+            credentialCache.invalidate(table, prefixedName);
+        if (diskCache != null)
+            diskCache.invalidate(table, prefixedName);
+    }
+
+    /**
+     * Protects the reads behind getCredential during backend trouble: DynamoDB and KMS each get a circuit breaker
+     * that refuses calls for a while after repeated failures, concurrent reads of the same credential share one
+     * backend call, and the number of backend loads in flight is bounded. Refused and failed reads behave like
+     * any other failed read; combine this with a credential cache that has a stale grace period to keep serving
+     * the last known good value instead.
+     *
+     * @param config Failure threshold, open duration and concurrency limit
+     */
+    public void enableResilience(ResilienceConfig config) {
+        jCredStash.setCircuitBreakers(
+                new CircuitBreaker("DynamoDB", config.getFailureThreshold(), config.getOpenDuration()),
+                new CircuitBreaker("KMS", config.getFailureThreshold(), config.getOpenDuration()));
+        inFlightRequests = new InFlightRequests(config.getMaximumConcurrentRequests());
+    }
+
+    public void disableResilience() {
+        jCredStash.setCircuitBreakers(null, null);
+        inFlightRequests = null;
+    }
+
+    public void invalidateAllCredentials() {
+        if (credentialCache != null) {
+            credentialCache.invalidateAll();
+        }
+        if (diskCache != null) {
+            diskCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Sets how many credentials bulk operations read, decrypt or write at the same time.
+     *
+     * @param bulkParallelism Maximum number of concurrent backend calls made by one bulk operation
+     */
+    public synchronized void setBulkParallelism(int bulkParallelism) {
+        if (bulkParallelism < 1) {
+            throw new IllegalArgumentException("bulkParallelism must be at least 1");
+        }
+        this.bulkParallelism = bulkParallelism;
+        if (bulkExecutor != null) {
+            bulkExecutor.shutdown();
+            bulkExecutor = null;
+        }
+    }
+
+    /**
+     * Makes getAllCredentials read an application's credentials from a global secondary index with partition key
+     * "application" and sort key "name" instead of scanning the whole table. Credentials written before the
+     * application attribute existed are only found once the table has been backfilled; if the table does not have
+     * the index, getAllCredentials logs a warning and scans the table as before.
+     *
+     * @param indexName Nullable  Name of the index, e.g. "application-index"; null always scans
+     */
+    public void setApplicationIndex(String indexName) {
+        if (indexName != null && indexName.isEmpty()) {
+            throw new IllegalArgumentException("indexName must not be empty");
+        }
+        jCredStash.setApplicationIndex(indexName);
+    }
+
+    /**
+     * Sets how deleteCredential removes the versions of a credential: concurrent batches, retry backoff,
+     * overall deadline and an optional progress listener.
+     *
+     * @param config Bulk delete settings
+     */
+    public void setBulkDeleteConfig(BulkDeleteConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        jCredStash.setBulkDeleteConfig(config);
+    }
+
+    /**
+     * Subscribes to new versions and deletion of a credential. The client's own cached copies are invalidated
+     * before the listener is called. Changes are read from the table's DynamoDB stream when it has one, and
+     * otherwise found by polling the latest version (see {@link #setWatchPollInterval(Duration)}).
+     * The FID_CONTEXT_APPLICATION, FID_CONTEXT_SDLC, and (optionally) Component will be determined from the instance metadata
+     *
+     * @param name      Base name of the credential
+     * @param listener  Called on a background thread for every change
+     *
+     * @return Subscription to close once events are no longer wanted
+     * @throws Exception - if the context cannot be determined
+     */
+    public CredentialWatcher.Subscription watch(String name, CredentialChangeListener listener) throws Exception {
+        return watch(name, null, null, null, Constants.DEFAULT_TABLE, listener);
+    }
+
+    /**
+     *
+     * @param name                      Base name of the credential
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component; only that component's credential is watched
+     * @param table         Nullable    Table where credential is stored; defaults to "credential-store"
+     * @param listener                  Called on a background thread for every change
+     *
+     * @return Subscription to close once events are no longer wanted
+     * @throws Exception - if the context cannot be determined
+     */
+    public CredentialWatcher.Subscription watch(String name, String application, String sdlc, String component, String table,
+                                                CredentialChangeListener listener) throws Exception {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        if (table == null || table.length() == 0)
+            table = Constants.DEFAULT_TABLE;
+
+        String prefixedName = getPrefixedName(name, createContextMap(application, sdlc, component));
+        return getWatcher(table).subscribe(prefixedName, listener);
+    }
+
+    /**
+     * @param watchPollInterval How often watched credentials are checked when their table has no DynamoDB stream;
+     *                          applies to tables watched after this call
+     */
+    public synchronized void setWatchPollInterval(Duration watchPollInterval) {
+        if (watchPollInterval == null || watchPollInterval.isNegative() || watchPollInterval.isZero()) {
+            throw new IllegalArgumentException("watchPollInterval must be positive");
+        }
+        this.watchPollInterval = watchPollInterval;
+    }
+
+    /**
+     * Ends every subscription made with watch and stops the background readers.
+     */
+    public synchronized void stopWatching() {
+        if (watchers == null) {
+            return;
+        }
+        for (CredentialWatcher watcher : watchers.values()) {
+            watcher.close();
+        }
+        watchers.clear();
+    }
+
+    protected synchronized CredentialWatcher getWatcher(String table) {
+        if (watchers == null) {
+            watchers = new HashMap<>();
+        }
+        CredentialWatcher watcher = watchers.get(table);
+        if (watcher == null) {
+            Duration pollInterval = watchPollInterval != null ? watchPollInterval : DEFAULT_WATCH_POLL_INTERVAL;
+            watcher = new CredentialWatcher(table, jCredStash, getStreamsClient(), STREAM_POLL_INTERVAL, pollInterval,
+                    event -> invalidateCached(event.getTable(), event.getName()));
+            watcher.start();
+            watchers.put(table, watcher);
+        }
+        return watcher;
+    }
+
+    protected synchronized DynamoDbStreamsClient getStreamsClient() {
+        if (streamsClient == null && clientSettings != null) {
+            streamsClient = clientSettings.configure(DynamoDbStreamsClient.builder(), credentialsProvider, clientConfiguration, httpClient).build();
+        }
+        return streamsClient;
+    }
+
+    /**
+     * Built on first use, since only hosts that resolve their context from instance tags need it.
+     */
+    protected synchronized Ec2Client getEc2Client() {
+        if (ec2Client == null && clientSettings != null) {
+            ec2Client = clientSettings.configure(Ec2Client.builder(), credentialsProvider, clientConfiguration, httpClient).build();
+        }
+        return ec2Client;
+    }
+
+    protected synchronized LambdaClient getLambdaClient() {
+        if (lambdaClient == null && clientSettings != null) {
+            lambdaClient = clientSettings.configure(LambdaClient.builder(), credentialsProvider, clientConfiguration, httpClient).build();
+        }
+        return lambdaClient;
+    }
+
+    private void invalidateCached(String table, String prefixedName) {
+        if (credentialCache != null)
+            credentialCache.invalidate(table, prefixedName);
+        if (diskCache != null)
+            diskCache.invalidate(table, prefixedName);
+    }
+
+    /**
+     * Stops the bulk and delete thread pools once the calls running on them finish. The client must not be used
+     * afterwards; the DynamoDB and KMS clients it was given stay open for their owner to close.
+     */
+    protected synchronized void shutdown() {
+        if (bulkExecutor != null) {
+            bulkExecutor.shutdown();
+            bulkExecutor = null;
+        }
+        jCredStash.shutdown();
+    }
+
+    protected synchronized ExecutorService getBulkExecutor() {
+        if (bulkExecutor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            int parallelism = bulkParallelism > 0 ? bulkParallelism : DEFAULT_BULK_PARALLELISM;
+            bulkExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "fidelius-bulk-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return bulkExecutor;
     }
 
     protected ClientOverrideConfiguration defaultClientConfiguration(EnvConfig envConfig){
@@ -143,7 +526,7 @@ public class FideliusClient {
         return clientConfiguration;
     }
 
-    private  String getPrefixedName(String credentialName, Map tags) {
+    static String getPrefixedName(String credentialName, Map tags) {
         if (tags.containsKey(Constants.FID_CONTEXT_APPLICATION) && tags.containsKey(Constants.FID_CONTEXT_SDLC)) {
             String prefixedName;
             if (tags.containsKey(Constants.FID_CONTEXT_COMPONENT)) {
@@ -157,7 +540,7 @@ public class FideliusClient {
         }
     }
 
-    private  String getPrefixedNameForMetadata(String credentialName, Map tags) {
+    static String getPrefixedNameForMetadata(String credentialName, Map tags) {
         if (tags.containsKey(Constants.FID_CONTEXT_APPLICATION) && tags.containsKey(Constants.FID_CONTEXT_SDLC)) {
             String prefixedName;
             if (tags.containsKey(Constants.FID_CONTEXT_COMPONENT)) {
@@ -176,7 +559,8 @@ public class FideliusClient {
         String instanceID = EC2MetadataUtils.getInstanceId();
 
         DescribeInstancesRequest instancesRequest = DescribeInstancesRequest.builder().instanceIds(instanceID).build();
-        DescribeInstancesResponse instancesResult = ec2Client.describeInstances(instancesRequest);
+        DescribeInstancesResponse instancesResult = JCredStash.timed(metrics(), FideliusMetrics.Operation.EC2_TAG_LOOKUP,
+                () -> getEc2Client().describeInstances(instancesRequest));
 
         // There should only be one Instance with identical instanceID
         List<Reservation> reservations = instancesResult.reservations();
@@ -201,45 +585,80 @@ public class FideliusClient {
 
         // First preference is for FID_CONTEXT_APPLICATION/FID_CONTEXT_SDLC values passed directly to the API.If they are null, then second check is for env variables. Last option is for EC2 tags.
         if (application == null || sdlc == null) {
+            context.putAll(getDefaultContext());
+        } else {
+            context.put(Constants.FID_CONTEXT_APPLICATION, application.toUpperCase());
+            context.put(Constants.FID_CONTEXT_SDLC, sdlc.toLowerCase());
+            if (component != null && component.length() > 0) {
+                context.put(Constants.FID_CONTEXT_COMPONENT, component.toLowerCase());
+            }
+        }
+        return context;
+    }
 
-            //check env values
-            boolean valid = false;
-
-            if (envConfig.hasAgsSdlcEnv()) {
-                context.put(Constants.FID_CONTEXT_APPLICATION, envConfig.getApplication().toUpperCase());
-                context.put(Constants.FID_CONTEXT_SDLC, envConfig.getSdlc().toLowerCase());
-                if (envConfig.hasComponentEnv()) {
-                    context.put(Constants.FID_CONTEXT_COMPONENT,
-                            envConfig.getComponent().toLowerCase());
+    /**
+     * Context used when the caller does not pass FID_CONTEXT_APPLICATION/FID_CONTEXT_SDLC. It is resolved from
+     * env variables or EC2 tags on first use and kept for the life of the client, since neither changes while
+     * the process runs. A failed lookup is not kept, so the next call tries again.
+     *
+     * @return Unmodifiable context for this host
+     * @throws Exception - if the context cannot be retrieved from tags or environment
+     */
+    protected Map<String, String> getDefaultContext() throws Exception {
+        Map<String, String> resolved = defaultContext;
+        if (resolved == null) {
+            synchronized (this) {
+                resolved = defaultContext;
+                if (resolved == null) {
+                    resolved = Collections.unmodifiableMap(resolveDefaultContext());
+                    defaultContext = resolved;
                 }
-                valid = true;
             }
+        }
+        return resolved;
+    }
 
-            // check EC2 tags
-            if(!valid ) {
-                HashMap<String, String> tags = getEC2Tags();
+    /**
+     * Drops the cached host context so the next call reads env variables and EC2 tags again.
+     */
+    public void refreshContext() {
+        defaultContext = null;
+    }
 
-                if (tags != null && tags.containsKey(Constants.FID_CONTEXT_APPLICATION) && tags.containsKey(Constants.FID_CONTEXT_SDLC)) {
-                    context.put(Constants.FID_CONTEXT_APPLICATION, tags.get(Constants.FID_CONTEXT_APPLICATION).toUpperCase());
-                    context.put(Constants.FID_CONTEXT_SDLC, tags.get(Constants.FID_CONTEXT_SDLC).toLowerCase());
-                    if (tags.keySet().contains(Constants.FID_CONTEXT_COMPONENT)) {
-                        context.put(Constants.FID_CONTEXT_COMPONENT, tags.get(Constants.FID_CONTEXT_COMPONENT).toLowerCase());
-                    }
-                    valid = true;
-                }
-            }
+    private HashMap<String, String> resolveDefaultContext() throws Exception {
+        HashMap<String, String> context = new HashMap<String, String>();
+
+        //check env values
+        boolean valid = false;
 
-            if(!valid){
-                logger.error(Constants.FID_CONTEXT_APPLICATION + " or " + Constants.FID_CONTEXT_SDLC + " not specified and cannot be retrieved from tags or environment.");
-                throw new Exception(Constants.FID_CONTEXT_APPLICATION + " or " + Constants.FID_CONTEXT_SDLC + " not specified and cannot be retrieved from tags or environment.");
+        if (envConfig.hasAgsSdlcEnv()) {
+            context.put(Constants.FID_CONTEXT_APPLICATION, envConfig.getApplication().toUpperCase());
+            context.put(Constants.FID_CONTEXT_SDLC, envConfig.getSdlc().toLowerCase());
+            if (envConfig.hasComponentEnv()) {
+                context.put(Constants.FID_CONTEXT_COMPONENT,
+                        envConfig.getComponent().toLowerCase());
             }
-        } else {
-            context.put(Constants.FID_CONTEXT_APPLICATION, application.toUpperCase());
-            context.put(Constants.FID_CONTEXT_SDLC, sdlc.toLowerCase());
-            if (component != null && component.length() > 0) {
-                context.put(Constants.FID_CONTEXT_COMPONENT, component.toLowerCase());
+            valid = true;
+        }
+
+        // check EC2 tags
+        if(!valid ) {
+            HashMap<String, String> tags = getEC2Tags();
+
+            if (tags != null && tags.containsKey(Constants.FID_CONTEXT_APPLICATION) && tags.containsKey(Constants.FID_CONTEXT_SDLC)) {
+                context.put(Constants.FID_CONTEXT_APPLICATION, tags.get(Constants.FID_CONTEXT_APPLICATION).toUpperCase());
+                context.put(Constants.FID_CONTEXT_SDLC, tags.get(Constants.FID_CONTEXT_SDLC).toLowerCase());
+                if (tags.keySet().contains(Constants.FID_CONTEXT_COMPONENT)) {
+                    context.put(Constants.FID_CONTEXT_COMPONENT, tags.get(Constants.FID_CONTEXT_COMPONENT).toLowerCase());
+                }
+                valid = true;
             }
         }
+
+        if(!valid){
+            logger.error(Constants.FID_CONTEXT_APPLICATION + " or " + Constants.FID_CONTEXT_SDLC + " not specified and cannot be retrieved from tags or environment.");
+            throw new Exception(Constants.FID_CONTEXT_APPLICATION + " or " + Constants.FID_CONTEXT_SDLC + " not specified and cannot be retrieved from tags or environment.");
+        }
         return context;
     }
 
@@ -258,8 +677,48 @@ public class FideliusClient {
         }
     }
 
+    /**
+     * Reads only need the user for their log line, so it is looked up when that line is written and an STS
+     * outage or throttling never fails the read itself.
+     *
+     * @param user Nullable  User given by the caller
+     * @return The given user, else the caller identity, else "unknown" if it cannot be determined
+     */
+    protected String userForLog(String user) {
+        if (user != null && user.length() > 0) {
+            return user;
+        }
+        try {
+            return getUser();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
     protected String getUserIdentity() throws Exception {
-        return stsClient.getCallerIdentity(GetCallerIdentityRequest.builder().build()).arn();
+        return getCallerIdentity().getArn();
+    }
+
+    /**
+     * The resolver is created on first use so it picks up the STS client this instance ends up with,
+     * and is shared with JCredStash so neither makes its own GetCallerIdentity call per operation.
+     */
+    protected synchronized CallerIdentityResolver getCallerIdentity() {
+        if (callerIdentity == null) {
+            callerIdentity = new CallerIdentityResolver(stsClient, credentialsProvider);
+            callerIdentity.setMetrics(metrics());
+            if (jCredStash != null) {
+                jCredStash.setCallerIdentity(callerIdentity);
+            }
+        }
+        return callerIdentity;
+    }
+
+    /**
+     * Drops the cached caller identity so the next operation looks it up again, e.g. after switching roles.
+     */
+    public void refreshCallerIdentity() {
+        getCallerIdentity().refresh();
     }
 
     /**
@@ -338,45 +797,382 @@ public class FideliusClient {
      */
     protected String getCredential(String name, String application,  String sdlc,  String component, Integer version,
                                         String table, String user, Boolean retryForApplication) throws Exception {
+        FideliusMetrics.Span span = metrics().start(FideliusMetrics.Operation.GET_CREDENTIAL);
+        try {
+            if (table == null || table.length() == 0)
+                table = Constants.DEFAULT_TABLE;
+
+            HashMap<String, String> context = createContextMap(application, sdlc, component);
+            String prefixedName = getPrefixedName(name, context);
+
+            String credential = null;
+            try {
+                credential = getSecret(table, prefixedName, context, version);
+                logger.info("User "+ userForLog(user) + " retrieved contents of " + prefixedName);
+            } catch (RuntimeException e) { // Credential not found
+                logger.info("Credential " + prefixedName + " not found. ["+e.toString()+"] ");
+
+                if(retryForApplication == null || retryForApplication == true) {
+                    // If component was specified
+                    if (context.containsKey(Constants.FID_CONTEXT_COMPONENT)) {
+                        context.remove(Constants.FID_CONTEXT_COMPONENT);
+                        prefixedName = getPrefixedName(name, context);
+                        logger.info("Retrieving " + prefixedName + ": ");
+
+                        // Attempt to get FID_CONTEXT_APPLICATION-specific credential
+                        try {
+                            credential = getSecret(table, prefixedName, context, version);
+                            logger.info("User " + userForLog(user) + " retrieved contents of " + prefixedName);
+                        } catch (RuntimeException ex) {
+                            logger.error("Credential " + prefixedName + " not found. ");
+                            logger.error(ex.toString());
+                        }
+                    } else {
+                        logger.error(e.toString());
+                    }
+                }
+            }
+            return credential;
+        } catch (Exception e) {
+            span.failed(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Retrieves a credential as raw bytes, e.g. a keystore or a secret that should never become a String.
+     * Binary credentials are never served from or added to the credential cache.
+     *
+     * @param name                      Base name of the credential to retrieve
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param table         Nullable    Table where credential is stored; defaults to "credential-store"
+     *
+     * @return The plaintext contents of the credential (most recent version), to be closed by the caller; null if not found
+     * @throws Exception - if the credential cannot be retrieved
+     */
+    public SecretBuffer getCredentialBytes(String name, String application, String sdlc, String component,
+                                           String table) throws Exception {
+        return getCredentialBytes(name, application, sdlc, component, null, table, false);
+    }
 
+    /**
+     *
+     * @param name                      Base name of the credential to retrieve
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param version       Nullable    Version of the credential to retrieve; defaults to latest
+     * @param table         Nullable    Table where credential is stored; defaults to "credential-store"
+     * @param offHeap                   Whether to hold the plaintext in a direct buffer outside the Java heap
+     *
+     * @return The plaintext contents of the credential, to be closed by the caller; null if not found
+     * @throws Exception - if the credential cannot be retrieved
+     */
+    public SecretBuffer getCredentialBytes(String name, String application, String sdlc, String component, Integer version,
+                                           String table, boolean offHeap) throws Exception {
         if (table == null || table.length() == 0)
             table = Constants.DEFAULT_TABLE;
 
-        if (user == null || user.length() == 0)
-            user = getUser();
-
         HashMap<String, String> context = createContextMap(application, sdlc, component);
         String prefixedName = getPrefixedName(name, context);
 
-        String credential = null;
+        byte[] plaintext;
         try {
-            credential = jCredStash.getSecret(table, prefixedName, context, version);
-            logger.info("User "+ user + " retrieved contents of " + prefixedName);
+            plaintext = jCredStash.getSecretBytes(table, prefixedName, context, version);
         } catch (RuntimeException e) { // Credential not found
             logger.info("Credential " + prefixedName + " not found. ["+e.toString()+"] ");
+            if (!context.containsKey(Constants.FID_CONTEXT_COMPONENT)) {
+                logger.error(e.toString());
+                return null;
+            }
+            context.remove(Constants.FID_CONTEXT_COMPONENT);
+            prefixedName = getPrefixedName(name, context);
+            try {
+                plaintext = jCredStash.getSecretBytes(table, prefixedName, context, version);
+            } catch (RuntimeException ex) {
+                logger.error("Credential " + prefixedName + " not found. ");
+                logger.error(ex.toString());
+                return null;
+            }
+        }
+        logger.info("User " + userForLog(null) + " retrieved contents of " + prefixedName);
+        return SecretBuffer.wrap(plaintext, offHeap);
+    }
 
-            if(retryForApplication == null || retryForApplication == true) {
-                // If component was specified
-                if (context.containsKey(Constants.FID_CONTEXT_COMPONENT)) {
-                    context.remove(Constants.FID_CONTEXT_COMPONENT);
-                    prefixedName = getPrefixedName(name, context);
-                    logger.info("Retrieving " + prefixedName + ": ");
+    /**
+     * Lists every stored version of a credential, newest first. Only the name, version, updatedBy and updatedOn
+     * attributes are read, so the returned items carry no ciphertext.
+     *
+     * @param name                      Base name of the credential
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param table         Nullable    Table where credential is stored; defaults to "credential-store"
+     *
+     * @return Every version of the credential, newest first
+     * @throws Exception - if the credential cannot be found
+     */
+    public List<EncryptedCredential> getCredentialHistory(String name, String application, String sdlc, String component,
+                                                          String table) throws Exception {
+        if (table == null || table.length() == 0)
+            table = Constants.DEFAULT_TABLE;
 
-                    // Attempt to get FID_CONTEXT_APPLICATION-specific credential
+        String prefixedName = getPrefixedName(name, createContextMap(application, sdlc, component));
+
+        List<EncryptedCredential> history = jCredStash.getHistory(table, prefixedName);
+        logger.info("User " + userForLog(null) + " retrieved " + history.size() + " versions of " + prefixedName);
+        return history;
+    }
+
+    /**
+     * The FID_CONTEXT_APPLICATION, FID_CONTEXT_SDLC, and (optionally) Component will be determined from the instance metadata (Does not work from local)
+     * The table name defaults to "credential-store"
+     *
+     * @param names Base names of the credentials to retrieve
+     * @return The plaintext contents of each credential found (most recent version) and the error for each one that was not
+     * @throws Exception - if the context cannot be determined
+     */
+    public BulkResult<String> getCredentials(Collection<String> names) throws Exception {
+        return getCredentials(names, null, null, null, Constants.DEFAULT_TABLE, null, true);
+    }
+
+    /**
+     *
+     * @param names                     Base names of the credentials to retrieve
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param table         Nullable    Table where credentials are stored; defaults to "credential-store"
+     *
+     * @return The plaintext contents of each credential found (most recent version) and the error for each one that was not
+     * @throws Exception - if the context cannot be determined
+     */
+    public BulkResult<String> getCredentials(Collection<String> names, String application, String sdlc, String component,
+                                             String table) throws Exception {
+        return getCredentials(names, application, sdlc, component, table, null, true);
+    }
+
+    /**
+     * Reads many credentials at once. The context is resolved a single time and every credential's
+     * query and KMS decrypt run concurrently on the bulk executor (see {@link #setBulkParallelism(int)}).
+     *
+     * @param names                     Base names of the credentials to retrieve
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param table         Nullable    Table where credentials are stored; defaults to "credential-store"
+     * @param user          Nullable    Name of user that requested to retrieve credentials
+     * @param retryForApplication    Nullable  Boolean that enables search retry by removing component to find FID_CONTEXT_APPLICATION specific credential
+     *
+     * @return The plaintext contents of each credential found (most recent version) and the error for each one that was not
+     * @throws Exception - if the context cannot be determined
+     */
+    protected BulkResult<String> getCredentials(Collection<String> names, String application, String sdlc, String component,
+                                                String table, String user, Boolean retryForApplication) throws Exception {
+        if (table == null || table.length() == 0)
+            table = Constants.DEFAULT_TABLE;
+
+        HashMap<String, String> context = createContextMap(application, sdlc, component);
+        String tableName = table;
+
+        Map<String, Future<String>> pending = new LinkedHashMap<>();
+        for (String name : new LinkedHashSet<>(names)) {
+            pending.put(name, getBulkExecutor().submit(() -> readCredential(name, tableName, context, retryForApplication)));
+        }
+
+        BulkResult<String> result = new BulkResult<>();
+        for (Map.Entry<String, Future<String>> entry : pending.entrySet()) {
+            try {
+                result.addResult(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                logger.error("Credential " + entry.getKey() + " not found. [" + cause + "] ");
+                result.addFailure(entry.getKey(), cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+            }
+        }
+        logger.info("User " + userForLog(user) + " retrieved contents of " + result.getResults().size() + " of " + pending.size() + " credentials");
+        return result;
+    }
+
+    /**
+     * Retrieves the latest version of every credential stored for an application and SDLC.
+     * When a component is given, application-level credentials are included too and component-specific
+     * credentials take precedence over application-level ones with the same name.
+     * The table name defaults to "credential-store"
+     *
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     *
+     * @return The plaintext contents keyed by base credential name, and the error for each credential that could not be decrypted
+     * @throws Exception - if the context cannot be determined
+     */
+    public BulkResult<String> getAllCredentials(String application, String sdlc, String component) throws Exception {
+        return getAllCredentials(application, sdlc, component, Constants.DEFAULT_TABLE, null);
+    }
+
+    /**
+     *
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param table         Nullable    Table where credentials are stored; defaults to "credential-store"
+     *
+     * @return The plaintext contents keyed by base credential name, and the error for each credential that could not be decrypted
+     * @throws Exception - if the context cannot be determined
+     */
+    public BulkResult<String> getAllCredentials(String application, String sdlc, String component, String table) throws Exception {
+        return getAllCredentials(application, sdlc, component, table, null);
+    }
+
+    /**
+     *
+     * @param application   Nullable    FID_CONTEXT_APPLICATION name (not case-sensitive)
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod) (not case-sensitive)
+     * @param component     Nullable    Name of the associated component (not case-sensitive)
+     * @param table         Nullable    Table where credentials are stored; defaults to "credential-store"
+     * @param user          Nullable    Name of user that requested to retrieve credentials
+     *
+     * @return The plaintext contents keyed by base credential name, and the error for each credential that could not be decrypted
+     * @throws Exception - if the context cannot be determined
+     */
+    protected BulkResult<String> getAllCredentials(String application, String sdlc, String component, String table,
+                                                   String user) throws Exception {
+        if (table == null || table.length() == 0)
+            table = Constants.DEFAULT_TABLE;
+
+        HashMap<String, String> context = createContextMap(application, sdlc, component);
+        HashMap<String, String> applicationContext = new HashMap<>(context);
+        applicationContext.remove(Constants.FID_CONTEXT_COMPONENT);
+
+        String prefix = getPrefixedName("", context);
+        String applicationPrefix = getPrefixedName("", applicationContext);
+        Map<String, Map<String, AttributeValue>> items = jCredStash.getLatestItemsByPrefix(table,
+                new LinkedHashSet<>(Arrays.asList(prefix, applicationPrefix)));
+
+        // Component-specific credentials override application-level credentials with the same base name
+        Map<String, Map<String, AttributeValue>> byName = new TreeMap<>();
+        for (Map.Entry<String, Map<String, AttributeValue>> item : items.entrySet()) {
+            if (!prefix.equals(applicationPrefix) && item.getKey().startsWith(applicationPrefix)) {
+                byName.putIfAbsent(item.getKey().substring(applicationPrefix.length()), item.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, AttributeValue>> item : items.entrySet()) {
+            if (item.getKey().startsWith(prefix)) {
+                byName.put(item.getKey().substring(prefix.length()), item.getValue());
+            }
+        }
+
+        Map<String, Future<String>> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, AttributeValue>> entry : byName.entrySet()) {
+            Map<String, AttributeValue> item = entry.getValue();
+            Map<String, String> itemContext = item.get("name").s().startsWith(prefix) ? context : applicationContext;
+            pending.put(entry.getKey(), getBulkExecutor().submit(() -> jCredStash.decrypt(CredModelMapper.fromDynamo(item), itemContext)));
+        }
+
+        BulkResult<String> result = new BulkResult<>();
+        for (Map.Entry<String, Future<String>> entry : pending.entrySet()) {
+            try {
+                result.addResult(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                logger.error("Credential " + entry.getKey() + " could not be decrypted. [" + cause + "] ");
+                result.addFailure(entry.getKey(), cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+            }
+        }
+        logger.info("User " + userForLog(user) + " retrieved contents of " + result.getResults().size() + " credentials under " + prefix);
+        return result;
+    }
+
+    private String readCredential(String name, String table, Map<String, String> sharedContext, Boolean retryForApplication) {
+        Map<String, String> context = new HashMap<>(sharedContext);
+        try {
+            return getSecret(table, getPrefixedName(name, context), context, null);
+        } catch (RuntimeException e) {
+            if ((retryForApplication == null || retryForApplication) && context.containsKey(Constants.FID_CONTEXT_COMPONENT)) {
+                context.remove(Constants.FID_CONTEXT_COMPONENT);
+                return getSecret(table, getPrefixedName(name, context), context, null);
+            }
+            throw e;
+        }
+    }
+
+    private String getSecret(String table, String prefixedName, Map<String, String> context, Integer version) {
+        CredentialCache cache = credentialCache;
+        if (cache == null) {
+            return coalescedLoadSecret(table, prefixedName, context, version);
+        }
+        // Copy the context: the caller may strip the component before a background refresh runs
+        Map<String, String> loaderContext = new HashMap<>(context);
+        return cache.get(table, prefixedName, version,
+                () -> coalescedLoadSecret(table, prefixedName, loaderContext, version));
+    }
+
+    private String coalescedLoadSecret(String table, String prefixedName, Map<String, String> context, Integer version) {
+        InFlightRequests requests = inFlightRequests;
+        if (requests == null) {
+            return loadSecret(table, prefixedName, context, version);
+        }
+        // the prefixed name is derived from the context, so equal keys always load the same item
+        return requests.execute(Arrays.asList(table, prefixedName, version),
+                () -> loadSecret(table, prefixedName, context, version), metrics());
+    }
+
+    private String loadSecret(String table, String prefixedName, Map<String, String> context, Integer version) {
+        CredentialDiskCache disk = diskCache;
+        if (disk == null || version != null) {
+            return jCredStash.getSecret(table, prefixedName, context, version);
+        }
+        return loadThroughDiskCache(disk, table, prefixedName, context);
+    }
+
+    /**
+     * Decrypts the locally cached item when a version-only query confirms it is still the latest, and otherwise
+     * reads the full item and caches it. If DynamoDB cannot be reached, a cached item confirmed recently enough
+     * is decrypted instead.
+     */
+    private String loadThroughDiskCache(CredentialDiskCache disk, String table, String prefixedName, Map<String, String> context) {
+        try {
+            Map<String, AttributeValue> cached = disk.get(table, prefixedName);
+            if (cached != null) {
+                String latestVersion = jCredStash.getLatestVersion(table, prefixedName);
+                if (latestVersion == null) {
+                    disk.invalidate(table, prefixedName);
+                    throw new RuntimeException("Secret " + prefixedName + " could not be found");
+                }
+                if (latestVersion.equals(cached.get("version").s())) {
                     try {
-                        credential = jCredStash.getSecret(table, prefixedName, context, version);
-                        logger.info("User " + user + " retrieved contents of " + prefixedName);
-                    } catch (RuntimeException ex) {
-                        logger.error("Credential " + prefixedName + " not found. ");
-                        logger.error(ex.toString());
+                        String credential = jCredStash.decrypt(CredModelMapper.fromDynamo(cached), context);
+                        disk.confirm(table, prefixedName);
+                        metrics().count(FideliusMetrics.Event.DISK_CACHE_HIT);
+                        return credential;
+                    } catch (SdkException | BackendUnavailableException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        logger.warn("Discarding cached copy of " + prefixedName + " that failed to decrypt: " + e);
+                        disk.invalidate(table, prefixedName);
                     }
-                } else {
-                    logger.error(e.toString());
                 }
             }
+            Map<String, AttributeValue> item = jCredStash.readDynamoItem(table, prefixedName, null);
+            String credential = jCredStash.decrypt(CredModelMapper.fromDynamo(item), context);
+            disk.put(table, prefixedName, item);
+            return credential;
+        } catch (SdkException | BackendUnavailableException e) {
+            Map<String, AttributeValue> stale = disk.getIfNotTooStale(table, prefixedName);
+            if (stale == null) {
+                throw e;
+            }
+            logger.warn("Serving cached version " + stale.get("version").s() + " of " + prefixedName + " because the backend failed: " + e);
+            metrics().count(FideliusMetrics.Event.DISK_CACHE_STALE_SERVED);
+            return jCredStash.decrypt(CredModelMapper.fromDynamo(stale), context);
         }
-        return credential;
     }
+
     /**
      * The FID_CONTEXT_APPLICATION, FID_CONTEXT_SDLC, and (optionally) Component will be determined from the instance metadata (Does not work from local)
      *
@@ -438,26 +1234,161 @@ public class FideliusClient {
      */
     protected String putCredential(String name, String contents, String application, String sdlc, String component,
                               String table, String user, String kmsKey) throws Exception {
-        if (table == null || table.length() == 0)
-            table = Constants.DEFAULT_TABLE;
+        FideliusMetrics.Span span = metrics().start(FideliusMetrics.Operation.PUT_CREDENTIAL);
+        try {
+            if (table == null || table.length() == 0)
+                table = Constants.DEFAULT_TABLE;
 
-        if(user == null ) {
-            user = getUser();
+            if(user == null ) {
+                user = getUser();
+            }
+
+            HashMap<String, String> context = createContextMap(application, sdlc, component);
+            String prefixedName = getPrefixedName(name, context);
+
+            final String tableName = table, updatedBy = user;
+            String versionString = writeNextVersion(prefixedName, table, version ->
+                    jCredStash.putSecret(tableName, prefixedName, contents, version, updatedBy, kmsKey, context));
+            if (credentialCache != null)
+                credentialCache.invalidate(table, prefixedName);
+
+            logger.info("Version " + versionString + " of " + prefixedName + " stored in " + table + " by User " + user);
+
+            return versionString;
+        } catch (Exception e) {
+            span.failed(e);
+            throw e;
+        } finally {
+            span.end();
         }
+    }
 
+    /**
+     * Stores raw bytes as the next version of a credential. The contents array is not retained, so the
+     * caller can wipe it as soon as this returns.
+     *
+     * @param name                      Name of the secret
+     * @param contents                  Plaintext contents of the secret
+     * @param application   Nullable    FID_CONTEXT_APPLICATION Name
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod)
+     * @param component     Nullable    Component name
+     * @param table         Nullable    Table where credential is stored; defaults to 'credential-store'
+     * @param kmsKey        Nullable    Name of the KMS key used for wrapping; defaults to 'alias/credstash'
+     *
+     * @return Version              Padded version of credential created in String format
+     * @throws Exception - if the credential cannot be stored
+     */
+    public String putCredentialBytes(String name, byte[] contents, String application, String sdlc, String component,
+                                     String table, String kmsKey) throws Exception {
+        if (table == null || table.length() == 0)
+            table = Constants.DEFAULT_TABLE;
+
+        String user = getUser();
         HashMap<String, String> context = createContextMap(application, sdlc, component);
         String prefixedName = getPrefixedName(name, context);
 
-        String versionString;
-        int nextVersion = jCredStash.getHighestVersion(prefixedName, table) + 1;
-        versionString = String.format("%019d", nextVersion);
-
-        jCredStash.putSecret(table, prefixedName, contents, versionString, user, kmsKey, context);
+        final String tableName = table;
+        String versionString = writeNextVersion(prefixedName, table, version ->
+                jCredStash.putSecretBytes(tableName, prefixedName, contents, version, user, kmsKey, context));
+        if (credentialCache != null)
+            credentialCache.invalidate(table, prefixedName);
 
         logger.info("Version " + versionString + " of " + prefixedName + " stored in " + table + " by User " + user);
 
         return versionString;
     }
+
+    /**
+     * Stores the next version of many credentials at once, e.g. to seed a new environment. The context and user
+     * are resolved a single time, data keys are generated concurrently on the bulk executor, and the credentials
+     * are written in conditional groups of up to 25. A group that conflicts with a concurrent writer is retried
+     * one credential at a time.
+     *
+     * @param credentials               Plaintext contents keyed by base credential name
+     * @param application   Nullable    FID_CONTEXT_APPLICATION Name
+     * @param sdlc          Nullable    FID_CONTEXT_SDLC (dev/qa/prod)
+     * @param component     Nullable    Component name
+     * @param table         Nullable    Table where credentials are stored; defaults to 'credential-store'
+     * @param kmsKey        Nullable    Name of the KMS key used for wrapping; defaults to 'alias/credstash'
+     *
+     * @return The padded version stored for each credential and the error for each one that could not be stored
+     * @throws Exception - if the context or user cannot be determined
+     */
+    public BulkResult<String> putCredentials(Map<String, String> credentials, String application, String sdlc, String component,
+                                             String table, String kmsKey) throws Exception {
+        if (table == null || table.length() == 0)
+            table = Constants.DEFAULT_TABLE;
+
+        if (kmsKey == null || kmsKey.length() == 0)
+            kmsKey = Constants.DEFAULT_KMS_KEY;
+
+        String user = getUser();
+        HashMap<String, String> context = createContextMap(application, sdlc, component);
+        final String tableName = table, wrappingKey = kmsKey;
+
+        Map<String, Future<EncryptedCredential>> encrypting = new LinkedHashMap<>();
+        for (Map.Entry<String, String> credential : credentials.entrySet()) {
+            String prefixedName = getPrefixedName(credential.getKey(), context);
+            encrypting.put(credential.getKey(), getBulkExecutor().submit(() -> {
+                String version = String.format("%019d", jCredStash.getHighestVersion(prefixedName, tableName) + 1);
+                return jCredStash.encrypt(prefixedName, credential.getValue(), version, user, wrappingKey, context);
+            }));
+        }
+
+        BulkResult<String> result = new BulkResult<>();
+        Map<String, EncryptedCredential> encrypted = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<EncryptedCredential>> entry : encrypting.entrySet()) {
+            try {
+                encrypted.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                addBulkFailure(result, entry.getKey(), e.getCause());
+            }
+        }
+
+        List<String> names = new ArrayList<>(encrypted.keySet());
+        Map<List<String>, Future<?>> writing = new LinkedHashMap<>();
+        for (int i = 0; i < names.size(); i += JCredStash.MAX_TRANSACT_WRITE_ITEMS) {
+            List<String> group = names.subList(i, Math.min(i + JCredStash.MAX_TRANSACT_WRITE_ITEMS, names.size()));
+            List<EncryptedCredential> items = new ArrayList<>();
+            for (String name : group) {
+                items.add(encrypted.get(name));
+            }
+            writing.put(group, getBulkExecutor().submit(() -> jCredStash.putSecrets(tableName, items)));
+        }
+
+        for (Map.Entry<List<String>, Future<?>> entry : writing.entrySet()) {
+            try {
+                entry.getValue().get();
+                for (String name : entry.getKey()) {
+                    result.addResult(name, encrypted.get(name).getVersion());
+                }
+            } catch (ExecutionException e) {
+                logger.warn("Storing " + entry.getKey().size() + " credentials together failed, storing them one at a time [" + e.getCause() + "] ");
+                for (String name : entry.getKey()) {
+                    String prefixedName = getPrefixedName(name, context);
+                    try {
+                        result.addResult(name, writeNextVersion(prefixedName, tableName, version ->
+                                jCredStash.putSecret(tableName, prefixedName, credentials.get(name), version, user, wrappingKey, context)));
+                    } catch (Exception ex) {
+                        addBulkFailure(result, name, ex);
+                    }
+                }
+            }
+        }
+
+        if (credentialCache != null) {
+            for (String name : result.getResults().keySet()) {
+                credentialCache.invalidate(table, getPrefixedName(name, context));
+            }
+        }
+        logger.info("User " + user + " stored " + result.getResults().size() + " of " + credentials.size() + " credentials in " + table);
+        return result;
+    }
+
+    private void addBulkFailure(BulkResult<String> result, String name, Throwable cause) {
+        logger.error("Credential " + name + " not stored. [" + cause + "] ");
+        result.addFailure(name, cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+    }
     /**
      *
      * @param name                      Name of the secret
@@ -538,7 +1469,19 @@ public class FideliusClient {
 
         try {
             jCredStash.deleteSecret(table, prefixedName);
+            if (credentialCache != null)
+                credentialCache.invalidate(table, prefixedName);
+            if (diskCache != null)
+                diskCache.invalidate(table, prefixedName);
             logger.info("User "+ user + " deleted credential " + prefixedName);
+        } catch (BulkDeleteException e) {
+            if (credentialCache != null)
+                credentialCache.invalidate(table, prefixedName);
+            if (diskCache != null)
+                diskCache.invalidate(table, prefixedName);
+            logger.error("User " + user + " deleted " + e.getVersionsDeleted() + " versions of " + prefixedName + " but "
+                    + e.getVersionsNotDeleted().size() + " remain: " + e.getVersionsNotDeleted());
+            throw e;
         } catch (RuntimeException e) { // Credential not found
             logger.info("Credential " + prefixedName + " not found. [" + e.toString() + "] ");
             for(StackTraceElement ste : e.getStackTrace()) {
@@ -631,17 +1574,40 @@ public class FideliusClient {
         HashMap<String, String> context = createContextMap(application, sdlc, component);
         String prefixedName = getPrefixedNameForMetadata(name, context);
 
-        String versionString;
-        int nextVersion = jCredStash.getHighestVersion(prefixedName, table) + 1;
-        versionString = String.format("%019d", nextVersion);
-
-        jCredStash.putMetadata(table, prefixedName, versionString, sourceType, source, user, kmsKey, context);
+        final String tableName = table, updatedBy = user;
+        String versionString = writeNextVersion(prefixedName, table, version ->
+                jCredStash.putMetadata(tableName, prefixedName, version, sourceType, source, updatedBy, kmsKey, context));
 
         logger.info("Version " + versionString + " of " + prefixedName + " stored in " + table + " by User " + user);
 
         return versionString;
     }
 
+    @FunctionalInterface
+    private interface VersionWriter {
+        void write(String version) throws Exception;
+    }
+
+    /**
+     * Writes the version after the newest stored one. Every write is conditional on its version not existing,
+     * so when a concurrent writer claims the same version the newest version is read again and the write retried.
+     */
+    private String writeNextVersion(String prefixedName, String table, VersionWriter writer) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            String versionString = String.format("%019d", jCredStash.getHighestVersion(prefixedName, table) + 1);
+            try {
+                writer.write(versionString);
+                return versionString;
+            } catch (ConditionalCheckFailedException e) {
+                if (attempt >= JCredStash.MAX_VERSION_CONFLICT_ATTEMPTS) {
+                    throw e;
+                }
+                logger.warn("Version " + versionString + " of " + prefixedName + " was stored concurrently, retrying");
+                metrics().count(FideliusMetrics.Event.VERSION_CONFLICT_RETRY);
+            }
+        }
+    }
+
     /**
      *
      * @param name                      Base name of the credential to delete
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProviderChain;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.awscore.client.builder.AwsSyncClientBuilder;
+import software.amazon.awssdk.awscore.retry.AwsRetryPolicy;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.apache.ProxyConfiguration;
+import software.amazon.awssdk.regions.Region;
+
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * Transport settings shared by every AWS client a {@link FideliusClient} builds. All clients (DynamoDB, KMS, STS,
+ * EC2, Lambda and DynamoDB Streams) go through one HTTP client, so a process keeps a single connection pool
+ * instead of one per service.
+ *
+ * Settings left null fall back to the AWS SDK defaults. Without an explicit proxy, the proxy from the
+ * CREDSTASH_PROXY/CREDSTASH_PORT environment variables is used.
+ */
+public class FideliusClientConfig {
+
+    private String region;
+    private AwsCredentialsProvider credentialsProvider;
+    private SdkHttpClient httpClient;
+    private ClientOverrideConfiguration overrideConfiguration;
+    private int maxConnections = 50;
+    private Duration connectionTimeout;
+    private Duration socketTimeout;
+    private Duration connectionTimeToLive;
+    private Duration connectionMaxIdleTime = Duration.ofSeconds(60);
+    private boolean tcpKeepAlive = true;
+    private Duration apiCallTimeout;
+    private Duration apiCallAttemptTimeout;
+    private RetryPolicy retryPolicy;
+    private ProxyConfiguration proxyConfiguration;
+
+    public String getRegion() {
+        return region;
+    }
+
+    /**
+     * @param region  Nullable  AWS region of every client; defaults to the SDK's region lookup
+     */
+    public FideliusClientConfig setRegion(String region) {
+        this.region = region;
+        return this;
+    }
+
+    public AwsCredentialsProvider getCredentialsProvider() {
+        return credentialsProvider;
+    }
+
+    /**
+     * @param credentialsProvider  Nullable  Credentials for every client; defaults to the default provider chain
+     */
+    public FideliusClientConfig setCredentialsProvider(AwsCredentialsProvider credentialsProvider) {
+        this.credentialsProvider = credentialsProvider;
+        return this;
+    }
+
+    public SdkHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Uses a caller-built HTTP client, e.g. a URL connection or CRT based one, instead of building an Apache client
+     * from the pool, timeout, keep-alive and proxy settings of this config, which are then ignored. The caller
+     * owns the client and closes it.
+     *
+     * @param httpClient  Nullable  HTTP client shared by every AWS client
+     */
+    public FideliusClientConfig setHttpClient(SdkHttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    public ClientOverrideConfiguration getOverrideConfiguration() {
+        return overrideConfiguration;
+    }
+
+    /**
+     * @param overrideConfiguration  Nullable  Base configuration, e.g. with extra headers or interceptors; the
+     *                                         timeouts and retry policy set on this config take precedence
+     */
+    public FideliusClientConfig setOverrideConfiguration(ClientOverrideConfiguration overrideConfiguration) {
+        this.overrideConfiguration = overrideConfiguration;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections Size of the connection pool shared by all clients
+     */
+    public FideliusClientConfig setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public Duration getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * @param connectionTimeout  Nullable  Time allowed to establish a connection
+     */
+    public FideliusClientConfig setConnectionTimeout(Duration connectionTimeout) {
+        this.connectionTimeout = positive("connectionTimeout", connectionTimeout);
+        return this;
+    }
+
+    public Duration getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * @param socketTimeout  Nullable  Time allowed between two reads on an open connection
+     */
+    public FideliusClientConfig setSocketTimeout(Duration socketTimeout) {
+        this.socketTimeout = positive("socketTimeout", socketTimeout);
+        return this;
+    }
+
+    public Duration getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    /**
+     * @param connectionTimeToLive  Nullable  Maximum age of a pooled connection, so DNS changes are picked up; unlimited by default
+     */
+    public FideliusClientConfig setConnectionTimeToLive(Duration connectionTimeToLive) {
+        this.connectionTimeToLive = positive("connectionTimeToLive", connectionTimeToLive);
+        return this;
+    }
+
+    public Duration getConnectionMaxIdleTime() {
+        return connectionMaxIdleTime;
+    }
+
+    /**
+     * @param connectionMaxIdleTime  Nullable  How long an unused connection stays in the pool
+     */
+    public FideliusClientConfig setConnectionMaxIdleTime(Duration connectionMaxIdleTime) {
+        this.connectionMaxIdleTime = positive("connectionMaxIdleTime", connectionMaxIdleTime);
+        return this;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    /**
+     * @param tcpKeepAlive Whether pooled connections send TCP keep-alive probes, so idle ones are not dropped by NAT
+     */
+    public FideliusClientConfig setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+        return this;
+    }
+
+    public Duration getApiCallTimeout() {
+        return apiCallTimeout;
+    }
+
+    /**
+     * @param apiCallTimeout  Nullable  Time allowed for one API call including all retries
+     */
+    public FideliusClientConfig setApiCallTimeout(Duration apiCallTimeout) {
+        this.apiCallTimeout = positive("apiCallTimeout", apiCallTimeout);
+        return this;
+    }
+
+    public Duration getApiCallAttemptTimeout() {
+        return apiCallAttemptTimeout;
+    }
+
+    /**
+     * @param apiCallAttemptTimeout  Nullable  Time allowed for a single attempt of an API call
+     */
+    public FideliusClientConfig setApiCallAttemptTimeout(Duration apiCallAttemptTimeout) {
+        this.apiCallAttemptTimeout = positive("apiCallAttemptTimeout", apiCallAttemptTimeout);
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy  Nullable  Retry policy of every client; defaults to the one in the override configuration,
+     *                               or else the AWS default retry policy
+     */
+    public FideliusClientConfig setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public ProxyConfiguration getProxyConfiguration() {
+        return proxyConfiguration;
+    }
+
+    /**
+     * @param proxyConfiguration  Nullable  Proxy for every client; defaults to CREDSTASH_PROXY/CREDSTASH_PORT if set
+     */
+    public FideliusClientConfig setProxyConfiguration(ProxyConfiguration proxyConfiguration) {
+        this.proxyConfiguration = proxyConfiguration;
+        return this;
+    }
+
+    /**
+     * @return The configured HTTP client, or a new Apache client built from this config that the caller must close
+     */
+    SdkHttpClient buildHttpClient(EnvConfig envConfig) {
+        if (httpClient != null) {
+            return httpClient;
+        }
+        ApacheHttpClient.Builder builder = ApacheHttpClient.builder()
+                .maxConnections(maxConnections)
+                .tcpKeepAlive(tcpKeepAlive);
+        if (connectionTimeout != null) {
+            builder.connectionTimeout(connectionTimeout);
+        }
+        if (socketTimeout != null) {
+            builder.socketTimeout(socketTimeout);
+        }
+        if (connectionTimeToLive != null) {
+            builder.connectionTimeToLive(connectionTimeToLive);
+        }
+        if (connectionMaxIdleTime != null) {
+            builder.connectionMaxIdleTime(connectionMaxIdleTime);
+        }
+        ProxyConfiguration proxy = resolveProxyConfiguration(envConfig);
+        if (proxy != null) {
+            builder.proxyConfiguration(proxy);
+        }
+        return builder.build();
+    }
+
+    ProxyConfiguration resolveProxyConfiguration(EnvConfig envConfig) {
+        if (proxyConfiguration != null) {
+            return proxyConfiguration;
+        }
+        if (envConfig != null && envConfig.hasProxyEnv()) {
+            return ProxyConfiguration.builder().endpoint(URI.create(envConfig.getProxy() + ":" + envConfig.getPort())).build();
+        }
+        return null;
+    }
+
+    ClientOverrideConfiguration buildOverrideConfiguration() {
+        ClientOverrideConfiguration.Builder builder = overrideConfiguration == null
+                ? ClientOverrideConfiguration.builder()
+                : overrideConfiguration.toBuilder();
+        if (retryPolicy != null) {
+            builder.retryPolicy(retryPolicy);
+        } else if (overrideConfiguration == null || !overrideConfiguration.retryPolicy().isPresent()) {
+            builder.retryPolicy(AwsRetryPolicy.defaultRetryPolicy());
+        }
+        if (apiCallTimeout != null) {
+            builder.apiCallTimeout(apiCallTimeout);
+        }
+        if (apiCallAttemptTimeout != null) {
+            builder.apiCallAttemptTimeout(apiCallAttemptTimeout);
+        }
+        return builder.build();
+    }
+
+    AwsCredentialsProvider resolveCredentialsProvider() {
+        return credentialsProvider != null
+                ? credentialsProvider
+                : AwsCredentialsProviderChain.builder().addCredentialsProvider(DefaultCredentialsProvider.create()).build();
+    }
+
+    /**
+     * Applies the credentials, region, override configuration and shared HTTP client to a client builder.
+     */
+    <B extends AwsClientBuilder<B, C> & AwsSyncClientBuilder<B, C>, C> B configure(B builder, AwsCredentialsProvider provider,
+                                                                                  ClientOverrideConfiguration clientConfiguration,
+                                                                                  SdkHttpClient sharedHttpClient) {
+        builder.credentialsProvider(provider)
+                .overrideConfiguration(clientConfiguration)
+                .httpClient(sharedHttpClient);
+        if (region != null) {
+            builder.region(Region.of(region));
+        }
+        return builder;
+    }
+
+    private static Duration positive(String name, Duration value) {
+        if (value != null && (value.isNegative() || value.isZero())) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "FideliusClientConfig{" +
+                "region=" + region +
+                ", httpClient=" + (httpClient == null ? "apache" : httpClient.clientName()) +
+                ", maxConnections=" + maxConnections +
+                ", connectionTimeout=" + connectionTimeout +
+                ", socketTimeout=" + socketTimeout +
+                ", connectionTimeToLive=" + connectionTimeToLive +
+                ", connectionMaxIdleTime=" + connectionMaxIdleTime +
+                ", tcpKeepAlive=" + tcpKeepAlive +
+                ", apiCallTimeout=" + apiCallTimeout +
+                ", apiCallAttemptTimeout=" + apiCallAttemptTimeout +
+                ", proxy=" + (proxyConfiguration == null ? "environment" : proxyConfiguration.host() + ":" + proxyConfiguration.port()) +
+                '}';
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+/**
+ * Hook for timing and counting what the SDK does, e.g. to bridge into Micrometer or OpenTelemetry.
+ *
+ * Every method has an empty default, so an implementation only overrides what it records. The default
+ * {@link #NOOP} instance hands out a shared span and allocates nothing, so instrumentation is free when
+ * no metrics are configured. Implementations are called from request threads and must be thread-safe
+ * and must not throw.
+ */
+public interface FideliusMetrics {
+
+    FideliusMetrics NOOP = new FideliusMetrics() { };
+
+    /**
+     * Timed phases. GET_CREDENTIAL and PUT_CREDENTIAL cover a whole FideliusClient call including the phases below.
+     */
+    enum Operation {
+        GET_CREDENTIAL,
+        PUT_CREDENTIAL,
+        DYNAMODB_QUERY,
+        DYNAMODB_WRITE,
+        KMS_DECRYPT,
+        KMS_GENERATE_DATA_KEY,
+        HMAC_VERIFY,
+        AES_DECRYPT,
+        AES_ENCRYPT,
+        STS_IDENTITY,
+        EC2_TAG_LOOKUP
+    }
+
+    enum Event {
+        CREDENTIAL_CACHE_HIT,
+        CREDENTIAL_CACHE_MISS,
+        DATA_KEY_CACHE_HIT,
+        DATA_KEY_CACHE_MISS,
+        DISK_CACHE_HIT,
+        DISK_CACHE_STALE_SERVED,
+        CREDENTIAL_CACHE_STALE_SERVED,
+        THROTTLE_RETRY,
+        VERSION_CONFLICT_RETRY,
+        REQUEST_COALESCED,
+        REQUEST_REJECTED
+    }
+
+    /**
+     * One timed phase; {@link #end()} must be called exactly once, after {@link #failed(Throwable)} if the phase failed.
+     */
+    interface Span {
+        Span NOOP = () -> { };
+
+        default void failed(Throwable error) {
+        }
+
+        void end();
+    }
+
+    default Span start(Operation operation) {
+        return Span.NOOP;
+    }
+
+    default void count(Event event) {
+    }
+
+    /**
+     * @param operation AES_ENCRYPT or AES_DECRYPT
+     * @param bytes     Size of the plaintext
+     */
+    default void recordPayloadSize(Operation operation, int bytes) {
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key into one backend call and bounds the number of distinct loads in
+ * flight. Callers that find a load of their key already running wait for its result instead of starting another;
+ * a new load that would exceed the limit is refused immediately rather than queued behind a slow backend.
+ */
+class InFlightRequests {
+
+    private final Semaphore permits;
+    private final ConcurrentMap<Object, CompletableFuture<String>> loads = new ConcurrentHashMap<>();
+
+    InFlightRequests(int maximumConcurrentRequests) {
+        this.permits = new Semaphore(maximumConcurrentRequests);
+    }
+
+    /**
+     * @throws BackendUnavailableException - if the limit of concurrent loads is reached
+     */
+    String execute(Object key, Supplier<String> loader, FideliusMetrics metrics) {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> running = loads.putIfAbsent(key, load);
+        if (running != null) {
+            metrics.count(FideliusMetrics.Event.REQUEST_COALESCED);
+            return join(running);
+        }
+
+        try {
+            if (!permits.tryAcquire()) {
+                metrics.count(FideliusMetrics.Event.REQUEST_REJECTED);
+                throw new BackendUnavailableException("Too many concurrent backend requests");
+            }
+            try {
+                String value = loader.get();
+                load.complete(value);
+                return value;
+            } finally {
+                permits.release();
+            }
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    int inFlight() {
+        return loads.size();
+    }
+
+    private static String join(CompletableFuture<String> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
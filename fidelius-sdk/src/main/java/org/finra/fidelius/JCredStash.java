@@ -18,9 +18,13 @@
 package org.finra.fidelius;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 import software.amazon.awssdk.services.kms.KmsClient;
@@ -36,36 +40,77 @@ import java.nio.ByteBuffer;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class JCredStash {
+    private static final Logger logger = LoggerFactory.getLogger(JCredStash.class);
+
     protected DynamoDbClient dynamoDbClient;
     protected KmsClient kmsClient;
     protected CredStashCrypto cryptoImpl;
     protected StsClient stsClient;
-    private static int MAX_BULK_WRITE_REQUEST_ITEMS = 25;
+    protected DataKeyCache dataKeyCache;
+    protected CallerIdentityResolver callerIdentity;
+    protected volatile BulkDeleteConfig bulkDeleteConfig = new BulkDeleteConfig();
+    protected volatile FideliusMetrics metrics = FideliusMetrics.NOOP;
+    protected volatile CircuitBreaker dynamoDbBreaker;
+    protected volatile CircuitBreaker kmsBreaker;
+    protected volatile String applicationIndex;
+    private DeletePool deletePool;
+    private boolean shutDown;
+    static final int MAX_BULK_WRITE_REQUEST_ITEMS = 25;
+    static final int MAX_TRANSACT_WRITE_ITEMS = 25;
+    static final int MAX_VERSION_CONFLICT_ATTEMPTS = 5;
+    static final int MAX_BATCH_GET_KEYS = 100;
+    static final int MAX_BATCH_GET_ATTEMPTS = 8;
+    static final String[] VERSION_ATTRIBUTES = {"name", "version"};
+    static final String[] HISTORY_ATTRIBUTES = {"name", "version", "updatedBy", "updatedOn"};
     protected JCredStash() {
-        this.dynamoDbClient = DynamoDbClient.builder().build();
-        this.kmsClient = KmsClient.builder().build();
-        this.cryptoImpl = new CredStashBouncyCastleCrypto();
-        this.stsClient = StsClient.builder().overrideConfiguration(ClientOverrideConfiguration.builder().build()).build();
+        this(new FideliusClientConfig());
     }
 
     protected JCredStash(AwsCredentialsProvider awsCredentialsProvider) {
-        this.dynamoDbClient = DynamoDbClient.builder()
-                .credentialsProvider(awsCredentialsProvider)
-                .build();
-        this.kmsClient = KmsClient.builder()
-                .credentialsProvider(awsCredentialsProvider)
-                .build();
+        this(new FideliusClientConfig().setCredentialsProvider(awsCredentialsProvider));
+    }
+
+    /**
+     * Builds the DynamoDB, KMS and STS clients on one HTTP client configured from the given settings.
+     */
+    protected JCredStash(FideliusClientConfig config) {
+        EnvConfig envConfig = new EnvConfig();
+        AwsCredentialsProvider provider = config.resolveCredentialsProvider();
+        ClientOverrideConfiguration clientConfiguration = config.buildOverrideConfiguration();
+        SdkHttpClient httpClient = config.buildHttpClient(envConfig);
+        this.dynamoDbClient = config.configure(DynamoDbClient.builder(), provider, clientConfiguration, httpClient).build();
+        this.kmsClient = config.configure(KmsClient.builder(), provider, clientConfiguration, httpClient).build();
         this.cryptoImpl = new CredStashBouncyCastleCrypto();
-        this.stsClient = StsClient.builder().overrideConfiguration(ClientOverrideConfiguration.builder().build()).build();
+        this.stsClient = config.configure(StsClient.builder(), provider, clientConfiguration, httpClient).build();
     }
 
     protected JCredStash(DynamoDbClient amazonDynamoDBClient, KmsClient awskmsClient) {
         this.dynamoDbClient = amazonDynamoDBClient;
         this.kmsClient = awskmsClient;
         this.cryptoImpl = new CredStashBouncyCastleCrypto();
-        this.stsClient = StsClient.builder().overrideConfiguration(ClientOverrideConfiguration.builder().build()).build();
+        // honours the proxy environment variables like every other client
+        FideliusClientConfig config = new FideliusClientConfig();
+        this.stsClient = config.configure(StsClient.builder(), config.resolveCredentialsProvider(),
+                config.buildOverrideConfiguration(), config.buildHttpClient(new EnvConfig())).build();
     }
 
     protected JCredStash(DynamoDbClient dynamoDbClient, KmsClient kmsClient, StsClient stsClient) {
@@ -76,8 +121,20 @@ public class JCredStash {
     }
 
     protected Map<String, AttributeValue> readDynamoItem(String tableName, String secret, Integer version) {
-        // TODO: allow multiple secrets to be fetched by pattern or list
-        // TODO: allow specific version to be fetched
+        QueryResponse queryResponse = guarded(dynamoDbBreaker, FideliusMetrics.Operation.DYNAMODB_QUERY,
+                () -> dynamoDbClient.query(readItemRequest(tableName, secret, version)));
+        if(queryResponse.count() == 0) {
+            throw new RuntimeException("Secret " + secret + " could not be found");
+        }
+        Map<String, AttributeValue> item = queryResponse.items().get(0);
+
+        return item;
+    }
+
+    /**
+     * Builds the query for a single version of a secret; a null version selects the latest one.
+     */
+    static QueryRequest readItemRequest(String tableName, String secret, Integer version) {
         Map<String, Condition> keyConditions = new HashMap<>();
         keyConditions.put("name", Condition.builder()
                 .attributeValueList(
@@ -104,53 +161,269 @@ public class JCredStash {
         }
         keyConditions.put("version", versionCondition);
 
-        QueryResponse queryResponse = dynamoDbClient.query(QueryRequest.builder()
+        return QueryRequest.builder()
                 .tableName(tableName)
                 .limit(1)
                 .scanIndexForward(false)
                 .consistentRead(true)
                 .keyConditions(keyConditions)
-                .build()
-        );
-        if(queryResponse.count() == 0) {
+                .build();
+    }
+
+    /**
+     * Reads every version of a secret, newest first, following lastEvaluatedKey across pages.
+     */
+    protected QueryResponse getCredentials(String tableName, String secret) {
+        List<Map<String, AttributeValue>> items = queryVersions(tableName, secret).collect(Collectors.toList());
+
+        if(items.isEmpty()) {
             throw new RuntimeException("Secret " + secret + " could not be found");
         }
-        Map<String, AttributeValue> item = queryResponse.items().get(0);
 
-        return item;
+        return QueryResponse.builder()
+                .items(items)
+                .count(items.size())
+                .scannedCount(items.size())
+                .build();
     }
 
-    protected QueryResponse getCredentials(String tableName, String secret) {
-        Map<String, Condition> keyConditions = new HashMap<>();
-        keyConditions.put("name", Condition.builder()
-                .attributeValueList(
-                        AttributeValue.builder().s(secret).build()
-                )
-                .comparisonOperator(ComparisonOperator.EQ)
-                .build());
-        keyConditions.put("version", Condition.builder()
-                .attributeValueList(
-                        AttributeValue.builder().s("0").build()
-                )
-                .comparisonOperator(ComparisonOperator.BEGINS_WITH)
-                .build());
-        QueryRequest queryRequest = QueryRequest.builder()
+    /**
+     * Lists the versions of a secret, newest first, with only the name, version, updatedBy and updatedOn attributes
+     * read from the table.
+     */
+    protected List<EncryptedCredential> getHistory(String tableName, String secret) {
+        List<EncryptedCredential> history = queryVersions(tableName, secret, HISTORY_ATTRIBUTES)
+                .map(CredModelMapper::versionFromDynamo)
+                .collect(Collectors.toList());
+
+        if(history.isEmpty()) {
+            throw new RuntimeException("Secret " + secret + " could not be found");
+        }
+        return history;
+    }
+
+    /**
+     * Lazily streams every version of a secret, newest first. The next page is only requested once the items of the
+     * previous one have been consumed.
+     *
+     * @param attributes Attributes to read; every attribute when none are given
+     */
+    protected Stream<Map<String, AttributeValue>> queryVersions(String tableName, String secret, String... attributes) {
+        Iterable<QueryResponse> pages = () -> queryPages(versionsRequest(tableName, secret, attributes));
+        return StreamSupport.stream(pages.spliterator(), false)
+                .flatMap(page -> page.items().stream());
+    }
+
+    /**
+     * Iterates over the pages of a query, issuing one request per page as the iterator advances.
+     */
+    protected Iterator<QueryResponse> queryPages(QueryRequest firstPage) {
+        return new Iterator<QueryResponse>() {
+            private QueryRequest nextPage = firstPage;
+
+            @Override
+            public boolean hasNext() {
+                return nextPage != null;
+            }
+
+            @Override
+            public QueryResponse next() {
+                if (nextPage == null) {
+                    throw new NoSuchElementException();
+                }
+                QueryRequest request = nextPage;
+                QueryResponse page = timed(metrics, FideliusMetrics.Operation.DYNAMODB_QUERY, () -> dynamoDbClient.query(request));
+                Map<String, AttributeValue> lastEvaluatedKey = page.lastEvaluatedKey();
+                nextPage = (lastEvaluatedKey == null || lastEvaluatedKey.isEmpty())
+                        ? null
+                        : nextPage.toBuilder().exclusiveStartKey(lastEvaluatedKey).build();
+                return page;
+            }
+        };
+    }
+
+    /**
+     * Builds a newest-first query over every version of a secret that reads only the given attributes.
+     */
+    static QueryRequest versionsRequest(String tableName, String secret, String... attributes) {
+        HashMap<String, String> attributeName = new HashMap<>();
+        HashMap<String, AttributeValue> attributeValue = new HashMap<>();
+        attributeName.put("#n", "name");
+        attributeValue.put(":v_name", AttributeValue.builder().s(secret).build());
+
+        QueryRequest.Builder request = QueryRequest.builder()
                 .tableName(tableName)
                 .scanIndexForward(false)
                 .consistentRead(true)
-                .keyConditions(keyConditions)
-                .build();
+                .keyConditionExpression("#n = :v_name")
+                .expressionAttributeValues(attributeValue);
+
+        if (attributes != null && attributes.length > 0) {
+            List<String> projection = new ArrayList<>();
+            for (int i = 0; i < attributes.length; i++) {
+                if (attributes[i].equals("name")) {
+                    projection.add("#n");
+                } else {
+                    attributeName.put("#a" + i, attributes[i]);
+                    projection.add("#a" + i);
+                }
+            }
+            request.projectionExpression(String.join(", ", projection));
+        }
+        return request.expressionAttributeNames(attributeName).build();
+    }
 
-        QueryResponse queryResponse = dynamoDbClient.query(queryRequest);
+    /**
+     * Finds the latest version of every credential whose name starts with one of the given prefixes.
+     *
+     * With an application index (see {@link #setApplicationIndex(String)}) only the index partitions of the
+     * prefixes' applications are read, followed by a BatchGetItem of the newest versions, so the cost grows with
+     * the application rather than with the table. Without one, or if the table does not have the index, this
+     * falls back to a Scan of the whole table filtered server-side.
+     */
+    protected Map<String, Map<String, AttributeValue>> getLatestItemsByPrefix(String tableName, Collection<String> prefixes) {
+        String index = applicationIndex;
+        if (index != null && prefixes.stream().allMatch(prefix -> CredModelMapper.applicationOf(prefix) != null)) {
+            try {
+                return getLatestItemsFromIndex(tableName, index, prefixes);
+            } catch (DynamoDbException e) {
+                if (!isMissingIndex(e)) {
+                    throw e;
+                }
+                logger.warn("Table " + tableName + " has no index " + index + ", scanning the table instead: " + e.getMessage());
+            }
+        }
+        return scanLatestItemsByPrefix(tableName, prefixes);
+    }
 
-        if(queryResponse.count() == 0) {
-            throw new RuntimeException("Secret " + secret + " could not be found");
+    private Map<String, Map<String, AttributeValue>> getLatestItemsFromIndex(String tableName, String index, Collection<String> prefixes) {
+        HashMap<String, String> attributeName = new HashMap<>();
+        attributeName.put("#a", "application");
+        attributeName.put("#n", "name");
+        attributeName.put("#v", "version");
+
+        // newest version of each name, read from the index's application partition
+        Map<String, String> latestVersions = new HashMap<>();
+        for (String prefix : prefixes) {
+            HashMap<String, AttributeValue> attributeValue = new HashMap<>();
+            attributeValue.put(":a", AttributeValue.builder().s(CredModelMapper.applicationOf(prefix)).build());
+            attributeValue.put(":p", AttributeValue.builder().s(prefix).build());
+            Map<String, AttributeValue> lastEvaluatedKey = null;
+            do {
+                QueryRequest request = QueryRequest.builder()
+                        .tableName(tableName)
+                        .indexName(index)
+                        .keyConditionExpression("#a = :a AND begins_with(#n, :p)")
+                        .projectionExpression("#n, #v")
+                        .expressionAttributeNames(attributeName)
+                        .expressionAttributeValues(attributeValue)
+                        .exclusiveStartKey(lastEvaluatedKey)
+                        .build();
+                QueryResponse queryResponse = guarded(dynamoDbBreaker, FideliusMetrics.Operation.DYNAMODB_QUERY,
+                        () -> dynamoDbClient.query(request));
+                for (Map<String, AttributeValue> item : queryResponse.items()) {
+                    // versions are zero-padded, so string order is numeric order
+                    latestVersions.merge(item.get("name").s(), item.get("version").s(), (a, b) -> a.compareTo(b) >= 0 ? a : b);
+                }
+                lastEvaluatedKey = queryResponse.lastEvaluatedKey();
+            } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+        }
+
+        List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        for (Map.Entry<String, String> latest : latestVersions.entrySet()) {
+            Map<String, AttributeValue> key = new HashMap<>();
+            key.put("name", AttributeValue.builder().s(latest.getKey()).build());
+            key.put("version", AttributeValue.builder().s(latest.getValue()).build());
+            keys.add(key);
+        }
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        for (int start = 0; start < keys.size(); start += MAX_BATCH_GET_KEYS) {
+            for (Map<String, AttributeValue> item : batchGetItems(tableName, keys.subList(start, Math.min(keys.size(), start + MAX_BATCH_GET_KEYS)))) {
+                items.put(item.get("name").s(), item);
+            }
         }
+        return items;
+    }
+
+    private List<Map<String, AttributeValue>> batchGetItems(String tableName, List<Map<String, AttributeValue>> keys) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        Map<String, KeysAndAttributes> requestItems = Collections.singletonMap(tableName,
+                KeysAndAttributes.builder().keys(keys).consistentRead(true).build());
+        BulkDeleteConfig config = bulkDeleteConfig != null ? bulkDeleteConfig : new BulkDeleteConfig();
+        for (int attempt = 1; ; attempt++) {
+            BatchGetItemRequest request = BatchGetItemRequest.builder().requestItems(requestItems).build();
+            BatchGetItemResponse response = guarded(dynamoDbBreaker, FideliusMetrics.Operation.DYNAMODB_QUERY,
+                    () -> dynamoDbClient.batchGetItem(request));
+            items.addAll(response.responses().getOrDefault(tableName, Collections.emptyList()));
+            requestItems = response.unprocessedKeys();
+            if (requestItems == null || requestItems.isEmpty()) {
+                return items;
+            }
+            if (attempt >= MAX_BATCH_GET_ATTEMPTS) {
+                throw new RuntimeException("Error reading credentials from " + tableName + ": "
+                        + requestItems.get(tableName).keys().size() + " items not read");
+            }
+            try {
+                // same capped full-jitter backoff as the batched deletes
+                TimeUnit.NANOSECONDS.sleep(backoffNanos(config, attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted reading credentials from " + tableName, e);
+            }
+        }
+    }
 
-        return queryResponse;
+    private static boolean isMissingIndex(DynamoDbException e) {
+        // DynamoDB reports a query on an index the table does not have as a validation error
+        return e.awsErrorDetails() != null && "ValidationException".equals(e.awsErrorDetails().errorCode())
+                && e.awsErrorDetails().errorMessage() != null && e.awsErrorDetails().errorMessage().contains("index");
+    }
+
+    private Map<String, Map<String, AttributeValue>> scanLatestItemsByPrefix(String tableName, Collection<String> prefixes) {
+        HashMap<String, String> attributeName = new HashMap<>();
+        HashMap<String, AttributeValue> attributeValue = new HashMap<>();
+        attributeName.put("#n", "name");
+        StringBuilder filter = new StringBuilder();
+        int i = 0;
+        for (String prefix : prefixes) {
+            if (i > 0) {
+                filter.append(" OR ");
+            }
+            filter.append("begins_with(#n, :p").append(i).append(")");
+            attributeValue.put(":p" + i, AttributeValue.builder().s(prefix).build());
+            i++;
+        }
+
+        Map<String, Map<String, AttributeValue>> latest = new HashMap<>();
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            ScanRequest request = ScanRequest.builder()
+                    .tableName(tableName)
+                    .filterExpression(filter.toString())
+                    .expressionAttributeNames(attributeName)
+                    .expressionAttributeValues(attributeValue)
+                    .exclusiveStartKey(lastEvaluatedKey)
+                    .build();
+            ScanResponse scanResponse = guarded(dynamoDbBreaker, FideliusMetrics.Operation.DYNAMODB_QUERY,
+                    () -> dynamoDbClient.scan(request));
+            for (Map<String, AttributeValue> item : scanResponse.items()) {
+                String name = item.get("name").s();
+                Map<String, AttributeValue> current = latest.get(name);
+                // versions are zero-padded, so string order is numeric order
+                if (current == null || item.get("version").s().compareTo(current.get("version").s()) > 0) {
+                    latest.put(name, item);
+                }
+            }
+            lastEvaluatedKey = scanResponse.lastEvaluatedKey();
+        } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+
+        return latest;
     }
 
     protected String getUpdatedBy() throws Exception {
+        if (callerIdentity != null) {
+            return callerIdentity.getArn();
+        }
         try {
             return stsClient.getCallerIdentity(GetCallerIdentityRequest.builder().build()).arn();
         } catch(Exception e){
@@ -158,39 +431,114 @@ public class JCredStash {
         }
     }
 
-    private ByteBuffer decryptKeyWithKMS(byte[] encryptedKeyBytes, Map<String, String> context) {
-        ByteBuffer blob = ByteBuffer.wrap(encryptedKeyBytes);
+    protected void setCallerIdentity(CallerIdentityResolver callerIdentity) {
+        this.callerIdentity = callerIdentity;
+    }
 
-        DecryptResponse decryptResponse = kmsClient.decrypt(DecryptRequest.builder().ciphertextBlob(SdkBytes.fromByteBuffer(blob)).encryptionContext(context).build());
+    protected void setBulkDeleteConfig(BulkDeleteConfig bulkDeleteConfig) {
+        this.bulkDeleteConfig = bulkDeleteConfig;
+    }
 
-        return decryptResponse.plaintext().asByteBuffer();
+    /**
+     * @param applicationIndex Nullable  Global secondary index with partition key "application" and sort key
+     *                         "name"; null reads credentials by prefix with a Scan
+     */
+    protected void setApplicationIndex(String applicationIndex) {
+        this.applicationIndex = applicationIndex;
     }
 
-    protected int getHighestVersion(String name, String tableName) {
-        HashMap<String, String> attributeName = new HashMap();
-        HashMap<String, AttributeValue> attributeValue = new HashMap();
-        attributeName.put("#n", "name");
-        attributeValue.put(":v_name", AttributeValue.builder().s(name).build());
-        QueryRequest spec = QueryRequest.builder()
-                .tableName(tableName)
-                .scanIndexForward(false)
-                .consistentRead(true)
-                .keyConditionExpression("#n = :v_name")
-                .expressionAttributeValues(attributeValue)
-                .expressionAttributeNames(attributeName)
-                .projectionExpression("version")
-                .build();
+    protected void setDataKeyCache(DataKeyCache dataKeyCache) {
+        this.dataKeyCache = dataKeyCache;
+    }
+
+    protected void setMetrics(FideliusMetrics metrics) {
+        this.metrics = metrics == null ? FideliusMetrics.NOOP : metrics;
+    }
+
+    /**
+     * Puts the reads behind getSecret, getLatestVersion and getLatestItemsByPrefix behind circuit breakers; null
+     * disables a breaker.
+     */
+    protected void setCircuitBreakers(CircuitBreaker dynamoDbBreaker, CircuitBreaker kmsBreaker) {
+        this.dynamoDbBreaker = dynamoDbBreaker;
+        this.kmsBreaker = kmsBreaker;
+    }
+
+    private <T> T guarded(CircuitBreaker breaker, FideliusMetrics.Operation operation, Supplier<T> call) {
+        if (breaker == null) {
+            return timed(metrics, operation, call);
+        }
+        try {
+            return breaker.call(() -> timed(metrics, operation, call));
+        } catch (BackendUnavailableException e) {
+            metrics.count(FideliusMetrics.Event.REQUEST_REJECTED);
+            throw e;
+        }
+    }
 
-        List<Map<String, AttributeValue>> items = dynamoDbClient.query(spec).items();
+    /**
+     * Runs one call as a timed phase, marking the span failed if the call throws.
+     */
+    static <T> T timed(FideliusMetrics metrics, FideliusMetrics.Operation operation, Supplier<T> call) {
+        FideliusMetrics.Span span = metrics.start(operation);
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            span.failed(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
 
-        int maxVersion = 0;
-        for(Map<String, AttributeValue> item : items) {
-            int version = Integer.parseInt(item.get("version").s());
-            if(version > maxVersion) {
-                maxVersion = version;
+    /**
+     * @return The unwrapped data key; the array belongs to the caller, who must wipe it after use
+     */
+    private byte[] decryptKeyWithKMS(byte[] encryptedKeyBytes, Map<String, String> context) {
+        DataKeyCache cache = dataKeyCache;
+        if (cache != null) {
+            byte[] cachedKey = cache.get(kmsClient, encryptedKeyBytes, context);
+            if (cachedKey != null) {
+                metrics.count(FideliusMetrics.Event.DATA_KEY_CACHE_HIT);
+                return cachedKey;
             }
+            metrics.count(FideliusMetrics.Event.DATA_KEY_CACHE_MISS);
+        }
+
+        ByteBuffer blob = ByteBuffer.wrap(encryptedKeyBytes);
+
+        DecryptResponse decryptResponse = guarded(kmsBreaker, FideliusMetrics.Operation.KMS_DECRYPT, () ->
+                kmsClient.decrypt(DecryptRequest.builder().ciphertextBlob(SdkBytes.fromByteBuffer(blob)).encryptionContext(context).build()));
+
+        // the response's own buffer, so wiping it after use leaves no other copy behind
+        byte[] plainText = decryptResponse.plaintext().asByteArrayUnsafe();
+        if (cache != null) {
+            cache.put(kmsClient, encryptedKeyBytes, context, plainText);
         }
-        return maxVersion;
+        return plainText;
+    }
+
+    /**
+     * Versions are zero-padded, so the range key sorts numerically and only the newest item needs to be read.
+     */
+    protected int getHighestVersion(String name, String tableName) {
+        String version = getLatestVersion(tableName, name);
+        return version == null ? 0 : Integer.parseInt(version);
+    }
+
+    /**
+     * Reads only the version attribute of the newest item, e.g. to check whether a cached item is still current.
+     *
+     * @return The zero-padded latest version, or null when the secret does not exist
+     */
+    protected String getLatestVersion(String tableName, String secret) {
+        QueryRequest spec = versionsRequest(tableName, secret, "version").toBuilder()
+                .limit(1)
+                .build();
+
+        List<Map<String, AttributeValue>> items = guarded(dynamoDbBreaker, FideliusMetrics.Operation.DYNAMODB_QUERY,
+                () -> dynamoDbClient.query(spec)).items();
+        return items.isEmpty() ? null : items.get(0).get("version").s();
     }
 
     // default table name: "credential-store"
@@ -206,6 +554,12 @@ public class JCredStash {
 
     }
 
+    protected byte[] getSecretBytes(String tableName, String secret, Map<String, String> context, Integer version)  {
+        Map<String, AttributeValue> dynamoCredential = readDynamoItem(tableName, secret, version);
+        EncryptedCredential encryptedCredential = CredModelMapper.fromDynamo(dynamoCredential);
+        return decryptBytes(encryptedCredential, context);
+    }
+
     protected MetadataParameters getMetadata(String tableName, String metadataKey, Map<String, String> context)  {
 
         // First find the relevant rows from the credstash table
@@ -217,25 +571,80 @@ public class JCredStash {
 
     protected String decrypt(EncryptedCredential encryptedCredential, Map<String,String> context){
         // First obtain that original key again using KMS
-        ByteBuffer plainText = decryptKeyWithKMS(encryptedCredential.getDataKeyBytes(), context);
+        byte[] plainText = decryptKeyWithKMS(encryptedCredential.getDataKeyBytes(), context);
+        try {
+            return decryptWithDataKey(cryptoImpl, encryptedCredential, ByteBuffer.wrap(plainText), metrics);
+        } finally {
+            Arrays.fill(plainText, (byte) 0);
+        }
+    }
 
+    /**
+     * Same as {@link #decrypt(EncryptedCredential, Map)} but returns the raw plaintext, which the caller must wipe.
+     */
+    protected byte[] decryptBytes(EncryptedCredential encryptedCredential, Map<String,String> context){
+        byte[] plainText = decryptKeyWithKMS(encryptedCredential.getDataKeyBytes(), context);
+        try {
+            return decryptBytesWithDataKey(cryptoImpl, encryptedCredential, ByteBuffer.wrap(plainText), metrics);
+        } finally {
+            Arrays.fill(plainText, (byte) 0);
+        }
+    }
+
+    static String decryptWithDataKey(CredStashCrypto cryptoImpl, EncryptedCredential encryptedCredential, ByteBuffer plainText) {
+        return decryptWithDataKey(cryptoImpl, encryptedCredential, plainText, FideliusMetrics.NOOP);
+    }
+
+    static String decryptWithDataKey(CredStashCrypto cryptoImpl, EncryptedCredential encryptedCredential, ByteBuffer plainText,
+                                     FideliusMetrics metrics) {
+        byte[] decryptedBytes = decryptBytesWithDataKey(cryptoImpl, encryptedCredential, plainText, metrics);
+        try {
+            return new String(decryptedBytes);
+        } finally {
+            Arrays.fill(decryptedBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Verifies the HMAC and decrypts the contents with an already unwrapped data key. The key is split into copies
+     * that are zeroed afterwards; the buffer passed in is left to the caller to wipe.
+     */
+    static byte[] decryptBytesWithDataKey(CredStashCrypto cryptoImpl, EncryptedCredential encryptedCredential, ByteBuffer plainText,
+                                          FideliusMetrics metrics) {
         // The key is just the first 32 bits, the remaining are for HMAC signature checking
         byte[] keyBytes = new byte[32];
         plainText.get(keyBytes);
 
         byte[] hmacKeyBytes = new byte[plainText.remaining()];
         plainText.get(hmacKeyBytes);
-        byte[] digest = cryptoImpl.digest(hmacKeyBytes, encryptedCredential.getCredentialBytes());
-        if(!Arrays.equals(digest, encryptedCredential.getHmacBytes())) {
-            throw new RuntimeException("HMAC integrety check failed"); //TODO custom exception type
-        }
+        try {
+            boolean verified = timed(metrics, FideliusMetrics.Operation.HMAC_VERIFY, () ->
+                    cryptoImpl.verifyDigest(hmacKeyBytes, encryptedCredential.getCredentialBytes(), encryptedCredential.getHmacBytes()));
+            if(!verified) {
+                throw new RuntimeException("HMAC integrety check failed"); //TODO custom exception type
+            }
 
-        // now use AES to finally decrypt the actual secret
-        byte[] decryptedBytes = cryptoImpl.decrypt(keyBytes, encryptedCredential.getCredentialBytes());
-        return new String(decryptedBytes);
+            // now use AES to finally decrypt the actual secret
+            byte[] decrypted = timed(metrics, FideliusMetrics.Operation.AES_DECRYPT, () ->
+                    cryptoImpl.decrypt(keyBytes, encryptedCredential.getCredentialBytes()));
+            metrics.recordPayloadSize(FideliusMetrics.Operation.AES_DECRYPT, decrypted.length);
+            return decrypted;
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+            Arrays.fill(hmacKeyBytes, (byte) 0);
+        }
     }
 
     protected EncryptedCredential encrypt(String name, String credential, String version, String user, String kmsKey, Map<String,String> context){
+        byte[] contents = credential.getBytes();
+        try {
+            return encrypt(name, contents, version, user, kmsKey, context);
+        } finally {
+            Arrays.fill(contents, (byte) 0);
+        }
+    }
+
+    protected EncryptedCredential encrypt(String name, byte[] contents, String version, String user, String kmsKey, Map<String,String> context){
         // generate a 64 byte key with KMS
         // half for data encryption, other half for HMAC
         GenerateDataKeyRequest dataKeyRequest = GenerateDataKeyRequest.builder()
@@ -243,27 +652,58 @@ public class JCredStash {
                 .encryptionContext(context)
                 .numberOfBytes(64)
                 .build();
-        GenerateDataKeyResponse dataKeyResponse = kmsClient.generateDataKey(dataKeyRequest);
-        byte[] resultArray = dataKeyResponse.plaintext().asByteArray();
-        byte[] dataKey = Arrays.copyOfRange(resultArray, 0, 32);
-        byte[] hmacKey = Arrays.copyOfRange(resultArray, 32, resultArray.length);
+        GenerateDataKeyResponse dataKeyResponse = timed(metrics, FideliusMetrics.Operation.KMS_GENERATE_DATA_KEY,
+                () -> kmsClient.generateDataKey(dataKeyRequest));
+        byte[] plaintextKey = dataKeyResponse.plaintext().asByteArray();
+        try {
+            return encryptWithDataKey(cryptoImpl, name, contents, version, user,
+                    plaintextKey, dataKeyResponse.ciphertextBlob().asByteArray(), context, metrics);
+        } finally {
+            Arrays.fill(plaintextKey, (byte) 0);
+        }
+    }
+
+    /**
+     * Encrypts the contents with a freshly generated 64 byte data key and builds the item to store.
+     *
+     * @param plaintextKey  Plaintext data key returned by KMS GenerateDataKey
+     * @param wrappedKey    KMS-wrapped copy of the same data key, stored alongside the contents
+     */
+    static EncryptedCredential encryptWithDataKey(CredStashCrypto crypto, String name, String credential, String version, String user,
+                                                  byte[] plaintextKey, byte[] wrappedKey, Map<String,String> context) {
+        byte[] contents = credential.getBytes();
+        try {
+            return encryptWithDataKey(crypto, name, contents, version, user, plaintextKey, wrappedKey, context);
+        } finally {
+            Arrays.fill(contents, (byte) 0);
+        }
+    }
+
+    static EncryptedCredential encryptWithDataKey(CredStashCrypto crypto, String name, byte[] contents, String version, String user,
+                                                  byte[] plaintextKey, byte[] wrappedKey, Map<String,String> context) {
+        return encryptWithDataKey(crypto, name, contents, version, user, plaintextKey, wrappedKey, context, FideliusMetrics.NOOP);
+    }
+
+    static EncryptedCredential encryptWithDataKey(CredStashCrypto crypto, String name, byte[] contents, String version, String user,
+                                                  byte[] plaintextKey, byte[] wrappedKey, Map<String,String> context,
+                                                  FideliusMetrics metrics) {
+        byte[] dataKey = Arrays.copyOfRange(plaintextKey, 0, 32);
+        byte[] hmacKey = Arrays.copyOfRange(plaintextKey, 32, plaintextKey.length);
 
         // encrypt credential contents using dataKey and create hmac
         // original data key is not used after this point
         // plaintext contents are not used after this point
-        CredStashBouncyCastleCrypto crypto = new CredStashBouncyCastleCrypto();
-        byte[] encryptedContents = crypto.encrypt(dataKey, credential.getBytes());
+        metrics.recordPayloadSize(FideliusMetrics.Operation.AES_ENCRYPT, contents.length);
+        byte[] encryptedContents = timed(metrics, FideliusMetrics.Operation.AES_ENCRYPT, () -> crypto.encrypt(dataKey, contents));
         byte[] hmac = crypto.digest(hmacKey, encryptedContents);
-        byte[] wrappedKey = dataKeyResponse.ciphertextBlob().asByteArray();
+        Arrays.fill(dataKey, (byte) 0);
+        Arrays.fill(hmacKey, (byte) 0);
 
         // format the hmac digest as a string containing only hexadecimal digits
         // see:
         //    HMAC.hexdigest()  https://docs.python.org/3/library/hmac.html
         //    http://stackoverflow.com/questions/1609899/java-equivalent-to-phps-hmac-sha1
-        String hmacString = "";
-        for (byte b : hmac) {
-            hmacString += String.format("%02x", b);
-        }
+        String hmacString = Hex.encodeHexString(hmac);
 
         // Base64 encode the wrapped datakey and contents
         byte[] base64WrappedKey = Base64.encodeBase64(wrappedKey);
@@ -332,15 +772,24 @@ public class JCredStash {
         EncryptedCredential encryptedCredential = encrypt(secretName,contents,version, user, kmsKey,context);
         final Map<String, AttributeValue> data = CredModelMapper.toDynamo(encryptedCredential);
 
-        HashMap<String, String> cond = new HashMap<>();
-        cond.put("#n", "name");
-        PutItemRequest request = PutItemRequest.builder()
-                .tableName(tableName)
-                .item(data)
-                .conditionExpression("attribute_not_exists(#n)")
-                .expressionAttributeNames(cond)
-                .build();
-        dynamoDbClient.putItem(request);
+        PutItemRequest request = conditionalPutRequest(tableName, data);
+        timed(metrics, FideliusMetrics.Operation.DYNAMODB_WRITE, () -> dynamoDbClient.putItem(request));
+    }
+
+    /**
+     * Stores raw bytes, e.g. a keystore; the contents array is not retained and may be wiped by the caller afterwards.
+     */
+    protected void putSecretBytes(String tableName, String secretName, byte[] contents, String version, String user, String kmsKey, Map<String, String> context) throws Exception {
+        tableName = (tableName == null || tableName.length() == 0) ? "encryptedCredential-store" : tableName;
+        version = (version == null || version.length() == 0) ? String.format("%019d", 1) : version;
+        user = ( user == null || user.length() == 0) ? getUpdatedBy(): user;
+        kmsKey = (kmsKey == null || kmsKey.length() == 0) ? Constants.DEFAULT_KMS_KEY : kmsKey;
+        context = (context == null) ? new HashMap<String, String>() : context;
+
+        EncryptedCredential encryptedCredential = encrypt(secretName, contents, version, user, kmsKey, context);
+        Map<String, AttributeValue> data = CredModelMapper.toDynamo(encryptedCredential);
+        PutItemRequest request = conditionalPutRequest(tableName, data);
+        timed(metrics, FideliusMetrics.Operation.DYNAMODB_WRITE, () -> dynamoDbClient.putItem(request));
     }
 
     protected void putMetadata(String tableName, String secretName, String version, String sourceType,
@@ -364,75 +813,362 @@ public class JCredStash {
         MetadataParameters metadataParameters = add(secretName, version, sourceType, source, user, kmsKey, context);
         final Map<String, AttributeValue> data = MetadataModelMapper.toDynamo(metadataParameters);
 
+        PutItemRequest request = conditionalPutRequest(tableName, data);
+        timed(metrics, FideliusMetrics.Operation.DYNAMODB_WRITE, () -> dynamoDbClient.putItem(request));
+    }
+
+    /**
+     * Stores up to {@link #MAX_TRANSACT_WRITE_ITEMS} encrypted credentials in one request. BatchWriteItem cannot
+     * carry conditions, so the group is written as a transaction in which every put requires its version not to
+     * exist yet; a conflict on any item cancels the whole group.
+     */
+    protected void putSecrets(String tableName, List<EncryptedCredential> encryptedCredentials) {
+        if (encryptedCredentials.size() > MAX_TRANSACT_WRITE_ITEMS) {
+            throw new IllegalArgumentException("At most " + MAX_TRANSACT_WRITE_ITEMS + " credentials can be stored together");
+        }
         HashMap<String, String> cond = new HashMap<>();
         cond.put("#n", "name");
-        PutItemRequest request = PutItemRequest.builder()
+        List<TransactWriteItem> writes = new ArrayList<>();
+        for (EncryptedCredential encryptedCredential : encryptedCredentials) {
+            writes.add(TransactWriteItem.builder()
+                    .put(Put.builder()
+                            .tableName(tableName)
+                            .item(CredModelMapper.toDynamo(encryptedCredential))
+                            .conditionExpression("attribute_not_exists(#n)")
+                            .expressionAttributeNames(cond)
+                            .build())
+                    .build());
+        }
+        timed(metrics, FideliusMetrics.Operation.DYNAMODB_WRITE,
+                () -> dynamoDbClient.transactWriteItems(TransactWriteItemsRequest.builder().transactItems(writes).build()));
+    }
+
+    /**
+     * Builds a put that fails if this name and version already exist, so a concurrent writer cannot be overwritten.
+     */
+    static PutItemRequest conditionalPutRequest(String tableName, Map<String, AttributeValue> data) {
+        HashMap<String, String> cond = new HashMap<>();
+        cond.put("#n", "name");
+        return PutItemRequest.builder()
                 .tableName(tableName)
                 .item(data)
                 .conditionExpression("attribute_not_exists(#n)")
                 .expressionAttributeNames(cond)
                 .build();
-        dynamoDbClient.putItem(request);
     }
 
+    /**
+     * Deletes every version of a secret. Versions are read page by page and removed in 25-item batches, with up to
+     * {@link BulkDeleteConfig#getParallelism()} batches in flight. Throttled and unprocessed items are retried with
+     * capped, jittered exponential backoff until the deadline. Once all batches finish the versions are read again,
+     * so any written while the delete was running are removed too.
+     *
+     * @throws BulkDeleteException if some versions were still not deleted when the deadline passed
+     */
     protected void deleteSecret(String tableName, String secretName) throws InterruptedException {
+        BulkDeleteConfig config = bulkDeleteConfig != null ? bulkDeleteConfig : new BulkDeleteConfig();
+        FideliusMetrics metrics = this.metrics;
+        BulkDelete delete = new BulkDelete(tableName, secretName, config, metrics,
+                request -> CompletableFuture.completedFuture(timed(metrics, FideliusMetrics.Operation.DYNAMODB_WRITE,
+                        () -> dynamoDbClient.batchWriteItem(request))),
+                JCredStash::sleep);
+        Set<String> submittedVersions = new HashSet<>();
+
+        DeletePool pool = acquireDeletePool(config.getParallelism());
+        try {
+            for (int pass = 0; !delete.expired(); pass++) {
+                List<Future<?>> inFlight = new ArrayList<>();
+                List<Map<String, AttributeValue>> batch = new ArrayList<>();
+                int newVersions = 0;
+                Iterator<QueryResponse> pages = queryPages(versionsRequest(tableName, secretName, VERSION_ATTRIBUTES));
+                while (pages.hasNext()) {
+                    for (Map<String, AttributeValue> item : pages.next().items()) {
+                        if (!submittedVersions.add(item.get("version").s())) {
+                            continue;
+                        }
+                        newVersions++;
+                        batch.add(filterItemMapForDeletion(item));
+                        if (batch.size() == MAX_BULK_WRITE_REQUEST_ITEMS) {
+                            delete.found(batch.size());
+                            List<Map<String, AttributeValue>> keys = batch;
+                            inFlight.add(pool.executor.submit(() -> delete.sendBatch(keys).join()));
+                            batch = new ArrayList<>();
+                        }
+                    }
+                }
 
-        QueryResponse queryResponse = getCredentials(tableName, secretName);
-        List<Map<String, List<WriteRequest>>> writeRequestMapList = new ArrayList<>();
-        List<WriteRequest> writeRequests = new ArrayList<>();
-        int item_count = 0;
-        for (Map<String, AttributeValue> item : queryResponse.items()) {
-            Map<String, AttributeValue> preppedItemMap = filterItemMapForDeletion(item);
-            WriteRequest writeRequest = WriteRequest.builder()
-                    .deleteRequest(DeleteRequest.builder().key(preppedItemMap).build()
-            ).build();
-            writeRequests.add(writeRequest);
-            item_count++;
-            //Break into max amount of items for a bulk write request
-            if(item_count % MAX_BULK_WRITE_REQUEST_ITEMS == 0){
-                Map<String, List<WriteRequest>> writeRequestMap = new HashMap<>();
-                writeRequestMap.put(tableName, writeRequests);
-                writeRequestMapList.add(writeRequestMap);
-                writeRequests = new ArrayList<>();
+                if (pass == 0 && newVersions == 0) {
+                    throw new RuntimeException("Secret " + secretName + " could not be found");
+                }
+                if (!batch.isEmpty()) {
+                    // the caller would only wait, so it sends the last batch itself
+                    delete.found(batch.size());
+                    delete.sendBatch(batch).join();
+                }
+                for (Future<?> future : inFlight) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException("Error deleting secret " + secretName, e.getCause());
+                    }
+                }
+                if (newVersions == 0) {
+                    break;
+                }
             }
+        } finally {
+            releaseDeletePool(pool);
+        }
+
+        if (delete.hasFailures()) {
+            throw delete.toException();
         }
-        //Include left over items
-        if(item_count % MAX_BULK_WRITE_REQUEST_ITEMS != 0){
-            Map<String, List<WriteRequest>> writeRequestMap = new HashMap<>();
-            writeRequestMap.put(tableName, writeRequests);
-            writeRequestMapList.add(writeRequestMap);
+    }
+
+    private static CompletableFuture<Void> sleep(long nanos) {
+        CompletableFuture<Void> slept = new CompletableFuture<>();
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            slept.complete(null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            slept.completeExceptionally(e);
         }
+        return slept;
+    }
 
-        for(Map<String, List<WriteRequest>> writeRequestMap : writeRequestMapList){
-            BatchWriteItemRequest batchWriteItemRequest = BatchWriteItemRequest.builder().requestItems(writeRequestMap).build();
+    /**
+     * Full jitter: a uniformly random delay up to the doubled base, capped at the maximum backoff.
+     */
+    static long backoffNanos(BulkDeleteConfig config, int attempt) {
+        long cap = config.getMaximumBackoff().toNanos();
+        long ceiling = config.getBaseBackoff().toNanos() << Math.min(attempt, 30);
+        if (ceiling <= 0 || ceiling > cap) {
+            ceiling = cap;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
 
-            Map<String, List<WriteRequest>> unprocessed = null ;
-            int unprocessedSize = batchWriteItemRequest.requestItems().size();
-            int attempts = 0;
-            do {
-                if (attempts > 0) {
-                    // exponential backoff per DynamoDB recommendation
-                    Thread.sleep((1 << attempts) * 1000);
+    /**
+     * Each delete holds on to the pool it started with. A pool replaced after a parallelism change is shut down
+     * only once the last delete using it releases it, so running deletes never submit to a stopped pool.
+     */
+    private synchronized DeletePool acquireDeletePool(int parallelism) {
+        if (deletePool == null || deletePool.parallelism != parallelism) {
+            DeletePool previous = deletePool;
+            deletePool = new DeletePool(parallelism);
+            if (previous != null && previous.users == 0) {
+                previous.executor.shutdown();
+            }
+        }
+        deletePool.users++;
+        return deletePool;
+    }
+
+    private synchronized void releaseDeletePool(DeletePool pool) {
+        pool.users--;
+        if (pool.users == 0 && (pool != deletePool || shutDown)) {
+            pool.executor.shutdown();
+            if (pool == deletePool) {
+                deletePool = null;
+            }
+        }
+    }
+
+    /**
+     * Stops the delete threads once the deletes running on them finish. Called when a client replaces this
+     * instance; a delete started on it afterwards still completes, on a pool stopped when it finishes.
+     */
+    synchronized void shutdown() {
+        shutDown = true;
+        if (deletePool != null && deletePool.users == 0) {
+            deletePool.executor.shutdown();
+            deletePool = null;
+        }
+    }
+
+    /**
+     * Threads sending the batches of bulk deletes; users is guarded by the owning JCredStash.
+     */
+    private static class DeletePool {
+        private final int parallelism;
+        private final ExecutorService executor;
+        private int users;
+
+        DeletePool(int parallelism) {
+            this.parallelism = parallelism;
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "fidelius-delete-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * One bulk delete of a secret's versions. Both {@link JCredStash} and {@link FideliusAsyncClient} send their
+     * batches through it, so throttled and unprocessed items are retried the same way: after
+     * {@link #backoffNanos(BulkDeleteConfig, int)} until the deadline, after which they are reported as not deleted.
+     * Progress is tracked across the threads sending the batches.
+     */
+    static class BulkDelete {
+        private final String tableName;
+        private final String secretName;
+        private final BulkDeleteConfig config;
+        private final long deadline;
+        private final FideliusMetrics metrics;
+        private final Function<BatchWriteItemRequest, CompletableFuture<BatchWriteItemResponse>> writer;
+        private final LongFunction<CompletableFuture<Void>> sleeper;
+        private final AtomicInteger found = new AtomicInteger();
+        private final AtomicInteger deleted = new AtomicInteger();
+        private final List<String> notDeleted = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+
+        /**
+         * @param writer    Sends one BatchWriteItem request
+         * @param sleeper   Completes after the given number of nanoseconds, or exceptionally if interrupted
+         */
+        BulkDelete(String tableName, String secretName, BulkDeleteConfig config, FideliusMetrics metrics,
+                   Function<BatchWriteItemRequest, CompletableFuture<BatchWriteItemResponse>> writer,
+                   LongFunction<CompletableFuture<Void>> sleeper) {
+            this.tableName = tableName;
+            this.secretName = secretName;
+            this.config = config;
+            this.deadline = System.nanoTime() + config.getDeadline().toNanos();
+            this.metrics = metrics;
+            this.writer = writer;
+            this.sleeper = sleeper;
+        }
+
+        boolean expired() {
+            return System.nanoTime() >= deadline;
+        }
+
+        /**
+         * Sends the keys in 25-item batches with at most {@link BulkDeleteConfig#getParallelism()} in flight,
+         * for callers that have no thread pool of their own.
+         */
+        CompletableFuture<Void> sendAll(List<Map<String, AttributeValue>> keys) {
+            Queue<List<Map<String, AttributeValue>>> batches = new ConcurrentLinkedQueue<>();
+            for (int i = 0; i < keys.size(); i += MAX_BULK_WRITE_REQUEST_ITEMS) {
+                batches.add(keys.subList(i, Math.min(keys.size(), i + MAX_BULK_WRITE_REQUEST_ITEMS)));
+            }
+            found(keys.size());
+            CompletableFuture<?>[] workers = new CompletableFuture<?>[Math.min(config.getParallelism(), batches.size())];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = sendNext(batches);
+            }
+            return CompletableFuture.allOf(workers);
+        }
+
+        private CompletableFuture<Void> sendNext(Queue<List<Map<String, AttributeValue>>> batches) {
+            List<Map<String, AttributeValue>> batch = batches.poll();
+            if (batch == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return sendBatch(batch).thenCompose(ignored -> sendNext(batches));
+        }
+
+        /**
+         * Completes once every key of the batch is deleted or recorded as not deleted; never completes exceptionally.
+         */
+        CompletableFuture<Void> sendBatch(List<Map<String, AttributeValue>> keys) {
+            List<WriteRequest> pending = new ArrayList<>();
+            for (Map<String, AttributeValue> key : keys) {
+                pending.add(WriteRequest.builder().deleteRequest(DeleteRequest.builder().key(key).build()).build());
+            }
+            return send(pending, 0, null);
+        }
+
+        private CompletableFuture<Void> send(List<WriteRequest> pending, int attempt, Throwable lastError) {
+            if (expired()) {
+                failed(pending, lastError);
+                return CompletableFuture.completedFuture(null);
+            }
+            BatchWriteItemRequest request = BatchWriteItemRequest.builder()
+                    .requestItems(Collections.singletonMap(tableName, pending))
+                    .build();
+            CompletableFuture<BatchWriteItemResponse> response;
+            try {
+                response = writer.apply(request);
+            } catch (RuntimeException e) {
+                response = new CompletableFuture<>();
+                response.completeExceptionally(e);
+            }
+            return response.handle((result, e) -> {
+                Throwable error = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+                List<WriteRequest> unprocessed;
+                if (error == null) {
+                    unprocessed = result.unprocessedItems().get(tableName);
+                    int unprocessedCount = unprocessed == null ? 0 : unprocessed.size();
+                    deleted(pending.size() - unprocessedCount);
+                    if (unprocessedCount == 0) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                } else if (error instanceof ProvisionedThroughputExceededException
+                        || error instanceof RequestLimitExceededException) {
+                    unprocessed = pending;
+                    metrics.count(FideliusMetrics.Event.THROTTLE_RETRY);
+                } else {
+                    failed(pending, error);
+                    return CompletableFuture.<Void>completedFuture(null);
                 }
-                attempts++;
-                try {
-                    BatchWriteItemResponse batchWriteItemResponse = dynamoDbClient.batchWriteItem(batchWriteItemRequest);
-                    unprocessed = batchWriteItemResponse.unprocessedItems();
-                    unprocessedSize = unprocessed.size();
-                    batchWriteItemRequest = BatchWriteItemRequest.builder().requestItems(unprocessed).build();
-                }catch (ProvisionedThroughputExceededException e){
-                    // exponential backoff per DynamoDB recommendation
-                    Thread.sleep((1 << attempts) * 1000);
+                return retry(unprocessed, attempt, error != null ? error : lastError);
+            }).thenCompose(future -> future);
+        }
+
+        private CompletableFuture<Void> retry(List<WriteRequest> pending, int attempt, Throwable lastError) {
+            long delayNanos = backoffNanos(config, attempt);
+            if (System.nanoTime() + delayNanos >= deadline) {
+                failed(pending, lastError);
+                return CompletableFuture.completedFuture(null);
+            }
+            return sleeper.apply(delayNanos).handle((ignored, interrupted) -> {
+                if (interrupted != null) {
+                    failed(pending, lastError);
+                    return CompletableFuture.<Void>completedFuture(null);
                 }
+                return send(pending, attempt + 1, lastError);
+            }).thenCompose(future -> future);
+        }
+
+        void found(int count) {
+            notifyListener(deleted.get(), found.addAndGet(count));
+        }
 
-            } while (unprocessedSize > 0 && attempts < 6);
+        private void deleted(int count) {
+            notifyListener(deleted.addAndGet(count), found.get());
+        }
 
-            if(unprocessedSize > 0)
-                throw new RuntimeException("Error deleting secret " + secretName + " with " + unprocessed.size() + " versions not deleted");
+        private void failed(List<WriteRequest> pending, Throwable cause) {
+            for (WriteRequest request : pending) {
+                notDeleted.add(request.deleteRequest().key().get("version").s());
+            }
+            if (cause != null) {
+                firstFailure.compareAndSet(null, cause);
+            }
+        }
+
+        boolean hasFailures() {
+            return !notDeleted.isEmpty();
+        }
+
+        BulkDeleteException toException() {
+            List<String> versions = new ArrayList<>(notDeleted);
+            Collections.sort(versions);
+            return new BulkDeleteException(secretName, deleted.get(), versions, firstFailure.get());
+        }
+
+        private void notifyListener(int deletedCount, int foundCount) {
+            BulkDeleteConfig.ProgressListener listener = config.getProgressListener();
+            if (listener != null) {
+                listener.onProgress(secretName, deletedCount, foundCount);
+            }
         }
     }
 
-    private Map<String, AttributeValue> filterItemMapForDeletion(Map<String, AttributeValue> items) {
+    static Map<String, AttributeValue> filterItemMapForDeletion(Map<String, AttributeValue> items) {
         HashMap<String, AttributeValue> populatedItem = new HashMap<>();
         populatedItem.put("name", items.get("name"));
         populatedItem.put("version", items.get("version"));
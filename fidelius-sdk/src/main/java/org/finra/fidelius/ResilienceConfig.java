@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.time.Duration;
+
+/**
+ * Settings for the protections {@link FideliusClient#enableResilience(ResilienceConfig)} puts around the reads
+ * behind getCredential: one circuit breaker each for DynamoDB and KMS, and a bound on concurrent backend loads,
+ * with concurrent reads of the same credential sharing one load. Serving the last known good value during an
+ * outage is configured on the credential cache, see {@link CredentialCacheConfig#setStaleGracePeriod(Duration)}.
+ */
+public class ResilienceConfig {
+
+    private int failureThreshold = 5;
+    private Duration openDuration = Duration.ofSeconds(30);
+    private int maximumConcurrentRequests = 64;
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * @param failureThreshold Consecutive backend failures that open a circuit breaker
+     */
+    public ResilienceConfig setFailureThreshold(int failureThreshold) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1");
+        }
+        this.failureThreshold = failureThreshold;
+        return this;
+    }
+
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * @param openDuration How long an open circuit refuses calls before letting a trial call through
+     */
+    public ResilienceConfig setOpenDuration(Duration openDuration) {
+        if (openDuration == null || openDuration.isNegative() || openDuration.isZero()) {
+            throw new IllegalArgumentException("openDuration must be positive");
+        }
+        this.openDuration = openDuration;
+        return this;
+    }
+
+    public int getMaximumConcurrentRequests() {
+        return maximumConcurrentRequests;
+    }
+
+    /**
+     * @param maximumConcurrentRequests Distinct credential loads allowed in flight at once; further loads fail fast
+     */
+    public ResilienceConfig setMaximumConcurrentRequests(int maximumConcurrentRequests) {
+        if (maximumConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maximumConcurrentRequests must be at least 1");
+        }
+        this.maximumConcurrentRequests = maximumConcurrentRequests;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "ResilienceConfig{" +
+                "failureThreshold=" + failureThreshold +
+                ", openDuration=" + openDuration +
+                ", maximumConcurrentRequests=" + maximumConcurrentRequests +
+                '}';
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Plaintext of a secret held as raw bytes, for binary secrets such as keystores and for callers that
+ * must not leave plaintext Strings on the heap.
+ *
+ * The bytes are zeroed by {@link #close()}, so use it in try-with-resources. Off-heap buffers keep the
+ * plaintext out of the garbage-collected heap entirely. Every accessor throws IllegalStateException
+ * once the buffer is closed.
+ */
+public final class SecretBuffer implements AutoCloseable {
+
+    private final ByteBuffer buffer;
+    private volatile boolean closed;
+
+    private SecretBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Takes ownership of the given array. With offHeap the bytes are moved into a direct buffer and the
+     * array is zeroed; otherwise the array itself becomes the buffer's storage.
+     */
+    static SecretBuffer wrap(byte[] plaintext, boolean offHeap) {
+        if (!offHeap) {
+            return new SecretBuffer(ByteBuffer.wrap(plaintext));
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(plaintext.length);
+        direct.put(plaintext);
+        direct.flip();
+        Arrays.fill(plaintext, (byte) 0);
+        return new SecretBuffer(direct);
+    }
+
+    public int length() {
+        checkOpen();
+        return buffer.limit();
+    }
+
+    public boolean isOffHeap() {
+        return buffer.isDirect();
+    }
+
+    /**
+     * @return Read-only view of the plaintext; valid until this buffer is closed
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        checkOpen();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return Copy of the plaintext that the caller is responsible for wiping
+     */
+    public byte[] toByteArray() {
+        byte[] copy = new byte[length()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * Decodes the plaintext as UTF-8 without creating an intermediate String.
+     *
+     * @return Characters that the caller is responsible for wiping
+     */
+    public char[] toCharArray() {
+        checkOpen();
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer chars = null;
+        try {
+            chars = decoder.decode(buffer.duplicate());
+            char[] result = new char[chars.remaining()];
+            chars.get(result);
+            return result;
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException("Secret is not valid UTF-8", e);
+        } finally {
+            if (chars != null && chars.hasArray()) {
+                Arrays.fill(chars.array(), '\0');
+            }
+        }
+    }
+
+    /**
+     * @return Stream over the plaintext, e.g. for KeyStore.load; valid until this buffer is closed
+     */
+    public InputStream openStream() {
+        checkOpen();
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        return new InputStream() {
+            @Override
+            public int read() {
+                checkOpen();
+                return view.hasRemaining() ? view.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                checkOpen();
+                if (len == 0) {
+                    return 0;
+                }
+                if (!view.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(len, view.remaining());
+                view.get(b, off, count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return view.remaining();
+            }
+        };
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Zeroes the plaintext. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ByteBuffer wipe = buffer.duplicate();
+        wipe.clear();
+        while (wipe.hasRemaining()) {
+            wipe.put((byte) 0);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Secret buffer has been closed");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SecretBuffer{length=" + buffer.limit() + ", offHeap=" + buffer.isDirect() + ", closed=" + closed + '}';
+    }
+}
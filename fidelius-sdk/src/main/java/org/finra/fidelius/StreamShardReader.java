@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.finra.fidelius;
+
+import software.amazon.awssdk.services.dynamodb.model.DescribeStreamRequest;
+import software.amazon.awssdk.services.dynamodb.model.DescribeStreamResponse;
+import software.amazon.awssdk.services.dynamodb.model.ExpiredIteratorException;
+import software.amazon.awssdk.services.dynamodb.model.GetRecordsRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetRecordsResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetShardIteratorRequest;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+import software.amazon.awssdk.services.dynamodb.model.Shard;
+import software.amazon.awssdk.services.dynamodb.model.ShardIteratorType;
+import software.amazon.awssdk.services.dynamodb.model.TrimmedDataAccessException;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Reads every shard of one DynamoDB stream from the moment {@link #start()} is called, following shard splits.
+ * Used by {@link CredentialWatcher} and by the Fidelius service to notice changes made by other processes.
+ *
+ * Not thread-safe: call it from one thread at a time. Errors other than an expired or trimmed shard iterator,
+ * such as the stream being deleted, are thrown to the caller, who should drop the reader.
+ */
+public class StreamShardReader {
+    private static final long SHARD_DISCOVERY_INTERVAL_MILLIS = 30_000L;
+
+    private final DynamoDbStreamsClient streamsClient;
+    private final String streamArn;
+    private final Map<String, String> shardIterators = new LinkedHashMap<>();
+    private final Set<String> finishedShards = new HashSet<>();
+    private long lastShardDiscovery;
+
+    /**
+     * @param streamsClient Client for DynamoDB Streams
+     * @param streamArn     ARN of the stream, e.g. the latest stream ARN of the table
+     */
+    public StreamShardReader(DynamoDbStreamsClient streamsClient, String streamArn) {
+        this.streamsClient = streamsClient;
+        this.streamArn = streamArn;
+    }
+
+    public String getStreamArn() {
+        return streamArn;
+    }
+
+    /**
+     * Positions every open shard at its latest record, so only records written from now on are read.
+     */
+    public void start() {
+        discoverShards(true);
+    }
+
+    /**
+     * Reads the records available in every shard once and passes them to the consumer, shard by shard in order.
+     * New shards are looked for every 30 seconds and whenever a shard was closed.
+     *
+     * @param records Called with every record read
+     * @return true if records may have been missed because a shard iterator expired or its records were trimmed;
+     *         reading has resumed from the latest record of that shard
+     */
+    public boolean poll(Consumer<Record> records) {
+        if (System.currentTimeMillis() - lastShardDiscovery >= SHARD_DISCOVERY_INTERVAL_MILLIS || shardIterators.isEmpty()) {
+            discoverShards(false);
+        }
+
+        boolean missedRecords = false;
+        Iterator<Map.Entry<String, String>> shards = shardIterators.entrySet().iterator();
+        while (shards.hasNext()) {
+            Map.Entry<String, String> shard = shards.next();
+            GetRecordsResponse response;
+            try {
+                response = streamsClient.getRecords(GetRecordsRequest.builder().shardIterator(shard.getValue()).build());
+            } catch (ExpiredIteratorException | TrimmedDataAccessException e) {
+                shard.setValue(shardIterator(shard.getKey(), ShardIteratorType.LATEST));
+                missedRecords = true;
+                continue;
+            }
+            response.records().forEach(records);
+            if (response.nextShardIterator() == null) {
+                // the shard was split or closed; its children are picked up by the next discovery
+                finishedShards.add(shard.getKey());
+                shards.remove();
+                lastShardDiscovery = 0;
+            } else {
+                shard.setValue(response.nextShardIterator());
+            }
+        }
+        return missedRecords;
+    }
+
+    /**
+     * Starts reading shards not seen before. Shards open when reading starts are read from their latest record;
+     * shards created later are children of ones already read, so they are read from the beginning.
+     */
+    private void discoverShards(boolean initial) {
+        String lastShardId = null;
+        do {
+            DescribeStreamResponse response = streamsClient.describeStream(DescribeStreamRequest.builder()
+                    .streamArn(streamArn)
+                    .exclusiveStartShardId(lastShardId)
+                    .build());
+            for (Shard shard : response.streamDescription().shards()) {
+                String shardId = shard.shardId();
+                if (shardIterators.containsKey(shardId) || finishedShards.contains(shardId)) {
+                    continue;
+                }
+                boolean closed = shard.sequenceNumberRange() != null && shard.sequenceNumberRange().endingSequenceNumber() != null;
+                if (initial && closed) {
+                    finishedShards.add(shardId);
+                } else {
+                    shardIterators.put(shardId, shardIterator(shardId, initial ? ShardIteratorType.LATEST : ShardIteratorType.TRIM_HORIZON));
+                }
+            }
+            lastShardId = response.streamDescription().lastEvaluatedShardId();
+        } while (lastShardId != null);
+        lastShardDiscovery = System.currentTimeMillis();
+    }
+
+    private String shardIterator(String shardId, ShardIteratorType type) {
+        return streamsClient.getShardIterator(GetShardIteratorRequest.builder()
+                .streamArn(streamArn)
+                .shardId(shardId)
+                .shardIteratorType(type)
+                .build())
+                .shardIterator();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.GetCallerIdentityRequest;
+import software.amazon.awssdk.services.sts.model.GetCallerIdentityResponse;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class CallerIdentityResolverTest {
+
+    private StsClient stsClient;
+    private AtomicLong now;
+    private AtomicReference<String> accessKey;
+    private CallerIdentityResolver resolver;
+
+    @Before
+    public void setUp() {
+        stsClient = mock(StsClient.class);
+        doReturn(GetCallerIdentityResponse.builder().arn("arn:aws:sts::123456789:assumed-role/role/test_username").build())
+                .when(stsClient).getCallerIdentity(any(GetCallerIdentityRequest.class));
+        now = new AtomicLong();
+        accessKey = new AtomicReference<>("AKIA1");
+        AwsCredentialsProvider provider = () -> AwsBasicCredentials.create(accessKey.get(), "secret");
+        resolver = new CallerIdentityResolver(stsClient, provider, Duration.ofMinutes(10), now::get);
+    }
+
+    @Test
+    public void identityIsLookedUpOnce() {
+        Assert.assertEquals("role/test_username", resolver.getUser());
+        Assert.assertEquals("arn:aws:sts::123456789:assumed-role/role/test_username", resolver.getArn());
+        verify(stsClient, times(1)).getCallerIdentity(any(GetCallerIdentityRequest.class));
+    }
+
+    @Test
+    public void identityIsLookedUpAgainAfterRotationExpiryOrRefresh() {
+        resolver.getArn();
+
+        accessKey.set("AKIA2");
+        resolver.getArn();
+        verify(stsClient, times(2)).getCallerIdentity(any(GetCallerIdentityRequest.class));
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(10));
+        resolver.getArn();
+        verify(stsClient, times(3)).getCallerIdentity(any(GetCallerIdentityRequest.class));
+
+        resolver.refresh();
+        resolver.getArn();
+        verify(stsClient, times(4)).getCallerIdentity(any(GetCallerIdentityRequest.class));
+    }
+
+    @Test
+    public void failedLookupIsNotCached() {
+        doThrow(new RuntimeException("throttled")).doReturn(GetCallerIdentityResponse.builder().arn("arn:aws:iam::123456789:user/test").build())
+                .when(stsClient).getCallerIdentity(any(GetCallerIdentityRequest.class));
+
+        try {
+            resolver.getArn();
+            Assert.fail("Expected the STS failure to surface");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("Error getting user", e.getMessage());
+        }
+        Assert.assertEquals("arn:aws:iam::123456789:user/test", resolver.getArn());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.kms.model.KmsException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CircuitBreaker breaker = new CircuitBreaker("KMS", 3, Duration.ofSeconds(30), now::get);
+
+    private void callFailing(RuntimeException error) {
+        try {
+            breaker.call(() -> {
+                calls.incrementAndGet();
+                throw error;
+            });
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void opensAfterConsecutiveBackendFailuresAndClosesAfterSuccessfulTrial() {
+        callFailing(SdkClientException.create("connection reset"));
+        callFailing(KmsException.builder().statusCode(503).build());
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        callFailing(SdkClientException.create("connection reset"));
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        try {
+            breaker.call(calls::incrementAndGet);
+            Assert.fail("Expected the open circuit to refuse the call");
+        } catch (BackendUnavailableException e) {
+            Assert.assertEquals("KMS circuit breaker is open", e.getMessage());
+        }
+        Assert.assertEquals(3, calls.get());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        callFailing(SdkClientException.create("still down"));
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        Assert.assertEquals(Integer.valueOf(5), breaker.call(calls::incrementAndGet));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void rejectedRequestsDoNotCountAsFailures() {
+        for (int i = 0; i < 10; i++) {
+            callFailing(ConditionalCheckFailedException.builder().statusCode(400).build());
+            callFailing(new RuntimeException("Secret APP.dev.secret could not be found"));
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        callFailing(SdkClientException.create("timeout"));
+        callFailing(SdkClientException.create("timeout"));
+        breaker.call(calls::incrementAndGet);
+        callFailing(SdkClientException.create("timeout"));
+        Assert.assertEquals("A success resets the count", CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void onlyTheTrialCallClosesTheCircuit() {
+        // a slow call let through while the circuit was still closed
+        CircuitBreaker.State slowCall = breaker.tryAcquire();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, slowCall);
+        callFailing(SdkClientException.create("timeout"));
+        callFailing(SdkClientException.create("timeout"));
+        callFailing(SdkClientException.create("timeout"));
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        breaker.onSuccess(slowCall);
+        Assert.assertEquals("A late success does not close an open circuit", CircuitBreaker.State.OPEN, breaker.getState());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.tryAcquire());
+        breaker.onSuccess(slowCall);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onFailure(slowCall);
+        Assert.assertNull("The trial is still in flight", breaker.tryAcquire());
+
+        breaker.onSuccess(CircuitBreaker.State.HALF_OPEN);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
@@ -22,11 +22,18 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(Parameterized.class)
 public abstract class CredStashCryptoTest {
@@ -84,4 +91,57 @@ public abstract class CredStashCryptoTest {
 
         assertThat("Digest: " + javax.xml.bind.DatatypeConverter.printHexBinary(actualDigest), actualDigest, equalTo(digestBytes));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEncrypt() throws Exception {
+        byte[] keyBytes = javax.xml.bind.DatatypeConverter.parseHexBinary(key);
+        byte[] decryptedBytes = javax.xml.bind.DatatypeConverter.parseBase64Binary(decrypted);
+        byte[] encryptedbytes = javax.xml.bind.DatatypeConverter.parseBase64Binary(encrypted);
+
+        assertThat(getCryptoImplementation().encrypt(keyBytes, decryptedBytes), equalTo(encryptedbytes));
+    }
+
+    @Test
+    public void testVerifyDigest() throws Exception {
+        byte[] decryptedBytes = javax.xml.bind.DatatypeConverter.parseBase64Binary(decrypted);
+        byte[] digestKeyBytes = javax.xml.bind.DatatypeConverter.parseHexBinary(digestKey);
+        byte[] digestBytes = javax.xml.bind.DatatypeConverter.parseHexBinary(digest);
+
+        CredStashCrypto crypto = getCryptoImplementation();
+
+        assertTrue(crypto.verifyDigest(digestKeyBytes, decryptedBytes, digestBytes));
+        digestBytes[digestBytes.length - 1] ^= 1;
+        assertFalse(crypto.verifyDigest(digestKeyBytes, decryptedBytes, digestBytes));
+        assertFalse(crypto.verifyDigest(digestKeyBytes, decryptedBytes, null));
+    }
+
+    @Test
+    public void testConcurrentUseOfSharedInstance() throws Exception {
+        CredStashCrypto crypto = getCryptoImplementation();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                byte fill = (byte) t;
+                results.add(executor.submit(() -> {
+                    byte[] threadKey = new byte[32];
+                    Arrays.fill(threadKey, fill);
+                    byte[] plaintext = ("secret-" + fill).getBytes();
+                    for (int i = 0; i < 500; i++) {
+                        byte[] roundTrip = crypto.decrypt(threadKey, crypto.encrypt(threadKey, plaintext));
+                        byte[] mac = crypto.digest(threadKey, plaintext);
+                        if (!Arrays.equals(roundTrip, plaintext) || !crypto.verifyDigest(threadKey, plaintext, mac)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
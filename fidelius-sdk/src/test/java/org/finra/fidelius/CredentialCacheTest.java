@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CredentialCacheTest {
+
+    private AtomicLong now;
+    private AtomicInteger loads;
+
+    @Before
+    public void setUp() {
+        now = new AtomicLong();
+        loads = new AtomicInteger();
+    }
+
+    private CredentialCache newCache(int maximumSize, Duration refreshAhead) {
+        CredentialCacheConfig config = new CredentialCacheConfig()
+                .setTimeToLive(Duration.ofSeconds(60))
+                .setRefreshAhead(refreshAhead)
+                .setMaximumSize(maximumSize);
+        return new CredentialCache(config, now::get);
+    }
+
+    private String load() {
+        return "secret" + loads.incrementAndGet();
+    }
+
+    @Test
+    public void cachedValueIsServedUntilExpiry() {
+        CredentialCache cache = newCache(10, Duration.ZERO);
+
+        Assert.assertEquals("secret1", cache.get("table", "APP.dev.secret", null, this::load));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        Assert.assertEquals("secret1", cache.get("table", "APP.dev.secret", null, this::load));
+        Assert.assertEquals(1, loads.get());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        Assert.assertEquals("secret2", cache.get("table", "APP.dev.secret", null, this::load));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void tableNameAndVersionAreSeparateEntries() {
+        CredentialCache cache = newCache(10, Duration.ZERO);
+
+        cache.get("table", "APP.dev.secret", null, this::load);
+        cache.get("table", "APP.dev.secret", 1, this::load);
+        cache.get("other", "APP.dev.secret", null, this::load);
+        cache.get("table", "APP.dev.other", null, this::load);
+
+        Assert.assertEquals(4, loads.get());
+        Assert.assertEquals(4, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedWhenFull() {
+        CredentialCache cache = newCache(2, Duration.ZERO);
+
+        cache.get("table", "a", null, this::load);
+        cache.get("table", "b", null, this::load);
+        cache.get("table", "a", null, this::load);
+        cache.get("table", "c", null, this::load);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("secret1", cache.get("table", "a", null, this::load));
+        Assert.assertEquals("secret4", cache.get("table", "b", null, this::load));
+    }
+
+    @Test
+    public void invalidateRemovesEveryVersionOfCredential() {
+        CredentialCache cache = newCache(10, Duration.ZERO);
+
+        cache.get("table", "APP.dev.secret", null, this::load);
+        cache.get("table", "APP.dev.secret", 3, this::load);
+        cache.get("table", "APP.dev.other", null, this::load);
+
+        cache.invalidate("table", "APP.dev.secret");
+
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals("secret4", cache.get("table", "APP.dev.secret", null, this::load));
+    }
+
+    @Test
+    public void readInsideRefreshWindowReloadsInBackground() throws Exception {
+        CredentialCache cache = newCache(10, Duration.ofSeconds(10));
+
+        Assert.assertEquals("secret1", cache.get("table", "APP.dev.secret", null, this::load));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(55));
+
+        // stale-but-valid value is returned immediately while the reload runs
+        Assert.assertEquals("secret1", cache.get("table", "APP.dev.secret", null, this::load));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (loads.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        Assert.assertEquals("secret2", cache.get("table", "APP.dev.secret", null, this::load));
+        cache.close();
+    }
+
+    @Test
+    public void valueLoadedBeforeInvalidateIsNotCached() throws Exception {
+        CredentialCache cache = newCache(10, Duration.ZERO);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+
+        Future<String> read = reader.submit(() -> cache.get("table", "APP.dev.secret", null, () -> {
+            loading.countDown();
+            try {
+                written.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "before-write";
+        }));
+        loading.await();
+        cache.invalidate("table", "APP.dev.secret");
+        written.countDown();
+
+        Assert.assertEquals("before-write", read.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("secret1", cache.get("table", "APP.dev.secret", null, this::load));
+        reader.shutdown();
+    }
+
+    @Test
+    public void backgroundRefreshRacingInvalidateIsDiscarded() throws Exception {
+        CredentialCache cache = newCache(10, Duration.ofSeconds(10));
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch refreshed = new CountDownLatch(1);
+
+        Assert.assertEquals("secret1", cache.get("table", "APP.dev.secret", null, this::load));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(55));
+        cache.get("table", "APP.dev.secret", null, () -> {
+            loading.countDown();
+            try {
+                written.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            refreshed.countDown();
+            return "before-write";
+        });
+        loading.await();
+        cache.invalidate("table", "APP.dev.secret");
+        written.countDown();
+        refreshed.await(5, TimeUnit.SECONDS);
+        Thread.sleep(50);
+
+        Assert.assertEquals("secret2", cache.get("table", "APP.dev.secret", null, this::load));
+        cache.close();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void loaderFailuresAreNotCached() {
+        CredentialCache cache = newCache(10, Duration.ZERO);
+        try {
+            cache.get("table", "APP.dev.secret", null, () -> {
+                throw new RuntimeException("Secret APP.dev.secret could not be found");
+            });
+        } finally {
+            Assert.assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void expiredValueIsServedWithinGracePeriodOnlyWhileBackendIsUnavailable() {
+        CredentialCache cache = new CredentialCache(new CredentialCacheConfig()
+                .setTimeToLive(Duration.ofSeconds(60))
+                .setRefreshAhead(Duration.ZERO)
+                .setStaleGracePeriod(Duration.ofMinutes(5)), now::get);
+        Assert.assertEquals("secret1", cache.get("table", "APP.dev.secret", null, this::load));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(90));
+        Assert.assertEquals("secret1", cache.get("table", "APP.dev.secret", null, () -> {
+            throw new BackendUnavailableException("KMS circuit breaker is open");
+        }));
+        try {
+            cache.get("table", "APP.dev.secret", null, () -> {
+                throw new RuntimeException("Secret APP.dev.secret could not be found");
+            });
+            Assert.fail("A deleted secret must not be served from the grace period");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("Secret APP.dev.secret could not be found", e.getMessage());
+        }
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(5));
+        try {
+            cache.get("table", "APP.dev.secret", null, () -> {
+                throw new BackendUnavailableException("KMS circuit breaker is open");
+            });
+            Assert.fail("Expected the grace period to be over");
+        } catch (BackendUnavailableException e) {
+            Assert.assertEquals(0, cache.size());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CredentialDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private AtomicLong now;
+    private CredentialDiskCacheConfig config;
+
+    @Before
+    public void setUp() {
+        file = folder.getRoot().toPath().resolve("cache").resolve("credentials.jsonl");
+        now = new AtomicLong(1_000_000L);
+        config = new CredentialDiskCacheConfig().setFile(file).setMaximumStaleness(Duration.ofMinutes(10));
+    }
+
+    private Map<String, AttributeValue> item(String name, String version) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("name", AttributeValue.builder().s(name).build());
+        item.put("version", AttributeValue.builder().s(version).build());
+        item.put("contents", AttributeValue.builder().s("Y2lwaGVydGV4dA==").build());
+        return item;
+    }
+
+    @Test
+    public void itemsAndRemovalsSurviveRestart() throws Exception {
+        CredentialDiskCache cache = new CredentialDiskCache(config, now::get);
+        cache.put("table", "APP.dev.a", item("APP.dev.a", "0000000000000000001"));
+        cache.put("table", "APP.dev.a", item("APP.dev.a", "0000000000000000002"));
+        cache.put("table", "APP.dev.b", item("APP.dev.b", "0000000000000000001"));
+        cache.invalidate("table", "APP.dev.b");
+        cache.close();
+
+        CredentialDiskCache reopened = new CredentialDiskCache(config, now::get);
+        Assert.assertEquals(1, reopened.size());
+        Assert.assertEquals("0000000000000000002", reopened.get("table", "APP.dev.a").get("version").s());
+        Assert.assertEquals("Y2lwaGVydGV4dA==", reopened.get("table", "APP.dev.a").get("contents").s());
+        Assert.assertNull(reopened.get("table", "APP.dev.b"));
+        Assert.assertNull(reopened.get("other-table", "APP.dev.a"));
+        reopened.close();
+    }
+
+    @Test
+    public void staleItemsAreOnlyServedWithinMaximumStaleness() {
+        CredentialDiskCache cache = new CredentialDiskCache(config, now::get);
+        cache.put("table", "APP.dev.a", item("APP.dev.a", "0000000000000000001"));
+
+        now.addAndGet(Duration.ofMinutes(9).toMillis());
+        Assert.assertNotNull(cache.getIfNotTooStale("table", "APP.dev.a"));
+        cache.confirm("table", "APP.dev.a");
+
+        now.addAndGet(Duration.ofMinutes(9).toMillis());
+        Assert.assertNotNull(cache.getIfNotTooStale("table", "APP.dev.a"));
+
+        now.addAndGet(Duration.ofMinutes(2).toMillis());
+        Assert.assertNull(cache.getIfNotTooStale("table", "APP.dev.a"));
+        Assert.assertNotNull(cache.get("table", "APP.dev.a"));
+        cache.close();
+    }
+
+    @Test
+    public void tornLastLineIsSkipped() throws Exception {
+        CredentialDiskCache cache = new CredentialDiskCache(config, now::get);
+        cache.put("table", "APP.dev.a", item("APP.dev.a", "0000000000000000001"));
+        cache.close();
+        Files.write(file, "{\"table\":\"table\",\"na".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        CredentialDiskCache reopened = new CredentialDiskCache(config, now::get);
+        Assert.assertEquals(1, reopened.size());
+        reopened.close();
+    }
+}
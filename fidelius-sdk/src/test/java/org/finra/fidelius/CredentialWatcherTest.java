@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class CredentialWatcherTest {
+
+    private static final Duration NEVER = Duration.ofHours(1);
+
+    private Record record(OperationType type, String name, String version) {
+        Map<String, AttributeValue> keys = new HashMap<>();
+        keys.put("name", AttributeValue.builder().s(name).build());
+        keys.put("version", AttributeValue.builder().s(version).build());
+        return Record.builder().eventName(type).dynamodb(StreamRecord.builder().keys(keys).build()).build();
+    }
+
+    @Test
+    public void pollingReportsNewVersionsAndDeletion() {
+        JCredStash jCredStash = mock(JCredStash.class);
+        when(jCredStash.getLatestVersion("table", "APP.dev.secret"))
+                .thenReturn("0000000000000000001", "0000000000000000001", "0000000000000000002", null);
+        List<CredentialChangeEvent> invalidated = new ArrayList<>();
+        List<CredentialChangeEvent> events = new ArrayList<>();
+
+        CredentialWatcher watcher = new CredentialWatcher("table", jCredStash, null, NEVER, NEVER, invalidated::add);
+        watcher.start();
+        watcher.subscribe("APP.dev.secret", events::add);
+
+        watcher.pollVersions();
+        Assert.assertTrue(events.isEmpty());
+        watcher.pollVersions();
+        watcher.pollVersions();
+        watcher.close();
+
+        Assert.assertFalse(watcher.isStreaming());
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("0000000000000000002", events.get(0).getVersion());
+        Assert.assertTrue(events.get(1).isDeleted());
+        Assert.assertEquals(events, invalidated);
+    }
+
+    @Test
+    public void streamRecordsOfWatchedCredentialsArePublished() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        DynamoDbStreamsClient streamsClient = mock(DynamoDbStreamsClient.class);
+        JCredStash jCredStash = mock(JCredStash.class);
+        jCredStash.dynamoDbClient = dynamoDbClient;
+
+        when(dynamoDbClient.describeTable(any(DescribeTableRequest.class))).thenReturn(DescribeTableResponse.builder()
+                .table(TableDescription.builder()
+                        .streamSpecification(StreamSpecification.builder().streamEnabled(true).streamViewType(StreamViewType.KEYS_ONLY).build())
+                        .latestStreamArn("arn:stream")
+                        .build())
+                .build());
+        when(streamsClient.describeStream(any(DescribeStreamRequest.class))).thenReturn(DescribeStreamResponse.builder()
+                .streamDescription(StreamDescription.builder().shards(
+                        Shard.builder().shardId("closed").sequenceNumberRange(SequenceNumberRange.builder().endingSequenceNumber("9").build()).build(),
+                        Shard.builder().shardId("open").sequenceNumberRange(SequenceNumberRange.builder().startingSequenceNumber("10").build()).build())
+                        .build())
+                .build());
+        when(streamsClient.getShardIterator(any(GetShardIteratorRequest.class)))
+                .thenReturn(GetShardIteratorResponse.builder().shardIterator("iterator-1").build());
+        when(streamsClient.getRecords(any(GetRecordsRequest.class))).thenReturn(GetRecordsResponse.builder()
+                .records(Arrays.asList(
+                        record(OperationType.INSERT, "APP.dev.secret", "0000000000000000004"),
+                        record(OperationType.INSERT, "APP.dev.secret", "0000000000000000005"),
+                        record(OperationType.INSERT, "APP.dev.other", "0000000000000000002")))
+                .nextShardIterator("iterator-2")
+                .build(), GetRecordsResponse.builder().records(Collections.emptyList()).nextShardIterator("iterator-3").build());
+        when(jCredStash.getLatestVersion("table", "APP.dev.secret")).thenReturn("0000000000000000003");
+        List<CredentialChangeEvent> events = new ArrayList<>();
+
+        CredentialWatcher watcher = new CredentialWatcher("table", jCredStash, streamsClient, NEVER, NEVER, event -> { });
+        watcher.start();
+        watcher.subscribe("APP.dev.secret", events::add);
+        watcher.pollStream();
+        watcher.pollStream();
+        watcher.close();
+
+        Assert.assertTrue(watcher.isStreaming());
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("APP.dev.secret", events.get(0).getName());
+        Assert.assertEquals("0000000000000000005", events.get(0).getVersion());
+        verify(streamsClient, times(1)).getShardIterator(GetShardIteratorRequest.builder()
+                .streamArn("arn:stream").shardId("open").shardIteratorType(ShardIteratorType.LATEST).build());
+        verify(streamsClient).getRecords(GetRecordsRequest.builder().shardIterator("iterator-2").build());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DataKeyCacheTest {
+
+    private final byte[] wrappedKey = "wrapped".getBytes();
+    private final byte[] plaintext = new byte[]{1, 2, 3, 4};
+    private final Object kmsClient = new Object();
+
+    @Test
+    public void entryExpiresAfterTimeToLive() {
+        AtomicLong now = new AtomicLong();
+        DataKeyCache cache = new DataKeyCache(Duration.ofSeconds(30), 10, 100, now::get);
+        cache.put(kmsClient, wrappedKey, new HashMap<>(), plaintext);
+
+        Assert.assertArrayEquals(plaintext, cache.get(kmsClient, wrappedKey, new HashMap<>()));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        Assert.assertNull(cache.get(kmsClient, wrappedKey, new HashMap<>()));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void entryIsDroppedAfterMaximumUses() {
+        DataKeyCache cache = new DataKeyCache(Duration.ofMinutes(1), 10, 3);
+        cache.put(kmsClient, wrappedKey, null, plaintext);
+
+        Assert.assertNotNull(cache.get(kmsClient, wrappedKey, null));
+        Assert.assertNotNull(cache.get(kmsClient, wrappedKey, null));
+        Assert.assertNull(cache.get(kmsClient, wrappedKey, null));
+    }
+
+    @Test
+    public void contextOrderDoesNotMatterButContentDoes() {
+        DataKeyCache cache = new DataKeyCache(Duration.ofMinutes(1), 10, 100);
+        Map<String, String> context = new HashMap<>();
+        context.put("Application", "APP");
+        context.put("SDLC", "dev");
+        cache.put(kmsClient, wrappedKey, context, plaintext);
+
+        Assert.assertNotNull(cache.get(kmsClient, wrappedKey, new TreeMap<>(context)));
+        context.put("SDLC", "prod");
+        Assert.assertNull(cache.get(kmsClient, wrappedKey, context));
+        Assert.assertNull(cache.get(kmsClient, "other".getBytes(), new HashMap<>()));
+    }
+
+    @Test
+    public void returnedKeyIsACopy() {
+        DataKeyCache cache = new DataKeyCache(Duration.ofMinutes(1), 10, 100);
+        cache.put(kmsClient, wrappedKey, null, plaintext);
+
+        byte[] first = cache.get(kmsClient, wrappedKey, null);
+        first[0] = 0;
+        Assert.assertArrayEquals(plaintext, cache.get(kmsClient, wrappedKey, null));
+    }
+
+    @Test
+    public void leastRecentlyUsedKeyIsEvictedWhenFull() {
+        DataKeyCache cache = new DataKeyCache(Duration.ofMinutes(1), 1, 100);
+        cache.put(kmsClient, wrappedKey, null, plaintext);
+        cache.put(kmsClient, "other".getBytes(), null, plaintext);
+
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNull(cache.get(kmsClient, wrappedKey, null));
+    }
+
+    @Test
+    public void keysAreNotSharedBetweenKmsClients() {
+        DataKeyCache cache = new DataKeyCache(Duration.ofMinutes(1), 10, 100);
+        cache.put(kmsClient, wrappedKey, null, plaintext);
+
+        Assert.assertNull(cache.get(new Object(), wrappedKey, null));
+        Assert.assertNotNull(cache.get(kmsClient, wrappedKey, null));
+    }
+
+    @Test
+    public void contextsThatPrintAlikeAreDifferentEntries() {
+        DataKeyCache cache = new DataKeyCache(Duration.ofMinutes(1), 10, 100);
+        Map<String, String> context = new HashMap<>();
+        context.put("Application", "APP, SDLC=dev");
+        cache.put(kmsClient, wrappedKey, context, plaintext);
+
+        Map<String, String> lookalike = new HashMap<>();
+        lookalike.put("Application", "APP");
+        lookalike.put("SDLC", "dev");
+        Assert.assertEquals(String.valueOf(new TreeMap<>(context)), String.valueOf(new TreeMap<>(lookalike)));
+        Assert.assertNull(cache.get(kmsClient, wrappedKey, lookalike));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.sts.StsAsyncClient;
+import software.amazon.awssdk.services.sts.model.GetCallerIdentityRequest;
+import software.amazon.awssdk.services.sts.model.GetCallerIdentityResponse;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class FideliusAsyncClientTest {
+
+    private DynamoDbAsyncClient dynamoDbClient;
+    private KmsAsyncClient kmsClient;
+    private FideliusAsyncClient client;
+    private byte[] dataKey;
+
+    @Before
+    public void setUp() {
+        dynamoDbClient = mock(DynamoDbAsyncClient.class);
+        kmsClient = mock(KmsAsyncClient.class);
+        client = new FideliusAsyncClient(dynamoDbClient, kmsClient, mock(StsAsyncClient.class));
+
+        dataKey = new byte[64];
+        Arrays.fill(dataKey, (byte) 3);
+        doReturn(CompletableFuture.completedFuture(DecryptResponse.builder().plaintext(SdkBytes.fromByteArray(dataKey)).build()))
+                .when(kmsClient).decrypt(any(DecryptRequest.class));
+    }
+
+    private Map<String, AttributeValue> getMockItem(String name, String version) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("name", AttributeValue.builder().s(name).build());
+        item.put("version", AttributeValue.builder().s(version).build());
+        return item;
+    }
+
+    private CompletableFuture<QueryResponse> queryResponse(List<Map<String, AttributeValue>> items) {
+        return CompletableFuture.completedFuture(QueryResponse.builder().items(items).count(items.size()).build());
+    }
+
+    @Test
+    public void putStoresNextVersionThatGetCanDecrypt() throws Exception {
+        doReturn(CompletableFuture.completedFuture(GenerateDataKeyResponse.builder()
+                .plaintext(SdkBytes.fromByteArray(dataKey.clone()))
+                .ciphertextBlob(SdkBytes.fromUtf8String("wrapped-key"))
+                .build()))
+                .when(kmsClient).generateDataKey(any(GenerateDataKeyRequest.class));
+        doReturn(queryResponse(Collections.singletonList(getMockItem("APP.dev.secret", "0000000000000000002"))))
+                .when(dynamoDbClient).query(any(QueryRequest.class));
+        doReturn(CompletableFuture.completedFuture(PutItemResponse.builder().build()))
+                .when(dynamoDbClient).putItem(any(PutItemRequest.class));
+
+        String version = client.putCredential("secret", "password", "app", "dev", null, null, "user", null).get();
+        Assert.assertEquals("0000000000000000003", version);
+
+        ArgumentCaptor<PutItemRequest> putCaptor = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDbClient).putItem(putCaptor.capture());
+        Map<String, AttributeValue> stored = putCaptor.getValue().item();
+        Assert.assertEquals("APP.dev.secret", stored.get("name").s());
+        Assert.assertEquals("APP", stored.get("application").s());
+        Assert.assertEquals("attribute_not_exists(#n)", putCaptor.getValue().conditionExpression());
+
+        doReturn(queryResponse(Collections.singletonList(stored))).when(dynamoDbClient).query(any(QueryRequest.class));
+        Assert.assertEquals("password", client.getCredential("secret", "app", "dev", null, null, null, "user", true).get());
+    }
+
+    @Test
+    public void putRetriesWithNextVersionWhenAConcurrentWriterClaimedIt() throws Exception {
+        doAnswer(invocation -> CompletableFuture.completedFuture(GenerateDataKeyResponse.builder()
+                .plaintext(SdkBytes.fromByteArray(dataKey.clone()))
+                .ciphertextBlob(SdkBytes.fromUtf8String("wrapped-key"))
+                .build()))
+                .when(kmsClient).generateDataKey(any(GenerateDataKeyRequest.class));
+        doReturn(queryResponse(Collections.singletonList(getMockItem("APP.dev.secret", "0000000000000000002"))),
+                queryResponse(Collections.singletonList(getMockItem("APP.dev.secret", "0000000000000000003"))))
+                .when(dynamoDbClient).query(any(QueryRequest.class));
+        CompletableFuture<PutItemResponse> conflict = new CompletableFuture<>();
+        conflict.completeExceptionally(ConditionalCheckFailedException.builder().message("version exists").build());
+        doReturn(conflict, CompletableFuture.completedFuture(PutItemResponse.builder().build()))
+                .when(dynamoDbClient).putItem(any(PutItemRequest.class));
+
+        String version = client.putCredential("secret", "password", "app", "dev", null, null, "user", null).get();
+
+        Assert.assertEquals("0000000000000000004", version);
+        ArgumentCaptor<PutItemRequest> putCaptor = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDbClient, times(2)).putItem(putCaptor.capture());
+        Assert.assertEquals("0000000000000000003", putCaptor.getAllValues().get(0).item().get("version").s());
+        Assert.assertEquals("0000000000000000004", putCaptor.getAllValues().get(1).item().get("version").s());
+    }
+
+    @Test
+    public void getFallsBackToApplicationCredentialWhenComponentIsMissing() throws Exception {
+        doReturn(CompletableFuture.completedFuture(GenerateDataKeyResponse.builder()
+                .plaintext(SdkBytes.fromByteArray(dataKey.clone()))
+                .ciphertextBlob(SdkBytes.fromUtf8String("wrapped-key"))
+                .build()))
+                .when(kmsClient).generateDataKey(any(GenerateDataKeyRequest.class));
+        Map<String, AttributeValue> applicationItem = CredModelMapper.toDynamo(JCredStash.encryptWithDataKey(new CredStashBouncyCastleCrypto(), "APP.dev.secret", "password",
+                "0000000000000000001", "user", dataKey.clone(), "wrapped-key".getBytes(), new HashMap<>()));
+
+        doAnswer(invocation -> {
+            QueryRequest request = invocation.getArgument(0);
+            String name = request.keyConditions().get("name").attributeValueList().get(0).s();
+            return name.equals("APP.dev.secret")
+                    ? queryResponse(Collections.singletonList(applicationItem))
+                    : queryResponse(Collections.emptyList());
+        }).when(dynamoDbClient).query(any(QueryRequest.class));
+
+        Assert.assertEquals("password", client.getCredential("secret", "app", "dev", "component", null, null, "user", true).get());
+        Assert.assertNull(client.getCredential("secret", "app", "dev", "component", null, null, "user", false).get());
+    }
+
+    @Test
+    public void getSucceedsWhenTheCallerIdentityCannotBeResolved() throws Exception {
+        StsAsyncClient stsClient = mock(StsAsyncClient.class);
+        CompletableFuture<GetCallerIdentityResponse> unavailable = new CompletableFuture<>();
+        unavailable.completeExceptionally(new RuntimeException("STS is unavailable"));
+        doReturn(unavailable).when(stsClient).getCallerIdentity(any(GetCallerIdentityRequest.class));
+        client = new FideliusAsyncClient(dynamoDbClient, kmsClient, stsClient);
+
+        Map<String, AttributeValue> item = CredModelMapper.toDynamo(JCredStash.encryptWithDataKey(new CredStashBouncyCastleCrypto(), "APP.dev.secret", "password",
+                "0000000000000000001", "user", dataKey.clone(), "wrapped-key".getBytes(), new HashMap<>()));
+        doReturn(queryResponse(Collections.singletonList(item))).when(dynamoDbClient).query(any(QueryRequest.class));
+
+        Assert.assertEquals("password", client.getCredential("secret", "app", "dev", null, null).get());
+        verify(stsClient).getCallerIdentity(any(GetCallerIdentityRequest.class));
+    }
+
+    @Test
+    public void deleteRemovesEveryVersionInBatches() throws Exception {
+        List<Map<String, AttributeValue>> firstPage = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            firstPage.add(getMockItem("APP.dev.secret", String.format("%019d", i)));
+        }
+        List<Map<String, AttributeValue>> secondPage = new ArrayList<>();
+        for (int i = 21; i <= 30; i++) {
+            secondPage.add(getMockItem("APP.dev.secret", String.format("%019d", i)));
+        }
+        doReturn(CompletableFuture.completedFuture(QueryResponse.builder().items(firstPage).count(20)
+                        .lastEvaluatedKey(firstPage.get(19)).build()),
+                queryResponse(secondPage))
+                .when(dynamoDbClient).query(any(QueryRequest.class));
+        doReturn(CompletableFuture.completedFuture(BatchWriteItemResponse.builder().build()))
+                .when(dynamoDbClient).batchWriteItem(any(BatchWriteItemRequest.class));
+
+        client.deleteCredential("secret", "app", "dev", null, null, "user").get();
+
+        ArgumentCaptor<BatchWriteItemRequest> batchCaptor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDbClient, times(2)).batchWriteItem(batchCaptor.capture());
+        Assert.assertEquals(25, batchCaptor.getAllValues().get(0).requestItems().get(Constants.DEFAULT_TABLE).size());
+        Assert.assertEquals(5, batchCaptor.getAllValues().get(1).requestItems().get(Constants.DEFAULT_TABLE).size());
+    }
+
+    @Test
+    public void deleteReportsVersionsStillUnprocessedAtDeadline() throws Exception {
+        client.setBulkDeleteConfig(new BulkDeleteConfig()
+                .setBaseBackoff(Duration.ofMillis(1))
+                .setMaximumBackoff(Duration.ofMillis(5))
+                .setDeadline(Duration.ofMillis(200)));
+        List<Map<String, AttributeValue>> versions = Arrays.asList(
+                getMockItem("APP.dev.secret", "0000000000000000001"),
+                getMockItem("APP.dev.secret", "0000000000000000002"));
+        doReturn(queryResponse(versions)).when(dynamoDbClient).query(any(QueryRequest.class));
+        doAnswer(invocation -> {
+            BatchWriteItemRequest request = invocation.getArgument(0);
+            List<WriteRequest> unprocessed = new ArrayList<>();
+            for (WriteRequest writeRequest : request.requestItems().get(Constants.DEFAULT_TABLE)) {
+                if (writeRequest.deleteRequest().key().get("version").s().equals("0000000000000000002")) {
+                    unprocessed.add(writeRequest);
+                }
+            }
+            return CompletableFuture.completedFuture(BatchWriteItemResponse.builder()
+                    .unprocessedItems(Collections.singletonMap(Constants.DEFAULT_TABLE, unprocessed))
+                    .build());
+        }).when(dynamoDbClient).batchWriteItem(any(BatchWriteItemRequest.class));
+
+        try {
+            client.deleteCredential("secret", "app", "dev", null, null, "user").get();
+            Assert.fail("Expected the unprocessed version to be reported");
+        } catch (ExecutionException e) {
+            BulkDeleteException cause = (BulkDeleteException) e.getCause();
+            Assert.assertEquals(1, cause.getVersionsDeleted());
+            Assert.assertEquals(Collections.singletonList("0000000000000000002"), cause.getVersionsNotDeleted());
+        }
+        verify(dynamoDbClient, atLeast(2)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ProxyConfiguration;
+
+import java.net.URI;
+import java.time.Duration;
+
+import static org.mockito.Mockito.*;
+
+public class FideliusClientConfigTest {
+
+    @Test
+    public void overrideConfigurationKeepsCallerRetryPolicyUnlessOneIsSet() {
+        RetryPolicy callerPolicy = RetryPolicy.builder().numRetries(7).build();
+        FideliusClientConfig config = new FideliusClientConfig()
+                .setOverrideConfiguration(ClientOverrideConfiguration.builder().retryPolicy(callerPolicy).build())
+                .setApiCallTimeout(Duration.ofSeconds(5))
+                .setApiCallAttemptTimeout(Duration.ofSeconds(1));
+
+        ClientOverrideConfiguration built = config.buildOverrideConfiguration();
+        Assert.assertEquals(Integer.valueOf(7), built.retryPolicy().get().numRetries());
+        Assert.assertEquals(Duration.ofSeconds(5), built.apiCallTimeout().get());
+        Assert.assertEquals(Duration.ofSeconds(1), built.apiCallAttemptTimeout().get());
+
+        config.setRetryPolicy(RetryPolicy.none());
+        Assert.assertEquals(Integer.valueOf(0), config.buildOverrideConfiguration().retryPolicy().get().numRetries());
+
+        Assert.assertTrue(new FideliusClientConfig().buildOverrideConfiguration().retryPolicy().isPresent());
+        Assert.assertFalse(new FideliusClientConfig().buildOverrideConfiguration().apiCallTimeout().isPresent());
+    }
+
+    @Test
+    public void proxyFallsBackToEnvironment() {
+        EnvConfig envConfig = mock(EnvConfig.class);
+        doReturn(true).when(envConfig).hasProxyEnv();
+        doReturn("http://proxy.example.com").when(envConfig).getProxy();
+        doReturn("8080").when(envConfig).getPort();
+
+        ProxyConfiguration fromEnvironment = new FideliusClientConfig().resolveProxyConfiguration(envConfig);
+        Assert.assertEquals("proxy.example.com", fromEnvironment.host());
+        Assert.assertEquals(8080, fromEnvironment.port());
+
+        ProxyConfiguration explicit = ProxyConfiguration.builder().endpoint(URI.create("http://other.example.com:3128")).build();
+        Assert.assertSame(explicit, new FideliusClientConfig().setProxyConfiguration(explicit).resolveProxyConfiguration(envConfig));
+
+        doReturn(false).when(envConfig).hasProxyEnv();
+        Assert.assertNull(new FideliusClientConfig().resolveProxyConfiguration(envConfig));
+    }
+
+    @Test
+    public void callerHttpClientIsSharedAsIs() {
+        SdkHttpClient httpClient = mock(SdkHttpClient.class);
+        FideliusClientConfig config = new FideliusClientConfig().setHttpClient(httpClient);
+        Assert.assertSame(httpClient, config.buildHttpClient(new EnvConfig()));
+
+        SdkHttpClient apache = new FideliusClientConfig()
+                .setMaxConnections(10)
+                .setConnectionTimeToLive(Duration.ofMinutes(5))
+                .buildHttpClient(mock(EnvConfig.class));
+        try {
+            Assert.assertEquals("Apache", apache.clientName());
+        } finally {
+            apache.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timeoutsMustBePositive() {
+        new FideliusClientConfig().setSocketTimeout(Duration.ZERO);
+    }
+}
@@ -29,11 +29,24 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.kms.KmsClient;
 import software.amazon.awssdk.services.sts.StsClient;
 import software.amazon.awssdk.services.sts.model.GetCallerIdentityRequest;
 
+import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
 import static org.mockito.Mockito.*;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -45,6 +58,25 @@ import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 public class FideliusClientTests {
 
+    @Test
+    public void switchingKmsClientDropsUnwrappedDataKeys() throws Exception {
+        FideliusClient fideliusClient = mock(FideliusClient.class, withSettings().defaultAnswer(CALLS_REAL_METHODS));
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        KmsClient kmsClient = mock(KmsClient.class);
+        fideliusClient.jCredStash = new JCredStash(dynamoDbClient, kmsClient, mock(StsClient.class));
+        DataKeyCache previousCache = new DataKeyCache(Duration.ofMinutes(1), 10, 10);
+        previousCache.put(kmsClient, "wrapped".getBytes(), null, new byte[]{1, 2, 3});
+        fideliusClient.jCredStash.setDataKeyCache(previousCache);
+
+        fideliusClient.setFideliusClient(dynamoDbClient, kmsClient);
+        Assert.assertSame(previousCache, fideliusClient.jCredStash.dataKeyCache);
+
+        fideliusClient.setFideliusClient(dynamoDbClient, mock(KmsClient.class));
+        Assert.assertNotSame(previousCache, fideliusClient.jCredStash.dataKeyCache);
+        Assert.assertEquals(0, previousCache.size());
+        Assert.assertEquals(0, fideliusClient.jCredStash.dataKeyCache.size());
+    }
+
     @Test
     // Tests passed values when env variables are  provided.
     public void testPassedValuesOverridingEnv() throws Exception {
@@ -306,13 +338,13 @@ public class FideliusClientTests {
         verify(jCredStashMock,times(1)).putSecret("credential-store","APP.gatekeeper.dev.somecred","somepwd","0000000000000000001", "testUser",null,expectedContext);
         verify(fideliusClient,times(1)).getEC2Tags();
 
-        //when
+        //when (tags were resolved once and are reused from here on)
         resetEc2Mocks(fideliusClient,jCredStashMock,envConfigMock,tags);
         fideliusClient.putCredential("somecred","somepwd","sometable","somekey");
 
         //then
         verify(jCredStashMock,times(1)).putSecret("sometable","APP.gatekeeper.dev.somecred","somepwd","0000000000000000001","testUser","somekey",expectedContext);
-        verify(fideliusClient,times(1)).getEC2Tags();
+        verify(fideliusClient,times(0)).getEC2Tags();
 
 
 
@@ -322,7 +354,7 @@ public class FideliusClientTests {
 
         //then
         verify(jCredStashMock,times(1)).putSecret("sometable","APP.gatekeeper.dev.somecred","somepwd","0000000000000000001","testUser","somekey",expectedContext);
-        verify(fideliusClient,times(1)).getEC2Tags();
+        verify(fideliusClient,times(0)).getEC2Tags();
 
 
         //when FID_CONTEXT_SDLC/Component are all null
@@ -331,7 +363,7 @@ public class FideliusClientTests {
 
         //then
         verify(jCredStashMock,times(1)).putSecret("sometable","APP.gatekeeper.dev.somecred","somepwd","0000000000000000001","TestUser","somekey",expectedContext);
-        verify(fideliusClient,times(1)).getEC2Tags();
+        verify(fideliusClient,times(0)).getEC2Tags();
 
 
         //when FID_CONTEXT_SDLC is not null
@@ -340,7 +372,7 @@ public class FideliusClientTests {
 
         //then
         verify(jCredStashMock,times(1)).putSecret("sometable","APP.gatekeeper.dev.somecred","somepwd","0000000000000000001","TestUser","somekey",expectedContext);
-        verify(fideliusClient,times(1)).getEC2Tags();
+        verify(fideliusClient,times(0)).getEC2Tags();
 
 
         //when component is not null
@@ -349,6 +381,15 @@ public class FideliusClientTests {
 
         //then
         verify(jCredStashMock,times(1)).putSecret("sometable","APP.gatekeeper.dev.somecred","somepwd","0000000000000000001","TestUser","somekey",expectedContext);
+        verify(fideliusClient,times(0)).getEC2Tags();
+
+
+        //when the cached context is refreshed, tags are read again
+        resetEc2Mocks(fideliusClient,jCredStashMock,envConfigMock,tags);
+        fideliusClient.refreshContext();
+        fideliusClient.putCredential("somecred","somepwd");
+
+        //then
         verify(fideliusClient,times(1)).getEC2Tags();
 
     }
@@ -494,6 +535,23 @@ public class FideliusClientTests {
 
     }
 
+    @Test
+    public void putCredentialRetriesNextVersionWhenConcurrentWriterWins() throws Exception {
+        JCredStash jCredStashMock = mock(JCredStash.class);
+        FideliusClient fideliusClient = mock(FideliusClient.class, withSettings().defaultAnswer(CALLS_REAL_METHODS));
+        fideliusClient.jCredStash = jCredStashMock;
+
+        doReturn(4, 5).when(jCredStashMock).getHighestVersion("APP.dev.secret", "table");
+        doThrow(ConditionalCheckFailedException.builder().message("conflict").build()).doNothing()
+                .when(jCredStashMock).putSecret(anyString(), anyString(), anyString(), anyString(), anyString(), any(), anyMap());
+
+        String version = fideliusClient.putCredential("secret", "password", "app", "dev", null, "table", "NewUser", null);
+
+        Assert.assertEquals("0000000000000000006", version);
+        verify(jCredStashMock).putSecret(eq("table"), eq("APP.dev.secret"), eq("password"), eq("0000000000000000005"), eq("NewUser"), any(), anyMap());
+        verify(jCredStashMock).putSecret(eq("table"), eq("APP.dev.secret"), eq("password"), eq("0000000000000000006"), eq("NewUser"), any(), anyMap());
+    }
+
     @Test()
     @PrepareForTest({LoggerFactory.class, FideliusClient.class})
     public void usernameGetsLoggedOnGetCredentialWithUserNamePassed() throws Exception {
@@ -550,24 +608,214 @@ public class FideliusClientTests {
     }
 
 
-    @Test(expected = RuntimeException.class)
+    @Test()
     @PrepareForTest({LoggerFactory.class, FideliusClient.class})
-    public void errorWhenFailToGetUserOnGetCredential() throws Exception {
+    public void cachedCredentialIsOnlyReadOnceUntilInvalidated() throws Exception {
+        JCredStash jCredStashMock = spy(JCredStash.class);
+        FideliusClient fideliusClient = spy(FideliusClient.class);
+        HashMap<String, String> context = new HashMap<>();
+        context.put("Application", "APP");
+        context.put("SDLC", "dev");
+        context.put("Component", "component");
+
+        doReturn("decryptedPassword").when(jCredStashMock).getSecret(anyString(), anyString(), anyMapOf(String.class, String.class), isNull());
+
+        fideliusClient.jCredStash = jCredStashMock;
+        fideliusClient.enableCredentialCache(new CredentialCacheConfig());
+
+        Assert.assertEquals("decryptedPassword", fideliusClient.getCredential("secret", "app", "dev", "component", "table", "TestUser", true));
+        Assert.assertEquals("decryptedPassword", fideliusClient.getCredential("secret", "app", "dev", "component", "table", "TestUser", true));
+        verify(jCredStashMock, times(1)).getSecret("table", "APP.component.dev.secret", context, null);
+
+        fideliusClient.invalidateCredential("secret", "app", "dev", "component", "table");
+        fideliusClient.getCredential("secret", "app", "dev", "component", "table", "TestUser", true);
+        verify(jCredStashMock, times(2)).getSecret("table", "APP.component.dev.secret", context, null);
+
+        fideliusClient.disableCredentialCache();
+    }
+
+    @Test()
+    @PrepareForTest({LoggerFactory.class, FideliusClient.class})
+    public void getCredentialsReturnsValuesAndPerNameFailures() throws Exception {
+        JCredStash jCredStashMock = spy(JCredStash.class);
+        FideliusClient fideliusClient = spy(FideliusClient.class);
+        HashMap<String, String> context = new HashMap<>();
+        context.put("Application", "APP");
+        context.put("SDLC", "dev");
+        context.put("Component", "component");
+        HashMap<String, String> appContext = new HashMap<>(context);
+        appContext.remove("Component");
+
+        doReturn("one").when(jCredStashMock).getSecret("table", "APP.component.dev.first", context, null);
+        doThrow(new RuntimeException("Secret APP.component.dev.second could not be found")).when(jCredStashMock).getSecret("table", "APP.component.dev.second", context, null);
+        doReturn("two").when(jCredStashMock).getSecret("table", "APP.dev.second", appContext, null);
+        doThrow(new RuntimeException("Secret APP.component.dev.missing could not be found")).when(jCredStashMock).getSecret("table", "APP.component.dev.missing", context, null);
+        doThrow(new RuntimeException("Secret APP.dev.missing could not be found")).when(jCredStashMock).getSecret("table", "APP.dev.missing", appContext, null);
+
+        fideliusClient.jCredStash = jCredStashMock;
+        fideliusClient.setBulkParallelism(2);
+
+        BulkResult<String> result = fideliusClient.getCredentials(Arrays.asList("first", "second", "missing", "first"),
+                "app", "dev", "component", "table", "TestUser", true);
+
+        Assert.assertEquals(2, result.getResults().size());
+        Assert.assertEquals("one", result.getResults().get("first"));
+        Assert.assertEquals("two", result.getResults().get("second"));
+        Assert.assertTrue(result.hasFailures());
+        Assert.assertEquals("Secret APP.dev.missing could not be found", result.getFailures().get("missing").getMessage());
+        verify(jCredStashMock, times(1)).getSecret("table", "APP.component.dev.first", context, null);
+    }
+
+    @Test()
+    @PrepareForTest({LoggerFactory.class, FideliusClient.class})
+    public void putCredentialsWritesConditionalGroupsAndRetriesConflictingGroupOneByOne() throws Exception {
+        JCredStash jCredStashMock = mock(JCredStash.class);
+        FideliusClient fideliusClient = spy(FideliusClient.class);
+        fideliusClient.jCredStash = jCredStashMock;
+        fideliusClient.setBulkParallelism(4);
+        doReturn("TestUser").when(fideliusClient).getUser();
+
+        Map<String, String> credentials = new LinkedHashMap<>();
+        for (int i = 0; i < 30; i++) {
+            credentials.put("secret" + i, "password" + i);
+        }
+        doReturn(0).when(jCredStashMock).getHighestVersion(anyString(), eq("table"));
+        doAnswer(invocation -> new EncryptedCredential()
+                .setFullName(invocation.getArgument(0))
+                .setVersion(invocation.getArgument(2)))
+                .when(jCredStashMock).encrypt(anyString(), anyString(), anyString(), anyString(), anyString(), anyMap());
+        doAnswer(invocation -> {
+            List<EncryptedCredential> group = invocation.getArgument(1);
+            if (group.size() < 25) {
+                throw TransactionCanceledException.builder().message("conflict").build();
+            }
+            return null;
+        }).when(jCredStashMock).putSecrets(eq("table"), anyList());
+        doThrow(new RuntimeException("throttled")).when(jCredStashMock)
+                .putSecret(eq("table"), eq("APP.dev.secret29"), anyString(), anyString(), anyString(), anyString(), anyMap());
+
+        BulkResult<String> result = fideliusClient.putCredentials(credentials, "app", "dev", null, "table", null);
+
+        verify(jCredStashMock, times(2)).putSecrets(eq("table"), anyList());
+        verify(jCredStashMock, times(5)).putSecret(eq("table"), anyString(), anyString(), anyString(), eq("TestUser"), eq("alias/credstash"), anyMap());
+        Assert.assertEquals(29, result.getResults().size());
+        Assert.assertEquals("0000000000000000001", result.getResults().get("secret0"));
+        Assert.assertEquals("0000000000000000001", result.getResults().get("secret27"));
+        Assert.assertEquals("throttled", result.getFailures().get("secret29").getMessage());
+    }
+
+    @Test
+    public void diskCacheSkipsFullReadWhenVersionIsCurrentAndServesItDuringOutage() throws Exception {
+        JCredStash jCredStashMock = mock(JCredStash.class);
+        FideliusClient fideliusClient = mock(FideliusClient.class, withSettings().defaultAnswer(CALLS_REAL_METHODS));
+        fideliusClient.jCredStash = jCredStashMock;
+        File cacheFile = File.createTempFile("fidelius", ".jsonl");
+        cacheFile.delete();
+        fideliusClient.enableCredentialDiskCache(new CredentialDiskCacheConfig().setFile(cacheFile.toPath()));
+
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("name", AttributeValue.builder().s("APP.dev.secret").build());
+        item.put("version", AttributeValue.builder().s("0000000000000000001").build());
+        item.put("key", AttributeValue.builder().s("AA==").build());
+        item.put("contents", AttributeValue.builder().s("AA==").build());
+        item.put("hmac", AttributeValue.builder().s("00").build());
+        doReturn(item).when(jCredStashMock).readDynamoItem("table", "APP.dev.secret", null);
+        doReturn("password").when(jCredStashMock).decrypt(any(EncryptedCredential.class), anyMap());
+        doReturn("0000000000000000001").doThrow(SdkClientException.create("unreachable"))
+                .when(jCredStashMock).getLatestVersion("table", "APP.dev.secret");
+
+        Assert.assertEquals("password", fideliusClient.getCredential("secret", "app", "dev", null, "table", "TestUser", true));
+        Assert.assertEquals("password", fideliusClient.getCredential("secret", "app", "dev", null, "table", "TestUser", true));
+        Assert.assertEquals("password", fideliusClient.getCredential("secret", "app", "dev", null, "table", "TestUser", true));
+
+        verify(jCredStashMock, times(1)).readDynamoItem("table", "APP.dev.secret", null);
+        verify(jCredStashMock, times(3)).decrypt(any(EncryptedCredential.class), anyMap());
+        fideliusClient.disableCredentialDiskCache();
+        cacheFile.delete();
+    }
+
+    @Test()
+    @PrepareForTest({LoggerFactory.class, FideliusClient.class})
+    public void getAllCredentialsPrefersComponentCredentials() throws Exception {
+        JCredStash jCredStashMock = spy(JCredStash.class);
+        FideliusClient fideliusClient = spy(FideliusClient.class);
+
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        for (String name : Arrays.asList("APP.component.dev.shared", "APP.dev.shared", "APP.dev.appOnly")) {
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("name", AttributeValue.builder().s(name).build());
+            item.put("version", AttributeValue.builder().s("0000000000000000001").build());
+            item.put("key", AttributeValue.builder().s("AA==").build());
+            item.put("contents", AttributeValue.builder().s("AA==").build());
+            item.put("hmac", AttributeValue.builder().s("00").build());
+            items.put(name, item);
+        }
+
+        doReturn(items).when(jCredStashMock).getLatestItemsByPrefix(eq("table"), any());
+        doAnswer(invocation -> {
+            EncryptedCredential credential = invocation.getArgument(0);
+            Map<String, String> context = invocation.getArgument(1);
+            return credential.getFullName() + ":" + context.containsKey("Component");
+        }).when(jCredStashMock).decrypt(any(EncryptedCredential.class), anyMapOf(String.class, String.class));
+
+        fideliusClient.jCredStash = jCredStashMock;
+
+        BulkResult<String> result = fideliusClient.getAllCredentials("app", "dev", "component", "table", "TestUser");
+
+        Assert.assertEquals(2, result.getResults().size());
+        Assert.assertEquals("APP.component.dev.shared:true", result.getResults().get("shared"));
+        Assert.assertEquals("APP.dev.appOnly:false", result.getResults().get("appOnly"));
+        verify(jCredStashMock, times(1)).getLatestItemsByPrefix("table", new LinkedHashSet<>(Arrays.asList("APP.component.dev.", "APP.dev.")));
+    }
+
+    @Test()
+    @PrepareForTest({LoggerFactory.class, FideliusClient.class})
+    public void getCredentialSucceedsWhenFailingToGetUser() throws Exception {
+        Logger loggerMock = mock(Logger.class);
+        mockStatic(LoggerFactory.class);
+        when(LoggerFactory.getLogger(any(Class.class))).
+                thenReturn(loggerMock);
+
         JCredStash jCredStashMock = spy(JCredStash.class);
         FideliusClient fideliusClient = spy(FideliusClient.class);
         StsClient awsSecurityTokenService = spy(StsClient.class);
 
         doThrow(new RuntimeException("AWS Cannot get Identity Error")).when(awsSecurityTokenService).getCallerIdentity(any(GetCallerIdentityRequest.class));
+        doReturn("password").when(jCredStashMock).getSecret(eq("table"), eq("APP.component.dev.secret"), anyMapOf(String.class, String.class), isNull());
 
         fideliusClient.jCredStash = jCredStashMock;
         fideliusClient.stsClient = awsSecurityTokenService;
 
-        String result = fideliusClient.getCredential("secret", "app", "dev", "component", "table");
-
-        Assert.assertNull(result);
+        // reads only log the user, so an STS failure must not fail them
+        Assert.assertEquals("password", fideliusClient.getCredential("secret", "app", "dev", "component", "table"));
+        verify(loggerMock).info("User unknown retrieved contents of APP.component.dev.secret");
     }
 
 
+    @Test()
+    @PrepareForTest({LoggerFactory.class, FideliusClient.class})
+    public void getCredentialBytesSucceedsWhenFailingToGetUser() throws Exception {
+        Logger loggerMock = mock(Logger.class);
+        mockStatic(LoggerFactory.class);
+        when(LoggerFactory.getLogger(any(Class.class))).
+                thenReturn(loggerMock);
+
+        JCredStash jCredStashMock = spy(JCredStash.class);
+        FideliusClient fideliusClient = spy(FideliusClient.class);
+        StsClient awsSecurityTokenService = spy(StsClient.class);
+
+        doThrow(new RuntimeException("AWS Cannot get Identity Error")).when(awsSecurityTokenService).getCallerIdentity(any(GetCallerIdentityRequest.class));
+        doReturn("keystore".getBytes()).when(jCredStashMock).getSecretBytes(eq("table"), eq("APP.component.dev.secret"), anyMapOf(String.class, String.class), isNull());
+
+        fideliusClient.jCredStash = jCredStashMock;
+        fideliusClient.stsClient = awsSecurityTokenService;
+
+        try (SecretBuffer secret = fideliusClient.getCredentialBytes("secret", "app", "dev", "component", "table")) {
+            Assert.assertArrayEquals("keystore".getBytes(), secret.toByteArray());
+        }
+        verify(loggerMock).info("User unknown retrieved contents of APP.component.dev.secret");
+    }
+
     @Test(expected = RuntimeException.class)
     @PrepareForTest({LoggerFactory.class, FideliusClient.class})
     public void errorWhenFailToGetUserOnPutCredential() throws Exception {
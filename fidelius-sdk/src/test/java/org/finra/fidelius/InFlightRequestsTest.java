@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InFlightRequestsTest {
+
+    @Test
+    public void concurrentLoadsOfOneKeyShareASingleCall() throws Exception {
+        InFlightRequests requests = new InFlightRequests(4);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<String> first = executor.submit(() -> requests.execute("key", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "secret";
+            }, FideliusMetrics.NOOP));
+            Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+            CountDownLatch coalesced = new CountDownLatch(7);
+            FideliusMetrics metrics = new FideliusMetrics() {
+                @Override
+                public void count(Event event) {
+                    if (event == Event.REQUEST_COALESCED) {
+                        coalesced.countDown();
+                    }
+                }
+            };
+            List<Future<String>> joined = new ArrayList<>();
+            for (int i = 0; i < 7; i++) {
+                joined.add(executor.submit(() -> requests.execute("key", () -> {
+                    loads.incrementAndGet();
+                    return "other";
+                }, metrics)));
+            }
+            Assert.assertTrue(coalesced.await(5, TimeUnit.SECONDS));
+            release.countDown();
+
+            Assert.assertEquals("secret", first.get(5, TimeUnit.SECONDS));
+            for (Future<String> future : joined) {
+                Assert.assertEquals("secret", future.get(5, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, loads.get());
+            Assert.assertEquals(0, requests.inFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void loadsBeyondTheLimitFailFast() throws Exception {
+        InFlightRequests requests = new InFlightRequests(1);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> slow = executor.submit(() -> requests.execute("slow", () -> {
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "secret";
+            }, FideliusMetrics.NOOP));
+            Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+            try {
+                requests.execute("other", () -> "other", FideliusMetrics.NOOP);
+                Assert.fail("Expected the load to be refused");
+            } catch (BackendUnavailableException e) {
+                Assert.assertEquals("Too many concurrent backend requests", e.getMessage());
+            }
+            release.countDown();
+            Assert.assertEquals("secret", slow.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("other", requests.execute("other", () -> "other", FideliusMetrics.NOOP));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
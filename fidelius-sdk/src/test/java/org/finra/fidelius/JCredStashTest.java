@@ -25,13 +25,28 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
 import software.amazon.awssdk.services.sts.StsClient;
 import software.amazon.awssdk.services.sts.model.GetCallerIdentityRequest;
 import software.amazon.awssdk.services.sts.model.GetCallerIdentityResponse;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Mockito.*;
 
@@ -230,4 +245,488 @@ public class JCredStashTest {
     }
 
 
+
+    private EncryptedCredential getEncryptedCredential(byte[] dataKey, String contents) {
+        CredStashBouncyCastleCrypto crypto = new CredStashBouncyCastleCrypto();
+        byte[] encrypted = crypto.encrypt(Arrays.copyOfRange(dataKey, 0, 32), contents.getBytes());
+        byte[] hmac = crypto.digest(Arrays.copyOfRange(dataKey, 32, dataKey.length), encrypted);
+        return new EncryptedCredential()
+                .setFullName("APP.dev.secret")
+                .setVersion("0000000000000000001")
+                .setDatakey(Base64.encodeBase64String("wrapped-key".getBytes()))
+                .setCredential(Base64.encodeBase64String(encrypted))
+                .setHmac(Hex.encodeHexString(hmac));
+    }
+
+    @Test
+    public void decryptReusesCachedDataKeyForSameWrappedKeyAndContext() {
+        byte[] dataKey = new byte[64];
+        Arrays.fill(dataKey, (byte) 7);
+        KmsClient kmsClient = mock(KmsClient.class);
+        List<byte[]> returnedKeys = new ArrayList<>();
+        doAnswer(invocation -> {
+            byte[] returned = dataKey.clone();
+            returnedKeys.add(returned);
+            return DecryptResponse.builder().plaintext(SdkBytes.fromByteArrayUnsafe(returned)).build();
+        }).when(kmsClient).decrypt(any(DecryptRequest.class));
+
+        JCredStash jCredStash = new JCredStash(mock(DynamoDbClient.class), kmsClient, mock(StsClient.class));
+        jCredStash.setDataKeyCache(new DataKeyCache(Duration.ofMinutes(1), 10, 2));
+
+        HashMap<String, String> context = new HashMap<>();
+        context.put("Application", "APP");
+        context.put("SDLC", "dev");
+        EncryptedCredential credential = getEncryptedCredential(dataKey, "password");
+
+        Assert.assertEquals("password", jCredStash.decrypt(credential, context));
+        Assert.assertEquals("password", jCredStash.decrypt(credential, context));
+        verify(kmsClient, times(1)).decrypt(any(DecryptRequest.class));
+
+        // max uses reached, KMS is called again
+        Assert.assertEquals("password", jCredStash.decrypt(credential, context));
+        verify(kmsClient, times(2)).decrypt(any(DecryptRequest.class));
+
+        // a different encryption context never shares a cached key
+        context.put("Component", "component");
+        Assert.assertEquals("password", jCredStash.decrypt(credential, context));
+        verify(kmsClient, times(3)).decrypt(any(DecryptRequest.class));
+
+        // the key material of every KMS response is wiped once used
+        for (byte[] returned : returnedKeys) {
+            Assert.assertArrayEquals(new byte[64], returned);
+        }
+    }
+
+    @Test
+    public void decryptReportsPhasesAndDataKeyCacheToMetrics() {
+        byte[] dataKey = new byte[64];
+        Arrays.fill(dataKey, (byte) 7);
+        KmsClient kmsClient = mock(KmsClient.class);
+        doReturn(DecryptResponse.builder().plaintext(SdkBytes.fromByteArray(dataKey)).build())
+                .doThrow(new RuntimeException("throttled"))
+                .when(kmsClient).decrypt(any(DecryptRequest.class));
+
+        List<String> recorded = Collections.synchronizedList(new ArrayList<>());
+        JCredStash jCredStash = new JCredStash(mock(DynamoDbClient.class), kmsClient, mock(StsClient.class));
+        jCredStash.setDataKeyCache(new DataKeyCache(Duration.ofMinutes(1), 10, 2));
+        jCredStash.setMetrics(new FideliusMetrics() {
+            @Override
+            public Span start(Operation operation) {
+                return new Span() {
+                    @Override
+                    public void failed(Throwable error) {
+                        recorded.add(operation + " failed");
+                    }
+
+                    @Override
+                    public void end() {
+                        recorded.add(operation.toString());
+                    }
+                };
+            }
+
+            @Override
+            public void count(Event event) {
+                recorded.add(event.toString());
+            }
+
+            @Override
+            public void recordPayloadSize(Operation operation, int bytes) {
+                recorded.add(operation + " " + bytes + " bytes");
+            }
+        });
+
+        EncryptedCredential credential = getEncryptedCredential(dataKey, "password");
+        jCredStash.decrypt(credential, new HashMap<>());
+        jCredStash.decrypt(credential, new HashMap<>());
+        Assert.assertEquals(Arrays.asList(
+                "DATA_KEY_CACHE_MISS", "KMS_DECRYPT", "HMAC_VERIFY", "AES_DECRYPT", "AES_DECRYPT 8 bytes",
+                "DATA_KEY_CACHE_HIT", "HMAC_VERIFY", "AES_DECRYPT", "AES_DECRYPT 8 bytes"), recorded);
+
+        recorded.clear();
+        try {
+            jCredStash.decrypt(credential, Collections.singletonMap("SDLC", "qa"));
+            Assert.fail("Expected the KMS failure to surface");
+        } catch (RuntimeException e) {
+            Assert.assertEquals(Arrays.asList("DATA_KEY_CACHE_MISS", "KMS_DECRYPT failed", "KMS_DECRYPT"), recorded);
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void decryptStillVerifiesHmacWithCachedDataKey() {
+        byte[] dataKey = new byte[64];
+        Arrays.fill(dataKey, (byte) 7);
+        KmsClient kmsClient = mock(KmsClient.class);
+        doReturn(DecryptResponse.builder().plaintext(SdkBytes.fromByteArray(dataKey)).build())
+                .when(kmsClient).decrypt(any(DecryptRequest.class));
+
+        JCredStash jCredStash = new JCredStash(mock(DynamoDbClient.class), kmsClient, mock(StsClient.class));
+        jCredStash.setDataKeyCache(new DataKeyCache(Duration.ofMinutes(1), 10, 10));
+
+        HashMap<String, String> context = new HashMap<>();
+        EncryptedCredential credential = getEncryptedCredential(dataKey, "password");
+        jCredStash.decrypt(credential, context);
+
+        credential.setHmac(Hex.encodeHexString(new byte[32]));
+        jCredStash.decrypt(credential, context);
+    }
+
+
+    private Map<String, AttributeValue> getMockItem(String name, String version) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("name", AttributeValue.builder().s(name).build());
+        item.put("version", AttributeValue.builder().s(version).build());
+        return item;
+    }
+
+    @Test
+    public void getLatestItemsByPrefixFollowsPagesAndKeepsHighestVersion() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+
+        Map<String, AttributeValue> lastKey = getMockItem("APP.dev.a", "0000000000000000001");
+        ScanResponse firstPage = ScanResponse.builder()
+                .items(Arrays.asList(getMockItem("APP.dev.a", "0000000000000000001"), getMockItem("APP.dev.a", "0000000000000000010")))
+                .lastEvaluatedKey(lastKey)
+                .build();
+        ScanResponse secondPage = ScanResponse.builder()
+                .items(Arrays.asList(getMockItem("APP.dev.a", "0000000000000000002"), getMockItem("APP.comp.dev.b", "0000000000000000003")))
+                .build();
+        ArgumentCaptor<ScanRequest> requestCaptor = ArgumentCaptor.forClass(ScanRequest.class);
+        when(dynamoDbClient.scan(any(ScanRequest.class))).thenReturn(firstPage, secondPage);
+
+        Map<String, Map<String, AttributeValue>> latest = jCredStash.getLatestItemsByPrefix("table", Arrays.asList("APP.comp.dev.", "APP.dev."));
+
+        verify(dynamoDbClient, times(2)).scan(requestCaptor.capture());
+        Assert.assertEquals("begins_with(#n, :p0) OR begins_with(#n, :p1)", requestCaptor.getAllValues().get(0).filterExpression());
+        Assert.assertEquals(lastKey, requestCaptor.getAllValues().get(1).exclusiveStartKey());
+        Assert.assertEquals(2, latest.size());
+        Assert.assertEquals("0000000000000000010", latest.get("APP.dev.a").get("version").s());
+        Assert.assertEquals("0000000000000000003", latest.get("APP.comp.dev.b").get("version").s());
+    }
+
+    @Test
+    public void getLatestItemsByPrefixQueriesApplicationIndexAndReadsOnlyLatestVersions() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        jCredStash.setApplicationIndex("application-index");
+
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenAnswer(invocation -> {
+            QueryRequest request = invocation.getArgument(0);
+            String prefix = request.expressionAttributeValues().get(":p").s();
+            return prefix.equals("APP.dev.")
+                    ? QueryResponse.builder().items(getMockItem("APP.dev.a", "0000000000000000001"),
+                            getMockItem("APP.dev.a", "0000000000000000002")).build()
+                    : QueryResponse.builder().items(getMockItem("APP.comp.dev.b", "0000000000000000003")).build();
+        });
+        Map<String, AttributeValue> latestA = getMockItem("APP.dev.a", "0000000000000000002");
+        latestA.put("contents", AttributeValue.builder().s("encrypted").build());
+        Map<String, AttributeValue> latestB = getMockItem("APP.comp.dev.b", "0000000000000000003");
+        Map<String, KeysAndAttributes> unprocessed = Collections.singletonMap("table",
+                KeysAndAttributes.builder().keys(getMockItem("APP.comp.dev.b", "0000000000000000003")).build());
+        when(dynamoDbClient.batchGetItem(any(BatchGetItemRequest.class))).thenReturn(
+                BatchGetItemResponse.builder().responses(Collections.singletonMap("table", Collections.singletonList(latestA)))
+                        .unprocessedKeys(unprocessed).build(),
+                BatchGetItemResponse.builder().responses(Collections.singletonMap("table", Collections.singletonList(latestB))).build());
+
+        Map<String, Map<String, AttributeValue>> latest = jCredStash.getLatestItemsByPrefix("table", Arrays.asList("APP.comp.dev.", "APP.dev."));
+
+        verify(dynamoDbClient, never()).scan(any(ScanRequest.class));
+        ArgumentCaptor<QueryRequest> queryCaptor = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(dynamoDbClient, times(2)).query(queryCaptor.capture());
+        Assert.assertEquals("application-index", queryCaptor.getValue().indexName());
+        Assert.assertEquals("APP", queryCaptor.getValue().expressionAttributeValues().get(":a").s());
+        ArgumentCaptor<BatchGetItemRequest> batchCaptor = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+        verify(dynamoDbClient, times(2)).batchGetItem(batchCaptor.capture());
+        Assert.assertEquals(2, batchCaptor.getAllValues().get(0).requestItems().get("table").keys().size());
+        Assert.assertEquals(latestA, latest.get("APP.dev.a"));
+        Assert.assertEquals(latestB, latest.get("APP.comp.dev.b"));
+    }
+
+    @Test
+    public void getLatestItemsByPrefixScansWhenTableHasNoApplicationIndex() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        jCredStash.setApplicationIndex("application-index");
+
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenThrow(DynamoDbException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("ValidationException")
+                        .errorMessage("The table does not have the specified index: application-index")
+                        .build())
+                .build());
+        when(dynamoDbClient.scan(any(ScanRequest.class))).thenReturn(ScanResponse.builder()
+                .items(getMockItem("APP.dev.a", "0000000000000000001")).build());
+
+        Map<String, Map<String, AttributeValue>> latest = jCredStash.getLatestItemsByPrefix("table", Collections.singletonList("APP.dev."));
+
+        Assert.assertEquals(1, latest.size());
+        verify(dynamoDbClient).scan(any(ScanRequest.class));
+    }
+
+    @Test
+    public void getLatestItemsByPrefixIsRefusedWhileTheDynamoDbCircuitIsOpen() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        CircuitBreaker dynamoDbBreaker = new CircuitBreaker("DynamoDB", 1, Duration.ofMinutes(1));
+        jCredStash.setCircuitBreakers(dynamoDbBreaker, null);
+
+        when(dynamoDbClient.scan(any(ScanRequest.class))).thenThrow(SdkClientException.create("Unable to connect"));
+        try {
+            jCredStash.getLatestItemsByPrefix("table", Collections.singletonList("APP.dev."));
+            Assert.fail("Expected the scan to fail");
+        } catch (SdkClientException e) {
+            Assert.assertEquals(CircuitBreaker.State.OPEN, dynamoDbBreaker.getState());
+        }
+
+        try {
+            jCredStash.getLatestItemsByPrefix("table", Collections.singletonList("APP.dev."));
+            Assert.fail("Expected the open circuit to refuse the scan");
+        } catch (BackendUnavailableException expected) {
+        }
+        verify(dynamoDbClient, times(1)).scan(any(ScanRequest.class));
+    }
+
+    @Test
+    public void binarySecretRoundTripsWithoutStringConversion() throws Exception {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        KmsClient kmsClient = mock(KmsClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, kmsClient, null);
+
+        byte[] dataKey = new byte[64];
+        Arrays.fill(dataKey, (byte) 7);
+        when(kmsClient.generateDataKey(any(GenerateDataKeyRequest.class))).thenReturn(GenerateDataKeyResponse.builder()
+                .plaintext(SdkBytes.fromByteArray(dataKey.clone()))
+                .ciphertextBlob(SdkBytes.fromUtf8String("wrapped-key"))
+                .build());
+        when(kmsClient.decrypt(any(DecryptRequest.class))).thenReturn(DecryptResponse.builder()
+                .plaintext(SdkBytes.fromByteArray(dataKey.clone()))
+                .build());
+
+        byte[] keystore = new byte[256];
+        for (int i = 0; i < keystore.length; i++) {
+            keystore[i] = (byte) i;
+        }
+        jCredStash.putSecretBytes("table", "APP.dev.keystore", keystore, null, "user", null, new HashMap<>());
+
+        ArgumentCaptor<PutItemRequest> putCaptor = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDbClient).putItem(putCaptor.capture());
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenReturn(QueryResponse.builder()
+                .items(Collections.singletonList(putCaptor.getValue().item()))
+                .count(1)
+                .build());
+
+        Assert.assertArrayEquals(keystore, jCredStash.getSecretBytes("table", "APP.dev.keystore", new HashMap<>(), null));
+    }
+
+    @Test
+    public void getHighestVersionReadsOnlyNewestItem() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenReturn(QueryResponse.builder()
+                .items(Collections.singletonList(getMockItem("APP.dev.secret", "0000000000000000412")))
+                .build());
+
+        Assert.assertEquals(412, jCredStash.getHighestVersion("APP.dev.secret", "table"));
+
+        ArgumentCaptor<QueryRequest> requestCaptor = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(dynamoDbClient).query(requestCaptor.capture());
+        Assert.assertEquals(Integer.valueOf(1), requestCaptor.getValue().limit());
+        Assert.assertFalse(requestCaptor.getValue().scanIndexForward());
+
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenReturn(QueryResponse.builder().items(Collections.emptyList()).build());
+        Assert.assertEquals(0, jCredStash.getHighestVersion("APP.dev.other", "table"));
+    }
+
+    private QueryResponse getMockVersionPage(int from, int to, boolean hasMore) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            items.add(getMockItem("APP.dev.secret", String.format("%019d", i)));
+        }
+        QueryResponse.Builder page = QueryResponse.builder().items(items).count(items.size());
+        if (hasMore) {
+            page.lastEvaluatedKey(items.get(items.size() - 1));
+        }
+        return page.build();
+    }
+
+    @Test
+    public void deleteSecretPagesThroughEveryVersionInConcurrentBatches() throws Exception {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        List<String> progress = Collections.synchronizedList(new ArrayList<>());
+        jCredStash.setBulkDeleteConfig(new BulkDeleteConfig().setParallelism(3)
+                .setProgressListener((name, deleted, found) -> progress.add(deleted + "/" + found)));
+
+        when(dynamoDbClient.query(any(QueryRequest.class)))
+                .thenReturn(getMockVersionPage(1, 30, true), getMockVersionPage(31, 60, false), getMockVersionPage(1, 0, false));
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class))).thenReturn(BatchWriteItemResponse.builder().build());
+
+        jCredStash.deleteSecret("table", "APP.dev.secret");
+
+        ArgumentCaptor<BatchWriteItemRequest> batchCaptor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDbClient, times(3)).batchWriteItem(batchCaptor.capture());
+        Set<String> deletedVersions = new HashSet<>();
+        for (BatchWriteItemRequest request : batchCaptor.getAllValues()) {
+            for (WriteRequest writeRequest : request.requestItems().get("table")) {
+                deletedVersions.add(writeRequest.deleteRequest().key().get("version").s());
+            }
+        }
+        Assert.assertEquals(60, deletedVersions.size());
+        // the second pass looks for versions written while the delete was running
+        verify(dynamoDbClient, times(3)).query(any(QueryRequest.class));
+        Assert.assertTrue(progress.contains("60/60"));
+    }
+
+    @Test
+    public void deleteSecretReportsVersionsStillUnprocessedAtDeadline() throws Exception {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        jCredStash.setBulkDeleteConfig(new BulkDeleteConfig()
+                .setBaseBackoff(Duration.ofMillis(1))
+                .setMaximumBackoff(Duration.ofMillis(5))
+                .setDeadline(Duration.ofMillis(200)));
+
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenReturn(getMockVersionPage(1, 2, false));
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class))).thenAnswer(invocation -> {
+            BatchWriteItemRequest request = invocation.getArgument(0);
+            List<WriteRequest> unprocessed = new ArrayList<>();
+            for (WriteRequest writeRequest : request.requestItems().get("table")) {
+                if (writeRequest.deleteRequest().key().get("version").s().equals("0000000000000000002")) {
+                    unprocessed.add(writeRequest);
+                }
+            }
+            return BatchWriteItemResponse.builder()
+                    .unprocessedItems(Collections.singletonMap("table", unprocessed))
+                    .build();
+        });
+
+        try {
+            jCredStash.deleteSecret("table", "APP.dev.secret");
+            Assert.fail("Expected the unprocessed version to be reported");
+        } catch (BulkDeleteException e) {
+            Assert.assertEquals(1, e.getVersionsDeleted());
+            Assert.assertEquals(Collections.singletonList("0000000000000000002"), e.getVersionsNotDeleted());
+        }
+    }
+
+    @Test
+    public void changingParallelismDoesNotStopThePoolOfARunningDelete() throws Exception {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        jCredStash.setBulkDeleteConfig(new BulkDeleteConfig().setParallelism(3));
+
+        CountDownLatch secondPageRequested = new CountDownLatch(1);
+        CountDownLatch releaseSecondPage = new CountDownLatch(1);
+        AtomicInteger secretQueries = new AtomicInteger();
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenAnswer(invocation -> {
+            QueryRequest request = invocation.getArgument(0);
+            if (request.expressionAttributeValues().get(":v_name").s().equals("APP.dev.other")) {
+                return getMockVersionPage(1, 2, false);
+            }
+            switch (secretQueries.incrementAndGet()) {
+                case 1:
+                    return getMockVersionPage(1, 30, true);
+                case 2:
+                    secondPageRequested.countDown();
+                    releaseSecondPage.await();
+                    return getMockVersionPage(31, 60, false);
+                default:
+                    return getMockVersionPage(1, 0, false);
+            }
+        });
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class))).thenReturn(BatchWriteItemResponse.builder().build());
+
+        CompletableFuture<Void> running = CompletableFuture.runAsync(() -> {
+            try {
+                jCredStash.deleteSecret("table", "APP.dev.secret");
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        secondPageRequested.await();
+        // a delete with a new parallelism replaces the pool the running delete is submitting to
+        jCredStash.setBulkDeleteConfig(new BulkDeleteConfig().setParallelism(2));
+        jCredStash.deleteSecret("table", "APP.dev.other");
+        releaseSecondPage.countDown();
+
+        running.get(10, TimeUnit.SECONDS);
+        verify(dynamoDbClient, times(4)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+
+    @Test
+    public void backoffIsJitteredAndCapped() {
+        BulkDeleteConfig config = new BulkDeleteConfig().setBaseBackoff(Duration.ofMillis(10)).setMaximumBackoff(Duration.ofMillis(100));
+        for (int attempt = 0; attempt < 64; attempt++) {
+            long delay = JCredStash.backoffNanos(config, attempt);
+            Assert.assertTrue(delay >= 0);
+            Assert.assertTrue(delay <= Math.min(Duration.ofMillis(100).toNanos(), Duration.ofMillis(10).toNanos() << Math.min(attempt, 30)));
+        }
+    }
+
+    @Test
+    public void putSecretsWritesGroupAsConditionalTransaction() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        List<EncryptedCredential> credentials = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            credentials.add(new EncryptedCredential().setFullName("APP.dev.secret" + i).setVersion("0000000000000000001")
+                    .setDatakey("AA==").setCredential("AA==").setHmac("00"));
+        }
+
+        jCredStash.putSecrets("table", credentials);
+
+        ArgumentCaptor<TransactWriteItemsRequest> requestCaptor = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(dynamoDbClient).transactWriteItems(requestCaptor.capture());
+        List<TransactWriteItem> writes = requestCaptor.getValue().transactItems();
+        Assert.assertEquals(3, writes.size());
+        for (TransactWriteItem write : writes) {
+            Assert.assertEquals("table", write.put().tableName());
+            Assert.assertEquals("attribute_not_exists(#n)", write.put().conditionExpression());
+        }
+        Assert.assertEquals("APP.dev.secret2", writes.get(1).put().item().get("name").s());
+    }
+
+    @Test
+    public void getCredentialsFollowsEveryPage() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        when(dynamoDbClient.query(any(QueryRequest.class)))
+                .thenReturn(getMockVersionPage(1, 40, true), getMockVersionPage(41, 70, false));
+
+        QueryResponse response = jCredStash.getCredentials("table", "APP.dev.secret");
+
+        Assert.assertEquals(Integer.valueOf(70), response.count());
+        ArgumentCaptor<QueryRequest> requestCaptor = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(dynamoDbClient, times(2)).query(requestCaptor.capture());
+        Assert.assertNull(requestCaptor.getAllValues().get(0).projectionExpression());
+        Assert.assertEquals("0000000000000000040", requestCaptor.getAllValues().get(1).exclusiveStartKey().get("version").s());
+    }
+
+    @Test
+    public void getHistoryProjectsOnlyVersionAttributes() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenReturn(getMockVersionPage(1, 3, false));
+
+        List<EncryptedCredential> history = jCredStash.getHistory("table", "APP.dev.secret");
+
+        Assert.assertEquals(3, history.size());
+        Assert.assertEquals("0000000000000000002", history.get(1).getVersion());
+        ArgumentCaptor<QueryRequest> requestCaptor = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(dynamoDbClient).query(requestCaptor.capture());
+        QueryRequest request = requestCaptor.getValue();
+        Assert.assertEquals("#n, #a1, #a2, #a3", request.projectionExpression());
+        Assert.assertEquals("updatedOn", request.expressionAttributeNames().get("#a3"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void getHistoryOfMissingSecretFails() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        JCredStash jCredStash = new JCredStash(dynamoDbClient, null, null);
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenReturn(getMockVersionPage(1, 0, false));
+
+        jCredStash.getHistory("table", "APP.dev.secret");
+    }
+
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class SecretBufferTest {
+
+    @Test
+    public void closeWipesHeapPlaintext() {
+        byte[] plaintext = "password".getBytes(StandardCharsets.UTF_8);
+        SecretBuffer secret = SecretBuffer.wrap(plaintext, false);
+
+        Assert.assertArrayEquals("password".toCharArray(), secret.toCharArray());
+        secret.close();
+
+        Assert.assertTrue(secret.isClosed());
+        Assert.assertArrayEquals(new byte[plaintext.length], plaintext);
+        try {
+            secret.toByteArray();
+            Assert.fail("Expected a closed buffer to reject reads");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Secret buffer has been closed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void offHeapCopyZeroesSourceArray() throws Exception {
+        byte[] plaintext = {1, 2, 3, (byte) 0xff};
+        try (SecretBuffer secret = SecretBuffer.wrap(plaintext, true)) {
+            Assert.assertTrue(secret.isOffHeap());
+            Assert.assertArrayEquals(new byte[4], plaintext);
+            Assert.assertEquals(4, secret.length());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = secret.openStream()) {
+                int b;
+                while ((b = in.read()) != -1) {
+                    out.write(b);
+                }
+            }
+            Assert.assertArrayEquals(new byte[]{1, 2, 3, (byte) 0xff}, out.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.finra.fidelius;
+
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class StreamShardReaderTest {
+
+    private DescribeStreamResponse shards(Shard... shards) {
+        return DescribeStreamResponse.builder()
+                .streamDescription(StreamDescription.builder().shards(shards).build())
+                .build();
+    }
+
+    private Shard shard(String shardId) {
+        return Shard.builder().shardId(shardId).sequenceNumberRange(SequenceNumberRange.builder().startingSequenceNumber("1").build()).build();
+    }
+
+    private Record record(String eventId) {
+        return Record.builder().eventID(eventId).build();
+    }
+
+    @Test
+    public void childShardsOfAClosedShardAreReadFromTheBeginning() {
+        DynamoDbStreamsClient streamsClient = mock(DynamoDbStreamsClient.class);
+        when(streamsClient.describeStream(any(DescribeStreamRequest.class)))
+                .thenReturn(shards(shard("parent")), shards(shard("parent"), shard("child")));
+        when(streamsClient.getShardIterator(any(GetShardIteratorRequest.class))).thenAnswer(invocation -> {
+            GetShardIteratorRequest request = invocation.getArgument(0);
+            return GetShardIteratorResponse.builder().shardIterator(request.shardId() + "-" + request.shardIteratorType()).build();
+        });
+        when(streamsClient.getRecords(GetRecordsRequest.builder().shardIterator("parent-LATEST").build()))
+                .thenReturn(GetRecordsResponse.builder().records(record("1")).build());
+        when(streamsClient.getRecords(GetRecordsRequest.builder().shardIterator("child-TRIM_HORIZON").build()))
+                .thenReturn(GetRecordsResponse.builder().records(record("2")).nextShardIterator("child-next").build());
+        List<String> read = new ArrayList<>();
+
+        StreamShardReader reader = new StreamShardReader(streamsClient, "arn:stream");
+        reader.start();
+        Assert.assertFalse(reader.poll(record -> read.add(record.eventID())));
+        Assert.assertFalse(reader.poll(record -> read.add(record.eventID())));
+
+        Assert.assertEquals(Arrays.asList("1", "2"), read);
+        verify(streamsClient, times(1)).getShardIterator(GetShardIteratorRequest.builder()
+                .streamArn("arn:stream").shardId("parent").shardIteratorType(ShardIteratorType.LATEST).build());
+    }
+
+    @Test
+    public void expiredIteratorIsRepositionedAndReportedAsMissedRecords() {
+        DynamoDbStreamsClient streamsClient = mock(DynamoDbStreamsClient.class);
+        when(streamsClient.describeStream(any(DescribeStreamRequest.class))).thenReturn(shards(shard("open")));
+        when(streamsClient.getShardIterator(any(GetShardIteratorRequest.class)))
+                .thenReturn(GetShardIteratorResponse.builder().shardIterator("iterator-1").build(),
+                        GetShardIteratorResponse.builder().shardIterator("iterator-2").build());
+        when(streamsClient.getRecords(GetRecordsRequest.builder().shardIterator("iterator-1").build()))
+                .thenThrow(ExpiredIteratorException.builder().message("expired").build());
+        when(streamsClient.getRecords(GetRecordsRequest.builder().shardIterator("iterator-2").build()))
+                .thenReturn(GetRecordsResponse.builder().records(Collections.emptyList()).nextShardIterator("iterator-3").build());
+
+        StreamShardReader reader = new StreamShardReader(streamsClient, "arn:stream");
+        reader.start();
+
+        Assert.assertTrue(reader.poll(record -> { }));
+        Assert.assertFalse(reader.poll(record -> { }));
+        verify(streamsClient, times(2)).getShardIterator(GetShardIteratorRequest.builder()
+                .streamArn("arn:stream").shardId("open").shardIteratorType(ShardIteratorType.LATEST).build());
+    }
+}
@@ -17,35 +17,53 @@
 
 package org.finra.fidelius.controllers;
 
-
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.finra.fidelius.exceptions.FideliusException;
 import org.finra.fidelius.model.ActiveDirectory;
 import org.finra.fidelius.model.Credential;
+import org.finra.fidelius.model.CredentialFilter;
+import org.finra.fidelius.model.CredentialPage;
 import org.finra.fidelius.model.HistoryEntry;
 import org.finra.fidelius.model.Metadata;
 import org.finra.fidelius.model.account.Account;
 import org.finra.fidelius.services.CredentialsService;
 import org.finra.fidelius.services.account.AccountsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 @RestController
 class FideliusController {
 
+    private static final String NDJSON = "application/x-ndjson";
+
+    private Logger logger = LoggerFactory.getLogger(FideliusController.class);
+
     @Inject
     private CredentialsService credentialsService;
 
     @Inject
     private AccountsService accountsService;
 
+    @Inject
+    private ObjectMapper objectMapper;
+
     @Value("${fidelius.validActiveDirectoryRegularExpression:(.*?)}")
     protected String validActiveDirectoryRegularExpression;
 
@@ -73,6 +91,82 @@ class FideliusController {
         return new ResponseEntity<>(foundCreds, HttpStatus.OK);
     }
 
+    @GetMapping(value = "/credentials/page")
+    public ResponseEntity getCredentialsPage(@RequestParam("account") String account,
+                                             @RequestParam("region") String region,
+                                             @RequestParam("application") String app,
+                                             @RequestParam(value = "cursor", required = false) String cursor,
+                                             @RequestParam(value = "pageSize", defaultValue = "100") int pageSize,
+                                             @RequestParam(value = "environment", required = false) String environment,
+                                             @RequestParam(value = "component", required = false) String component,
+                                             @RequestParam(value = "updatedBy", required = false) String updatedBy,
+                                             @RequestParam(value = "namePrefix", required = false) String namePrefix) {
+        CredentialPage page;
+        try {
+            page = credentialsService.getCredentialsPage(account, region, app,
+                    new CredentialFilter(environment, component, updatedBy, namePrefix), cursor, pageSize);
+        } catch (FideliusException fe) {
+            return new ResponseEntity<>(fe, fe.getError());
+        }
+        return new ResponseEntity<>(page, HttpStatus.OK);
+    }
+
+    /**
+     * Writes the credentials as newline-delimited JSON, flushing after every page read from DynamoDB. Errors found
+     * before the first page change the status; later ones end the stream early.
+     */
+    @GetMapping(value = "/credentials/stream", produces = NDJSON)
+    public void streamCredentials(@RequestParam("account") String account,
+                                  @RequestParam("region") String region,
+                                  @RequestParam("application") String app,
+                                  @RequestParam(value = "environment", required = false) String environment,
+                                  @RequestParam(value = "component", required = false) String component,
+                                  @RequestParam(value = "updatedBy", required = false) String updatedBy,
+                                  @RequestParam(value = "namePrefix", required = false) String namePrefix,
+                                  HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        try {
+            credentialsService.streamCredentials(account, region, app,
+                    new CredentialFilter(environment, component, updatedBy, namePrefix), page -> {
+                        try {
+                            OutputStream out = response.getOutputStream();
+                            for (Credential credential : page) {
+                                out.write(objectMapper.writeValueAsBytes(credential));
+                                out.write('\n');
+                            }
+                            out.flush();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (FideliusException fe) {
+            if (response.isCommitted()) {
+                logger.error("Credential stream for " + app + " ended early: " + fe.getMessage());
+                return;
+            }
+            response.reset();
+            response.setStatus(fe.getError().value());
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(response.getOutputStream(), Collections.singletonMap("message", fe.getMessage()));
+        } catch (UncheckedIOException e) {
+            // the client went away
+            logger.info("Credential stream for " + app + " closed by the client: " + e.getCause().getMessage());
+        }
+    }
+
+    @PostMapping(value="/credentials/index/backfill")
+    public ResponseEntity backfillApplicationIndex(@RequestParam("account") String account,
+                                                   @RequestParam("region") String region) {
+        int updated;
+        try {
+            updated = credentialsService.backfillApplicationIndex(account, region);
+        } catch (FideliusException fe) {
+            return new ResponseEntity<>(fe, fe.getError());
+        }
+        return new ResponseEntity<>(Collections.singletonMap("updated", updated), HttpStatus.OK);
+    }
+
     @ResponseBody
     @GetMapping(value="/credentials/{key:.+}/")
     public ResponseEntity getCredential(@PathVariable("key") String longKey,
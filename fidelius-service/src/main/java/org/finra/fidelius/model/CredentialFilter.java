@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.finra.fidelius.model;
+
+/**
+ * Optional restrictions on a credential listing. Unset fields match everything.
+ */
+public class CredentialFilter {
+
+    private String environment;
+    private String component;
+    private String updatedBy;
+    private String namePrefix;
+
+    public CredentialFilter() { }
+
+    public CredentialFilter(String environment, String component, String updatedBy, String namePrefix) {
+        this.environment = environment;
+        this.component = component;
+        this.updatedBy = updatedBy;
+        this.namePrefix = namePrefix;
+    }
+
+    public String getEnvironment() {
+        return environment;
+    }
+
+    public String getComponent() {
+        return component;
+    }
+
+    public String getUpdatedBy() {
+        return updatedBy;
+    }
+
+    /**
+     * @return Prefix of the full credential name, e.g. "APP.dev."
+     */
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public boolean matches(Credential credential) {
+        return matches(environment, credential.getEnvironment())
+                && matches(component, credential.getComponent())
+                && matches(updatedBy, credential.getLastUpdatedBy())
+                && (isEmpty(namePrefix) || (credential.getLongKey() != null && credential.getLongKey().startsWith(namePrefix)));
+    }
+
+    private static boolean matches(String expected, String actual) {
+        return isEmpty(expected) || expected.equals(actual);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialFilter{" +
+                "environment='" + environment + '\'' +
+                ", component='" + component + '\'' +
+                ", updatedBy='" + updatedBy + '\'' +
+                ", namePrefix='" + namePrefix + '\'' +
+                '}';
+    }
+}
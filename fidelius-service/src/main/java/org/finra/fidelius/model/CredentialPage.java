@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.finra.fidelius.model;
+
+import java.util.List;
+
+/**
+ * One page of a credential listing. Pass nextCursor back to read the following page; it is null on the last page.
+ */
+public class CredentialPage {
+
+    private List<Credential> credentials;
+    private String nextCursor;
+
+    public CredentialPage(List<Credential> credentials, String nextCursor) {
+        this.credentials = credentials;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Credential> getCredentials() {
+        return credentials;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialPage{" +
+                "credentials=" + credentials +
+                ", nextCursor='" + nextCursor + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.finra.fidelius.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.finra.fidelius.model.Credential;
+import org.finra.fidelius.model.aws.AWSEnvironment;
+import org.finra.fidelius.services.aws.AWSSessionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Credential listings per account, region and application, so repeated list views do not read DynamoDB.
+ *
+ * Entries expire after fidelius.listingCache.expireAfterSeconds and are dropped as soon as this node writes or
+ * deletes a credential of the application. With fidelius.listingCache.streamInvalidation the credential table's
+ * DynamoDB stream is followed as well, so changes made through other nodes or the SDK drop them too; otherwise
+ * those show up once the entry expires.
+ */
+@Component
+public class CredentialListingCache {
+
+    @Value("${fidelius.listingCache.expireAfterSeconds:60}")
+    private long expireAfterSeconds = 60;
+
+    @Value("${fidelius.listingCache.maximumSize:1000}")
+    private long maximumSize = 1000;
+
+    @Value("${fidelius.listingCache.streamInvalidation:false}")
+    private boolean streamInvalidation;
+
+    @Value("${fidelius.dynamoTable:}")
+    private String tableName;
+
+    @Inject
+    private AWSSessionService awsSessionService;
+
+    private volatile Cache<ListingKey, List<Credential>> listings;
+    private final Map<ListingKey, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Map<AWSEnvironment, ListingInvalidationStream> streams = new ConcurrentHashMap<>();
+    private ScheduledExecutorService streamPoller;
+
+    private Logger logger = LoggerFactory.getLogger(CredentialListingCache.class);
+
+    /**
+     * @param loader Reads the listing from DynamoDB when it is not cached
+     * @return Cached or freshly loaded listing
+     */
+    public List<Credential> get(String account, String region, String application, Supplier<List<Credential>> loader) {
+        if (expireAfterSeconds <= 0) {
+            return loader.get();
+        }
+        ListingKey key = new ListingKey(account, region, application);
+        List<Credential> cached = listings().getIfPresent(key);
+        if (cached != null) {
+            logger.info(String.format("Serving cached listing for app %s using account %s and region %s.", application, account, region));
+            return new ArrayList<>(cached);
+        }
+        if (streamInvalidation) {
+            // started before loading so no change made after the load goes unnoticed
+            watch(new AWSEnvironment(account, region));
+        }
+
+        long generation = generation(account, region, application);
+        List<Credential> loaded = loader.get();
+        // a listing loaded while a write was being invalidated may predate the write, so it is not kept
+        if (generation(account, region, application) == generation) {
+            listings().put(key, Collections.unmodifiableList(new ArrayList<>(loaded)));
+        }
+        return loaded;
+    }
+
+    /**
+     * Drops the cached listings of an application; the name is compared ignoring case, like credential prefixes.
+     *
+     * @param application Nullable; null drops every listing of the account and region
+     */
+    public void invalidate(String account, String region, String application) {
+        generations.computeIfAbsent(generationKey(account, region, application), key -> new AtomicLong()).incrementAndGet();
+        if (listings != null) {
+            listings.asMap().keySet().removeIf(key -> key.account.equals(account) && key.region.equalsIgnoreCase(region)
+                    && (application == null || key.application.equalsIgnoreCase(application)));
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (streamPoller != null) {
+            streamPoller.shutdownNow();
+            streamPoller = null;
+        }
+        for (ListingInvalidationStream stream : streams.values()) {
+            stream.close();
+        }
+        streams.clear();
+    }
+
+    /**
+     * Counts the invalidations that can affect a listing: those of its application and those of its whole
+     * account and region. Both only grow, so an unchanged sum means neither happened.
+     */
+    private long generation(String account, String region, String application) {
+        AtomicLong environment = generations.get(generationKey(account, region, null));
+        AtomicLong app = generations.get(generationKey(account, region, application));
+        return (environment == null ? 0 : environment.get()) + (app == null ? 0 : app.get());
+    }
+
+    private static ListingKey generationKey(String account, String region, String application) {
+        // invalidations compare region and application ignoring case
+        return new ListingKey(account, region.toLowerCase(Locale.ROOT),
+                application == null ? null : application.toUpperCase(Locale.ROOT));
+    }
+
+    private Cache<ListingKey, List<Credential>> listings() {
+        Cache<ListingKey, List<Credential>> cache = listings;
+        if (cache == null) {
+            synchronized (this) {
+                cache = listings;
+                if (cache == null) {
+                    cache = CacheBuilder.newBuilder()
+                            .maximumSize(maximumSize)
+                            .expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS)
+                            .build();
+                    listings = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private void watch(AWSEnvironment environment) {
+        if (streams.containsKey(environment)) {
+            return;
+        }
+        try {
+            streams.computeIfAbsent(environment, env -> {
+                ListingInvalidationStream stream = new ListingInvalidationStream(tableName, env,
+                        awsSessionService.getDynamoDBClient(env), awsSessionService.getCachedDynamoDBStreamsClient(env),
+                        application -> invalidate(env.getAccount(), env.getRegion().id(), application));
+                stream.start();
+                return stream;
+            });
+            startPolling();
+        } catch (RuntimeException e) {
+            logger.warn("Cannot follow credential changes in " + environment + ": " + e);
+        }
+    }
+
+    private synchronized void startPolling() {
+        if (streamPoller != null) {
+            return;
+        }
+        streamPoller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fidelius-listing-invalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        streamPoller.scheduleWithFixedDelay(() -> {
+            for (ListingInvalidationStream stream : streams.values()) {
+                stream.poll();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private static final class ListingKey {
+        private final String account;
+        private final String region;
+        private final String application;
+
+        private ListingKey(String account, String region, String application) {
+            this.account = account;
+            this.region = region;
+            this.application = application;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ListingKey that = (ListingKey) o;
+            return Objects.equals(account, that.account) &&
+                    Objects.equals(region, that.region) &&
+                    Objects.equals(application, that.application);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(account, region, application);
+        }
+    }
+}
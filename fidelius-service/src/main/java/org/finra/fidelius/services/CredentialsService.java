@@ -31,6 +31,8 @@ import org.dmfs.rfc5545.Duration;
 import org.finra.fidelius.MetadataParameters;
 import org.finra.fidelius.exceptions.FideliusException;
 import org.finra.fidelius.model.Credential;
+import org.finra.fidelius.model.CredentialFilter;
+import org.finra.fidelius.model.CredentialPage;
 import org.finra.fidelius.model.HistoryEntry;
 import org.finra.fidelius.model.Metadata;
 import org.finra.fidelius.model.rotate.RotateRequest;
@@ -39,6 +41,7 @@ import org.finra.fidelius.services.account.AccountsService;
 import org.finra.fidelius.services.auth.FideliusRoleService;
 import org.finra.fidelius.services.aws.AWSSessionService;
 import org.finra.fidelius.services.aws.DynamoDBService;
+import org.finra.fidelius.services.aws.ItemPage;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -53,7 +56,6 @@ import org.springframework.web.client.RestTemplate;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
-import software.amazon.awssdk.services.kms.KmsClient;
 import software.amazon.awssdk.services.rds.RdsClient;
 import software.amazon.awssdk.services.rds.model.*;
 import software.amazon.awssdk.services.redshift.RedshiftClient;
@@ -66,6 +68,7 @@ import javax.inject.Inject;
 import java.net.URI;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -78,7 +81,10 @@ public class CredentialsService {
     private String tableName;
 
     @Inject
-    protected FideliusService fideliusService;
+    private FideliusClientRegistry fideliusClientRegistry;
+
+    @Inject
+    private CredentialListingCache credentialListingCache;
 
     @Inject
     protected FideliusRoleService fideliusRoleService;
@@ -104,6 +110,9 @@ public class CredentialsService {
     @Value("${fidelius.rotationUserManual:}")
     private String rotationUserManual;
 
+    @Value("${fidelius.applicationIndex:}")
+    private Optional<String> applicationIndex;
+
     @Value("${fidelius.rotate.url:}")
     private Optional<String> rotateUrl;
 
@@ -127,6 +136,10 @@ public class CredentialsService {
     private final static String DOCUMENTDB = "documentdb";
     private final static String REDSHIFT = "redshift";
 
+    public final static int MAX_PAGE_SIZE = 1000;
+    private final static int STREAM_PAGE_SIZE = 100;
+    private final static int MAX_READS_PER_PAGE = 20;
+
     public final static String NAME = "name";
     public final static String VERSION = "version";
     public final static String UPDATED_BY = "updatedBy";
@@ -148,16 +161,16 @@ public class CredentialsService {
             });
 
     /**
-     * Sets Fidelius environment for given AWS Account and AWS Region
+     * Gets the Fidelius client for given AWS Account and AWS Region
      *
-     * @param account AWS account to set Fidelius
-     * @param region  AWS Region to set Fidelius
+     * @param account AWS account
+     * @param region  AWS Region
+     * @return Lease on the Fidelius client bound to the account and region; close it when done
      */
-    protected void setFideliusEnvironment(String account, String region) {
+    protected FideliusClientRegistry.Lease leaseFideliusService(String account, String region) {
         AWSEnvironment awsEnvironment = new AWSEnvironment(account, region);
-        DynamoDbClient dynamoDBClient;
         try {
-            dynamoDBClient = awsSessionService.getDynamoDBClient(awsEnvironment);
+            return fideliusClientRegistry.lease(awsEnvironment);
         } catch (StsException ex) {
             String message = String.format("Not authorized to access credential table on account: %s in region: %s", account, region);
             logger.error(message, ex);
@@ -167,8 +180,6 @@ public class CredentialsService {
             logger.error(message, re);
             throw new FideliusException(message, HttpStatus.INTERNAL_SERVER_ERROR);
         }
-        KmsClient kmsClient = awsSessionService.getCachedKmsClient(awsEnvironment);
-        fideliusService.setFideliusClient(dynamoDBClient, kmsClient);
     }
 
     /**
@@ -219,35 +230,30 @@ public class CredentialsService {
 
     @PreAuthorize("@fideliusRoleService.isAuthorized(#application, #account, \"LIST_CREDENTIALS\")")
     public List<Credential> getAllCredentials(String tableName, String account, String region, String application) throws FideliusException{
+        return credentialListingCache.get(account, region, application,
+                () -> loadAllCredentials(tableName, account, region, application));
+    }
+
+    private List<Credential> loadAllCredentials(String tableName, String account, String region, String application) {
         logger.info(String.format("Getting all credentials for app %s using account %s and region %s.", application, account, region));
         AWSEnvironment awsEnvironment = new AWSEnvironment(account, region);
         List<Credential> results = new ArrayList<>();
-        DynamoDbEnhancedClient dynamoDbEnhancedClient = awsSessionService.getDynamoDBEnhancedClient(awsEnvironment);
-
-        setFideliusEnvironment(account, region);
-
-        List<Map<String, AttributeValue>> queryResults = dynamoDBService.scanDynamoDB(dynamoDbEnhancedClient, tableName, application);
+        List<Map<String, AttributeValue>> queryResults;
+        if (applicationIndexEnabled()) {
+            DynamoDbClient dynamoDbClient = awsSessionService.getDynamoDBClient(awsEnvironment);
+            queryResults = dynamoDBService.queryApplicationIndex(dynamoDbClient, tableName, applicationIndex.get(), application);
+        } else {
+            DynamoDbEnhancedClient dynamoDbEnhancedClient = awsSessionService.getDynamoDBEnhancedClient(awsEnvironment);
+            queryResults = dynamoDBService.scanDynamoDB(dynamoDbEnhancedClient, tableName, application);
+        }
 
         // Gets only latest version of each credential
         Map<String, Map<String, AttributeValue>> credentials = getLatestCredentialVersion(queryResults);
 
         for (Map<String, AttributeValue> dbCredential : credentials.values()) {
-            if(dbCredential.get(SDLC) == null || dbCredential.get(SDLC).s() == null){
-                logger.info(String.format("Credential %s missing attributes.  Attempting to add missing attributes: ", dbCredential.get(NAME)));
-                dbCredential = migrateService.guessCredentialProperties(dbCredential);
-            }
-
-            try {
-                Credential credential = new Credential(getShortKey(dbCredential), dbCredential.get(NAME), account, region, application,
-                        dbCredential.get(SDLC), dbCredential.get(COMPONENT), splitRoleARN(dbCredential.get(UPDATED_BY)),
-                        dbCredential.get(UPDATED_ON));
-
-                if(credential.getEnvironment() != null)
-                    results.add(credential);
-
-            }catch (Exception e){
-                logger.error("Error parsing key " + dbCredential.get(NAME), e);
-          }
+            Credential credential = toCredential(dbCredential, account, region, application);
+            if (credential != null)
+                results.add(credential);
         }
         logger.info(String.format("%2d credentials for application %s successfully retrieved.",results.size(), application));
 
@@ -258,50 +264,182 @@ public class CredentialsService {
 
     }
 
+    /**
+     * Lists one page of an application's credentials. Credentials are ordered by name when the application index is
+     * enabled and in table order otherwise. A page can hold fewer than pageSize credentials, or none, while more
+     * follow; only a null next cursor marks the end of the listing.
+     *
+     * @param account     AWS account
+     * @param region      AWS Region
+     * @param application Application whose credentials are listed
+     * @param filter      Restrictions on the credentials returned
+     * @param cursor      Nullable  Cursor returned with the previous page
+     * @param pageSize    Maximum number of credentials to return, at most {@value #MAX_PAGE_SIZE}
+     * @return Credentials of the page and the cursor of the next one
+     */
+    @PreAuthorize("@fideliusRoleService.isAuthorized(#application, #account, \"LIST_CREDENTIALS\")")
+    public CredentialPage getCredentialsPage(String account, String region, String application, CredentialFilter filter,
+                                             String cursor, int pageSize) throws FideliusException {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new FideliusException("pageSize must be between 1 and " + MAX_PAGE_SIZE, HttpStatus.BAD_REQUEST);
+        }
+        validateNamePrefix(application, filter);
+        return readCredentialsPage(account, region, application, filter, cursor, pageSize);
+    }
+
+    /**
+     * Lists all of an application's credentials a page at a time, so only one page is held in memory however many
+     * credentials the application has.
+     *
+     * @param account      AWS account
+     * @param region       AWS Region
+     * @param application  Application whose credentials are listed
+     * @param filter       Restrictions on the credentials returned
+     * @param pageConsumer Called with every non-empty page as soon as it is read
+     * @return Number of credentials listed
+     */
+    @PreAuthorize("@fideliusRoleService.isAuthorized(#application, #account, \"LIST_CREDENTIALS\")")
+    public int streamCredentials(String account, String region, String application, CredentialFilter filter,
+                                 Consumer<List<Credential>> pageConsumer) throws FideliusException {
+        validateNamePrefix(application, filter);
+        logger.info(String.format("Streaming credentials for app %s using account %s and region %s, %s.", application, account, region, filter));
+        int count = 0;
+        String cursor = null;
+        do {
+            CredentialPage page = readCredentialsPage(account, region, application, filter, cursor, STREAM_PAGE_SIZE);
+            if (!page.getCredentials().isEmpty()) {
+                pageConsumer.accept(page.getCredentials());
+                count += page.getCredentials().size();
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        logger.info(String.format("%2d credentials for application %s streamed.", count, application));
+        return count;
+    }
+
+    private CredentialPage readCredentialsPage(String account, String region, String application, CredentialFilter filter,
+                                               String cursor, int pageSize) {
+        DynamoDbClient dynamoDbClient = awsSessionService.getDynamoDBClient(new AWSEnvironment(account, region));
+        String indexName = applicationIndexEnabled() ? applicationIndex.get() : null;
+        Map<String, AttributeValue> startKey = ListingCursor.decode(cursor, application, indexName != null);
+        int limit = Math.min(MAX_PAGE_SIZE, pageSize * 4);
+
+        List<Credential> credentials = new ArrayList<>();
+        // all versions of a credential are read next to each other; these are the ones of the credential being read
+        List<Map<String, AttributeValue>> versions = new ArrayList<>();
+        // everything up to this key has been looked at, so the next page continues after it
+        Map<String, AttributeValue> resumeKey = startKey;
+        boolean progressed = false;
+        for (int reads = 1; ; reads++) {
+            ItemPage items = dynamoDBService.readApplicationPage(dynamoDbClient, tableName, indexName, application, filter, startKey, limit);
+            for (Map<String, AttributeValue> item : items.getItems()) {
+                if (!versions.isEmpty() && !versions.get(0).get(NAME).s().equals(item.get(NAME).s())) {
+                    addLatestVersion(credentials, versions, account, region, application, filter);
+                    resumeKey = versions.get(versions.size() - 1);
+                    progressed = true;
+                    versions.clear();
+                    if (credentials.size() == pageSize) {
+                        return new CredentialPage(credentials, ListingCursor.encode(resumeKey));
+                    }
+                }
+                versions.add(item);
+            }
+            startKey = items.getLastEvaluatedKey();
+            if (startKey == null) {
+                addLatestVersion(credentials, versions, account, region, application, filter);
+                return new CredentialPage(credentials, null);
+            }
+            if (versions.isEmpty()) {
+                resumeKey = startKey;
+                progressed = true;
+            }
+            if (reads >= MAX_READS_PER_PAGE && progressed) {
+                // keeps the latency of a page bounded when the filter rejects most credentials
+                return new CredentialPage(credentials, ListingCursor.encode(resumeKey));
+            }
+        }
+    }
+
+    private void addLatestVersion(List<Credential> credentials, List<Map<String, AttributeValue>> versions, String account,
+                                  String region, String application, CredentialFilter filter) {
+        if (versions.isEmpty()) {
+            return;
+        }
+        Map<String, AttributeValue> latest = getLatestCredentialVersion(versions).values().iterator().next();
+        Credential credential = toCredential(new HashMap<>(latest), account, region, application);
+        if (credential != null && filter.matches(credential)) {
+            credentials.add(credential);
+        }
+    }
+
+    private void validateNamePrefix(String application, CredentialFilter filter) {
+        String namePrefix = filter.getNamePrefix();
+        if (namePrefix != null && !namePrefix.isEmpty() && !namePrefix.startsWith(application + ".")) {
+            throw new FideliusException("namePrefix must start with " + application + ".", HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Adds the application attribute to credentials written before it existed, so the application index
+     * (fidelius.applicationIndex) lists them. Safe to re-run; only items still missing the attribute are updated.
+     *
+     * @param account AWS account
+     * @param region  AWS Region
+     * @return Number of credential versions updated
+     */
+    @PreAuthorize("@fideliusRoleService.isMaster()")
+    public int backfillApplicationIndex(String account, String region) {
+        AWSEnvironment awsEnvironment = new AWSEnvironment(account, region);
+        logger.info(String.format("Backfilling application index using account %s and region %s.", account, region));
+        return dynamoDBService.backfillApplicationAttribute(awsSessionService.getDynamoDBClient(awsEnvironment), tableName);
+    }
+
     @PreAuthorize("@fideliusRoleService.isAuthorized(#application, #account, \"LIST_CREDENTIALS\")")
     public Credential getCredential(String account, String region, String application, String longKey) throws FideliusException {
         AWSEnvironment awsEnvironment = new AWSEnvironment(account, region);
         DynamoDbClient dynamoDbClient = awsSessionService.getDynamoDBClient(awsEnvironment);
-        setFideliusEnvironment(account, region);
+        try (FideliusClientRegistry.Lease lease = leaseFideliusService(account, region)) {
+            FideliusService fideliusService = lease.getService();
 
-        Map<String, String> ean = new HashMap<>();
-        ean.put("#tempname", NAME);
-
-        Map<String, AttributeValue> eav = new HashMap<>();
-        eav.put(":key", AttributeValue.builder().s(longKey).build());
+            Map<String, String> ean = new HashMap<>();
+            ean.put("#tempname", NAME);
 
-        QueryRequest queryRequest = QueryRequest.builder()
-                .tableName(tableName)
-                .expressionAttributeNames(ean)
-                .keyConditionExpression("#tempname = :key")
-                .expressionAttributeValues(eav)
-                .build();
-        List<Map<String, AttributeValue>> queryResults = dynamoDBService.queryDynamoDB(queryRequest, dynamoDbClient);
+            Map<String, AttributeValue> eav = new HashMap<>();
+            eav.put(":key", AttributeValue.builder().s(longKey).build());
 
-        // Gets only latest version of each credential
-        Map<String, Map<String, AttributeValue>> credentials = getLatestCredentialVersion(queryResults);
+            QueryRequest queryRequest = QueryRequest.builder()
+                    .tableName(tableName)
+                    .expressionAttributeNames(ean)
+                    .keyConditionExpression("#tempname = :key")
+                    .expressionAttributeValues(eav)
+                    .build();
+            List<Map<String, AttributeValue>> queryResults = dynamoDBService.queryDynamoDB(queryRequest, dynamoDbClient);
 
-        try {
-            Map<String, AttributeValue> dbCredential = credentials.values().stream().findFirst().get();
-            if(dbCredential.get(SDLC) == null || dbCredential.get(SDLC).s() == null) {
-                dbCredential = migrateService.migrateCredential(dbCredential, fideliusService);
-                logger.info(String.format("Credential %s missing attributes.  Attempting to add missing attributes: ", dbCredential.get(NAME)));
-                dbCredential = migrateService.guessCredentialProperties(dbCredential);
-            }
+            // Gets only latest version of each credential
+            Map<String, Map<String, AttributeValue>> credentials = getLatestCredentialVersion(queryResults);
 
             try {
-                return (new Credential(getShortKey(dbCredential), dbCredential.get(NAME), account, region, application,
-                        dbCredential.get(CredentialsService.SDLC), dbCredential.get(CredentialsService.COMPONENT), splitRoleARN(dbCredential.get(CredentialsService.UPDATED_BY)),
-                        dbCredential.get(CredentialsService.UPDATED_ON)));
-            }catch (Exception e){
-                logger.error("Error parsing key " + dbCredential.get(CredentialsService.NAME).s(), e);
+                Map<String, AttributeValue> dbCredential = credentials.values().stream().findFirst().get();
+                if(dbCredential.get(SDLC) == null || dbCredential.get(SDLC).s() == null) {
+                    dbCredential = migrateService.migrateCredential(dbCredential, fideliusService);
+                    logger.info(String.format("Credential %s missing attributes.  Attempting to add missing attributes: ", dbCredential.get(NAME)));
+                    dbCredential = migrateService.guessCredentialProperties(dbCredential);
+                }
+
+                try {
+                    return (new Credential(getShortKey(dbCredential), dbCredential.get(NAME), account, region, application,
+                            dbCredential.get(CredentialsService.SDLC), dbCredential.get(CredentialsService.COMPONENT), splitRoleARN(dbCredential.get(CredentialsService.UPDATED_BY)),
+                            dbCredential.get(CredentialsService.UPDATED_ON)));
+                }catch (Exception e){
+                    logger.error("Error parsing key " + dbCredential.get(CredentialsService.NAME).s(), e);
+                }
+            } catch (NoSuchElementException e) {
+                logger.error("Credential " + longKey + " not found" , e);
+                return null;
             }
-        } catch (NoSuchElementException e) {
-            logger.error("Credential " + longKey + " not found" , e);
+
             return null;
         }
-
-        return null;
     }
 
     @PreAuthorize("@fideliusRoleService.isAuthorized(#application, #account, \"LIST_CREDENTIALS\")")
@@ -310,7 +448,6 @@ public class CredentialsService {
         List<HistoryEntry> results = new ArrayList<>();
         AWSEnvironment awsEnvironment = new AWSEnvironment(account, region);
         DynamoDbClient dynamoDbClient = awsSessionService.getDynamoDBClient(awsEnvironment);
-        setFideliusEnvironment(account, region);
 
         StringBuilder fullKeyBuilder = new StringBuilder();
         if(isMetadata) {
@@ -365,20 +502,22 @@ public class CredentialsService {
     @PreAuthorize("@fideliusRoleService.isAuthorized(#application, #account)")
     public Credential getCredentialSecret(String account, String region, String application, String environment,
                                       String component, String shortKey, Integer version) {
-        setFideliusEnvironment(account, region);
-        String user = fideliusRoleService.getUserProfile().getUserId();
+        try (FideliusClientRegistry.Lease lease = leaseFideliusService(account, region)) {
+            FideliusService fideliusService = lease.getService();
+            String user = fideliusRoleService.getUserProfile().getUserId();
 
-        try {
-            if (component != null && (component.isEmpty() || component.equals("null"))) {
-                component = null;
-            }
-            String credentialSecret = fideliusService.getCredential(shortKey, application, environment, component,
-                    version, tableName, user);
+            try {
+                if (component != null && (component.isEmpty() || component.equals("null"))) {
+                    component = null;
+                }
+                String credentialSecret = fideliusService.getCredential(shortKey, application, environment, component,
+                        version, tableName, user);
 
-            return new Credential(shortKey,null, account, region, application, environment, component,null,null, credentialSecret);
-        } catch (Exception e) {
-            this.logger.error("Credential not found " + e.toString());
-            return null;
+                return new Credential(shortKey,null, account, region, application, environment, component,null,null, credentialSecret);
+            } catch (Exception e) {
+                this.logger.error("Credential not found " + e.toString());
+                return null;
+            }
         }
     }
 
@@ -390,31 +529,35 @@ public class CredentialsService {
      */
     @PreAuthorize("@fideliusRoleService.isAuthorized(#credential.application, #credential.account)")
     public Credential putCredential(Credential credential) {
-        setFideliusEnvironment(credential.getAccount(), credential.getRegion());
-        String user = fideliusRoleService.getUserProfile().getUserId();
-        if(credential.getLastUpdatedBy() != null && !credential.getLastUpdatedBy().isEmpty() && user.toLowerCase().equals(clientId.get().toLowerCase())) {
-            logger.info("Detected Service Account as updating user. Using last updated as user: " + credential.getLastUpdatedBy());
-            user = credential.getLastUpdatedBy();
-        }
-        try {
-            if(credential.getSource() != null && credential.getSourceType() != null) {
-                fideliusService.putCredentialWithMetadata(credential.getShortKey(), credential.getSecret(),
-                        credential.getApplication(), credential.getEnvironment(), credential.getComponent(),
-                        credential.getSource(), credential.getSourceType(), tableName, user, kmsKey);
+        try (FideliusClientRegistry.Lease lease = leaseFideliusService(credential.getAccount(), credential.getRegion())) {
+            FideliusService fideliusService = lease.getService();
+            String user = fideliusRoleService.getUserProfile().getUserId();
+            if(credential.getLastUpdatedBy() != null && !credential.getLastUpdatedBy().isEmpty() && user.toLowerCase().equals(clientId.get().toLowerCase())) {
+                logger.info("Detected Service Account as updating user. Using last updated as user: " + credential.getLastUpdatedBy());
+                user = credential.getLastUpdatedBy();
+            }
+            try {
+                if(credential.getSource() != null && credential.getSourceType() != null) {
+                    fideliusService.putCredentialWithMetadata(credential.getShortKey(), credential.getSecret(),
+                            credential.getApplication(), credential.getEnvironment(), credential.getComponent(),
+                            credential.getSource(), credential.getSourceType(), tableName, user, kmsKey);
 
-            } else {
-                fideliusService.putCredential(credential.getShortKey(), credential.getSecret(),
-                        credential.getApplication(), credential.getEnvironment(), credential.getComponent(), tableName, user, kmsKey);
+                } else {
+                    fideliusService.putCredential(credential.getShortKey(), credential.getSecret(),
+                            credential.getApplication(), credential.getEnvironment(), credential.getComponent(), tableName, user, kmsKey);
 
+                }
+                credential.setLastUpdatedBy(user);
+                credential.setSecret(null);
+            } catch (Exception e) {
+                this.logger.info("Credential not created " + e.toString());
+                return null;
+            } finally {
+                credentialListingCache.invalidate(credential.getAccount(), credential.getRegion(), credential.getApplication());
             }
-            credential.setLastUpdatedBy(user);
-            credential.setSecret(null);
-        } catch (Exception e) {
-            this.logger.info("Credential not created " + e.toString());
-            return null;
-        }
 
-        return credential;
+            return credential;
+        }
     }
 
     /**
@@ -453,7 +596,6 @@ public class CredentialsService {
     @PreAuthorize("@fideliusRoleService.isAuthorized(#application, #account)")
     public ResponseEntity rotateCredential(String account, String sourceType, String source, String region, String application, String environment,
                                        String component, String shortKey) {
-        setFideliusEnvironment(account, region);
         restTemplate = new RestTemplate();
         String user = fideliusRoleService.getUserProfile().getUserId();
         String accountId = fideliusRoleService.fetchAwsAccountId(account);
@@ -514,6 +656,10 @@ public class CredentialsService {
         } catch (Exception e) {
             this.logger.info("Credential not rotated " + e.toString());
             return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+            // the rotation service may write the new version after it responds, so this only drops the listing
+            // early; the write itself is caught by the stream invalidation or by the listing expiring
+            credentialListingCache.invalidate(account, region, application);
         }
 
     }
@@ -526,27 +672,31 @@ public class CredentialsService {
      */
     @PreAuthorize("@fideliusRoleService.isAuthorizedToDelete(#credential.getApplication(), #credential.getAccount())")
     public Credential deleteCredential(Credential credential) {
-        setFideliusEnvironment(credential.getAccount(), credential.getRegion());
-        String user = fideliusRoleService.getUserProfile().getUserId();
+        try (FideliusClientRegistry.Lease lease = leaseFideliusService(credential.getAccount(), credential.getRegion())) {
+            FideliusService fideliusService = lease.getService();
+            String user = fideliusRoleService.getUserProfile().getUserId();
 
-        try {
-            if (credential.getComponent() == null || credential.getComponent().equals("null")) {
-                credential.setComponent(null);
-            }
-            Metadata metadata = getMetadata(credential.getAccount(), credential.getRegion(), credential.getApplication(), credential.getEnvironment(), credential.getComponent(), credential.getShortKey());
-            if(metadata.getSource() != null && metadata.getSourceType() != null ) {
-                fideliusService.deleteCredentialWithMetadata(credential.getShortKey(), credential.getApplication(),
-                        credential.getEnvironment(), credential.getComponent(), tableName, user);
-            } else {
-                fideliusService.deleteCredential(credential.getShortKey(), credential.getApplication(),
-                        credential.getEnvironment(), credential.getComponent(), tableName, user);
+            try {
+                if (credential.getComponent() == null || credential.getComponent().equals("null")) {
+                    credential.setComponent(null);
+                }
+                Metadata metadata = getMetadata(credential.getAccount(), credential.getRegion(), credential.getApplication(), credential.getEnvironment(), credential.getComponent(), credential.getShortKey());
+                if(metadata.getSource() != null && metadata.getSourceType() != null ) {
+                    fideliusService.deleteCredentialWithMetadata(credential.getShortKey(), credential.getApplication(),
+                            credential.getEnvironment(), credential.getComponent(), tableName, user);
+                } else {
+                    fideliusService.deleteCredential(credential.getShortKey(), credential.getApplication(),
+                            credential.getEnvironment(), credential.getComponent(), tableName, user);
+                }
+            } catch (Exception e) {
+                this.logger.info("Credential not deleted " + e.toString());
+                return null;
+            } finally {
+                credentialListingCache.invalidate(credential.getAccount(), credential.getRegion(), credential.getApplication());
             }
-        } catch (Exception e) {
-            this.logger.info("Credential not deleted " + e.toString());
-            return null;
-        }
 
-        return credential;
+            return credential;
+        }
     }
 
     /**
@@ -563,26 +713,28 @@ public class CredentialsService {
     @PreAuthorize("@fideliusRoleService.isAuthorized(#application, #account)")
     public Metadata getMetadata(String account, String region, String application, String environment,
                                 String component, String shortKey) {
-        setFideliusEnvironment(account, region);
-        String user = fideliusRoleService.getUserProfile().getUserId();
+        try (FideliusClientRegistry.Lease lease = leaseFideliusService(account, region)) {
+            FideliusService fideliusService = lease.getService();
+            String user = fideliusRoleService.getUserProfile().getUserId();
 
-        try {
-            if (component != null && (component.isEmpty() || component.equals("null"))) {
-                component = null;
-            }
-            MetadataParameters metadata = fideliusService.getMetadata(shortKey, application, environment, component,
-                    tableName, user);
+            try {
+                if (component != null && (component.isEmpty() || component.equals("null"))) {
+                    component = null;
+                }
+                MetadataParameters metadata = fideliusService.getMetadata(shortKey, application, environment, component,
+                        tableName, user);
 
-            if(metadata == null) {
-                return new Metadata(shortKey,null, account, region, application, environment,
-                        null, null, component,null,null);
-            } else {
-                return new Metadata(shortKey, null, account, region, application, environment,
-                        metadata.getSourceType(), metadata.getSource(), component, null, null);
+                if(metadata == null) {
+                    return new Metadata(shortKey,null, account, region, application, environment,
+                            null, null, component,null,null);
+                } else {
+                    return new Metadata(shortKey, null, account, region, application, environment,
+                            metadata.getSourceType(), metadata.getSource(), component, null, null);
+                }
+            } catch (Exception e) {
+                this.logger.error("Metadata not found " + e.toString());
+                return null;
             }
-        } catch (Exception e) {
-            this.logger.error("Metadata not found " + e.toString());
-            return null;
         }
     }
 
@@ -594,21 +746,25 @@ public class CredentialsService {
      */
     @PreAuthorize("@fideliusRoleService.isAuthorizedToDelete(#metadata.getApplication(), #metadata.getAccount())")
     public Metadata deleteMetadata(Metadata metadata) {
-        setFideliusEnvironment(metadata.getAccount(), metadata.getRegion());
-        String user = fideliusRoleService.getUserProfile().getUserId();
+        try (FideliusClientRegistry.Lease lease = leaseFideliusService(metadata.getAccount(), metadata.getRegion())) {
+            FideliusService fideliusService = lease.getService();
+            String user = fideliusRoleService.getUserProfile().getUserId();
 
-        try {
-            if (metadata.getComponent() == null || metadata.getComponent().equals("null")) {
-                metadata.setComponent(null);
+            try {
+                if (metadata.getComponent() == null || metadata.getComponent().equals("null")) {
+                    metadata.setComponent(null);
+                }
+                fideliusService.deleteMetadata(metadata.getShortKey(), metadata.getApplication(),
+                        metadata.getEnvironment(), metadata.getComponent(), tableName, user);
+            } catch (Exception e) {
+                this.logger.info("Metadata not deleted " + e.toString());
+                return null;
+            } finally {
+                credentialListingCache.invalidate(metadata.getAccount(), metadata.getRegion(), metadata.getApplication());
             }
-            fideliusService.deleteMetadata(metadata.getShortKey(), metadata.getApplication(),
-                    metadata.getEnvironment(), metadata.getComponent(), tableName, user);
-        } catch (Exception e) {
-            this.logger.info("Metadata not deleted " + e.toString());
-            return null;
-        }
 
-        return metadata;
+            return metadata;
+        }
     }
 
     /**
@@ -619,25 +775,29 @@ public class CredentialsService {
      */
     @PreAuthorize("@fideliusRoleService.isAuthorized(#metadata.application, #metadata.account)")
     public Metadata putMetadata(Metadata metadata) {
-        setFideliusEnvironment(metadata.getAccount(), metadata.getRegion());
-        String user = fideliusRoleService.getUserProfile().getUserId();
+        try (FideliusClientRegistry.Lease lease = leaseFideliusService(metadata.getAccount(), metadata.getRegion())) {
+            FideliusService fideliusService = lease.getService();
+            String user = fideliusRoleService.getUserProfile().getUserId();
 
-        String metadataValidation = isValidMetadata(metadata);
-        if(!metadataValidation.isEmpty()){
-            throw new FideliusException("Metadata source is invalid! " + metadataValidation, HttpStatus.BAD_REQUEST);
-        }
+            String metadataValidation = isValidMetadata(metadata);
+            if(!metadataValidation.isEmpty()){
+                throw new FideliusException("Metadata source is invalid! " + metadataValidation, HttpStatus.BAD_REQUEST);
+            }
 
-        try {
-            String version = fideliusService.putMetadata(metadata.getShortKey(), metadata.getApplication(),
-                    metadata.getEnvironment(), metadata.getComponent(), metadata.getSourceType(),
-                    metadata.getSource(), tableName, user, kmsKey);
-            metadata.setLastUpdatedBy(user);
-        } catch (Exception e) {
-            this.logger.info("Metadata not created " + e.toString());
-            return null;
-        }
+            try {
+                String version = fideliusService.putMetadata(metadata.getShortKey(), metadata.getApplication(),
+                        metadata.getEnvironment(), metadata.getComponent(), metadata.getSourceType(),
+                        metadata.getSource(), tableName, user, kmsKey);
+                metadata.setLastUpdatedBy(user);
+            } catch (Exception e) {
+                this.logger.info("Metadata not created " + e.toString());
+                return null;
+            } finally {
+                credentialListingCache.invalidate(metadata.getAccount(), metadata.getRegion(), metadata.getApplication());
+            }
 
-        return metadata;
+            return metadata;
+        }
     }
 
     /**
@@ -688,6 +848,26 @@ public class CredentialsService {
         }
     }
 
+    private Credential toCredential(Map<String, AttributeValue> dbCredential, String account, String region, String application) {
+        if(dbCredential.get(SDLC) == null || dbCredential.get(SDLC).s() == null){
+            logger.info(String.format("Credential %s missing attributes.  Attempting to add missing attributes: ", dbCredential.get(NAME)));
+            dbCredential = migrateService.guessCredentialProperties(dbCredential);
+        }
+
+        try {
+            Credential credential = new Credential(getShortKey(dbCredential), dbCredential.get(NAME), account, region, application,
+                    dbCredential.get(SDLC), dbCredential.get(COMPONENT), splitRoleARN(dbCredential.get(UPDATED_BY)),
+                    dbCredential.get(UPDATED_ON));
+
+            if(credential.getEnvironment() != null)
+                return credential;
+
+        }catch (Exception e){
+            logger.error("Error parsing key " + dbCredential.get(NAME), e);
+        }
+        return null;
+    }
+
     private Map<String, Map<String, AttributeValue>> getLatestCredentialVersion(List<Map<String, AttributeValue>> queryResults) {
         Map<String, Map<String, AttributeValue>> credentials = new HashMap<>();
         for (Map<String, AttributeValue> dbCredential : queryResults) {
@@ -875,6 +1055,10 @@ public class CredentialsService {
         return "";
     }
 
+    private boolean applicationIndexEnabled() {
+        return applicationIndex != null && applicationIndex.isPresent() && !applicationIndex.get().isEmpty();
+    }
+
     private boolean oAuthTokenEndpointProvided() {
         return tokenUrl.isPresent() && tokenUri.isPresent() && clientId.isPresent() && clientSecret.isPresent();
     }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.finra.fidelius.services;
+
+import org.finra.fidelius.model.aws.AWSEnvironment;
+import org.finra.fidelius.services.aws.AWSSessionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.kms.KmsClient;
+
+import javax.inject.Inject;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands out one {@link FideliusService} per AWS account and region, so concurrent requests against
+ * different environments never swap clients underneath each other.
+ *
+ * Each instance is built for one pair of DynamoDB and KMS clients and never changes afterwards. When
+ * {@link AWSSessionService} replaces a cached client (it rebuilds the KMS client every few minutes), the next
+ * lease gets a new instance on the new clients. Requests lease an instance for as long as they use it, and a
+ * replaced instance shuts down its thread pools once the last lease on it is closed.
+ */
+@Component
+public class FideliusClientRegistry {
+
+    @Inject
+    private AWSSessionService awsSessionService;
+
+    @Inject
+    private FideliusService fideliusService;
+
+    private final ConcurrentMap<AWSEnvironment, Binding> bindings = new ConcurrentHashMap<>();
+
+    private Logger logger = LoggerFactory.getLogger(FideliusClientRegistry.class);
+
+    /**
+     * @param environment AWS account and region
+     * @return Lease on the Fidelius client that reads and writes credentials in the given environment;
+     *         close it when the request is done with the client
+     */
+    public Lease lease(AWSEnvironment environment) {
+        DynamoDbClient dynamoDBClient = awsSessionService.getDynamoDBClient(environment);
+        KmsClient kmsClient = awsSessionService.getCachedKmsClient(environment);
+        Lease[] lease = new Lease[1];
+        bindings.compute(environment, (env, current) -> {
+            Binding binding = current;
+            if (binding == null || !binding.uses(dynamoDBClient, kmsClient)) {
+                logger.info("Creating Fidelius client for " + env);
+                binding = new Binding(dynamoDBClient, kmsClient, new FideliusService(fideliusService, dynamoDBClient, kmsClient));
+                if (current != null) {
+                    current.retire();
+                }
+            }
+            // taken inside compute, so a concurrent replacement cannot shut the instance down before it is used
+            lease[0] = binding.acquire();
+            return binding;
+        });
+        return lease[0];
+    }
+
+    /**
+     * A request's hold on a {@link FideliusService}.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final FideliusService service;
+        private final Runnable onClose;
+        private boolean closed;
+
+        Lease(FideliusService service, Runnable onClose) {
+            this.service = service;
+            this.onClose = onClose;
+        }
+
+        public FideliusService getService() {
+            return service;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                onClose.run();
+            }
+        }
+    }
+
+    private static final class Binding {
+        private final DynamoDbClient dynamoDBClient;
+        private final KmsClient kmsClient;
+        private final FideliusService service;
+        private int leases;
+        private boolean retired;
+
+        private Binding(DynamoDbClient dynamoDBClient, KmsClient kmsClient, FideliusService service) {
+            this.dynamoDBClient = dynamoDBClient;
+            this.kmsClient = kmsClient;
+            this.service = service;
+        }
+
+        private boolean uses(DynamoDbClient dynamoDBClient, KmsClient kmsClient) {
+            return this.dynamoDBClient == dynamoDBClient && this.kmsClient == kmsClient;
+        }
+
+        private synchronized Lease acquire() {
+            leases++;
+            return new Lease(service, this::release);
+        }
+
+        private synchronized void release() {
+            leases--;
+            if (retired && leases == 0) {
+                service.shutdown();
+            }
+        }
+
+        private synchronized void retire() {
+            retired = true;
+            if (leases == 0) {
+                service.shutdown();
+            }
+        }
+    }
+}
@@ -39,8 +39,23 @@ public class FideliusService extends FideliusClient {
         super(clientConfiguration, provider, region);
     }
 
-    public void setFideliusClient(DynamoDbClient dynamoDBClient, KmsClient awskmsClient){
-        super.setFideliusClient(dynamoDBClient, awskmsClient);
+    /**
+     * Instance bound to one account and region; see {@link FideliusClientRegistry}.
+     *
+     * @param template Service whose settings and STS client are shared
+     * @param dynamoDBClient DynamoDB client for the account and region
+     * @param awskmsClient KMS client for the account and region
+     */
+    FideliusService(FideliusService template, DynamoDbClient dynamoDBClient, KmsClient awskmsClient) {
+        super(template, dynamoDBClient, awskmsClient);
+    }
+
+    /**
+     * Stops the thread pools of an instance the registry has replaced; see {@link FideliusClientRegistry}.
+     */
+    @Override
+    protected void shutdown() {
+        super.shutdown();
     }
 
     public String getCredential(String name, String ags,  String sdlc,  String component, Integer version, // null version -> get latest
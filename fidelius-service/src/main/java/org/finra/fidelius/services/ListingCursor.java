@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.finra.fidelius.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.finra.fidelius.exceptions.FideliusException;
+import org.springframework.http.HttpStatus;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts the DynamoDB key a credential listing stopped at to and from the opaque cursor handed to clients.
+ */
+class ListingCursor {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, String>> KEY_TYPE = new TypeReference<Map<String, String>>() { };
+
+    private ListingCursor() { }
+
+    static String encode(Map<String, AttributeValue> key) {
+        if (key == null) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<>();
+        values.put(CredentialsService.NAME, key.get(CredentialsService.NAME).s());
+        values.put(CredentialsService.VERSION, key.get(CredentialsService.VERSION).s());
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(values));
+        } catch (IOException e) {
+            throw new FideliusException("Cannot build listing cursor: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * @param cursor      Nullable  Cursor returned with the previous page
+     * @param application Application being listed; a cursor for any other application is rejected
+     * @param indexed     Whether the listing reads the application index, whose keys also hold the application
+     * @return Key to continue after, or null to start from the beginning
+     */
+    static Map<String, AttributeValue> decode(String cursor, String application, boolean indexed) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        Map<String, String> values;
+        try {
+            values = MAPPER.readValue(Base64.getUrlDecoder().decode(cursor.getBytes(StandardCharsets.UTF_8)), KEY_TYPE);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new FideliusException("Invalid cursor", HttpStatus.BAD_REQUEST);
+        }
+        String name = values.get(CredentialsService.NAME);
+        String version = values.get(CredentialsService.VERSION);
+        if (name == null || version == null || !name.startsWith(application + ".")) {
+            throw new FideliusException("Invalid cursor", HttpStatus.BAD_REQUEST);
+        }
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(CredentialsService.NAME, AttributeValue.builder().s(name).build());
+        key.put(CredentialsService.VERSION, AttributeValue.builder().s(version).build());
+        if (indexed) {
+            key.put("application", AttributeValue.builder().s(application).build());
+        }
+        return key;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.finra.fidelius.services;
+
+import org.finra.fidelius.CredModelMapper;
+import org.finra.fidelius.StreamShardReader;
+import org.finra.fidelius.model.aws.AWSEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+
+import java.util.function.Consumer;
+
+/**
+ * Follows the DynamoDB stream of the credential table in one account and region and reports the application of
+ * every credential written or deleted there, so listings cached on this node are dropped when another node
+ * changes them.
+ */
+class ListingInvalidationStream {
+
+    private static final long RETRY_INTERVAL_MILLIS = 60_000L;
+    private static final String METADATA_PREFIX = "META#";
+
+    private final String tableName;
+    private final AWSEnvironment environment;
+    private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbStreamsClient streamsClient;
+    private final Consumer<String> changedApplications;
+
+    private StreamShardReader shardReader;
+    private long retryAt;
+    private boolean closed;
+
+    private Logger logger = LoggerFactory.getLogger(ListingInvalidationStream.class);
+
+    /**
+     * @param changedApplications Called with the application prefix of every changed credential, or with null when
+     *                            records may have been missed and every listing of the environment is suspect
+     */
+    ListingInvalidationStream(String tableName, AWSEnvironment environment, DynamoDbClient dynamoDbClient,
+                              DynamoDbStreamsClient streamsClient, Consumer<String> changedApplications) {
+        this.tableName = tableName;
+        this.environment = environment;
+        this.dynamoDbClient = dynamoDbClient;
+        this.streamsClient = streamsClient;
+        this.changedApplications = changedApplications;
+    }
+
+    /**
+     * Positions every open shard at its latest record. Without a stream nothing is read and cached listings
+     * in this environment only expire.
+     */
+    synchronized void start() {
+        if (closed) {
+            return;
+        }
+        try {
+            TableDescription table = dynamoDbClient.describeTable(DescribeTableRequest.builder().tableName(tableName).build()).table();
+            if (table.streamSpecification() == null || !Boolean.TRUE.equals(table.streamSpecification().streamEnabled())
+                    || table.latestStreamArn() == null) {
+                logger.warn("Table " + tableName + " in " + environment + " has no stream; cached listings are only expired");
+                retryAt = Long.MAX_VALUE;
+                return;
+            }
+            StreamShardReader reader = new StreamShardReader(streamsClient, table.latestStreamArn());
+            reader.start();
+            shardReader = reader;
+        } catch (RuntimeException e) {
+            logger.warn("Cannot read the stream of " + tableName + " in " + environment + ", retrying later: " + e);
+            reset();
+        }
+    }
+
+    synchronized void poll() {
+        if (closed) {
+            return;
+        }
+        if (shardReader == null) {
+            if (System.currentTimeMillis() >= retryAt) {
+                start();
+                // records written while the stream was not read are lost, so everything cached may be stale
+                if (shardReader != null) {
+                    changedApplications.accept(null);
+                }
+            }
+            return;
+        }
+        try {
+            boolean missedRecords = shardReader.poll(record -> {
+                String name = record.dynamodb().keys().get("name").s();
+                if (name.startsWith(METADATA_PREFIX)) {
+                    name = name.substring(METADATA_PREFIX.length());
+                }
+                String application = CredModelMapper.applicationOf(name);
+                if (application != null) {
+                    changedApplications.accept(application);
+                }
+            });
+            if (missedRecords) {
+                changedApplications.accept(null);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Error reading the stream of " + tableName + " in " + environment + ", retrying later: " + e);
+            reset();
+            changedApplications.accept(null);
+        }
+    }
+
+    /**
+     * Drops the shard reader; the stream is not read again.
+     */
+    synchronized void close() {
+        closed = true;
+        shardReader = null;
+    }
+
+    private void reset() {
+        shardReader = null;
+        retryAt = System.currentTimeMillis() + RETRY_INTERVAL_MILLIS;
+    }
+}
@@ -166,6 +166,10 @@ public class FideliusRoleService {
         return false;
     }
 
+    public boolean isMaster(){
+        return getRole().equals(FideliusRole.MASTER);
+    }
+
     public boolean isAuthorizedToDelete(String application, String account){
         if(getRole().equals(FideliusRole.MASTER))
             return true;
@@ -35,6 +35,7 @@ import software.amazon.awssdk.auth.credentials.AwsCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
 import software.amazon.awssdk.services.kms.KmsClient;
 import software.amazon.awssdk.services.kms.KmsClientBuilder;
 import software.amazon.awssdk.services.rds.RdsClient;
@@ -94,6 +95,16 @@ public class AWSSessionService {
                 }
             });
 
+    private LoadingCache<AWSEnvironment, DynamoDbStreamsClient> dynamoDBStreamsClientCache = CacheBuilder.newBuilder()
+            .maximumSize(100)
+            .concurrencyLevel(10)
+            .build(new CacheLoader<AWSEnvironment, DynamoDbStreamsClient>() {
+                @Override
+                public DynamoDbStreamsClient load(AWSEnvironment environment) throws Exception {
+                    return getDynamoDBStreamsClient(environment);
+                }
+            });
+
     private LoadingCache<AWSEnvironment, RdsClient> rdsClientCache = CacheBuilder.newBuilder()
             .maximumSize(100)
             .concurrencyLevel(10)
@@ -169,6 +180,20 @@ public class AWSSessionService {
         }
     }
 
+    public DynamoDbStreamsClient getCachedDynamoDBStreamsClient(AWSEnvironment env) {
+        return dynamoDBStreamsClientCache.getUnchecked(env);
+    }
+
+    private DynamoDbStreamsClient getDynamoDBStreamsClient(AWSEnvironment env) {
+        // the assumed role credentials refresh themselves, so unlike KMS this client never needs rebuilding
+        StsAssumeRoleCredentialsProvider stsAssumeRoleCredentialsProvider = stsAssumeRoleCredentialsProviderCache.getUnchecked(env);
+        return DynamoDbStreamsClient
+                .builder()
+                .credentialsProvider(stsAssumeRoleCredentialsProvider)
+                .region(env.getRegion())
+                .build();
+    }
+
     public RdsClient getCachedRdsClient(AWSEnvironment env) {
         return rdsClientCache.getUnchecked(env);
     }
@@ -17,24 +17,32 @@
 
 package org.finra.fidelius.services.aws;
 
+import com.google.common.util.concurrent.RateLimiter;
+import org.finra.fidelius.CredModelMapper;
 import org.finra.fidelius.exceptions.FideliusException;
+import org.finra.fidelius.model.CredentialFilter;
 import org.finra.fidelius.model.CredentialSchema;
 import org.finra.fidelius.model.aws.AWSEnvironment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Expression;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.ScanEnhancedRequest;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 import software.amazon.awssdk.services.sts.model.StsException;
 
 import javax.inject.Inject;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Consumer;
 
 @Component
 public class DynamoDBService {
@@ -42,6 +50,23 @@ public class DynamoDBService {
     @Inject
     private AWSSessionService awsSessionService;
 
+    /**
+     * Attributes shown in the credential list; the application index only needs to project these.
+     */
+    public static final List<String> LIST_ATTRIBUTES = Collections.unmodifiableList(
+            Arrays.asList("name", "version", "updatedBy", "updatedOn", "sdlc", "component"));
+
+    private static final String APPLICATION = "application";
+
+    @Value("${fidelius.scan.segments:0}")
+    private int scanSegments;
+
+    @Value("${fidelius.scan.maxWorkers:0}")
+    private int scanMaxWorkers;
+
+    @Value("${fidelius.scan.readCapacityPerSecond:0}")
+    private double scanReadCapacityPerSecond;
+
     private Logger logger = LoggerFactory.getLogger(DynamoDBService.class);
 
     public List<Map<String, AttributeValue>> scanDynamoDB(DynamoDbEnhancedClient dynamoDbEnhancedClient, String tableName, String application) {
@@ -54,7 +79,15 @@ public class DynamoDBService {
         do {
             try {
                 DynamoDbTable<CredentialSchema> credentialTable = dynamoDbEnhancedClient.table(tableName, TableSchema.fromBean(CredentialSchema.class));
-                for (CredentialSchema rec : credentialTable.scan().items()) {
+                ScanEnhancedRequest scanRequest = ScanEnhancedRequest.builder()
+                        .attributesToProject(LIST_ATTRIBUTES)
+                        .filterExpression(Expression.builder()
+                                .expression("begins_with(#name, :prefix)")
+                                .putExpressionName("#name", "name")
+                                .putExpressionValue(":prefix", AttributeValue.builder().s(application + ".").build())
+                                .build())
+                        .build();
+                for (CredentialSchema rec : credentialTable.scan(scanRequest).items()) {
                     if(rec.getName().startsWith(application + ".")) {
                         queryResults.add(rec.getMapOfAttributeValues());
                     }
@@ -111,4 +144,330 @@ public class DynamoDBService {
 
         return queryResults.items();
     }
+
+    /**
+     * Lists every version of one application's credentials from a global secondary index with partition key
+     * "application" and sort key "name". Only {@link #LIST_ATTRIBUTES} are read, so the index can use an
+     * INCLUDE projection of updatedBy, updatedOn, sdlc and component.
+     *
+     * @param dynamoDbClient DynamoDB client for the account and region
+     * @param tableName      Credential table
+     * @param indexName      Name of the application index
+     * @param application    Application prefix of the credential names
+     * @return Matching items, one per credential version
+     */
+    public List<Map<String, AttributeValue>> queryApplicationIndex(DynamoDbClient dynamoDbClient, String tableName,
+                                                                   String indexName, String application) {
+        logger.info("Querying index " + indexName + " for application " + application + "...");
+        long startTime = System.currentTimeMillis();
+        Map<String, String> ean = new HashMap<>();
+        ean.put("#application", APPLICATION);
+        StringJoiner projection = new StringJoiner(", ");
+        for (String attribute : LIST_ATTRIBUTES) {
+            ean.put("#" + attribute, attribute);
+            projection.add("#" + attribute);
+        }
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":application", AttributeValue.builder().s(application).build());
+
+        List<Map<String, AttributeValue>> results = new ArrayList<>();
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            QueryRequest queryRequest = QueryRequest.builder()
+                    .tableName(tableName)
+                    .indexName(indexName)
+                    .keyConditionExpression("#application = :application")
+                    .projectionExpression(projection.toString())
+                    .expressionAttributeNames(ean)
+                    .expressionAttributeValues(eav)
+                    .exclusiveStartKey(lastEvaluatedKey)
+                    .build();
+            try {
+                QueryResponse response = dynamoDbClient.query(queryRequest);
+                results.addAll(response.items());
+                lastEvaluatedKey = response.lastEvaluatedKey();
+            } catch (ResourceNotFoundException rnf) {
+                String message = "Credential table not found!";
+                logger.error(message, rnf);
+                throw new FideliusException(message, HttpStatus.NOT_FOUND);
+            } catch (ProvisionedThroughputExceededException pte) {
+                logger.error("Throttling rate exceeded!", pte);
+                throw new FideliusException("Throttling rate exceeded!", HttpStatus.REQUEST_TIMEOUT);
+            }
+        } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+
+        logger.info(String.format("Index query returned %d items in %.3f seconds", results.size(), (System.currentTimeMillis() - startTime) / 1000.0));
+        return results;
+    }
+
+    /**
+     * Reads one page of an application's credential versions, starting after the given key. With an index name the
+     * application index is queried and items come back ordered by name; otherwise the table is scanned. Either way
+     * all versions of a credential are returned next to each other.
+     *
+     * The name prefix of the filter narrows the read itself; environment and component are applied as a filter
+     * expression that keeps items without those attributes, since older credentials may not have them yet.
+     *
+     * @param dynamoDbClient    DynamoDB client for the account and region
+     * @param tableName         Credential table
+     * @param indexName         Nullable  Name of the application index
+     * @param application       Application prefix of the credential names
+     * @param filter            Restrictions on the credentials read
+     * @param exclusiveStartKey Nullable  Key of the item to continue after
+     * @param limit             Maximum number of items to evaluate
+     * @return Items read and the key to continue after them
+     */
+    public ItemPage readApplicationPage(DynamoDbClient dynamoDbClient, String tableName, String indexName, String application,
+                                        CredentialFilter filter, Map<String, AttributeValue> exclusiveStartKey, int limit) {
+        String prefix = filter.getNamePrefix() != null && !filter.getNamePrefix().isEmpty() ? filter.getNamePrefix() : application + ".";
+        Map<String, String> ean = new HashMap<>();
+        StringJoiner projection = new StringJoiner(", ");
+        for (String attribute : LIST_ATTRIBUTES) {
+            ean.put("#" + attribute, attribute);
+            projection.add("#" + attribute);
+        }
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":prefix", AttributeValue.builder().s(prefix).build());
+        StringJoiner filterExpression = new StringJoiner(" AND ");
+        if (filter.getEnvironment() != null && !filter.getEnvironment().isEmpty()) {
+            filterExpression.add("(attribute_not_exists(#sdlc) OR #sdlc = :sdlc)");
+            eav.put(":sdlc", AttributeValue.builder().s(filter.getEnvironment()).build());
+        }
+        if (filter.getComponent() != null && !filter.getComponent().isEmpty()) {
+            filterExpression.add("(attribute_not_exists(#component) OR #component = :component)");
+            eav.put(":component", AttributeValue.builder().s(filter.getComponent()).build());
+        }
+
+        try {
+            if (indexName != null) {
+                ean.put("#application", APPLICATION);
+                eav.put(":application", AttributeValue.builder().s(application).build());
+                QueryResponse response = dynamoDbClient.query(QueryRequest.builder()
+                        .tableName(tableName)
+                        .indexName(indexName)
+                        .keyConditionExpression("#application = :application AND begins_with(#name, :prefix)")
+                        .filterExpression(filterExpression.length() > 0 ? filterExpression.toString() : null)
+                        .projectionExpression(projection.toString())
+                        .expressionAttributeNames(ean)
+                        .expressionAttributeValues(eav)
+                        .exclusiveStartKey(exclusiveStartKey)
+                        .limit(limit)
+                        .build());
+                return new ItemPage(response.items(), response.lastEvaluatedKey());
+            }
+            filterExpression.add("begins_with(#name, :prefix)");
+            ScanResponse response = dynamoDbClient.scan(ScanRequest.builder()
+                    .tableName(tableName)
+                    .filterExpression(filterExpression.toString())
+                    .projectionExpression(projection.toString())
+                    .expressionAttributeNames(ean)
+                    .expressionAttributeValues(eav)
+                    .exclusiveStartKey(exclusiveStartKey)
+                    .limit(limit)
+                    .build());
+            return new ItemPage(response.items(), response.lastEvaluatedKey());
+        } catch (ResourceNotFoundException rnf) {
+            String message = "Credential table not found!";
+            logger.error(message, rnf);
+            throw new FideliusException(message, HttpStatus.NOT_FOUND);
+        } catch (ProvisionedThroughputExceededException pte) {
+            logger.error("Throttling rate exceeded!", pte);
+            throw new FideliusException("Throttling rate exceeded!", HttpStatus.REQUEST_TIMEOUT);
+        }
+    }
+
+    /**
+     * Writes the "application" attribute on credential items created before it existed, so they show up in the
+     * application index. Metadata items are skipped. Items that already have the attribute are filtered out,
+     * so the backfill can be stopped and re-run at any time.
+     *
+     * @param dynamoDbClient DynamoDB client for the account and region
+     * @param tableName      Credential table
+     * @return Number of items updated
+     */
+    public int backfillApplicationAttribute(DynamoDbClient dynamoDbClient, String tableName) {
+        logger.info("Backfilling application attribute on table " + tableName + "...");
+        long startTime = System.currentTimeMillis();
+        ScanOptions options = defaultScanOptions(tableName)
+                .setProjectionExpression("#name, #version")
+                .setFilterExpression("attribute_not_exists(#application) AND NOT begins_with(#name, :metadata)")
+                .putExpressionAttributeName("#name", "name")
+                .putExpressionAttributeName("#version", "version")
+                .putExpressionAttributeName("#application", APPLICATION)
+                .putExpressionAttributeValue(":metadata", AttributeValue.builder().s("META#").build());
+
+        AtomicInteger updated = new AtomicInteger();
+        parallelScan(dynamoDbClient, options, item -> {
+            if (setApplicationAttribute(dynamoDbClient, tableName, item)) {
+                updated.incrementAndGet();
+            }
+        });
+
+        logger.info(String.format("Backfilled %d items in %.3f seconds", updated.get(), (System.currentTimeMillis() - startTime) / 1000.0));
+        return updated.get();
+    }
+
+    /**
+     * Scan options for table-wide jobs, using fidelius.scan.segments, fidelius.scan.maxWorkers and
+     * fidelius.scan.readCapacityPerSecond when they are set.
+     */
+    public ScanOptions defaultScanOptions(String tableName) {
+        ScanOptions options = new ScanOptions(tableName);
+        if (scanSegments > 0) {
+            options.setTotalSegments(scanSegments);
+        }
+        if (scanMaxWorkers > 0) {
+            options.setMaxWorkers(scanMaxWorkers);
+        }
+        if (scanReadCapacityPerSecond > 0) {
+            options.setReadCapacityPerSecond(scanReadCapacityPerSecond);
+        }
+        return options;
+    }
+
+    /**
+     * Reads the whole table with a parallel scan: the table is split into segments that are scanned concurrently
+     * by a bounded pool of workers, and every returned item is handed to the consumer on the calling thread.
+     * Workers stop reading ahead once {@link ScanOptions#getBufferedPages()} pages are waiting, so heap use stays
+     * flat however large the table is, and together they consume no more than the configured read capacity.
+     *
+     * A failure in any segment or in the consumer stops the whole scan.
+     *
+     * @param dynamoDbClient DynamoDB client for the account and region
+     * @param options        Table, filter, projection, parallelism and read capacity budget
+     * @param consumer       Called once per item, never concurrently
+     * @return Number of items passed to the consumer
+     */
+    public long parallelScan(DynamoDbClient dynamoDbClient, ScanOptions options, Consumer<Map<String, AttributeValue>> consumer) {
+        int segments = options.getTotalSegments();
+        RateLimiter budget = options.getReadCapacityPerSecond() > 0 ? RateLimiter.create(options.getReadCapacityPerSecond()) : null;
+        BlockingQueue<List<Map<String, AttributeValue>>> pages = new ArrayBlockingQueue<>(options.getBufferedPages());
+        DoubleAdder consumedCapacity = new DoubleAdder();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(segments, options.getMaxWorkers()), runnable -> {
+            Thread thread = new Thread(runnable, "fidelius-scan-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long startTime = System.currentTimeMillis();
+        long delivered = 0;
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int segment = 0; segment < segments; segment++) {
+                int current = segment;
+                results.add(workers.submit(() -> {
+                    scanSegment(dynamoDbClient, options, current, pages, budget, consumedCapacity);
+                    return null;
+                }));
+            }
+            workers.shutdown();
+
+            while (true) {
+                List<Map<String, AttributeValue>> page = pages.poll(100, TimeUnit.MILLISECONDS);
+                if (page == null) {
+                    if (!allDone(results)) {
+                        continue;
+                    }
+                    // a worker may have queued its last page after the poll above timed out
+                    page = pages.poll();
+                    if (page == null) {
+                        break;
+                    }
+                }
+                for (Map<String, AttributeValue> item : page) {
+                    consumer.accept(item);
+                    delivered++;
+                }
+                // surfaces a failed segment without waiting for the others to finish
+                allDone(results);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FideliusException("Scan of " + options.getTableName() + " was interrupted", HttpStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        logger.info(String.format("Parallel scan of %s returned %d items using %.1f read capacity units in %.3f seconds",
+                options.getTableName(), delivered, consumedCapacity.sum(), (System.currentTimeMillis() - startTime) / 1000.0));
+        return delivered;
+    }
+
+    private void scanSegment(DynamoDbClient dynamoDbClient, ScanOptions options, int segment,
+                             BlockingQueue<List<Map<String, AttributeValue>>> pages, RateLimiter budget,
+                             DoubleAdder consumedCapacity) throws InterruptedException {
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            ScanResponse response = dynamoDbClient.scan(options.toRequest(segment, lastEvaluatedKey));
+            if (!response.items().isEmpty()) {
+                pages.put(response.items());
+            }
+            if (response.consumedCapacity() != null && response.consumedCapacity().capacityUnits() != null) {
+                double units = response.consumedCapacity().capacityUnits();
+                consumedCapacity.add(units);
+                if (budget != null) {
+                    // pays for the page just read before the next request is sent
+                    budget.acquire(Math.max(1, (int) Math.ceil(units)));
+                }
+            }
+            lastEvaluatedKey = response.lastEvaluatedKey();
+        } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+    }
+
+    private boolean allDone(List<Future<?>> results) throws InterruptedException {
+        boolean done = true;
+        for (Future<?> result : results) {
+            if (!result.isDone()) {
+                done = false;
+                continue;
+            }
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ResourceNotFoundException) {
+                    String message = "Credential table not found!";
+                    logger.error(message, cause);
+                    throw new FideliusException(message, HttpStatus.NOT_FOUND);
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new FideliusException(cause.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+        return done;
+    }
+
+    private boolean setApplicationAttribute(DynamoDbClient dynamoDbClient, String tableName, Map<String, AttributeValue> item) {
+        String name = item.get("name").s();
+        String application = CredModelMapper.applicationOf(name);
+        if (application == null) {
+            logger.warn("Skipping " + name + ": no application prefix");
+            return false;
+        }
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("name", item.get("name"));
+        key.put("version", item.get("version"));
+        Map<String, String> ean = new HashMap<>();
+        ean.put("#name", "name");
+        ean.put("#application", APPLICATION);
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":application", AttributeValue.builder().s(application).build());
+        try {
+            dynamoDbClient.updateItem(UpdateItemRequest.builder()
+                    .tableName(tableName)
+                    .key(key)
+                    .updateExpression("SET #application = :application")
+                    // never recreate a version that was deleted after the scan read it
+                    .conditionExpression("attribute_exists(#name)")
+                    .expressionAttributeNames(ean)
+                    .expressionAttributeValues(eav)
+                    .build());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
 }
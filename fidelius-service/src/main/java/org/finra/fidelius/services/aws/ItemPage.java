@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.finra.fidelius.services.aws;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Items returned by one Query or Scan request, and the key to continue after them.
+ */
+public class ItemPage {
+
+    private final List<Map<String, AttributeValue>> items;
+    private final Map<String, AttributeValue> lastEvaluatedKey;
+
+    public ItemPage(List<Map<String, AttributeValue>> items, Map<String, AttributeValue> lastEvaluatedKey) {
+        this.items = items;
+        this.lastEvaluatedKey = lastEvaluatedKey;
+    }
+
+    public List<Map<String, AttributeValue>> getItems() {
+        return items;
+    }
+
+    /**
+     * @return Key of the last item read, or null when there is nothing left to read
+     */
+    public Map<String, AttributeValue> getLastEvaluatedKey() {
+        return lastEvaluatedKey == null || lastEvaluatedKey.isEmpty() ? null : lastEvaluatedKey;
+    }
+}
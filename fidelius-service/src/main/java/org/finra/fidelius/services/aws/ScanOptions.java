@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.finra.fidelius.services.aws;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings for {@link DynamoDBService#parallelScan}: what to read and how hard to hit the table while doing it.
+ */
+public class ScanOptions {
+
+    private final String tableName;
+    private String filterExpression;
+    private String projectionExpression;
+    private Map<String, String> expressionAttributeNames = new HashMap<>();
+    private Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+    private int totalSegments = 4;
+    private int maxWorkers = 4;
+    private double readCapacityPerSecond;
+    private Integer pageSize;
+    private int bufferedPages = 8;
+
+    public ScanOptions(String tableName) {
+        if (tableName == null || tableName.isEmpty()) {
+            throw new IllegalArgumentException("tableName is required");
+        }
+        this.tableName = tableName;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getFilterExpression() {
+        return filterExpression;
+    }
+
+    /**
+     * @param filterExpression Nullable condition evaluated by DynamoDB, so non-matching items are never returned
+     */
+    public ScanOptions setFilterExpression(String filterExpression) {
+        this.filterExpression = filterExpression;
+        return this;
+    }
+
+    public String getProjectionExpression() {
+        return projectionExpression;
+    }
+
+    /**
+     * @param projectionExpression Nullable list of attributes to return; all attributes when null
+     */
+    public ScanOptions setProjectionExpression(String projectionExpression) {
+        this.projectionExpression = projectionExpression;
+        return this;
+    }
+
+    public Map<String, String> getExpressionAttributeNames() {
+        return Collections.unmodifiableMap(expressionAttributeNames);
+    }
+
+    public ScanOptions putExpressionAttributeName(String placeholder, String attributeName) {
+        expressionAttributeNames.put(placeholder, attributeName);
+        return this;
+    }
+
+    public Map<String, AttributeValue> getExpressionAttributeValues() {
+        return Collections.unmodifiableMap(expressionAttributeValues);
+    }
+
+    public ScanOptions putExpressionAttributeValue(String placeholder, AttributeValue value) {
+        expressionAttributeValues.put(placeholder, value);
+        return this;
+    }
+
+    public int getTotalSegments() {
+        return totalSegments;
+    }
+
+    /**
+     * @param totalSegments Number of segments the table is split into, each scanned independently
+     */
+    public ScanOptions setTotalSegments(int totalSegments) {
+        if (totalSegments < 1 || totalSegments > 1000000) {
+            throw new IllegalArgumentException("totalSegments must be between 1 and 1000000");
+        }
+        this.totalSegments = totalSegments;
+        return this;
+    }
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    /**
+     * @param maxWorkers Upper bound on threads scanning at the same time; extra segments wait for a free worker
+     */
+    public ScanOptions setMaxWorkers(int maxWorkers) {
+        if (maxWorkers < 1) {
+            throw new IllegalArgumentException("maxWorkers must be positive");
+        }
+        this.maxWorkers = maxWorkers;
+        return this;
+    }
+
+    public double getReadCapacityPerSecond() {
+        return readCapacityPerSecond;
+    }
+
+    /**
+     * @param readCapacityPerSecond Read capacity units all workers together may consume per second; 0 for no limit
+     */
+    public ScanOptions setReadCapacityPerSecond(double readCapacityPerSecond) {
+        if (readCapacityPerSecond < 0) {
+            throw new IllegalArgumentException("readCapacityPerSecond must not be negative");
+        }
+        this.readCapacityPerSecond = readCapacityPerSecond;
+        return this;
+    }
+
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @param pageSize Nullable maximum items evaluated per request; smaller pages spread capacity use more evenly
+     */
+    public ScanOptions setPageSize(Integer pageSize) {
+        if (pageSize != null && pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    public int getBufferedPages() {
+        return bufferedPages;
+    }
+
+    /**
+     * @param bufferedPages Pages read ahead of the consumer; workers wait once this many are queued
+     */
+    public ScanOptions setBufferedPages(int bufferedPages) {
+        if (bufferedPages < 1) {
+            throw new IllegalArgumentException("bufferedPages must be positive");
+        }
+        this.bufferedPages = bufferedPages;
+        return this;
+    }
+
+    ScanRequest toRequest(int segment, Map<String, AttributeValue> exclusiveStartKey) {
+        return ScanRequest.builder()
+                .tableName(tableName)
+                .segment(segment)
+                .totalSegments(totalSegments)
+                .filterExpression(filterExpression)
+                .projectionExpression(projectionExpression)
+                .expressionAttributeNames(expressionAttributeNames.isEmpty() ? null : expressionAttributeNames)
+                .expressionAttributeValues(expressionAttributeValues.isEmpty() ? null : expressionAttributeValues)
+                .limit(pageSize)
+                .exclusiveStartKey(exclusiveStartKey)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+    }
+}
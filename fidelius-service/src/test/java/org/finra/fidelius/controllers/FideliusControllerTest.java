@@ -20,6 +20,7 @@ package org.finra.fidelius.controllers;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.finra.fidelius.exceptions.FideliusException;
 import org.finra.fidelius.model.Credential;
+import org.finra.fidelius.model.CredentialPage;
 import org.finra.fidelius.model.HistoryEntry;
 import org.finra.fidelius.model.Metadata;
 import org.finra.fidelius.model.account.Account;
@@ -28,6 +29,7 @@ import org.finra.fidelius.services.MembershipService;
 
 import org.finra.fidelius.services.account.AccountsService;
 import org.hamcrest.Matchers;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -48,6 +50,7 @@ import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilde
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.nullValue;
@@ -223,6 +226,70 @@ public class FideliusControllerTest {
                 .andExpect(jsonPath("$[1].lastUpdatedDate", is("2018-04-04T12:51:37.803Z")));
     }
 
+    @Test
+    @WithMockUser
+    public void getCredentialsPage() throws Exception {
+        Credential fakeData = new Credential("testKey", "APP.dev.testKey", "dev", null,"APP", "dev",
+                null, "Jon Snow", "2018-04-04T12:51:37.803Z");
+
+        when(credentialsService.getCredentialsPage(eq("dev"), eq("us-east-1"), eq("APP"), any(), eq("abc"), eq(50)))
+                .thenReturn(new CredentialPage(Arrays.asList(fakeData), "def"));
+        mockMvc.perform(get("/credentials/page")
+                        .param("account", "dev")
+                        .param("region", "us-east-1")
+                        .param("application", "APP")
+                        .param("cursor", "abc")
+                        .param("pageSize", "50")
+                        .param("environment", "dev"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("credentials", hasSize(1)))
+                .andExpect(jsonPath("credentials[0].longKey", is("APP.dev.testKey")))
+                .andExpect(jsonPath("nextCursor", is("def")));
+    }
+
+    @Test
+    @WithMockUser
+    @SuppressWarnings("unchecked")
+    public void streamCredentialsWritesOneCredentialPerLine() throws Exception {
+        Credential first = new Credential("testKey", "APP.dev.testKey", "dev", null,"APP", "dev",
+                null, "Jon Snow", "2018-04-04T12:51:37.803Z");
+        Credential second = new Credential("testKey2", "APP.dev.testKey2", "dev", null,"APP", "dev",
+                null, "Ned Stark", "2018-04-04T12:51:37.803Z");
+
+        when(credentialsService.streamCredentials(eq("dev"), eq("us-east-1"), eq("APP"), any(), any())).thenAnswer(invocation -> {
+            Consumer<List<Credential>> pages = invocation.getArgument(4);
+            pages.accept(Arrays.asList(first));
+            pages.accept(Arrays.asList(second));
+            return 2;
+        });
+        String body = mockMvc.perform(get("/credentials/stream")
+                        .param("account", "dev")
+                        .param("region", "us-east-1")
+                        .param("application", "APP"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertEquals("APP.dev.testKey", objectMapper.readValue(lines[0], Credential.class).getLongKey());
+        Assert.assertEquals("APP.dev.testKey2", objectMapper.readValue(lines[1], Credential.class).getLongKey());
+    }
+
+    @Test
+    @WithMockUser
+    public void streamCredentialsReportsErrorsBeforeTheFirstPage() throws Exception {
+        when(credentialsService.streamCredentials(any(), any(), any(), any(), any()))
+                .thenThrow(new FideliusException("namePrefix must start with APP.", HttpStatus.BAD_REQUEST));
+        mockMvc.perform(get("/credentials/stream")
+                        .param("account", "dev")
+                        .param("region", "us-east-1")
+                        .param("application", "APP")
+                        .param("namePrefix", "OTHER."))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("message", is("namePrefix must start with APP.")));
+    }
+
     @Test
     @WithMockUser
     public void getCredential() throws Exception {
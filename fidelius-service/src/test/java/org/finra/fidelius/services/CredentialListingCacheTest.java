@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.finra.fidelius.services;
+
+import org.finra.fidelius.model.Credential;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CredentialListingCacheTest {
+
+    private final CredentialListingCache cache = new CredentialListingCache();
+
+    private List<Credential> listing(String shortKey) {
+        return Collections.singletonList(new Credential(shortKey, "APP.dev." + shortKey, "dev", "us-east-1", "APP", "dev",
+                null, "Jon Snow", "2018-04-04T12:51:37.803Z"));
+    }
+
+    @Test
+    public void listingIsLoadedOnceUntilTheApplicationIsInvalidated() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("dev", "us-east-1", "APP", () -> { loads.incrementAndGet(); return listing("one"); });
+        List<Credential> cached = cache.get("dev", "us-east-1", "APP", () -> { loads.incrementAndGet(); return listing("two"); });
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals("one", cached.get(0).getShortKey());
+
+        cache.invalidate("dev", "us-east-1", "app");
+        List<Credential> reloaded = cache.get("dev", "us-east-1", "APP", () -> { loads.incrementAndGet(); return listing("two"); });
+        Assert.assertEquals(2, loads.get());
+        Assert.assertEquals("two", reloaded.get(0).getShortKey());
+    }
+
+    @Test
+    public void invalidationOnlyAffectsTheGivenEnvironment() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("dev", "us-east-1", "APP", () -> { loads.incrementAndGet(); return listing("one"); });
+        cache.get("prod", "us-east-1", "APP", () -> { loads.incrementAndGet(); return listing("one"); });
+
+        cache.invalidate("dev", "us-east-1", null);
+        cache.get("dev", "us-east-1", "APP", () -> { loads.incrementAndGet(); return listing("one"); });
+        cache.get("prod", "us-east-1", "APP", () -> { loads.incrementAndGet(); return listing("one"); });
+
+        Assert.assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void listingLoadedDuringAWriteIsNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("dev", "us-east-1", "APP", () -> {
+            loads.incrementAndGet();
+            // another request writes a credential of the same application while the listing is read
+            cache.invalidate("dev", "us-east-1", "APP");
+            return listing("one");
+        });
+        List<Credential> next = cache.get("dev", "us-east-1", "APP", () -> { loads.incrementAndGet(); return listing("two"); });
+
+        Assert.assertEquals(2, loads.get());
+        Assert.assertEquals("two", next.get(0).getShortKey());
+    }
+
+    @Test
+    public void writeToAnotherApplicationDoesNotStopAListingBeingCached() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("dev", "us-east-1", "APP", () -> {
+            loads.incrementAndGet();
+            cache.invalidate("dev", "us-east-1", "OTHER");
+            cache.invalidate("prod", "us-east-1", null);
+            return listing("one");
+        });
+        cache.get("dev", "us-east-1", "APP", () -> { loads.incrementAndGet(); return listing("two"); });
+        Assert.assertEquals(1, loads.get());
+
+        cache.get("dev", "us-east-1", "OTHER", () -> {
+            loads.incrementAndGet();
+            // a change seen on the stream whose application is unknown affects every listing of the environment
+            cache.invalidate("dev", "US-EAST-1", null);
+            return listing("one");
+        });
+        cache.get("dev", "us-east-1", "OTHER", () -> { loads.incrementAndGet(); return listing("two"); });
+        Assert.assertEquals(3, loads.get());
+    }
+}
@@ -21,6 +21,8 @@ import org.finra.fidelius.FideliusClient;
 import org.finra.fidelius.authfilter.parser.FideliusUserProfile;
 import org.finra.fidelius.exceptions.FideliusException;
 import org.finra.fidelius.model.Credential;
+import org.finra.fidelius.model.CredentialFilter;
+import org.finra.fidelius.model.CredentialPage;
 import org.finra.fidelius.model.HistoryEntry;
 import org.finra.fidelius.model.Metadata;
 import org.finra.fidelius.model.MetadataTest;
@@ -29,6 +31,7 @@ import org.finra.fidelius.model.db.DBCredential;
 import org.finra.fidelius.services.auth.FideliusRoleService;
 import org.finra.fidelius.services.aws.AWSSessionService;
 import org.finra.fidelius.services.aws.DynamoDBService;
+import org.finra.fidelius.services.aws.ItemPage;
 import org.finra.fidelius.services.user.model.FideliusUserEntry;
 import org.junit.Before;
 import org.junit.Test;
@@ -45,10 +48,10 @@ import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.kms.KmsClient;
 
 import javax.inject.Inject;
 import java.util.*;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.*;
 
@@ -75,6 +78,12 @@ public class CredentialsServiceTest {
     @Mock
     private AWSSessionService awsSessionService;
 
+    @Mock
+    private FideliusClientRegistry fideliusClientRegistry;
+
+    @Mock
+    private CredentialListingCache credentialListingCache;
+
     @Mock
     private FideliusClient fideliusClient;
 
@@ -86,7 +95,9 @@ public class CredentialsServiceTest {
         MockitoAnnotations.initMocks(this);
         when(fideliusService.getCredential(anyString(), anyString(), anyString(), anyString(), isNull(Integer.class), any(), anyString())).thenReturn("Secret");
         when(awsSessionService.getDynamoDBClient(any())).thenReturn(DynamoDbClient.builder().build());
-        when(awsSessionService.getCachedKmsClient(any())).thenReturn(KmsClient.builder().build());
+        when(fideliusClientRegistry.lease(any())).thenAnswer(invocation -> new FideliusClientRegistry.Lease(fideliusService, () -> { }));
+        lenient().when(credentialListingCache.get(any(), any(), any(), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<List<Credential>>>getArgument(3).get());
         FideliusUserEntry profile = new FideliusUserEntry("name", "test", "email@email.com", "John Johnson");
         when(fideliusRoleService.getUserProfile()).thenReturn(profile);
         ReflectionTestUtils.setField(credentialsService, "clientId", Optional.of("service_account"));
@@ -128,6 +139,117 @@ public class CredentialsServiceTest {
         assertEquals(expectedCreds, credentialsService.getAllCredentials("table", "some-account", "region", "APP"));
     }
 
+    @Test
+    public void getAllCredentialsShouldQueryApplicationIndexWhenConfigured() {
+        ReflectionTestUtils.setField(credentialsService, "applicationIndex", Optional.of("application-index"));
+
+        Map<String, AttributeValue> version1 = new HashMap<>();
+        version1.put(CredentialsService.NAME, AttributeValue.builder().s("APP.dev.testKey").build());
+        version1.put(CredentialsService.SDLC, AttributeValue.builder().s("dev").build());
+        version1.put(CredentialsService.VERSION, AttributeValue.builder().s("0001").build());
+        version1.put(CredentialsService.UPDATED_BY, AttributeValue.builder().s("Jon Snow").build());
+        version1.put(CredentialsService.UPDATED_ON, AttributeValue.builder().s("2018-04-04T12:51:37.803Z").build());
+        Map<String, AttributeValue> version2 = new HashMap<>(version1);
+        version2.put(CredentialsService.VERSION, AttributeValue.builder().s("0002").build());
+        version2.put(CredentialsService.UPDATED_BY, AttributeValue.builder().s("Ned Stark").build());
+
+        when(dynamoDBService.queryApplicationIndex(any(), eq("table"), eq("application-index"), eq("APP")))
+                .thenReturn(Arrays.asList(version1, version2));
+
+        List<Credential> expectedCreds = Collections.singletonList(new Credential("testKey", "APP.dev.testKey", "some-account",
+                "region", "APP", "dev", null, "Ned Stark", "2018-04-04T12:51:37.803Z"));
+
+        assertEquals(expectedCreds, credentialsService.getAllCredentials("table", "some-account", "region", "APP"));
+        verify(dynamoDBService, never()).scanDynamoDB(any(), any(), any());
+    }
+
+    private Map<String, AttributeValue> credentialVersion(String name, String version, String updatedBy) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(CredentialsService.NAME, AttributeValue.builder().s(name).build());
+        item.put(CredentialsService.SDLC, AttributeValue.builder().s("dev").build());
+        item.put(CredentialsService.VERSION, AttributeValue.builder().s(version).build());
+        item.put(CredentialsService.UPDATED_BY, AttributeValue.builder().s(updatedBy).build());
+        item.put(CredentialsService.UPDATED_ON, AttributeValue.builder().s("2018-04-04T12:51:37.803Z").build());
+        return item;
+    }
+
+    @Test
+    public void getCredentialsPageShouldNotSplitVersionsOfACredentialAcrossPages() {
+        ReflectionTestUtils.setField(credentialsService, "tableName", "table");
+        ReflectionTestUtils.setField(credentialsService, "applicationIndex", Optional.of("application-index"));
+        CredentialFilter filter = new CredentialFilter();
+        Map<String, AttributeValue> a1 = credentialVersion("APP.dev.a", "0001", "Jon Snow");
+        Map<String, AttributeValue> a2 = credentialVersion("APP.dev.a", "0002", "Ned Stark");
+        Map<String, AttributeValue> b1 = credentialVersion("APP.dev.b", "0001", "Jon Snow");
+        Map<String, AttributeValue> afterA1 = new HashMap<>();
+        afterA1.put(CredentialsService.NAME, a1.get(CredentialsService.NAME));
+        afterA1.put(CredentialsService.VERSION, a1.get(CredentialsService.VERSION));
+        afterA1.put("application", AttributeValue.builder().s("APP").build());
+        Map<String, AttributeValue> afterA2 = new HashMap<>(afterA1);
+        afterA2.put(CredentialsService.VERSION, a2.get(CredentialsService.VERSION));
+
+        when(dynamoDBService.readApplicationPage(any(), eq("table"), eq("application-index"), eq("APP"), eq(filter), isNull(), anyInt()))
+                .thenReturn(new ItemPage(Collections.singletonList(a1), afterA1));
+        when(dynamoDBService.readApplicationPage(any(), eq("table"), eq("application-index"), eq("APP"), eq(filter), eq(afterA1), anyInt()))
+                .thenReturn(new ItemPage(Arrays.asList(a2, b1), null));
+        when(dynamoDBService.readApplicationPage(any(), eq("table"), eq("application-index"), eq("APP"), eq(filter), eq(afterA2), anyInt()))
+                .thenReturn(new ItemPage(Collections.singletonList(b1), null));
+
+        CredentialPage first = credentialsService.getCredentialsPage("some-account", "region", "APP", filter, null, 1);
+        assertEquals(Collections.singletonList(new Credential("a", "APP.dev.a", "some-account", "region", "APP", "dev",
+                null, "Ned Stark", "2018-04-04T12:51:37.803Z")), first.getCredentials());
+        assertNotNull(first.getNextCursor());
+
+        CredentialPage second = credentialsService.getCredentialsPage("some-account", "region", "APP", filter, first.getNextCursor(), 1);
+        assertEquals(Collections.singletonList(new Credential("b", "APP.dev.b", "some-account", "region", "APP", "dev",
+                null, "Jon Snow", "2018-04-04T12:51:37.803Z")), second.getCredentials());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    public void getCredentialsPageShouldFilterOnTheLatestVersion() {
+        ReflectionTestUtils.setField(credentialsService, "tableName", "table");
+        CredentialFilter filter = new CredentialFilter(null, null, "Jon Snow", null);
+        when(dynamoDBService.readApplicationPage(any(), eq("table"), isNull(), eq("APP"), eq(filter), isNull(), anyInt()))
+                .thenReturn(new ItemPage(Arrays.asList(
+                        credentialVersion("APP.dev.a", "0001", "Jon Snow"),
+                        credentialVersion("APP.dev.a", "0002", "Ned Stark"),
+                        credentialVersion("APP.dev.b", "0001", "Jon Snow")), null));
+
+        CredentialPage page = credentialsService.getCredentialsPage("some-account", "region", "APP", filter, null, 10);
+
+        assertEquals(1, page.getCredentials().size());
+        assertEquals("APP.dev.b", page.getCredentials().get(0).getLongKey());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void streamCredentialsShouldHandOverEveryPage() {
+        ReflectionTestUtils.setField(credentialsService, "tableName", "table");
+        CredentialFilter filter = new CredentialFilter();
+        when(dynamoDBService.readApplicationPage(any(), eq("table"), isNull(), eq("APP"), eq(filter), isNull(), anyInt()))
+                .thenReturn(new ItemPage(Arrays.asList(
+                        credentialVersion("APP.dev.a", "0001", "Jon Snow"),
+                        credentialVersion("APP.dev.b", "0001", "Jon Snow")), null));
+        List<Credential> streamed = new ArrayList<>();
+
+        int count = credentialsService.streamCredentials("some-account", "region", "APP", filter, streamed::addAll);
+
+        assertEquals(2, count);
+        assertEquals(2, streamed.size());
+    }
+
+    @Test(expected = FideliusException.class)
+    public void getCredentialsPageShouldRejectACursorOfAnotherApplication() {
+        String cursor = Base64.getUrlEncoder().encodeToString("{\"name\":\"OTHER.dev.a\",\"version\":\"0001\"}".getBytes());
+        credentialsService.getCredentialsPage("some-account", "region", "APP", new CredentialFilter(), cursor, 10);
+    }
+
+    @Test(expected = FideliusException.class)
+    public void getCredentialsPageShouldRejectAnOversizedPage() {
+        credentialsService.getCredentialsPage("some-account", "region", "APP", new CredentialFilter(), null, CredentialsService.MAX_PAGE_SIZE + 1);
+    }
+
     @Test
     public void getAllCredentialsShouldBeAbleToHandleLegacyCredentialEntries() {
         List<Map<String, AttributeValue>> fakeData = new ArrayList<>();
@@ -558,6 +680,7 @@ public class CredentialsServiceTest {
         Credential actual = credentialsService.putCredential(credential);
 
         assertEquals(credential, actual);
+        verify(credentialListingCache).invalidate("dev", "us-east-1", "membership");
     }
 
     @Test
@@ -635,6 +758,7 @@ public class CredentialsServiceTest {
         Credential actual = credentialsService.deleteCredential(credential);
 
         assertEquals(credential, actual);
+        verify(credentialListingCache).invalidate("dev", "us-east-1", "membership");
     }
 
     @Test
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.finra.fidelius.services;
+
+import org.finra.fidelius.model.aws.AWSEnvironment;
+import org.finra.fidelius.services.aws.AWSSessionService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.kms.KmsClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FideliusClientRegistryTest {
+
+    @InjectMocks
+    private FideliusClientRegistry fideliusClientRegistry;
+
+    @Mock
+    private AWSSessionService awsSessionService;
+
+    private FideliusService template;
+
+    private final AWSEnvironment dev = new AWSEnvironment("dev", "us-east-1");
+    private final AWSEnvironment prod = new AWSEnvironment("prod", "us-west-2");
+
+    @Before
+    public void setUp() {
+        template = new FideliusService("us-east-1");
+        ReflectionTestUtils.setField(fideliusClientRegistry, "fideliusService", template);
+    }
+
+    private FideliusService lease(AWSEnvironment environment) {
+        try (FideliusClientRegistry.Lease lease = fideliusClientRegistry.lease(environment)) {
+            return lease.getService();
+        }
+    }
+
+    @Test
+    public void instancesAreReusedPerEnvironmentAndNeverShared() {
+        when(awsSessionService.getDynamoDBClient(dev)).thenReturn(mock(DynamoDbClient.class));
+        when(awsSessionService.getCachedKmsClient(dev)).thenReturn(mock(KmsClient.class));
+        when(awsSessionService.getDynamoDBClient(prod)).thenReturn(mock(DynamoDbClient.class));
+        when(awsSessionService.getCachedKmsClient(prod)).thenReturn(mock(KmsClient.class));
+
+        FideliusService devService = lease(dev);
+
+        Assert.assertSame(devService, lease(new AWSEnvironment("dev", "us-east-1")));
+        Assert.assertNotSame(devService, lease(prod));
+        Assert.assertNotSame(template, devService);
+    }
+
+    @Test
+    public void replacedInstanceShutsDownOnlyAfterItsLastLeaseIsClosed() {
+        KmsClient refreshed = mock(KmsClient.class);
+        when(awsSessionService.getDynamoDBClient(dev)).thenReturn(mock(DynamoDbClient.class));
+        when(awsSessionService.getCachedKmsClient(dev)).thenReturn(mock(KmsClient.class), refreshed);
+
+        FideliusClientRegistry.Lease running = fideliusClientRegistry.lease(dev);
+        FideliusService before = running.getService();
+        Object beforeJCredStash = ReflectionTestUtils.getField(before, "jCredStash");
+        FideliusService after = lease(dev);
+
+        Assert.assertNotSame(before, after);
+        Assert.assertSame(beforeJCredStash, ReflectionTestUtils.getField(before, "jCredStash"));
+        Assert.assertSame(refreshed, ReflectionTestUtils.getField(ReflectionTestUtils.getField(after, "jCredStash"), "kmsClient"));
+        Assert.assertEquals(false, ReflectionTestUtils.getField(beforeJCredStash, "shutDown"));
+
+        running.close();
+        Assert.assertEquals(true, ReflectionTestUtils.getField(beforeJCredStash, "shutDown"));
+        Assert.assertEquals(false, ReflectionTestUtils.getField(ReflectionTestUtils.getField(after, "jCredStash"), "shutDown"));
+    }
+
+    @Test
+    public void concurrentLookupsForOneEnvironmentGetTheSameInstance() throws Exception {
+        when(awsSessionService.getDynamoDBClient(any())).thenReturn(mock(DynamoDbClient.class));
+        when(awsSessionService.getCachedKmsClient(any())).thenReturn(mock(KmsClient.class));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<FideliusService>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return lease(new AWSEnvironment("dev", "us-east-1"));
+                }));
+            }
+            start.countDown();
+
+            Set<FideliusService> distinct = ConcurrentHashMap.newKeySet();
+            for (Future<FideliusService> result : results) {
+                distinct.add(result.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, distinct.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -29,11 +29,6 @@ public class FideliusServiceTest {
     public void setUp() throws Exception {
     }
 
-    @Test
-    public void setFideliusClient() throws Exception {
-
-    }
-
     @Test
     public void getCredential() throws Exception {
 
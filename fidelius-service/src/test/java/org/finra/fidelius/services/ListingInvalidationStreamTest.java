@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2019. Fidelius Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.finra.fidelius.services;
+
+import org.finra.fidelius.model.aws.AWSEnvironment;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ListingInvalidationStreamTest {
+
+    @Test
+    public void closedStreamIsNotReadAgain() {
+        DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+        DynamoDbStreamsClient streamsClient = mock(DynamoDbStreamsClient.class);
+        when(dynamoDbClient.describeTable(any(DescribeTableRequest.class))).thenReturn(DescribeTableResponse.builder()
+                .table(TableDescription.builder()
+                        .streamSpecification(StreamSpecification.builder().streamEnabled(true).build())
+                        .latestStreamArn("arn:aws:dynamodb:us-east-1:123456789012:table/credential-store/stream/1")
+                        .build())
+                .build());
+        when(streamsClient.describeStream(any(DescribeStreamRequest.class))).thenReturn(DescribeStreamResponse.builder()
+                .streamDescription(StreamDescription.builder()
+                        .shards(Shard.builder().shardId("shard-1").build())
+                        .build())
+                .build());
+        when(streamsClient.getShardIterator(any(GetShardIteratorRequest.class)))
+                .thenReturn(GetShardIteratorResponse.builder().shardIterator("iterator").build());
+        when(streamsClient.getRecords(any(GetRecordsRequest.class)))
+                .thenReturn(GetRecordsResponse.builder().nextShardIterator("iterator").build());
+
+        ListingInvalidationStream stream = new ListingInvalidationStream("credential-store",
+                new AWSEnvironment("dev", "us-east-1"), dynamoDbClient, streamsClient, application -> { });
+        stream.start();
+        stream.poll();
+        verify(streamsClient, times(1)).getRecords(any(GetRecordsRequest.class));
+
+        stream.close();
+        stream.poll();
+        stream.start();
+        verify(streamsClient, times(1)).getRecords(any(GetRecordsRequest.class));
+        verify(dynamoDbClient, times(1)).describeTable(any(DescribeTableRequest.class));
+    }
+}
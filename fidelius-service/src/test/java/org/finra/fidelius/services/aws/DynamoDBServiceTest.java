@@ -18,21 +18,25 @@
 package org.finra.fidelius.services.aws;
 
 import org.finra.fidelius.exceptions.FideliusException;
+import org.finra.fidelius.model.CredentialFilter;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
-import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
-import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.*;
 
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
 public class DynamoDBServiceTest {
@@ -61,4 +65,132 @@ public class DynamoDBServiceTest {
         dynamoDBService.queryDynamoDB(QueryRequest.builder().build(), dynamoDbClient);
     }
 
+    @Test
+    public void queryApplicationIndexReadsEveryPageWithListAttributesOnly() {
+        Map<String, AttributeValue> first = item("APP.dev.one", "0000000000000000001");
+        Map<String, AttributeValue> second = item("APP.dev.two", "0000000000000000001");
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenReturn(
+                QueryResponse.builder().items(first).lastEvaluatedKey(first).build(),
+                QueryResponse.builder().items(second).build());
+
+        List<Map<String, AttributeValue>> results = dynamoDBService.queryApplicationIndex(dynamoDbClient, "table", "application-index", "APP");
+
+        Assert.assertEquals(Arrays.asList(first, second), results);
+        ArgumentCaptor<QueryRequest> captor = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(dynamoDbClient, times(2)).query(captor.capture());
+        QueryRequest request = captor.getAllValues().get(1);
+        Assert.assertEquals("application-index", request.indexName());
+        Assert.assertEquals("APP", request.expressionAttributeValues().get(":application").s());
+        Assert.assertEquals(first, request.exclusiveStartKey());
+        Assert.assertFalse(request.projectionExpression().contains("contents"));
+        Assert.assertEquals(DynamoDBService.LIST_ATTRIBUTES.size(), request.projectionExpression().split(",").length);
+    }
+
+    @Test
+    public void readApplicationPageNarrowsTheIndexQueryToTheNamePrefix() {
+        Map<String, AttributeValue> first = item("APP.dev.one", "0000000000000000001");
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenReturn(QueryResponse.builder().items(first).lastEvaluatedKey(first).build());
+
+        ItemPage page = dynamoDBService.readApplicationPage(dynamoDbClient, "table", "application-index", "APP",
+                new CredentialFilter("dev", null, null, "APP.dev."), null, 40);
+
+        Assert.assertEquals(Collections.singletonList(first), page.getItems());
+        Assert.assertEquals(first, page.getLastEvaluatedKey());
+        ArgumentCaptor<QueryRequest> captor = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(dynamoDbClient).query(captor.capture());
+        QueryRequest request = captor.getValue();
+        Assert.assertEquals("#application = :application AND begins_with(#name, :prefix)", request.keyConditionExpression());
+        Assert.assertEquals("APP.dev.", request.expressionAttributeValues().get(":prefix").s());
+        Assert.assertEquals("dev", request.expressionAttributeValues().get(":sdlc").s());
+        Assert.assertEquals(Integer.valueOf(40), request.limit());
+    }
+
+    @Test
+    public void backfillSetsApplicationOnItemsThatStillExist() {
+        Map<String, AttributeValue> legacy = item("APP.dev.legacy", "0000000000000000001");
+        Map<String, AttributeValue> deleted = item("APP.dev.deleted", "0000000000000000001");
+        when(dynamoDbClient.scan(any(ScanRequest.class))).thenAnswer(invocation -> {
+            ScanRequest request = invocation.getArgument(0);
+            return request.segment() == 0
+                    ? ScanResponse.builder().items(legacy, deleted).build()
+                    : ScanResponse.builder().build();
+        });
+        when(dynamoDbClient.updateItem(any(UpdateItemRequest.class))).thenAnswer(invocation -> {
+            UpdateItemRequest request = invocation.getArgument(0);
+            if (request.key().get("name").s().equals("APP.dev.deleted")) {
+                throw ConditionalCheckFailedException.builder().message("deleted").build();
+            }
+            return UpdateItemResponse.builder().build();
+        });
+
+        Assert.assertEquals(1, dynamoDBService.backfillApplicationAttribute(dynamoDbClient, "table"));
+
+        ArgumentCaptor<UpdateItemRequest> captor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(dynamoDbClient, times(2)).updateItem(captor.capture());
+        UpdateItemRequest update = captor.getAllValues().get(0);
+        Assert.assertEquals(legacy, update.key());
+        Assert.assertEquals("APP", update.expressionAttributeValues().get(":application").s());
+    }
+
+    @Test
+    public void parallelScanDeliversEverySegmentAndPageOnce() {
+        when(dynamoDbClient.scan(any(ScanRequest.class))).thenAnswer(invocation -> {
+            ScanRequest request = invocation.getArgument(0);
+            String segment = String.valueOf(request.segment());
+            if (request.exclusiveStartKey() == null || request.exclusiveStartKey().isEmpty()) {
+                Map<String, AttributeValue> firstPage = item("APP.dev." + segment, "1");
+                return ScanResponse.builder().items(firstPage).lastEvaluatedKey(firstPage).build();
+            }
+            return ScanResponse.builder().items(item("APP.dev." + segment, "2")).build();
+        });
+
+        ScanOptions options = new ScanOptions("table")
+                .setTotalSegments(8)
+                .setMaxWorkers(3)
+                .setBufferedPages(1)
+                .setProjectionExpression("#name, #version")
+                .setFilterExpression("begins_with(#name, :prefix)")
+                .putExpressionAttributeName("#name", "name")
+                .putExpressionAttributeName("#version", "version")
+                .putExpressionAttributeValue(":prefix", AttributeValue.builder().s("APP.").build());
+        List<String> seen = new ArrayList<>();
+        long delivered = dynamoDBService.parallelScan(dynamoDbClient, options,
+                item -> seen.add(item.get("name").s() + "#" + item.get("version").s()));
+
+        Assert.assertEquals(16, delivered);
+        Assert.assertEquals(16, new HashSet<>(seen).size());
+        ArgumentCaptor<ScanRequest> captor = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(dynamoDbClient, times(16)).scan(captor.capture());
+        for (ScanRequest request : captor.getAllValues()) {
+            Assert.assertEquals(Integer.valueOf(8), request.totalSegments());
+            Assert.assertEquals("begins_with(#name, :prefix)", request.filterExpression());
+            Assert.assertEquals("#name, #version", request.projectionExpression());
+            Assert.assertEquals(ReturnConsumedCapacity.TOTAL, request.returnConsumedCapacity());
+        }
+    }
+
+    @Test
+    public void parallelScanStopsWhenASegmentFails() {
+        when(dynamoDbClient.scan(any(ScanRequest.class))).thenAnswer(invocation -> {
+            ScanRequest request = invocation.getArgument(0);
+            if (request.segment() == 1) {
+                throw ResourceNotFoundException.builder().message("missing").build();
+            }
+            return ScanResponse.builder().items(item("APP.dev.key", "1")).build();
+        });
+
+        try {
+            dynamoDBService.parallelScan(dynamoDbClient, new ScanOptions("table").setTotalSegments(2), item -> { });
+            Assert.fail("Expected the failed segment to stop the scan");
+        } catch (FideliusException e) {
+            Assert.assertEquals(HttpStatus.NOT_FOUND, e.getError());
+        }
+    }
+
+    private Map<String, AttributeValue> item(String name, String version) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("name", AttributeValue.builder().s(name).build());
+        item.put("version", AttributeValue.builder().s(version).build());
+        return item;
+    }
 }